@@ -0,0 +1,459 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class bounds the memory taken by the blocks of an IntAdjacency.
+ * Once the resident blocks take more than the budget, cold blocks are written to a SegmentStore,
+ * and replaced by a small placeholder (see IntAdjacency). They are paged back in when they are needed.
+ * Blocks are chosen for eviction by a frequency-aware CLOCK policy.
+ * Every block has a small saturating access counter, that is incremented on every hit.
+ * A clock hand sweeps over all vertices, decrementing the counter of every block it passes,
+ * and evicting the blocks whose counter has dropped to zero.
+ * Frequently used blocks therefore survive several sweeps, while blocks that were used only once
+ * (e.g. during a crawl) are evicted on the next sweep.
+ * A block that was paged in, and has not been changed since, is not written to the store again when it is evicted.
+ * Once a block in the store is no longer referenced (because the vertex was changed), its slot is freed and reused
+ * (see SegmentStore). While blocks are captured (see IntAdjacency.blocks(int)), freed slots are set aside rather than
+ * reused, so that the captured placeholders can still be resolved.
+ * This class keeps hit, miss and eviction counters, and the live and dead bytes of the store, so that the budget can be sized.
+ */
+public class BlockCache implements Closeable {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_FREQUENCY = 3;
+
+    // eviction stops once the resident blocks fit in this fraction of the budget
+    private static final double TARGET = 0.9;
+
+    private final long budget;
+    private final SegmentStore store;
+
+    // access counters, per vertex
+    private volatile byte[][] frequencies = new byte[0][];
+
+    // blocks that were paged in (and the position they were read from), per vertex
+    private volatile AtomicReferenceArray<Paged>[] paged = IntAdjacency.newChunks(0);
+
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicBoolean isEvicting = new AtomicBoolean();
+    private int hand = 0;
+
+    // statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // the number of captures that were not resolved yet, and the (position, length) of the slots freed meanwhile
+    private int nofCaptures = 0;
+    private final List<long[]> pending = new ArrayList<>();
+
+    private static class Paged
+    {
+        final int[] block;
+        final long position;
+        Paged(int[] block, long position)
+        {
+            this.block = block;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Build a new BlockCache
+     * @param segments the file to page blocks out to
+     * @param budget the number of bytes the resident blocks may take
+     * @throws IOException
+     */
+    public BlockCache(File segments, long budget) throws IOException
+    {
+        this.budget = budget;
+        this.store = new SegmentStore(segments);
+    }
+
+    /**
+     * Return the (approximate) number of bytes taken by a block on the heap
+     * @param block
+     * @return
+     */
+    static long sizeOf(int[] block)
+    {
+        if(block == null || block.length == 0)
+            return 0;
+        return 16 + 4L * block.length;
+    }
+
+    void hit(int id)
+    {
+        hits.incrementAndGet();
+        touch(id);
+    }
+
+    /**
+     * Mark a block as recently used
+     * @param id
+     */
+    void touch(int id)
+    {
+        byte[][] tmp = frequencies;
+        int c = id >>> CHUNK_BITS;
+        if(c >= tmp.length)
+            tmp = grow(c);
+        byte[] chunk = tmp[c];
+        int i = id & (CHUNK_SIZE - 1);
+        if(chunk[i] < MAX_FREQUENCY)
+            chunk[i]++;
+    }
+
+    /**
+     * Decrement the access counter of a block
+     * @param id
+     * @return true iff the block was used since the clock hand last passed it
+     */
+    boolean decay(int id)
+    {
+        byte[][] tmp = frequencies;
+        int c = id >>> CHUNK_BITS;
+        if(c >= tmp.length)
+            return false;
+        byte[] chunk = tmp[c];
+        int i = id & (CHUNK_SIZE - 1);
+        if(chunk[i] == 0)
+            return false;
+        chunk[i]--;
+        return true;
+    }
+
+    private synchronized byte[][] grow(int c)
+    {
+        byte[][] tmp = frequencies;
+        if(c < tmp.length)
+            return tmp;
+        int capacity = java.lang.Math.max(tmp.length, 1);
+        while(capacity <= c)
+            capacity *= 2;
+        tmp = Arrays.copyOf(tmp, capacity);
+        for(int i=0;i<capacity;i++)
+        {
+            if(tmp[i] == null)
+                tmp[i] = new byte[CHUNK_SIZE];
+        }
+        frequencies = tmp;
+        return tmp;
+    }
+
+    /**
+     * Account for a change in the number of resident bytes
+     * @param delta
+     */
+    void resident(long delta)
+    {
+        residentBytes.addAndGet(delta);
+    }
+
+    /**
+     * Read a block that was paged out
+     * @param id the vertex the block belongs to
+     * @param position
+     * @return
+     */
+    int[] pageIn(int id, long position)
+    {
+        misses.incrementAndGet();
+        int[] block = read(position);
+        AtomicReferenceArray<Paged> chunk = pagedChunk(id);
+        chunk.set(id & (CHUNK_SIZE - 1), new Paged(block, position));
+        touch(id);
+        return block;
+    }
+
+    /**
+     * Read a block that was paged out, without counting it as a miss
+     * @param position
+     * @return
+     */
+    int[] read(long position)
+    {
+        try {
+            return store.read(position);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to page a block", e);
+        }
+    }
+
+    /**
+     * Write a block to the store, unless it was paged in (and not changed) before
+     * @param id
+     * @param block
+     * @return the position of the block in the store
+     */
+    long pageOut(int id, int[] block)
+    {
+        AtomicReferenceArray<Paged> chunk = pagedChunk(id);
+        Paged p = chunk.get(id & (CHUNK_SIZE - 1));
+        if(p != null && p.block == block)
+            return p.position;
+        try {
+            return store.append(block);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to page a block", e);
+        }
+    }
+
+    /**
+     * Account for a block that was replaced by its placeholder
+     * @param id
+     * @param bytes the number of bytes freed
+     */
+    void evicted(int id, long bytes)
+    {
+        evictions.incrementAndGet();
+        residentBytes.addAndGet(-bytes);
+        forget(id);
+    }
+
+    /**
+     * Forget the block that was paged in for a given vertex (because it was evicted or replaced),
+     * so that it can be garbage collected
+     * @param id
+     * @return the block that was paged in, or null
+     */
+    private Paged forget(int id)
+    {
+        AtomicReferenceArray<Paged>[] tmp = paged;
+        int c = id >>> CHUNK_BITS;
+        if(c < tmp.length && tmp[c] != null)
+            return tmp[c].getAndSet(id & (CHUNK_SIZE - 1), null);
+        return null;
+    }
+
+    /**
+     * Return true iff a given block of a vertex was paged in (and not changed since),
+     * i.e. it is still in the store
+     * @param id
+     * @param block
+     * @return
+     */
+    boolean isPagedIn(int id, int[] block)
+    {
+        AtomicReferenceArray<Paged>[] tmp = paged;
+        int c = id >>> CHUNK_BITS;
+        if(c >= tmp.length || tmp[c] == null)
+            return false;
+        Paged p = tmp[c].get(id & (CHUNK_SIZE - 1));
+        return p != null && p.block == block;
+    }
+
+    /**
+     * Account for a block that was replaced by a changed block,
+     * freeing its slot in the store if it was paged in
+     * @param id
+     * @param old the block that was replaced
+     */
+    void replaced(int id, int[] old)
+    {
+        Paged p = forget(id);
+        if(p != null && old != null && p.block == old)
+            free(p.position, old.length);
+    }
+
+    /**
+     * Free a slot in the store, that is no longer referenced
+     * @param position
+     * @param length the number of elements of the block in the slot
+     */
+    void free(long position, int length)
+    {
+        synchronized (pending)
+        {
+            if(nofCaptures > 0)
+                pending.add(new long[]{position, length});
+            else
+                store.free(position, length);
+        }
+    }
+
+    /**
+     * Start a capture of placeholders, no slot is reused until the capture is released
+     */
+    void capture()
+    {
+        synchronized (pending)
+        {
+            nofCaptures++;
+        }
+    }
+
+    /**
+     * Release a capture, once its placeholders are resolved
+     */
+    void release()
+    {
+        synchronized (pending)
+        {
+            if(nofCaptures == 0 || --nofCaptures > 0)
+                return;
+            for(long[] slot : pending)
+                store.free(slot[0], (int) slot[1]);
+            pending.clear();
+        }
+    }
+
+    private AtomicReferenceArray<Paged> pagedChunk(int id)
+    {
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<Paged>[] tmp = paged;
+        if(c < tmp.length && tmp[c] != null)
+            return tmp[c];
+        synchronized (this)
+        {
+            tmp = paged;
+            if(c >= tmp.length)
+                tmp = Arrays.copyOf(tmp, java.lang.Math.max(tmp.length * 2, c + 1));
+            if(tmp[c] == null)
+                tmp[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            paged = tmp;
+            return tmp[c];
+        }
+    }
+
+    /**
+     * Return true iff the resident blocks take more than the budget
+     * @return
+     */
+    boolean isOverBudget()
+    {
+        return residentBytes.get() > budget;
+    }
+
+    /**
+     * Return true iff eviction should continue
+     * @return
+     */
+    boolean isAboveTarget()
+    {
+        return residentBytes.get() > budget * TARGET;
+    }
+
+    /**
+     * Claim the clock hand, only one thread evicts at any time
+     * @return true iff the calling thread should evict
+     */
+    boolean startEviction()
+    {
+        return isEvicting.compareAndSet(false, true);
+    }
+
+    void endEviction()
+    {
+        isEvicting.set(false);
+    }
+
+    /**
+     * Advance the clock hand (only to be called by the thread that started eviction)
+     * @param capacity the number of vertices
+     * @return the vertex under the hand
+     */
+    int advance(int capacity)
+    {
+        if(hand >= capacity)
+            hand = 0;
+        return hand++;
+    }
+
+    public long budget()
+    {
+        return budget;
+    }
+
+    /**
+     * Return the number of bytes taken by the resident blocks
+     * @return
+     */
+    public long residentBytes()
+    {
+        return residentBytes.get();
+    }
+
+    /**
+     * Return the number of lookups answered by a resident block
+     * @return
+     */
+    public long hits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Return the number of lookups that had to page a block in
+     * @return
+     */
+    public long misses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Return the number of blocks paged out
+     * @return
+     */
+    public long evictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Return the size (in bytes) of the segment store
+     * @return
+     */
+    public long segmentBytes()
+    {
+        return store.size();
+    }
+
+    /**
+     * Return the number of bytes of the segment store taken by blocks that may still be paged in
+     * @return
+     */
+    public long liveBytes()
+    {
+        return store.size() - deadBytes();
+    }
+
+    /**
+     * Return the number of bytes of the segment store taken by freed slots (which are reused by blocks that are paged out)
+     * @return
+     */
+    public long deadBytes()
+    {
+        synchronized (pending)
+        {
+            long bytes = store.deadBytes();
+            for(long[] slot : pending)
+                bytes += 1L << SegmentStore.sizeClass((int) slot[1]);
+            return bytes;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        store.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "budget=" + budget + " resident=" + residentBytes() + " hits=" + hits() + " misses=" + misses() +
+                " evictions=" + evictions() + " segments=" + segmentBytes() + " live=" + liveBytes() + " dead=" + deadBytes();
+    }
+}
@@ -0,0 +1,603 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class stores the outgoing edges of a graph with dense (non-negative) int vertex IDs,
+ * without boxing. Every vertex owns a sorted int[] block of neighbors.
+ * Blocks are never modified in place, adding or removing an edge replaces the block.
+ * This way, an IntSet returned by get(int) is a stable view, even if the graph changes afterwards.
+ * A vertex without block (null) has no known outgoing edges,
+ * which is not the same as a vertex that is known to have no outgoing edges (an empty block).
+ * This class is thread-safe. Blocks are kept in fixed-size chunks, so the storage never
+ * has to be copied as it grows. Updates to a vertex are guarded by one of a fixed number of
+ * lock stripes, so updates to different vertices proceed in parallel. Reads never block.
+ * The memory taken by the blocks can be bounded by a BlockCache. Evicted blocks are replaced by a placeholder,
+ * holding the (negative) length of the block and its position in the segment store.
+ * Since blocks only hold non-negative IDs, a placeholder can not be mistaken for a block.
+ * Placeholders are swapped with compare-and-set, so neither eviction nor paging in needs a lock.
+ * Edges that are known to be new can be appended (see append(int, int)) to an unsorted tail rather than
+ * copied into the block, the tail is merged into the block once it has grown to a fraction of the block,
+ * or when the block is read (which then takes the lock of the vertex). Tails are not bounded by the BlockCache.
+ */
+public class IntAdjacency {
+
+    private static final int[] NONE = new int[0];
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int NOF_STRIPES = 256;
+
+    private volatile AtomicReferenceArray<int[]>[] chunks;
+    private final Object[] stripes = new Object[NOF_STRIPES];
+    private final AtomicInteger nofVertices = new AtomicInteger();
+    private final AtomicLong nofEdges = new AtomicLong();
+
+    // edges appended to blocks with fewer elements than this are inserted right away
+    private static final int MIN_TAIL_BLOCK = 64;
+    // unsorted edges appended to a block, but not merged into it yet ([0] holds the number of edges)
+    private final Map<Integer, int[]> tails = new ConcurrentHashMap<>();
+
+    // blocks with fewer elements than this are not worth evicting
+    private static final int MIN_EVICTABLE = 8;
+    private volatile BlockCache cache = null;
+
+    public IntAdjacency()
+    {
+        this(1024);
+    }
+
+    public IntAdjacency(int initialCapacity)
+    {
+        chunks = newChunks(java.lang.Math.max((initialCapacity + CHUNK_SIZE - 1) >>> CHUNK_BITS, 1));
+        for(int i=0;i<NOF_STRIPES;i++)
+            stripes[i] = new Object();
+    }
+
+    /**
+     * Return a new array of (empty) chunks, since arrays of a generic type can not be created directly
+     * @param n
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <T> AtomicReferenceArray<T>[] newChunks(int n)
+    {
+        return (AtomicReferenceArray<T>[]) new AtomicReferenceArray<?>[n];
+    }
+
+    /**
+     * Return the lock guarding the block of a given vertex.
+     * Client code can synchronize on this object to make a sequence of
+     * operations on the same vertex atomic.
+     * @param id
+     * @return
+     */
+    public Object lock(int id)
+    {
+        return stripes[id & (NOF_STRIPES - 1)];
+    }
+
+    /**
+     * Bound the memory taken by the blocks of this adjacency
+     * @param cache
+     */
+    public void bound(BlockCache cache)
+    {
+        this.cache = cache;
+        evict();
+    }
+
+    /**
+     * Return the BlockCache bounding this adjacency, or null if it is unbounded
+     * @return
+     */
+    public BlockCache cache()
+    {
+        return cache;
+    }
+
+    /**
+     * Return the block (or placeholder) of a given vertex, without paging it in
+     */
+    private int[] raw(int id)
+    {
+        if(id < 0)
+            return null;
+        AtomicReferenceArray<int[]>[] tmp = chunks;
+        int c = id >>> CHUNK_BITS;
+        if(c >= tmp.length || tmp[c] == null)
+            return null;
+        return tmp[c].get(id & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Return the block of a given vertex, merging its tail into it, and paging it in if needed
+     */
+    private int[] read(int id)
+    {
+        if(!tails.isEmpty() && tails.containsKey(id))
+        {
+            synchronized (lock(id))
+            {
+                settle(id);
+            }
+        }
+        return page(id);
+    }
+
+    /**
+     * Merge the tail of a given vertex (if any) into its block, callers must hold its lock
+     */
+    private void settle(int id)
+    {
+        int[] tail = tails.get(id);
+        if(tail == null)
+            return;
+        int[] block = page(id);
+        int[] extra = Arrays.copyOfRange(tail, 1, tail[0] + 1);
+        Arrays.sort(extra);
+        int[] tmp = new int[block.length + extra.length];
+        int i = 0, j = 0, k = 0;
+        while(i < block.length || j < extra.length)
+        {
+            int v;
+            if(j >= extra.length || (i < block.length && block[i] <= extra[j]))
+                v = block[i++];
+            else
+                v = extra[j++];
+            if(k == 0 || tmp[k - 1] != v)
+                tmp[k++] = v;
+        }
+        // the appended edges were counted already
+        nofEdges.addAndGet(-extra.length);
+        put(id, k == tmp.length ? tmp : Arrays.copyOf(tmp, k));
+        tails.remove(id);
+    }
+
+    /**
+     * Return the block of a given vertex (without its tail), paging it in if needed
+     */
+    private int[] page(int id)
+    {
+        int[] block = raw(id);
+        BlockCache tmp = cache;
+        if(block == null || tmp == null)
+            return block;
+        if(!isPlaceholder(block))
+        {
+            if(block.length > 0)
+                tmp.hit(id);
+            return block;
+        }
+        AtomicReferenceArray<int[]> chunk = chunk(id);
+        while(isPlaceholder(block))
+        {
+            int[] paged = tmp.pageIn(id, position(block));
+            if(chunk.compareAndSet(id & (CHUNK_SIZE - 1), block, paged))
+            {
+                tmp.resident(BlockCache.sizeOf(paged) - BlockCache.sizeOf(block));
+                evict();
+                return paged;
+            }
+            // another thread paged it in (or replaced it) first
+            block = chunk.get(id & (CHUNK_SIZE - 1));
+        }
+        return block;
+    }
+
+    private static boolean isPlaceholder(int[] block)
+    {
+        return block.length > 0 && block[0] < 0;
+    }
+
+    private static int[] placeholder(int length, long position)
+    {
+        return new int[]{-length - 1, (int) (position >>> 32), (int) position};
+    }
+
+    private static long position(int[] placeholder)
+    {
+        return ((long) placeholder[1] << 32) | (placeholder[2] & 0xFFFFFFFFL);
+    }
+
+    private static int length(int[] block)
+    {
+        if(block == null)
+            return 0;
+        return isPlaceholder(block) ? -block[0] - 1 : block.length;
+    }
+
+    /**
+     * Evict cold blocks until the resident blocks fit in the budget again.
+     * Only one thread evicts at any time, other threads carry on.
+     */
+    private void evict()
+    {
+        BlockCache tmp = cache;
+        if(tmp == null || !tmp.isOverBudget() || !tmp.startEviction())
+            return;
+        try {
+            int capacity = chunks.length << CHUNK_BITS;
+            // every block survives at most as many sweeps as its access counter allows
+            long nofSteps = 4L * capacity;
+            for(long step=0;step<nofSteps && tmp.isAboveTarget();step++)
+            {
+                int id = tmp.advance(capacity);
+                int[] block = raw(id);
+                if(block == null || block.length < MIN_EVICTABLE || isPlaceholder(block))
+                    continue;
+                if(tmp.decay(id))
+                    continue;
+                boolean isWritten = !tmp.isPagedIn(id, block);
+                long position = tmp.pageOut(id, block);
+                int[] placeholder = placeholder(block.length, position);
+                if(chunk(id).compareAndSet(id & (CHUNK_SIZE - 1), block, placeholder))
+                    tmp.evicted(id, BlockCache.sizeOf(block) - BlockCache.sizeOf(placeholder));
+                else if(isWritten)
+                    tmp.free(position, block.length);
+            }
+        } finally {
+            tmp.endEviction();
+        }
+    }
+
+    /**
+     * Return true iff the outgoing edges of a given vertex are known
+     * @param id
+     * @return
+     */
+    public boolean has(int id)
+    {
+        return raw(id) != null;
+    }
+
+    /**
+     * Return the outgoing edges of a given vertex,
+     * or null if the outgoing edges of the vertex are not known
+     * @param id
+     * @return
+     */
+    public IntSet get(int id)
+    {
+        int[] block = read(id);
+        if(block == null)
+            return null;
+        return block.length == 0 ? IntSet.EMPTY : IntSet.of(block);
+    }
+
+    /**
+     * Return the (sorted) block of neighbors of a given vertex, or null.
+     * The returned array must not be modified.
+     * @param id
+     * @return
+     */
+    public int[] block(int id)
+    {
+        return read(id);
+    }
+
+    /**
+     * Capture the blocks of the first n vertices.
+     * Since blocks are never modified in place, this is a consistent view of every vertex,
+     * that costs no more than copying n references (and merging the tails of vertices that have one).
+     * Evicted blocks are not paged in, they are captured as placeholders, which can be resolved
+     * later on (by any thread) with resolve(int[][]).
+     * @param n
+     * @return
+     */
+    public int[][] blocks(int n)
+    {
+        return blocks(0, n);
+    }
+
+    /**
+     * Capture the blocks of the vertices in [from, to), see blocks(int)
+     * @param from
+     * @param to
+     * @return
+     */
+    public int[][] blocks(int from, int to)
+    {
+        BlockCache tmp = cache;
+        if(tmp != null)
+            tmp.capture();
+        int[][] out = new int[to - from][];
+        for(int i=from;i<to;i++)
+        {
+            if(!tails.isEmpty() && tails.containsKey(i))
+                read(i);
+            out[i - from] = raw(i);
+        }
+        return out;
+    }
+
+    /**
+     * Replace the placeholders in a set of captured blocks by the blocks they stand for.
+     * Every capture should be resolved (once), the slots of the BlockCache are not reused until then.
+     * @param blocks
+     * @return
+     */
+    public int[][] resolve(int[][] blocks)
+    {
+        BlockCache tmp = cache;
+        if(tmp == null)
+            return blocks;
+        try {
+            for(int i=0;i<blocks.length;i++)
+            {
+                if(blocks[i] != null && isPlaceholder(blocks[i]))
+                    blocks[i] = tmp.read(position(blocks[i]));
+            }
+        } finally {
+            tmp.release();
+        }
+        return blocks;
+    }
+
+    /**
+     * Replace the outgoing edges of a given vertex
+     * @param id
+     * @param sorted the sorted neighbors (without duplicates), ownership is transferred to this adjacency
+     */
+    public void set(int id, int[] sorted)
+    {
+        synchronized (lock(id))
+        {
+            int[] tail = tails.remove(id);
+            if(tail != null)
+                nofEdges.addAndGet(-tail[0]);
+            put(id, sorted);
+        }
+        evict();
+    }
+
+    /**
+     * Replace the block of a given vertex, callers must hold its lock
+     */
+    private void put(int id, int[] sorted)
+    {
+        int[] block = sorted.length == 0 ? NONE : sorted;
+        // the old block might have been evicted in the meantime, its placeholder tells its length
+        int[] old = chunk(id).getAndSet(id & (CHUNK_SIZE - 1), block);
+        if(old == null)
+            nofVertices.incrementAndGet();
+        nofEdges.addAndGet(sorted.length - length(old));
+        BlockCache tmp = cache;
+        if(tmp != null)
+        {
+            tmp.resident(BlockCache.sizeOf(block) - BlockCache.sizeOf(old));
+            tmp.touch(id);
+            // the slot of the old block is no longer referenced
+            if(old != null && isPlaceholder(old))
+            {
+                tmp.replaced(id, null);
+                tmp.free(position(old), length(old));
+            }
+            else
+                tmp.replaced(id, old);
+        }
+    }
+
+    /**
+     * Add an edge between two vertices
+     * @param from
+     * @param to
+     * @return true iff the edge was not present yet
+     */
+    public boolean add(int from, int to)
+    {
+        synchronized (lock(from))
+        {
+            int[] block = read(from);
+            if(block == null)
+                block = NONE;
+            int pos = Arrays.binarySearch(block, to);
+            if(pos >= 0)
+                return false;
+            pos = -pos - 1;
+            int[] tmp = new int[block.length + 1];
+            System.arraycopy(block, 0, tmp, 0, pos);
+            tmp[pos] = to;
+            System.arraycopy(block, pos, tmp, pos + 1, block.length - pos);
+            put(from, tmp);
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Add an edge between two vertices, that the caller knows is not present yet
+     * (e.g. the reverse of an edge that was just added).
+     * Unlike add(int, int), this method does not copy a large block, but appends the edge to its tail,
+     * so that adding an edge takes amortized constant time, rather than time linear in the size of the block.
+     * @param from
+     * @param to
+     */
+    public void append(int from, int to)
+    {
+        synchronized (lock(from))
+        {
+            int length = length(raw(from));
+            if(length < MIN_TAIL_BLOCK)
+            {
+                add(from, to);
+                return;
+            }
+            int[] tail = tails.get(from);
+            if(tail == null)
+                tail = new int[16];
+            else if(tail[0] + 1 == tail.length)
+                tail = Arrays.copyOf(tail, tail.length * 2);
+            tail[++tail[0]] = to;
+            tails.put(from, tail);
+            nofEdges.incrementAndGet();
+            if(tail[0] >= length / 4)
+                settle(from);
+        }
+        evict();
+    }
+
+    /**
+     * Add edges between a vertex and a number of other vertices.
+     * This method merges all new edges into the block at once,
+     * and is therefore preferred over repeated calls to add(int, int).
+     * @param from
+     * @param to
+     * @return the (sorted) vertices to which an edge was not present yet
+     */
+    public int[] addAll(int from, int[] to)
+    {
+        int[] extra = to.clone();
+        Arrays.sort(extra);
+        int[] added = new int[extra.length];
+        int nofAdded = 0;
+        synchronized (lock(from))
+        {
+            int[] block = read(from);
+            if(block == null)
+                block = NONE;
+
+            // merge both sorted arrays, dropping duplicates
+            int[] tmp = new int[block.length + extra.length];
+            int i = 0, j = 0, k = 0;
+            while(i < block.length || j < extra.length)
+            {
+                boolean isNew = j < extra.length && (i >= block.length || extra[j] < block[i]);
+                int v = isNew ? extra[j++] : block[i++];
+                if(k > 0 && tmp[k - 1] == v)
+                    continue;
+                tmp[k++] = v;
+                if(isNew)
+                    added[nofAdded++] = v;
+            }
+            if(nofAdded > 0 || raw(from) == null)
+                put(from, k == tmp.length ? tmp : Arrays.copyOf(tmp, k));
+        }
+        evict();
+        return nofAdded == added.length ? added : Arrays.copyOf(added, nofAdded);
+    }
+
+    /**
+     * Replace the edges of a vertex by edges to a number of other vertices.
+     * Unlike set(int, int[]), this method tells which edges changed, and leaves the block alone if none did.
+     * @param from
+     * @param to
+     * @return the (sorted) vertices to which an edge was added, and the (sorted) vertices to which an edge was removed
+     */
+    public int[][] replaceAll(int from, int[] to)
+    {
+        int[] sorted = to.clone();
+        Arrays.sort(sorted);
+        int[] added = new int[sorted.length];
+        int nofAdded = 0;
+        int[] removed;
+        int nofRemoved = 0;
+        synchronized (lock(from))
+        {
+            int[] block = read(from);
+            boolean isKnown = block != null;
+            if(block == null)
+                block = NONE;
+            removed = new int[block.length];
+
+            // walk both sorted arrays, dropping duplicates from the new edges
+            int[] tmp = new int[sorted.length];
+            int i = 0, j = 0, k = 0;
+            while(i < block.length || j < sorted.length)
+            {
+                if(j < sorted.length && k > 0 && tmp[k - 1] == sorted[j])
+                    j++;
+                else if(j >= sorted.length || (i < block.length && block[i] < sorted[j]))
+                    removed[nofRemoved++] = block[i++];
+                else if(i >= block.length || sorted[j] < block[i])
+                    added[nofAdded++] = tmp[k++] = sorted[j++];
+                else
+                {
+                    tmp[k++] = sorted[j++];
+                    i++;
+                }
+            }
+            if(nofAdded > 0 || nofRemoved > 0 || !isKnown)
+                put(from, k == tmp.length ? tmp : Arrays.copyOf(tmp, k));
+        }
+        evict();
+        return new int[][]{Arrays.copyOf(added, nofAdded), Arrays.copyOf(removed, nofRemoved)};
+    }
+
+    /**
+     * Remove the edge between two vertices
+     * @param from
+     * @param to
+     * @return true iff the edge was present
+     */
+    public boolean remove(int from, int to)
+    {
+        synchronized (lock(from))
+        {
+            int[] block = read(from);
+            if(block == null)
+                return false;
+            int pos = Arrays.binarySearch(block, to);
+            if(pos < 0)
+                return false;
+            int[] tmp = new int[block.length - 1];
+            System.arraycopy(block, 0, tmp, 0, pos);
+            System.arraycopy(block, pos + 1, tmp, pos, block.length - pos - 1);
+            put(from, tmp);
+        }
+        evict();
+        return true;
+    }
+
+    /**
+     * Return the number of vertices for which the outgoing edges are known
+     * @return
+     */
+    public int nofVertices()
+    {
+        return nofVertices.get();
+    }
+
+    /**
+     * Return the total number of edges
+     * @return
+     */
+    public long nofEdges()
+    {
+        return nofEdges.get();
+    }
+
+    /**
+     * Return the chunk holding the block of a given vertex, allocating it if needed
+     * @param id
+     * @return
+     */
+    private AtomicReferenceArray<int[]> chunk(int id)
+    {
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<int[]>[] tmp = chunks;
+        if(c < tmp.length && tmp[c] != null)
+            return tmp[c];
+        synchronized (this)
+        {
+            tmp = chunks;
+            if(c >= tmp.length)
+            {
+                int capacity = tmp.length;
+                while(capacity <= c)
+                    capacity *= 2;
+                tmp = Arrays.copyOf(tmp, capacity);
+            }
+            if(tmp[c] == null)
+                tmp[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            // (re)publish the directory, so readers see the new chunk
+            chunks = tmp;
+            return tmp[c];
+        }
+    }
+}
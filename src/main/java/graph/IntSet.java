@@ -0,0 +1,138 @@
+package graph;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class represents a read-only, sorted set of primitive ints.
+ * Elements can be iterated without boxing, by index:
+ * <pre>
+ * for(int i=0;i&lt;set.size();i++)
+ *     visit(set.get(i));
+ * </pre>
+ * Implementations only need to provide size() and get(int),
+ * and must return the elements in ascending order.
+ */
+public abstract class IntSet {
+
+    public static final IntSet EMPTY = of(new int[0]);
+
+    /**
+     * Return the number of elements in this set
+     * @return
+     */
+    public abstract int size();
+
+    /**
+     * Return the element at a given index (elements are sorted in ascending order)
+     * @param index
+     * @return
+     */
+    public abstract int get(int index);
+
+    /**
+     * Return true iff this set contains no elements
+     * @return
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Return true iff this set contains a given value
+     * @param value
+     * @return
+     */
+    public boolean contains(int value)
+    {
+        int lo = 0;
+        int hi = size() - 1;
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int v = get(mid);
+            if(v < value)
+                lo = mid + 1;
+            else if(v > value)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copy the elements of this set to a new array
+     * @return
+     */
+    public int[] toArray()
+    {
+        int[] out = new int[size()];
+        for(int i=0;i<out.length;i++)
+            out[i] = get(i);
+        return out;
+    }
+
+    /**
+     * Return a (boxed) Set view of this set,
+     * for client code that expects a Collection
+     * @return
+     */
+    public Set<Integer> boxed()
+    {
+        return new AbstractSet<Integer>() {
+            @Override
+            public int size() { return IntSet.this.size(); }
+            @Override
+            public boolean contains(Object o) { return o instanceof Integer && IntSet.this.contains((Integer) o); }
+            @Override
+            public Iterator<Integer> iterator()
+            {
+                return new Iterator<Integer>() {
+                    private int i = 0;
+                    @Override
+                    public boolean hasNext() { return i < IntSet.this.size(); }
+                    @Override
+                    public Integer next()
+                    {
+                        if(i >= IntSet.this.size())
+                            throw new NoSuchElementException();
+                        return IntSet.this.get(i++);
+                    }
+                    @Override
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+        };
+    }
+
+    /**
+     * Wrap a sorted array (without duplicates) in an IntSet.
+     * The array is not copied, and should not be modified afterwards.
+     * @param sorted
+     * @return
+     */
+    public static IntSet of(final int[] sorted)
+    {
+        return new IntSet() {
+            @Override
+            public int size() { return sorted.length; }
+            @Override
+            public int get(int index) { return sorted[index]; }
+            @Override
+            public boolean contains(int value) { return Arrays.binarySearch(sorted, value) >= 0; }
+            @Override
+            public int[] toArray() { return sorted.clone(); }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,161 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * This class stores blocks of ints in a file.
+ * Every block is written as its length followed by its elements (big-endian),
+ * and is identified by the position at which it was written.
+ * Positions never change, so a block can be read (by any thread) until it is freed.
+ * Blocks are written in slots whose size is a power of two (the size class of the block).
+ * Freed slots are kept in a free list per size class, and reused by the next block of the same class,
+ * so the file only grows when no freed slot fits. The file is scratch space, it is emptied when the store is opened.
+ */
+public class SegmentStore implements Closeable {
+
+    // the smallest slot (in bytes), blocks of up to 7 ints share this size class
+    private static final int MIN_CLASS = 5;
+
+    private final File file;
+    private final FileChannel channel;
+    private long size = 0;
+    private long deadBytes = 0;
+
+    // the positions of freed slots, per size class
+    private final List<Deque<Long>> free = new ArrayList<>();
+
+    public SegmentStore(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.channel.truncate(0);
+        file.deleteOnExit();
+    }
+
+    /**
+     * Append a block to this store
+     * @param block
+     * @return the position of the block
+     * @throws IOException
+     */
+    public synchronized long append(int[] block) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + block.length * 4);
+        buffer.putInt(block.length);
+        buffer.asIntBuffer().put(block);
+        buffer.rewind();
+        int c = sizeClass(block.length);
+        Long slot = c < free.size() ? free.get(c).poll() : null;
+        long position;
+        if(slot != null)
+        {
+            position = slot;
+            deadBytes -= 1L << c;
+        }
+        else
+        {
+            position = size;
+            size += 1L << c;
+        }
+        while(buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+        return position;
+    }
+
+    /**
+     * Free the slot of a block, so that it can be reused.
+     * The block must not be read after it was freed.
+     * @param position the position of the block
+     * @param length the number of elements in the block
+     */
+    public synchronized void free(long position, int length)
+    {
+        int c = sizeClass(length);
+        while(free.size() <= c)
+            free.add(new ArrayDeque<Long>());
+        free.get(c).push(position);
+        deadBytes += 1L << c;
+    }
+
+    /**
+     * Return the size class of a block, i.e. the log2 of the size of its slot
+     * @param length the number of elements in the block
+     * @return
+     */
+    static int sizeClass(int length)
+    {
+        long bytes = 4 + length * 4L;
+        return java.lang.Math.max(MIN_CLASS, 64 - Long.numberOfLeadingZeros(bytes - 1));
+    }
+
+    /**
+     * Read the block at a given position
+     * @param position
+     * @return
+     * @throws IOException
+     */
+    public int[] read(long position) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        fill(header, position);
+        int[] block = new int[header.getInt(0)];
+        ByteBuffer buffer = ByteBuffer.allocate(block.length * 4);
+        fill(buffer, position + 4);
+        buffer.asIntBuffer().get(block);
+        return block;
+    }
+
+    private void fill(ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("no block at position " + position + " in " + file);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Return the size (in bytes) of the file
+     * @return
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    /**
+     * Return the number of bytes in the file taken by slots that hold a block
+     * @return
+     */
+    public synchronized long liveBytes()
+    {
+        return size - deadBytes;
+    }
+
+    /**
+     * Return the number of bytes in the file taken by freed slots
+     * @return
+     */
+    public synchronized long deadBytes()
+    {
+        return deadBytes;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        file.delete();
+    }
+}
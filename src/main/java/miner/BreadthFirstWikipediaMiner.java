@@ -0,0 +1,208 @@
+package miner;
+
+import graph.IntSet;
+import wikipedia.WikipediaCache;
+import wikipedia.fetch.LinkSource;
+
+import java.util.*;
+
+/**
+ * This class acts as a breadth first search on Wikipedia.
+ * By performing the search, the cache will (after a threshold of
+ * changes is reached) store itself.
+ * Thus, by calling the BreadthFirstWikipediaMiner, the end user
+ * can build a cache of Wikipedia.
+ * The search is level-synchronous: all articles at a given distance from the start are fetched
+ * (in parallel, by a number of workers, in batches of the LinkSource) before the next level is looked at.
+ * Every article is mined at the level at which it is first reached, i.e. at its shortest distance from the start,
+ * so no article is fetched twice, and the first levels are always complete.
+ */
+public class BreadthFirstWikipediaMiner {
+
+    private final WikipediaCache cache;
+    private final LinkSource source;
+    private final int nofWorkers;
+
+    /**
+     * This class holds the statistics of a single level of the search
+     */
+    public static class Level
+    {
+        private final int depth;
+        private final int nofArticles;
+        private final int nofCached;
+        private final int nofFetched;
+        private final int nofFailed;
+        private final long time;
+
+        private Level(int depth, int nofArticles, int nofCached, int nofFetched, int nofFailed, long time)
+        {
+            this.depth = depth;
+            this.nofArticles = nofArticles;
+            this.nofCached = nofCached;
+            this.nofFetched = nofFetched;
+            this.nofFailed = nofFailed;
+            this.time = time;
+        }
+
+        public int depth() { return depth; }
+
+        /**
+         * Return the number of articles at this level
+         * @return
+         */
+        public int nofArticles() { return nofArticles; }
+
+        /**
+         * Return the number of articles at this level whose links were already known
+         * @return
+         */
+        public int nofCached() { return nofCached; }
+
+        /**
+         * Return the number of articles at this level whose links were fetched
+         * @return
+         */
+        public int nofFetched() { return nofFetched; }
+
+        /**
+         * Return the number of articles at this level whose links could not be fetched
+         * @return
+         */
+        public int nofFailed() { return nofFailed; }
+
+        /**
+         * Return the time (in ms) it took to mine this level
+         * @return
+         */
+        public long time() { return time; }
+
+        /**
+         * Return the number of pages fetched per second
+         * @return
+         */
+        public double pagesPerSecond()
+        {
+            return time == 0 ? 0 : nofFetched * 1000.0 / time;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("level %d: %d articles, %d cached, %d fetched, %d failed in %d ms (%.1f pages/s)",
+                    depth, nofArticles, nofCached, nofFetched, nofFailed, time, pagesPerSecond());
+        }
+    }
+
+    public BreadthFirstWikipediaMiner()
+    {
+        this(null);
+    }
+
+    public BreadthFirstWikipediaMiner(LinkSource source)
+    {
+        this(WikipediaCache.get(), source, Integer.getInteger("wikipedia.miner.workers", 16));
+    }
+
+    /**
+     * Create a miner
+     * @param cache the cache to fill
+     * @param source the LinkSource to fetch links from, or null for the LinkSource of the cache
+     * @param nofWorkers the number of batches that are fetched at the same time
+     *                   (the fetch pool of the cache may allow fewer, see FetchPool)
+     */
+    public BreadthFirstWikipediaMiner(WikipediaCache cache, LinkSource source, int nofWorkers)
+    {
+        this.cache = cache;
+        this.source = source;
+        this.nofWorkers = java.lang.Math.max(1, nofWorkers);
+    }
+
+    public List<Level> start(String article, int depth)
+    {
+        return start(Collections.singletonList(article), depth);
+    }
+
+    /**
+     * Mine all articles within a given distance of a number of articles
+     * @param articles the articles to start from
+     * @param depth the number of levels to mine, e.g. 1 only mines the given articles,
+     *              2 also mines the articles they link to
+     * @return the statistics of every level
+     */
+    public List<Level> start(Collection<String> articles, int depth)
+    {
+        List<Level> levels = new ArrayList<>();
+        ParallelFetcher fetcher = new ParallelFetcher(cache, source, nofWorkers);
+        try {
+            Set<Integer> visited = new HashSet<>();
+            List<String> frontier = new ArrayList<>(new LinkedHashSet<>(articles));
+            for(int d=0;d<depth && !frontier.isEmpty();d++)
+            {
+                Level level = mine(d, frontier, fetcher);
+                levels.add(level);
+                System.out.println(level);
+                if(d + 1 < depth)
+                    frontier = next(frontier, visited);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fetcher.close();
+        }
+        return levels;
+    }
+
+    /**
+     * Fetch the links of all articles of a level (that are not known yet), in parallel
+     * @param depth
+     * @param frontier
+     * @param fetcher
+     * @return
+     * @throws InterruptedException
+     */
+    private Level mine(int depth, List<String> frontier, ParallelFetcher fetcher) throws InterruptedException
+    {
+        long time = System.currentTimeMillis();
+        List<String> unknown = new ArrayList<>();
+        for(String article : frontier)
+        {
+            if(!fetcher.isKnown(article))
+                unknown.add(article);
+        }
+        int nofFailed = fetcher.fetch(unknown);
+        time = System.currentTimeMillis() - time;
+        return new Level(depth, frontier.size(), frontier.size() - unknown.size(), unknown.size() - nofFailed, nofFailed, time);
+    }
+
+    /**
+     * Return the next level, i.e. the articles the articles of a level link to that were not seen before
+     * @param frontier
+     * @param visited the IDs of the articles of all levels so far
+     * @return
+     */
+    private List<String> next(List<String> frontier, Set<Integer> visited)
+    {
+        for(String article : frontier)
+        {
+            int articleId = cache.lookup(article);
+            if(articleId != -1)
+                visited.add(articleId);
+        }
+        List<String> next = new ArrayList<>();
+        for(String article : frontier)
+        {
+            int articleId = cache.lookup(article);
+            IntSet out = articleId == -1 ? null : cache.outgoingIds(articleId);
+            if(out == null)
+                continue;
+            for(int i=0;i<out.size();i++)
+            {
+                int toId = cache.resolve(out.get(i));
+                if(visited.add(toId))
+                    next.add(cache.lookup(toId));
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,97 @@
+package miner;
+
+import wikipedia.WikipediaCache;
+import wikipedia.fetch.LinkSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class fetches the outgoing links of a number of articles into a WikipediaCache,
+ * in batches of the LinkSource, on a number of worker threads.
+ * The fetches still go through the fetch pool of the cache, so its concurrency limit and rate apply as well.
+ */
+class ParallelFetcher {
+
+    private final WikipediaCache cache;
+    private final LinkSource source;
+    private final ExecutorService workers;
+
+    ParallelFetcher(WikipediaCache cache, LinkSource source, int nofWorkers)
+    {
+        this.cache = cache;
+        this.source = source == null ? cache.linkSource() : source;
+        this.workers = Executors.newFixedThreadPool(java.lang.Math.max(1, nofWorkers), new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "miner-" + n.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Return the number of articles the LinkSource fetches at once
+     * @return
+     */
+    int batchSize()
+    {
+        return java.lang.Math.max(1, source.batchSize());
+    }
+
+    /**
+     * Return true iff the outgoing links of an article are known
+     * @param article
+     * @return
+     */
+    boolean isKnown(String article)
+    {
+        int articleId = cache.lookup(article);
+        return articleId != -1 && cache.outgoingIds(articleId) != null;
+    }
+
+    /**
+     * Fetch the outgoing links of a number of articles, and wait until they are all fetched (or failed)
+     * @param articles
+     * @return the number of articles whose outgoing links are still not known
+     * @throws InterruptedException
+     */
+    int fetch(List<String> articles) throws InterruptedException
+    {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for(int i=0;i<articles.size();i+=batchSize())
+        {
+            final List<String> batch = articles.subList(i, java.lang.Math.min(articles.size(), i + batchSize()));
+            futures.add(workers.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return cache.fetch(batch, source);
+                }
+            }));
+        }
+        for(Future<Boolean> future : futures)
+        {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        int nofFailed = 0;
+        for(String article : articles)
+        {
+            if(!isKnown(article))
+                nofFailed++;
+        }
+        return nofFailed;
+    }
+
+    void close()
+    {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,299 @@
+package miner;
+
+import graph.IntSet;
+import wikipedia.WikipediaCache;
+import wikipedia.fetch.LinkSource;
+
+import java.util.*;
+
+/**
+ * This class mines Wikipedia within a budget of pages and/or time, most valuable articles first.
+ * Unlike the BreadthFirstWikipediaMiner, which fetches articles in the order in which they are linked
+ * (and thus spends most of a budget on articles hardly anything links to),
+ * the articles found so far are kept in a priority queue, ordered by an estimate of their value:
+ * <ul>
+ *     <li>IN_DEGREE: the number of articles known to link to the article</li>
+ *     <li>PAGERANK: the share of importance the article received from the articles that were mined (OPIC,
+ *     every mined article divides the importance it received among the articles it links to)</li>
+ *     <li>BREADTH_FIRST: the order in which articles were found, for comparison</li>
+ * </ul>
+ * Articles are fetched in rounds (one batch of the LinkSource per worker), after which the estimates are updated.
+ * Articles whose links are already known do not count towards the budget.
+ */
+public class PriorityWikipediaMiner {
+
+    public enum Order { BREADTH_FIRST, IN_DEGREE, PAGERANK }
+
+    private static final double DAMPING = 0.85;
+
+    private final WikipediaCache cache;
+    private final LinkSource source;
+    private final int nofWorkers;
+    private final Order order;
+    private final int maxPages;
+    private final long maxTime;
+
+    // the state of a run
+    private PriorityQueue<double[]> frontier;
+    private Map<Integer, Double> priority;      // of the queued articles
+    private Map<Integer, Double> cash;
+    private Set<Integer> mined;
+    private long sequence;
+
+    /**
+     * This class holds the statistics of a run
+     */
+    public static class Result
+    {
+        private int nofRounds;
+        private int nofCached;
+        private int nofFetched;
+        private int nofFailed;
+        private int nofQueued;
+        private long time;
+
+        /**
+         * Return the number of rounds of fetches
+         * @return
+         */
+        public int nofRounds() { return nofRounds; }
+
+        /**
+         * Return the number of mined articles whose links were already known
+         * @return
+         */
+        public int nofCached() { return nofCached; }
+
+        /**
+         * Return the number of articles whose links were fetched
+         * @return
+         */
+        public int nofFetched() { return nofFetched; }
+
+        /**
+         * Return the number of articles whose links could not be fetched
+         * @return
+         */
+        public int nofFailed() { return nofFailed; }
+
+        /**
+         * Return the number of articles that were found, but not mined (when the budget ran out)
+         * @return
+         */
+        public int nofQueued() { return nofQueued; }
+
+        /**
+         * Return the time (in ms) the run took
+         * @return
+         */
+        public long time() { return time; }
+
+        /**
+         * Return the number of pages fetched per second
+         * @return
+         */
+        public double pagesPerSecond()
+        {
+            return time == 0 ? 0 : nofFetched * 1000.0 / time;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("round %d: %d cached, %d fetched, %d failed, %d queued in %d ms (%.1f pages/s)",
+                    nofRounds, nofCached, nofFetched, nofFailed, nofQueued, time, pagesPerSecond());
+        }
+    }
+
+    /**
+     * Create a miner for the cache
+     * @param order
+     * @param maxPages the number of pages that may be fetched
+     * @param maxTime the time (in ms) the miner may take, or 0 if unlimited
+     */
+    public PriorityWikipediaMiner(Order order, int maxPages, long maxTime)
+    {
+        this(WikipediaCache.get(), null, Integer.getInteger("wikipedia.miner.workers", 16), order, maxPages, maxTime);
+    }
+
+    /**
+     * Create a miner
+     * @param cache the cache to fill
+     * @param source the LinkSource to fetch links from, or null for the LinkSource of the cache
+     * @param nofWorkers the number of batches that are fetched at the same time
+     * @param order the order in which articles are mined
+     * @param maxPages the number of pages that may be fetched
+     * @param maxTime the time (in ms) the miner may take, or 0 if unlimited
+     */
+    public PriorityWikipediaMiner(WikipediaCache cache, LinkSource source, int nofWorkers, Order order, int maxPages, long maxTime)
+    {
+        this.cache = cache;
+        this.source = source;
+        this.nofWorkers = java.lang.Math.max(1, nofWorkers);
+        this.order = order;
+        this.maxPages = maxPages;
+        this.maxTime = maxTime;
+    }
+
+    public Result start(String article)
+    {
+        return start(Collections.singletonList(article));
+    }
+
+    /**
+     * Mine the articles reachable from a number of articles, most valuable first, until the budget runs out
+     * @param articles the articles to start from
+     * @return
+     */
+    public synchronized Result start(Collection<String> articles)
+    {
+        frontier = new PriorityQueue<>(1024, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] o1, double[] o2) {
+                return Double.compare(o2[0], o1[0]);
+            }
+        });
+        priority = new HashMap<>();
+        cash = new HashMap<>();
+        mined = new HashSet<>();
+        sequence = 0;
+
+        Result result = new Result();
+        long time = System.currentTimeMillis();
+        long deadline = maxTime <= 0 ? Long.MAX_VALUE : time + maxTime;
+        ParallelFetcher fetcher = new ParallelFetcher(cache, source, nofWorkers);
+        try {
+            // the articles to start from go first
+            List<String> unknown = new ArrayList<>();
+            for(String article : new LinkedHashSet<>(articles))
+            {
+                if(!fetcher.isKnown(article) && unknown.size() < maxPages)
+                    unknown.add(article);
+            }
+            result.nofFailed += fetcher.fetch(unknown);
+            result.nofFetched += unknown.size() - result.nofFailed;
+            for(String article : articles)
+            {
+                int articleId = cache.lookup(article);
+                if(articleId == -1 || cache.outgoingIds(articleId) == null || !mined.add(articleId))
+                    continue;
+                cash.put(articleId, 1.0);
+                expand(articleId);
+            }
+
+            while(result.nofFetched + result.nofFailed < maxPages && System.currentTimeMillis() < deadline)
+            {
+                // take the most valuable articles that are not known yet, mining those that are known on the way
+                int roundSize = java.lang.Math.min(nofWorkers * fetcher.batchSize(), maxPages - result.nofFetched - result.nofFailed);
+                List<Integer> round = new ArrayList<>();
+                while(round.size() < roundSize && System.currentTimeMillis() < deadline)
+                {
+                    int articleId = poll();
+                    if(articleId == -1)
+                        break;
+                    if(cache.outgoingIds(articleId) != null)
+                    {
+                        expand(articleId);
+                        result.nofCached++;
+                    }
+                    else
+                        round.add(articleId);
+                }
+                if(round.isEmpty())
+                    break;
+
+                List<String> titles = new ArrayList<>();
+                for(int articleId : round)
+                    titles.add(cache.lookup(articleId));
+                int nofFailed = fetcher.fetch(titles);
+                for(int articleId : round)
+                {
+                    if(cache.outgoingIds(articleId) != null)
+                        expand(articleId);
+                }
+                result.nofFetched += round.size() - nofFailed;
+                result.nofFailed += nofFailed;
+                result.nofRounds++;
+                result.nofQueued = priority.size();
+                result.time = System.currentTimeMillis() - time;
+                System.out.println(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fetcher.close();
+        }
+        result.nofQueued = priority.size();
+        result.time = System.currentTimeMillis() - time;
+        return result;
+    }
+
+    /**
+     * Queue an article with a given priority (replacing its previous priority)
+     * @param articleId
+     * @param value
+     */
+    private void push(int articleId, double value)
+    {
+        priority.put(articleId, value);
+        frontier.add(new double[]{value, articleId});
+    }
+
+    /**
+     * Take the article with the highest priority from the queue.
+     * An article whose priority changed is queued again, rather than moved,
+     * so entries with an outdated priority (and of articles that were mined since) are skipped here.
+     * @return the ID of the article, or -1 if the queue is empty
+     */
+    private int poll()
+    {
+        while(!frontier.isEmpty())
+        {
+            double[] entry = frontier.poll();
+            int articleId = (int) entry[1];
+            if(mined.contains(articleId) || priority.get(articleId) != entry[0])
+                continue;
+            mined.add(articleId);
+            priority.remove(articleId);
+            return articleId;
+        }
+        return -1;
+    }
+
+    /**
+     * Queue (or update the priority of) all articles a mined article links to
+     * @param articleId
+     */
+    private void expand(int articleId)
+    {
+        IntSet out = cache.outgoingIds(articleId);
+        if(out == null || out.isEmpty())
+            return;
+        Double received = cash.remove(articleId);
+        double share = received == null ? 0 : DAMPING * received / out.size();
+        for(int i=0;i<out.size();i++)
+        {
+            int toId = cache.resolve(out.get(i));
+            if(mined.contains(toId))
+                continue;
+            switch (order)
+            {
+                case BREADTH_FIRST:
+                    if(!priority.containsKey(toId))
+                        push(toId, -(sequence++));
+                    break;
+                case IN_DEGREE:
+                    // images written by older versions do not know incoming links, all articles then rank the same
+                    IntSet in = cache.incoming(toId);
+                    push(toId, in == null ? 0 : in.size());
+                    break;
+                case PAGERANK:
+                    Double old = cash.get(toId);
+                    double value = (old == null ? 0 : old) + share;
+                    cash.put(toId, value);
+                    push(toId, value);
+                    break;
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package path;
 
 import graph.AbstractDijkstraAlgorithm;
+import graph.IntSet;
+import wikipedia.ChangeBatch;
 import wikipedia.WikipediaCache;
 
 import java.io.*;
@@ -22,10 +24,14 @@ import java.util.*;
  * the core. And using those to break ties in AbstractDijkstraAlgorithm's algorithm.
  * By doing so, we ensure that paths with highly connected vertices are
  * considered first. Thus guaranteeing minimum lookup time.
+ * The core follows the changes made to the WikipediaCache after it was built (see catchUp),
+ * rather than being rebuilt from scratch.
  * Created by joris on 1/27/18.
  */
 public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
 
+    // the generation of the WikipediaCache the core is up to date with (taken before the core is built)
+    private static long coreGeneration = WikipediaCache.get().generation();
     protected static Map<Integer, Set<Integer>> core = buildCore();
     private static Map<Integer, Double> priorities = new HashMap<>();
 
@@ -42,6 +48,7 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
 
     @Override
     public String[] find(String start, String goal) {
+        catchUp();
         if(!WikipediaCache.get().has(start) || !WikipediaCache.get().has(goal))
             return new String[]{};
 
@@ -94,6 +101,78 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         return pathC;
     }
 
+    /**
+     * Apply the changes made to the WikipediaCache since the core was built (or last caught up),
+     * or rebuild the core if those changes are no longer known
+     */
+    protected static synchronized void catchUp()
+    {
+        ChangeBatch batch = WikipediaCache.get().changesSince(coreGeneration);
+        if(batch == null)
+        {
+            coreGeneration = WikipediaCache.get().generation();
+            core = buildCore();
+            return;
+        }
+        for(int i=0;i<batch.size();i++)
+        {
+            int fromId = batch.from(i);
+            int toId = batch.to(i);
+            switch (batch.type(i))
+            {
+                case ChangeBatch.EXPANDED:
+                    joinCore(fromId);
+                    break;
+                case ChangeBatch.ADDED:
+                    if(core.containsKey(fromId) && core.containsKey(toId))
+                        core.get(fromId).add(toId);
+                    break;
+                case ChangeBatch.REMOVED:
+                    if(core.containsKey(fromId))
+                        core.get(fromId).remove(toId);
+                    break;
+            }
+        }
+        coreGeneration = batch.toGeneration();
+    }
+
+    /**
+     * Add an article (whose outgoing links have become known) to the core
+     * @param articleId
+     */
+    private static void joinCore(int articleId)
+    {
+        if(core.containsKey(articleId))
+            return;
+        Set<Integer> nextHops = new HashSet<>();
+        IntSet out = WikipediaCache.get().outgoingIds(articleId);
+        for(int i=0;out != null && i<out.size();i++)
+        {
+            if(core.containsKey(out.get(i)))
+                nextHops.add(out.get(i));
+        }
+        core.put(articleId, nextHops);
+        if(out != null && out.contains(articleId))
+            nextHops.add(articleId);
+
+        // links from the core to the new article
+        IntSet in = WikipediaCache.get().incoming(articleId);
+        if(in == null)
+        {
+            for(int cId : core.keySet())
+            {
+                if(WikipediaCache.get().outgoingIds(cId).contains(articleId))
+                    core.get(cId).add(articleId);
+            }
+            return;
+        }
+        for(int i=0;i<in.size();i++)
+        {
+            if(core.containsKey(in.get(i)))
+                core.get(in.get(i)).add(articleId);
+        }
+    }
+
     /**
      * Get the eigenvalue of a given article, or a sensible default value
      * if the eigenvalue of the given article is not calculated yet.
@@ -120,10 +199,21 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         else
         {
             Set<Integer> prevInCore = new HashSet<>();
-            for(int cId : core.keySet())
+            IntSet in = WikipediaCache.get().incoming(articleId);
+            if(in == null)
+            {
+                // no incoming links available, scan the core
+                for(int cId : core.keySet())
+                {
+                    if(WikipediaCache.get().outgoingIds(cId).contains(articleId))
+                        prevInCore.add(cId);
+                }
+                return prevInCore;
+            }
+            for(int i=0;i<in.size();i++)
             {
-                if(WikipediaCache.get().outgoing(cId).contains(articleId))
-                    prevInCore.add(cId);
+                if(core.containsKey(in.get(i)))
+                    prevInCore.add(in.get(i));
             }
             return prevInCore;
         }
@@ -144,8 +234,10 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         double alpha = 0.85;
         for(int iteration=0;iteration<16;iteration++) {
             for (int i : core.keySet()) {
-                double v = (tmp0.get(i) / WikipediaCache.get().outgoing(i).size()) * alpha;
-                for (int outId : WikipediaCache.get().outgoing(i)) {
+                IntSet out = WikipediaCache.get().outgoingIds(i);
+                double v = (tmp0.get(i) / out.size()) * alpha;
+                for (int j = 0; j < out.size(); j++) {
+                    int outId = out.get(j);
                     if(!core.containsKey(outId))
                         continue;
                     if (!tmp1.containsKey(outId))
@@ -176,7 +268,7 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         for(String article : WikipediaCache.get().articles())
         {
             int articleId = WikipediaCache.get().lookup(article);
-            if(WikipediaCache.get().outgoing(articleId) ==  null)
+            if(WikipediaCache.get().outgoingIds(articleId) ==  null)
             {
                 frontier.add(articleId);
             }
@@ -194,7 +286,7 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         for(String article : WikipediaCache.get().articles())
         {
             int articleId = WikipediaCache.get().lookup(article);
-            if(WikipediaCache.get().outgoing(articleId) !=  null)
+            if(WikipediaCache.get().outgoingIds(articleId) !=  null)
             {
                 tmp.put(articleId, new HashSet<Integer>());
             }
@@ -202,8 +294,10 @@ public class DijkstraWikipediaPathFinder001 implements IWikipediaPathFinder {
         for(int articleID : tmp.keySet())
         {
             Set<Integer> nextHops = new HashSet<>();
-            for(int nextHopID : WikipediaCache.get().outgoing(articleID))
+            IntSet out = WikipediaCache.get().outgoingIds(articleID);
+            for(int i=0;i<out.size();i++)
             {
+                int nextHopID = out.get(i);
                 if(tmp.containsKey(nextHopID))
                     nextHops.add(nextHopID);
             }
@@ -41,6 +41,7 @@ public class DijkstraWikipediaPathFinder002 extends DijkstraWikipediaPathFinder0
 
     @Override
     public String[] find(String start, String goal) {
+        catchUp();
         if(!WikipediaCache.get().has(start) || !WikipediaCache.get().has(goal))
             return new String[]{};
 
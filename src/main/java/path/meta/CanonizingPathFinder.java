@@ -1,6 +1,5 @@
 package path.meta;
 
-import miner.DepthFirstWikipediaMiner;
 import path.IWikipediaPathFinder;
 import wikipedia.WikipediaCache;
 
@@ -23,15 +22,7 @@ public class CanonizingPathFinder implements IWikipediaPathFinder {
 
     private String canonize(String article)
     {
-        String s2 = article.replaceAll("(-|_)+"," ").toUpperCase();
-        for(String a : WikipediaCache.get().articles())
-        {
-            String a2 = a.toUpperCase().replaceAll("(-|_)+"," ");
-            if(a2.equals(s2))
-                return a;
-        }
-
-        return article;
+        return WikipediaCache.get().canonicalize(article);
     }
 
     @Override
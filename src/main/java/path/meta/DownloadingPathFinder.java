@@ -1,49 +1,57 @@
 package path.meta;
 
-import miner.DepthFirstWikipediaMiner;
+import miner.BreadthFirstWikipediaMiner;
 import path.IWikipediaPathFinder;
 import wikipedia.WikipediaCache;
+import wikipedia.fetch.LinkSource;
 
 /**
+ * This class downloads the start and goal article (if they are not cached yet)
+ * before handing them to the inner IWikipediaPathFinder.
+ * The links are fetched from a given LinkSource, or from the LinkSource of the cache.
  * Created by joris on 2/18/18.
  */
 public class DownloadingPathFinder implements IWikipediaPathFinder {
 
     private IWikipediaPathFinder innerPathFinder;
+    private LinkSource source;
 
     public DownloadingPathFinder(IWikipediaPathFinder pathFinder)
+    {
+        this(pathFinder, null);
+    }
+
+    public DownloadingPathFinder(IWikipediaPathFinder pathFinder, LinkSource source)
     {
         this.innerPathFinder = pathFinder;
+        this.source = source;
     }
 
-    private String canonize(String article)
+    private LinkSource source()
     {
-        String s2 = article.replaceAll("(-|_)+"," ").toUpperCase();
-        for(String a : WikipediaCache.get().articles())
-        {
-            String a2 = a.toUpperCase().replaceAll("(-|_)+"," ");
-            if(a2.equals(s2))
-                return a;
-        }
+        return source == null ? WikipediaCache.get().linkSource() : source;
+    }
 
-        return article;
+    private String canonize(String article)
+    {
+        return WikipediaCache.get().canonicalize(article);
     }
 
     @Override
     public String[] find(String start, String goal) {
 
         // download start article page if needed
-        if(!WikipediaCache.get().has(start) || WikipediaCache.get().outgoing(start) == null)
+        if(!WikipediaCache.get().has(start) || WikipediaCache.get().outgoing(start, source()) == null)
         {
-            new DepthFirstWikipediaMiner().start(start, 1);
-            WikipediaCache.get().store();
+            new BreadthFirstWikipediaMiner(source).start(start, 1);
+            WikipediaCache.get().flush();
             start = canonize(start);
         }
 
         // download goal article page if needed
-        if(!WikipediaCache.get().has(goal) || WikipediaCache.get().outgoing(goal) == null) {
-            new DepthFirstWikipediaMiner().start(goal, 1);
-            WikipediaCache.get().store();
+        if(!WikipediaCache.get().has(goal) || WikipediaCache.get().outgoing(goal, source()) == null) {
+            new BreadthFirstWikipediaMiner(source).start(goal, 1);
+            WikipediaCache.get().flush();
             goal = canonize(goal);
         }
 
@@ -0,0 +1,147 @@
+package wikipedia;
+
+import java.util.Arrays;
+
+/**
+ * This class maps redirects to the articles they redirect to, both by article ID.
+ * Wikipedia serves the content of the target article under the title of a redirect,
+ * so the cache keeps a single node per article, and resolves the title of a redirect to that node.
+ * The table is an open-addressing hash table holding, per slot, redirect ID + 1 (0 marks an empty slot)
+ * and the ID of the target, so that it takes a few bytes per redirect, rather than per article.
+ * Adding aliases is done under a lock, but resolving them never blocks.
+ */
+class AliasTable {
+
+    // redirects to redirects are followed, up to this number of hops (in case of cycles)
+    private static final int MAX_HOPS = 8;
+
+    // pairs of (redirect ID + 1, target ID)
+    private volatile int[] table = new int[2 * 1024];
+    private volatile int size = 0;
+
+    private static int hash(int articleId)
+    {
+        int h = articleId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Register a given article as a redirect to another article.
+     * Registering an article as a redirect to itself makes it an article in its own right again.
+     * @param redirectId
+     * @param targetId
+     */
+    synchronized void put(int redirectId, int targetId)
+    {
+        int[] tmp = table;
+        int slot = find(tmp, redirectId);
+        if(tmp[2 * slot] != 0)
+        {
+            tmp[2 * slot + 1] = targetId;
+            return;
+        }
+        if((size + 1) * 2 > tmp.length / 2)
+        {
+            tmp = grow(tmp);
+            slot = find(tmp, redirectId);
+        }
+        tmp[2 * slot + 1] = targetId;
+        tmp[2 * slot] = redirectId + 1;
+        table = tmp;
+        size++;
+    }
+
+    /**
+     * Return the slot holding a given redirect, or the empty slot where it would go
+     */
+    private static int find(int[] table, int redirectId)
+    {
+        int mask = table.length / 2 - 1;
+        int slot = hash(redirectId) & mask;
+        while(table[2 * slot] != 0 && table[2 * slot] != redirectId + 1)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int[] grow(int[] table)
+    {
+        int[] tmp = new int[table.length * 2];
+        for(int i=0;i<table.length;i+=2)
+        {
+            if(table[i] == 0)
+                continue;
+            int slot = find(tmp, table[i] - 1);
+            tmp[2 * slot + 1] = table[i + 1];
+            tmp[2 * slot] = table[i];
+        }
+        return tmp;
+    }
+
+    /**
+     * Return the ID of the article a given article redirects to,
+     * or the given ID if the article is not a redirect
+     * @param articleId
+     * @return
+     */
+    int resolve(int articleId)
+    {
+        if(size == 0 || articleId < 0)
+            return articleId;
+        int[] tmp = table;
+        for(int hop=0;hop<MAX_HOPS;hop++)
+        {
+            int slot = find(tmp, articleId);
+            if(tmp[2 * slot] == 0 || tmp[2 * slot + 1] == articleId)
+                break;
+            articleId = tmp[2 * slot + 1];
+        }
+        return articleId;
+    }
+
+    /**
+     * Return true iff a given article is a redirect
+     * @param articleId
+     * @return
+     */
+    boolean isRedirect(int articleId)
+    {
+        return resolve(articleId) != articleId;
+    }
+
+    /**
+     * Return the number of redirects
+     * @return
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Return the aliases of all redirects with an ID in [from, to),
+     * as (redirect ID, target ID) pairs sorted by redirect ID
+     * @param from
+     * @param to
+     * @return
+     */
+    int[] pairs(int from, int to)
+    {
+        int[] tmp = table;
+        long[] sorted = new long[tmp.length / 2];
+        int n = 0;
+        for(int i=0;i<tmp.length;i+=2)
+        {
+            int redirectId = tmp[i] - 1;
+            if(redirectId >= from && redirectId < to)
+                sorted[n++] = ((long) redirectId << 32) | (tmp[i + 1] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(sorted, 0, n);
+        int[] pairs = new int[2 * n];
+        for(int i=0;i<n;i++)
+        {
+            pairs[2 * i] = (int) (sorted[i] >> 32);
+            pairs[2 * i + 1] = (int) sorted[i];
+        }
+        return pairs;
+    }
+}
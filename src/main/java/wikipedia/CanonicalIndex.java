@@ -0,0 +1,126 @@
+package wikipedia;
+
+/**
+ * This class finds articles by their canonical key, i.e. their title, upper-cased,
+ * with every run of '-' and '_' replaced by a single space.
+ * This allows end-users to type "michael jackson" rather than "Michael_Jackson".
+ * The index is an open-addressing hash table holding, per slot, ID + 1 (0 marks an empty slot)
+ * and the hash of the canonical key. Keys themselves are not stored, the title of a candidate with the same hash
+ * is looked up (and canonized) when it is probed. The index therefore takes a few bytes per article.
+ * If several articles share a canonical key, the one that was added first is found.
+ * Adding articles is done under a lock, but lookups never block.
+ * Articles are added in order of their IDs, the index catches up with the cache (see update) before it is used.
+ */
+abstract class CanonicalIndex {
+
+    // pairs of (ID + 1, hash of the key), so that probing rarely needs to look up a title
+    private volatile int[] table = new int[2 * 1024];
+    private int size = 0;
+
+    /**
+     * Return the title of a given article
+     * @param articleId
+     * @return
+     */
+    protected abstract String title(int articleId);
+
+    /**
+     * Return the canonical key of a title
+     * @param title
+     * @return
+     */
+    static String key(String title)
+    {
+        String upper = title.toUpperCase();
+        StringBuilder sb = new StringBuilder(upper.length());
+        boolean inRun = false;
+        for(int i=0;i<upper.length();i++)
+        {
+            char c = upper.charAt(i);
+            if(c == '-' || c == '_')
+            {
+                if(!inRun)
+                    sb.append(' ');
+                inRun = true;
+                continue;
+            }
+            inRun = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int hash(String key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Bring the index up to date with the articles of the cache.
+     * Since article IDs are handed out densely, and never change, only the articles that were created
+     * since the last update are added.
+     * @param nofArticles the number of articles in the cache
+     */
+    synchronized void update(int nofArticles)
+    {
+        if(nofArticles <= size)
+            return;
+        reserve(nofArticles);
+        for(int i=size;i<nofArticles;i++)
+            insert(table, i, hash(key(title(i))));
+        size = nofArticles;
+    }
+
+    /**
+     * Grow the table so that it is at most half full once it holds n articles
+     */
+    private void reserve(int n)
+    {
+        int capacity = table.length / 2;
+        if(n * 2 <= capacity)
+            return;
+        while(n * 2 > capacity)
+            capacity *= 2;
+        int[] tmp = new int[capacity * 2];
+        for(int i=0;i<table.length;i+=2)
+        {
+            if(table[i] != 0)
+                insert(tmp, table[i] - 1, table[i + 1]);
+        }
+        table = tmp;
+    }
+
+    private static void insert(int[] table, int articleId, int hash)
+    {
+        int mask = table.length / 2 - 1;
+        int slot = hash & mask;
+        while(table[2 * slot] != 0)
+            slot = (slot + 1) & mask;
+        table[2 * slot + 1] = hash;
+        table[2 * slot] = articleId + 1;
+    }
+
+    /**
+     * Return the ID of the (first) article with the same canonical key as a given title,
+     * or -1 if there is no such article
+     * @param title
+     * @return
+     */
+    int lookup(String title)
+    {
+        String key = key(title);
+        int hash = hash(key);
+        int[] tmp = table;
+        int mask = tmp.length / 2 - 1;
+        int slot = hash & mask;
+        while(tmp[2 * slot] != 0)
+        {
+            int articleId = tmp[2 * slot] - 1;
+            if(tmp[2 * slot + 1] == hash && key(title(articleId)).equals(key))
+                return articleId;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,98 @@
+package wikipedia;
+
+/**
+ * This class represents a batch of consecutive changes made to the WikipediaCache,
+ * in the order in which they were made.
+ * Every change has a type (EXPANDED, ADDED or REMOVED), a source article and (for links) a target article.
+ * The changes in a batch take the cache from generation fromGeneration() to generation toGeneration().
+ */
+public class ChangeBatch {
+
+    // the outgoing links of an article became known (to is -1)
+    public static final byte EXPANDED = 0;
+    // a link was added
+    public static final byte ADDED = 1;
+    // a link was removed
+    public static final byte REMOVED = 2;
+
+    private final long fromGeneration;
+    private final byte[] types;
+    private final int[] from;
+    private final int[] to;
+
+    ChangeBatch(long fromGeneration, byte[] types, int[] from, int[] to)
+    {
+        this.fromGeneration = fromGeneration;
+        this.types = types;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Return the generation of the cache before the first change in this batch
+     * @return
+     */
+    public long fromGeneration()
+    {
+        return fromGeneration;
+    }
+
+    /**
+     * Return the generation of the cache after the last change in this batch
+     * @return
+     */
+    public long toGeneration()
+    {
+        return fromGeneration + types.length;
+    }
+
+    /**
+     * Return the number of changes in this batch
+     * @return
+     */
+    public int size()
+    {
+        return types.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return types.length == 0;
+    }
+
+    /**
+     * Return the type of a given change (EXPANDED, ADDED or REMOVED)
+     * @param index
+     * @return
+     */
+    public byte type(int index)
+    {
+        return types[index];
+    }
+
+    /**
+     * Return the source article of a given change
+     * @param index
+     * @return
+     */
+    public int from(int index)
+    {
+        return from[index];
+    }
+
+    /**
+     * Return the target article of a given change, or -1 for EXPANDED changes
+     * @param index
+     * @return
+     */
+    public int to(int index)
+    {
+        return to[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "generations " + fromGeneration + ".." + toGeneration() + " (" + size() + " changes)";
+    }
+}
@@ -0,0 +1,22 @@
+package wikipedia;
+
+/**
+ * This interface is implemented by structures derived from the WikipediaCache
+ * that want to follow changes to the cache (see WikipediaCache.addListener).
+ * Batches are delivered in order, on a single background thread.
+ */
+public interface ChangeListener {
+
+    /**
+     * Called with every batch of changes made to the cache
+     * @param batch
+     */
+    void changed(ChangeBatch batch);
+
+    /**
+     * Called when changes could not be delivered (because the listener fell too far behind).
+     * The listener should rebuild itself from the cache, as it is at the given generation (or later).
+     * @param generation the current generation of the cache
+     */
+    void lost(long generation);
+}
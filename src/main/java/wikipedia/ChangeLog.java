@@ -0,0 +1,84 @@
+package wikipedia;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the most recent changes made to the WikipediaCache in memory,
+ * so that derived structures can catch up with the cache, rather than rebuilding themselves.
+ * Every change increments the generation of the cache, the change that took the cache to generation g
+ * is found at index g - 1 of the log. Only the last 'capacity' changes are kept,
+ * once the log is full, the oldest half is dropped.
+ * This class is thread-safe.
+ */
+class ChangeLog {
+
+    private final int capacity;
+
+    // changes from 'firstGeneration' on
+    private byte[] types = new byte[1024];
+    private int[] from = new int[1024];
+    private int[] to = new int[1024];
+    private int size = 0;
+    private long firstGeneration = 0;
+
+    ChangeLog(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Append a change to the log
+     * @param type
+     * @param fromId
+     * @param toId
+     * @return the generation of the cache after the change
+     */
+    synchronized long record(byte type, int fromId, int toId)
+    {
+        if(size == capacity)
+        {
+            // drop the oldest half
+            int keep = capacity / 2;
+            System.arraycopy(types, size - keep, types, 0, keep);
+            System.arraycopy(from, size - keep, from, 0, keep);
+            System.arraycopy(to, size - keep, to, 0, keep);
+            firstGeneration += size - keep;
+            size = keep;
+        }
+        if(size == types.length)
+        {
+            int length = java.lang.Math.min(types.length * 2, capacity);
+            types = Arrays.copyOf(types, length);
+            from = Arrays.copyOf(from, length);
+            to = Arrays.copyOf(to, length);
+        }
+        types[size] = type;
+        from[size] = fromId;
+        to[size] = toId;
+        size++;
+        return firstGeneration + size;
+    }
+
+    /**
+     * Return the current generation, i.e. the number of changes recorded so far
+     * @return
+     */
+    synchronized long generation()
+    {
+        return firstGeneration + size;
+    }
+
+    /**
+     * Return all changes made after a given generation,
+     * or null if some of those changes are no longer in the log
+     * @param generation
+     * @return
+     */
+    synchronized ChangeBatch since(long generation)
+    {
+        if(generation < firstGeneration || generation > firstGeneration + size)
+            return null;
+        int start = (int) (generation - firstGeneration);
+        return new ChangeBatch(generation, Arrays.copyOfRange(types, start, size), Arrays.copyOfRange(from, start, size), Arrays.copyOfRange(to, start, size));
+    }
+}
@@ -0,0 +1,29 @@
+package wikipedia;
+
+/**
+ * This class decides which Wikipedia pages count as articles.
+ * Links to pages in other namespaces (categories, templates, talk pages, etc)
+ * and links to the main page are not followed.
+ */
+public class Namespaces {
+
+    private static final String[] EXCLUDED = {"Category:", "Special:", "Template:", "Portal:", "Talk:", "Help:",
+            "Template_talk:", "File:", "Book:", "Wikipedia:", "Main_Page"};
+
+    /**
+     * Return true iff a given link (the part of the URL following '/wiki/') points to an article
+     * @param link
+     * @return
+     */
+    public static boolean isArticle(String link)
+    {
+        if(link.isEmpty())
+            return false;
+        for(String excluded : EXCLUDED)
+        {
+            if(link.contains(excluded))
+                return false;
+        }
+        return true;
+    }
+}
@@ -1,18 +1,55 @@
 package wikipedia;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
+import graph.BlockCache;
+import graph.IntAdjacency;
+import graph.IntSet;
+import org.jsoup.HttpStatusException;
+import wikipedia.fetch.ApiLinkSource;
+import wikipedia.fetch.DumpLinkSource;
+import wikipedia.fetch.FetchPool;
+import wikipedia.fetch.FetchTable;
+import wikipedia.fetch.HtmlLinkSource;
+import wikipedia.fetch.InFlightTable;
+import wikipedia.fetch.LinkSource;
+import wikipedia.fetch.NegativeCache;
+import wikipedia.fetch.PageLinks;
+import wikipedia.store.ChangeJournal;
+import wikipedia.store.GraphImage;
+import wikipedia.store.ParallelTextLoader;
+import wikipedia.store.ShardStore;
+import wikipedia.store.Snapshot;
+import wikipedia.store.SnapshotWriter;
+import wikipedia.store.TitleTable;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class represents a linkage between the program
  * and Wikipedia. This class avoids making too many calls to
  * Wikipedia. It stores the articles and links between them.
+ * This class is thread-safe. New article IDs are handed out under the lock of the title table,
+ * and links are updated under a lock striped by article ID.
+ * Looking up articles never blocks, and mutations of links only contend when they touch the same (stripe of) articles.
  * Created by joris on 1/26/18.
  */
 public class WikipediaCache {
@@ -21,20 +58,180 @@ public class WikipediaCache {
     private static final WikipediaCache self = new WikipediaCache();
 
     // articles are internally represented as integers
-    private Map<Integer, String> articleIds = new HashMap<>();
-    private Map<String, Integer> invArticleIds = new HashMap<>();
+    private TitleTable titles = new TitleTable();
 
     // map from article ID to IDs of articles linked
-    private Map<Integer, Set<Integer>> linkage = new HashMap<>();
+    private IntAdjacency linkage = new IntAdjacency();
+
+    // map from article ID to IDs of articles linking to it (the transpose of 'linkage')
+    private IntAdjacency incoming = new IntAdjacency();
+
+    // map from redirects to the articles they redirect to, links are always stored against the latter
+    private AliasTable aliases = new AliasTable();
 
     // parameters for auto-saving the cache
-    private int nofChanges = 0;
+    // changes are appended to a journal, which is folded into a new snapshot once
+    // it holds more than 'nofChangesBeforeSave' changes, and more than 'compactionRatio' times the number of links
+    private AtomicInteger nofChanges = new AtomicInteger();
     private int nofChangesBeforeSave = 32768;
+    private double compactionRatio = 0.25;
+
+    // journal of all changes since the last snapshot
+    private File directory;
+    private volatile ChangeJournal journal = null;
+    private int journalGeneration = 0;
+
+    // mutations hold the read lock, so that taking a snapshot (which holds the write lock)
+    // sees the cache at a point in time where no mutation is half-way done
+    private ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // snapshots are written in the background
+    private SnapshotWriter snapshotWriter = new SnapshotWriter();
+
+    // read-only mode, answers all queries from a memory-mapped snapshot
+    private GraphImage image = null;
+
+    // snapshots (and shards) are written with packed neighbor lists, which take less space but load slower
+    private final boolean isPacked = Boolean.getBoolean("wikipedia.cache.packed");
+
+    // sharded mode, the cache is saved as a number of shards (see ShardStore) rather than as a single snapshot,
+    // only the shards holding an article that was changed since the last save are written again
+    private static final int DEFAULT_SHARD_SIZE = 1 << 16;
+    private ShardStore shards = null;
+    private Set<Integer> dirtyShards = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    // finds articles by their canonical key (see canonicalize)
+    private CanonicalIndex canonicalIndex = new CanonicalIndex() {
+        @Override
+        protected String title(int articleId) { return WikipediaCache.this.lookup(articleId); }
+    };
+
+    // articles are fetched from 'linkSource', on the caller's thread (see outgoing), or in the background (see prefetch)
+    private volatile LinkSource linkSource = defaultLinkSource();
+    private FetchPool fetchPool = null;
+
+    // the articles that are being fetched, so that concurrent lookups of the same article share a single fetch
+    private InFlightTable inFlight = new InFlightTable();
+
+    // when (and with which validators) the page of every article was fetched, so that it can be revalidated
+    private FetchTable fetched = new FetchTable();
+    private ScheduledExecutorService revalidator = null;
+
+    // articles that could not be fetched recently, and are not fetched again until their time-to-live expires
+    private NegativeCache negative = new NegativeCache();
+
+    // recent changes, so that derived structures can catch up incrementally (see changesSince and addListener)
+    private ChangeLog changeLog = new ChangeLog(1 << 20);
+    private List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private ExecutorService dispatcher = null;
+    private AtomicBoolean isDispatching = new AtomicBoolean();
+
+    private static class Subscription
+    {
+        final ChangeListener listener;
+        long generation;
+        Subscription(ChangeListener listener, long generation)
+        {
+            this.listener = listener;
+            this.generation = generation;
+        }
+    }
 
     private WikipediaCache() {
+        this(new File(System.getProperty("user.home")));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() { flush(); }
+        });
+    }
+
+    WikipediaCache(File directory) {
+        this(directory, parseSize(System.getProperty("wikipedia.cache.budget", "0")));
+    }
+
+    WikipediaCache(File directory, long budget) {
+        this(directory, budget, Integer.getInteger("wikipedia.cache.shardSize", 0));
+    }
+
+    /**
+     * Build a WikipediaCache
+     * @param directory the directory holding the snapshot and journals
+     * @param budget the number of bytes the links may take on the heap (divided equally between outgoing and incoming links),
+     *               or 0 if the links may take as much memory as they need
+     * @param shardSize the number of article IDs per shard, or 0 to save the cache as a single snapshot.
+     *                  A cache that was saved as shards before is always loaded (and saved) as shards, with the shard size it was saved with.
+     */
+    WikipediaCache(File directory, long budget, int shardSize) {
+        this.directory = directory;
+        if(Boolean.getBoolean("wikipedia.cache.mapped") && map())
+            return;
+        if(budget > 0)
+            bound(budget);
+        ShardStore store = new ShardStore(shardDirectory(), shardSize > 0 ? shardSize : DEFAULT_SHARD_SIZE);
+        if(shardSize > 0 || store.exists())
+            shards = store;
         load();
     }
 
+    /**
+     * Parse a number of bytes, with an optional (k, m or g) suffix
+     * @param size
+     * @return
+     */
+    private static long parseSize(String size)
+    {
+        String s = size.trim().toLowerCase();
+        long unit = 1;
+        if(s.endsWith("k"))
+            unit = 1L << 10;
+        else if(s.endsWith("m"))
+            unit = 1L << 20;
+        else if(s.endsWith("g"))
+            unit = 1L << 30;
+        if(unit != 1)
+            s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * unit;
+    }
+
+    /**
+     * Bound the memory taken by the links.
+     * Cold adjacency lists are paged out to segment files next to the cache, and paged back in when needed.
+     * @param budget
+     * @return
+     */
+    private boolean bound(long budget)
+    {
+        try {
+            String name = this.getClass().getSimpleName();
+            linkage.bound(new BlockCache(new File(directory, name + ".outgoing.segments"), budget / 2));
+            incoming.bound(new BlockCache(new File(directory, name + ".incoming.segments"), budget / 2));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Return the BlockCache that bounds the memory taken by outgoing links,
+     * or null if the cache is unbounded (see the system property 'wikipedia.cache.budget')
+     * @return
+     */
+    public BlockCache outgoingCache()
+    {
+        return linkage.cache();
+    }
+
+    /**
+     * Return the BlockCache that bounds the memory taken by incoming links,
+     * or null if the cache is unbounded
+     * @return
+     */
+    public BlockCache incomingCache()
+    {
+        return incoming.cache();
+    }
+
     public static WikipediaCache get() {
         return self;
     }
@@ -43,18 +240,51 @@ public class WikipediaCache {
      * Return the ID of an article,
      * or creates the ID if the given key is not yet
      * present in the ID table(s).
+     * Callers should hold the read lock of 'structureLock'.
      * @param article
      * @return
      */
     private int createOrLookup(String article) {
-        if (invArticleIds.containsKey(article))
-            return invArticleIds.get(article);
-        else {
-            int N = articleIds.size();
-            invArticleIds.put(article, N);
-            articleIds.put(N, article);
-            return N;
+        int id = titles.lookup(article);
+        if (id != -1)
+            return id;
+        ChangeJournal tmp = null;
+        boolean sync = false;
+        synchronized (titles) {
+            id = titles.lookup(article);
+            if (id != -1)
+                return id;
+            // journal the new article before any other thread can use its ID (replay assigns IDs in journal order),
+            // but force the journal to disk only once the lock is released
+            id = titles.size();
+            try {
+                tmp = journal();
+                sync = tmp.appendArticle(id, article);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dirty(id);
+            titles.add(article);
+        }
+        if(sync)
+        {
+            try {
+                tmp.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
+        return id;
+    }
+
+    /**
+     * Mark the shard holding a given article as changed since the last save
+     * @param articleId
+     */
+    private void dirty(int articleId)
+    {
+        if(shards != null)
+            dirtyShards.add(shards.shard(articleId));
     }
 
     /**
@@ -64,17 +294,98 @@ public class WikipediaCache {
      * @param to target article
      */
     public void addLink(String from, String to) {
+        checkWritable();
         if(from.isEmpty() || to.isEmpty())
             return;
-        int fromId = createOrLookup(from);
-        int toId = createOrLookup(to);
-        if (!linkage.containsKey(fromId))
-            linkage.put(fromId, new HashSet<Integer>());
-        linkage.get(fromId).add(toId);
-        nofChanges++;
-        if (nofChanges % nofChangesBeforeSave == 0) {
-            store();
+        boolean isAdded;
+        structureLock.readLock().lock();
+        try {
+            int fromId = aliases.resolve(createOrLookup(from));
+            int toId = aliases.resolve(createOrLookup(to));
+            synchronized (linkage.lock(fromId)) {
+                isAdded = linkage.add(fromId, toId);
+                if(isAdded)
+                {
+                    incoming.append(toId, fromId);
+                    journal().add(fromId, toId);
+                    changeLog.record(ChangeBatch.ADDED, fromId, toId);
+                    dirty(fromId);
+                    dirty(toId);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        if(isAdded)
+        {
+            changed(1);
+            dispatch();
+        }
+    }
+
+    /**
+     * Register the links between a given start article
+     * and a number of target articles, merging them all at once
+     * @param from start article
+     * @param to target articles
+     * @param replace true iff the links of the start article that are not among the target articles should be removed
+     */
+    private void addLinks(String from, List<String> to, boolean replace)
+    {
+        int nofChanged;
+        structureLock.readLock().lock();
+        try {
+            int fromId = aliases.resolve(createOrLookup(from));
+            int[] toIds = new int[to.size()];
+            for(int i=0;i<toIds.length;i++)
+                toIds[i] = aliases.resolve(createOrLookup(to.get(i)));
+            synchronized (linkage.lock(fromId)) {
+                // diff the new links against the old ones, and only journal (and index) the difference
+                boolean isKnown = linkage.has(fromId);
+                int[] added;
+                int[] removed = new int[0];
+                if(replace)
+                {
+                    int[][] diff = linkage.replaceAll(fromId, toIds);
+                    added = diff[0];
+                    removed = diff[1];
+                }
+                else
+                    added = linkage.addAll(fromId, toIds);
+                nofChanged = added.length + removed.length;
+                if(!isKnown)
+                {
+                    journal().expand(fromId);
+                    changeLog.record(ChangeBatch.EXPANDED, fromId, -1);
+                }
+                if(!isKnown || nofChanged > 0)
+                    dirty(fromId);
+                for(int toId : removed)
+                {
+                    incoming.remove(toId, fromId);
+                    journal().remove(fromId, toId);
+                    changeLog.record(ChangeBatch.REMOVED, fromId, toId);
+                    dirty(toId);
+                }
+                for(int toId : added)
+                {
+                    incoming.append(toId, fromId);
+                    journal().add(fromId, toId);
+                    changeLog.record(ChangeBatch.ADDED, fromId, toId);
+                    dirty(toId);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            structureLock.readLock().unlock();
         }
+        changed(nofChanged);
+        dispatch();
     }
 
     /**
@@ -85,217 +396,1417 @@ public class WikipediaCache {
      */
     public void removeLink(String from, String to)
     {
+        checkWritable();
         if(from.isEmpty() || to.isEmpty())
             return;
-        int fromId = createOrLookup(from);
-        int toId = createOrLookup(to);
-        if (!linkage.containsKey(fromId))
+        boolean isRemoved;
+        structureLock.readLock().lock();
+        try {
+            int fromId = aliases.resolve(createOrLookup(from));
+            int toId = aliases.resolve(createOrLookup(to));
+            synchronized (linkage.lock(fromId)) {
+                isRemoved = linkage.remove(fromId, toId);
+                if(isRemoved)
+                {
+                    incoming.remove(toId, fromId);
+                    journal().remove(fromId, toId);
+                    changeLog.record(ChangeBatch.REMOVED, fromId, toId);
+                    dirty(fromId);
+                    dirty(toId);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
             return;
-        linkage.get(fromId).remove(toId);
-        nofChanges++;
-        if (nofChanges % nofChangesBeforeSave == 0) {
-            store();
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        if(isRemoved)
+        {
+            changed(1);
+            dispatch();
         }
     }
 
     /**
-     * Return the ID corresponding to a given article title
-     * @param article
-     * @return
+     * Register a given article as a redirect to another article.
+     * From then on, the redirect resolves to the target (see lookup), and links to (or from) the redirect are
+     * stored against the target. Links that were stored against the redirect before are moved to the target.
+     * @param redirect the title of the redirect
+     * @param target the title of the article it redirects to
      */
-    public int lookup(String article)
+    public void alias(String redirect, String target)
     {
-        return invArticleIds.get(article);
+        checkWritable();
+        if(redirect.isEmpty() || target.isEmpty() || redirect.equals(target))
+            return;
+        int nofMoved;
+        structureLock.readLock().lock();
+        try {
+            int redirectId = createOrLookup(redirect);
+            int targetId = aliases.resolve(createOrLookup(target));
+            // the target (eventually) redirects to the redirect itself
+            if(targetId == redirectId || aliases.resolve(redirectId) == targetId)
+                return;
+            synchronized (aliases) {
+                aliases.put(redirectId, targetId);
+                journal().alias(redirectId, targetId);
+                dirty(redirectId);
+            }
+            nofMoved = moveLinks(redirectId, targetId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        changed(nofMoved + 1);
+        dispatch();
     }
 
     /**
-     * Return the article title corresponding to a given article ID
-     * @param articleId
-     * @return
+     * Move the links to and from a redirect to the article it redirects to.
+     * Since Wikipedia serves the content of the target under the title of the redirect,
+     * the outgoing links of the redirect are those of the target.
+     * Callers should hold the read lock of 'structureLock'.
+     * @param redirectId
+     * @param targetId
+     * @return the number of changes made
+     * @throws IOException
      */
-    public String lookup(int articleId)
+    private int moveLinks(int redirectId, int targetId) throws IOException
     {
-        return articleIds.get(articleId);
+        int n = 0;
+        IntSet in = incoming.get(redirectId);
+        for(int i=0;in != null && i<in.size();i++)
+        {
+            int fromId = in.get(i);
+            synchronized (linkage.lock(fromId)) {
+                if(!linkage.remove(fromId, redirectId))
+                    continue;
+                incoming.remove(redirectId, fromId);
+                journal().remove(fromId, redirectId);
+                changeLog.record(ChangeBatch.REMOVED, fromId, redirectId);
+                n++;
+                if(linkage.add(fromId, targetId))
+                {
+                    incoming.append(targetId, fromId);
+                    journal().add(fromId, targetId);
+                    changeLog.record(ChangeBatch.ADDED, fromId, targetId);
+                    n++;
+                }
+                dirty(fromId);
+            }
+        }
+        dirty(targetId);
+
+        IntSet out = linkage.get(redirectId);
+        if(out == null)
+            return n;
+        int[] toIds = out.toArray();
+        boolean isExpanded;
+        synchronized (linkage.lock(targetId)) {
+            isExpanded = linkage.has(targetId);
+            if(!isExpanded)
+            {
+                linkage.addAll(targetId, new int[0]);
+                journal().expand(targetId);
+                changeLog.record(ChangeBatch.EXPANDED, targetId, -1);
+                n++;
+            }
+        }
+        for(int toId : toIds)
+        {
+            synchronized (linkage.lock(redirectId)) {
+                if(!linkage.remove(redirectId, toId))
+                    continue;
+                incoming.remove(toId, redirectId);
+                journal().remove(redirectId, toId);
+                changeLog.record(ChangeBatch.REMOVED, redirectId, toId);
+                dirty(toId);
+                n++;
+            }
+            // the links of the target itself are the most recent ones
+            if(isExpanded)
+                continue;
+            int resolvedId = aliases.resolve(toId);
+            synchronized (linkage.lock(targetId)) {
+                if(linkage.add(targetId, resolvedId))
+                {
+                    incoming.append(resolvedId, targetId);
+                    journal().add(targetId, resolvedId);
+                    changeLog.record(ChangeBatch.ADDED, targetId, resolvedId);
+                    dirty(resolvedId);
+                    n++;
+                }
+            }
+        }
+        return n;
     }
 
     /**
-     * Return true iff the cache currently contains the given article
-     * @param article
+     * Return true iff a given article is a redirect (see alias)
+     * @param articleId
      * @return
      */
-    public boolean has(String article) {
-        return invArticleIds.containsKey(article);
+    public boolean isRedirect(int articleId)
+    {
+        return resolve(articleId) != articleId;
     }
 
     /**
-     * Return true iff the cache currently contains the given article
+     * Return the ID of the article a given article redirects to,
+     * or the given ID if the article is not a redirect
      * @param articleId
      * @return
      */
-    public boolean has(int articleId) {
-        return articleIds.containsKey(articleId);
+    public int resolve(int articleId)
+    {
+        if(image != null)
+            return image.resolve(articleId);
+        return aliases.resolve(articleId);
     }
 
     /**
-     * Return all articles currently contained in the cache
+     * Return the generation of the cache.
+     * The generation starts at 0 when the cache is loaded, and is incremented with every change made afterwards
+     * (an article whose outgoing links become known, a link that is added or removed).
+     * Structures derived from the cache can remember the generation they were built at, and catch up later on (see changesSince).
      * @return
      */
-    public Set<String> articles()
+    public long generation()
     {
-        return invArticleIds.keySet();
+        return changeLog.generation();
     }
 
     /**
-     * Get all outgoing links from a given article ID
-     * @param articleId
+     * Return all changes made to the cache after a given generation, in the order in which they were made,
+     * or null if those changes are no longer known (only the most recent changes are kept),
+     * in which case derived structures need to be rebuilt.
+     * A structure that is built while the cache is being changed should take the generation before it starts building.
+     * It might then see some changes twice, but since applying a change again has no effect, it will not miss any.
+     * @param generation
      * @return
      */
-    public Set<Integer> outgoing(int articleId)
+    public ChangeBatch changesSince(long generation)
     {
-        return linkage.get(articleId);
+        return changeLog.since(generation);
     }
 
     /**
-     * Get all outgoing links from a given article title
-     * @param article
-     * @return
+     * Register a listener, that is sent every batch of changes made from now on.
+     * Batches are delivered in order, on a background thread.
+     * @param listener
+     * @return the generation from which the listener will be sent changes
      */
-    public Set<Integer> outgoing(String article)
+    public long addListener(ChangeListener listener)
     {
-        if(article.isEmpty())
-            return java.util.Collections.EMPTY_SET;
-        if(!has(article) || !linkage.containsKey(invArticleIds.get(article)))
-            onlineLookup(article);
-        return outgoing(invArticleIds.get(article));
+        synchronized (this)
+        {
+            if(dispatcher == null)
+            {
+                dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "change-dispatcher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        long generation = changeLog.generation();
+        subscriptions.add(new Subscription(listener, generation));
+        return generation;
     }
 
-    private boolean hasParent(Element e, String nodeName, String nodeClass, String nodeID)
+    public void removeListener(ChangeListener listener)
     {
-        Element tmp = e;
-        while(tmp != null)
+        for(Subscription subscription : subscriptions)
         {
-            tmp = tmp.parent();
-            if(tmp == null)
-                break;
-            if(nodeName != null && tmp.nodeName().equals(nodeName))
-                return true;
-            if(nodeClass != null && Arrays.asList(tmp.className().split(" ")).contains(nodeClass))
-                return true;
-            if(nodeID != null && tmp.id().equals(nodeID))
-                return true;
+            if(subscription.listener == listener)
+                subscriptions.remove(subscription);
         }
-        return false;
     }
 
     /**
-     * Perform live lookup of outgoing links if the article
-     * has not been cached yet.
-     * This method also updates the 'nofChanges' count.
-     * Which in turn might trigger an auto-save.
-     * @param article
+     * Schedule the delivery of all pending changes to the listeners.
+     * At most one delivery is scheduled at any time, changes made in the meantime are delivered in the same batch.
      */
-    private void onlineLookup(String article)
+    private void dispatch()
     {
-        String url = "https://en.wikipedia.org/wiki/" + article;
-        try {
-            Document htmlDoc = Jsoup.parse(new URL(url), 5000);
-            Element pageElement = htmlDoc.select("div#bodyContent").first();
-            for(Element e : pageElement.select("a"))
-            {
-                if(hasParent(e, "cite", null, null))
-                    continue;
-                if(hasParent(e, null, "references", null))
-                    continue;
-                if(hasParent(e, null, "refbegin", null))
-                    continue;
-                String href = e.attr("href");
-                if(href.startsWith("/wiki/") && !e.text().isEmpty())
+        if(subscriptions.isEmpty() || !isDispatching.compareAndSet(false, true))
+            return;
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver();
+                } finally {
+                    isDispatching.set(false);
+                }
+                // changes made while delivering were not picked up by the (then running) delivery
+                for(Subscription subscription : subscriptions)
                 {
-                    String link = href.substring(6);
-                    if(link.contains("Category:") || link.contains("Special:") ||
-                            link.contains("Template:") || link.contains("Portal:") ||
-                            link.contains("Talk:") || link.contains("Help:") ||
-                            link.contains("Template_talk:") || link.contains("File:") ||
-                            link.contains("Book:") || link.contains("Wikipedia:") ||
-                            link.contains("Main_Page"))
-                        continue;
-                    addLink(article, link);
+                    if(subscription.generation < changeLog.generation())
+                    {
+                        dispatch();
+                        break;
+                    }
                 }
             }
-        } catch (IOException e) {
+        });
+    }
+
+    private void deliver()
+    {
+        for(Subscription subscription : subscriptions)
+        {
+            try {
+                ChangeBatch batch = changeLog.since(subscription.generation);
+                if(batch == null)
+                {
+                    subscription.generation = changeLog.generation();
+                    subscription.listener.lost(subscription.generation);
+                    continue;
+                }
+                if(batch.isEmpty())
+                    continue;
+                subscription.generation = batch.toGeneration();
+                subscription.listener.changed(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    public boolean store()
+    /**
+     * Update the 'nofChanges' count,
+     * and fold the journal into a new snapshot once it has grown large enough.
+     * Since the threshold grows with the size of the graph, the cost of compaction
+     * is amortized to O(1) per change.
+     * @param n the number of changes
+     */
+    private void changed(int n)
     {
+        nofChanges.addAndGet(n);
+        if (!shouldCompact())
+            return;
+        structureLock.writeLock().lock();
         try {
-            _store();
-            return true;
+            // another thread might have compacted in the meantime
+            if (shouldCompact())
+                _store();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        return false;
     }
 
-    private void _store() throws IOException
+    private boolean shouldCompact()
+    {
+        int n = nofChanges.get();
+        return n >= nofChangesBeforeSave && n >= compactionRatio * linkage.nofEdges() && !snapshotWriter.isBusy();
+    }
+
+    /**
+     * Return the journal for the current generation, opening it if needed
+     * @return
+     * @throws IOException
+     */
+    private ChangeJournal journal() throws IOException
     {
-        File out = new File(System.getProperty("user.home"), this.getClass().getSimpleName() + ".bin");
-        FileWriter fileWriter = new FileWriter(out);
-        fileWriter.write(articleIds.size() + "\n");
-        for(Map.Entry<Integer, String> en : articleIds.entrySet())
+        ChangeJournal tmp = journal;
+        if(tmp != null)
+            return tmp;
+        synchronized (this)
         {
-            fileWriter.write(en.getKey() + "\t" + en.getValue() + "\n");
+            if(journal == null)
+                journal = ChangeJournal.open(journalFile(journalGeneration));
+            return journal;
         }
-        for(Map.Entry<Integer, Set<Integer>> en : linkage.entrySet())
+    }
+
+    private File journalFile(int generation)
+    {
+        return new File(directory, this.getClass().getSimpleName() + "." + generation + ".journal");
+    }
+
+    /**
+     * Return the generations of all journal files, in ascending order
+     * @return
+     */
+    private List<Integer> journalGenerations()
+    {
+        String prefix = this.getClass().getSimpleName() + ".";
+        List<Integer> generations = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if(files == null)
+            return generations;
+        for(File f : files)
         {
-            fileWriter.write(en.getKey() + "\t");
-            for(Integer toId : en.getValue())
-                fileWriter.write(toId + "\t");
-            fileWriter.write("\n");
+            String name = f.getName();
+            if(!name.startsWith(prefix) || !name.endsWith(".journal"))
+                continue;
+            try {
+                generations.add(Integer.parseInt(name.substring(prefix.length(), name.length() - ".journal".length())));
+            } catch (NumberFormatException e) {
+            }
         }
-        fileWriter.flush();
-        fileWriter.close();
+        Collections.sort(generations);
+        return generations;
     }
 
-    public boolean load()
+    /**
+     * Force all journaled changes to disk.
+     * This is much cheaper than store(), which writes a snapshot of the entire cache.
+     * @return
+     */
+    public boolean flush()
     {
+        ChangeJournal tmp = journal;
+        if(tmp == null)
+            return true;
         try {
-            _load();
+            tmp.flush();
             return true;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
         }
         return false;
     }
 
-    private void _load() throws IOException
+    /**
+     * Return the ID corresponding to a given article title.
+     * The title of a redirect resolves to the ID of the article it redirects to.
+     * @param article
+     * @return
+     */
+    public int lookup(String article)
     {
-        File in = new File(System.getProperty("user.home"), this.getClass().getSimpleName() + ".bin");
-        if(!in.exists())
-            return;
+        if(image != null)
+            return image.resolve(image.lookup(article));
+        return aliases.resolve(titles.lookup(article));
+    }
 
-        BufferedReader sc = new BufferedReader(new FileReader(in));
-        int nofEntries = Integer.parseInt(sc.readLine());
-        for(int i=0;i<nofEntries;i++)
-        {
-            String[] line = sc.readLine().split("\t");
-            int articleId = Integer.parseInt(line[0]);
-            String article = line[1];
-            articleIds.put(articleId, article);
-            invArticleIds.put(article, articleId);
-        }
-        while(sc.ready())
-        {
-            String[] line = sc.readLine().split("\t");
-            int articleId = Integer.parseInt(line[0]);
-            Set<Integer> toIds = new HashSet<>();
-            for(int i=1;i<line.length;i++)
-                toIds.add(Integer.parseInt(line[i]));
-            linkage.put(articleId, toIds);
+    /**
+     * Return the article title corresponding to a given article ID
+     * @param articleId
+     * @return
+     */
+    public String lookup(int articleId)
+    {
+        if(image != null)
+            return image.lookup(articleId);
+        return titles.lookup(articleId);
+    }
+
+    /**
+     * Return the title of the article matching a given title, ignoring case, and treating runs of '-' and '_' as a space.
+     * If several articles match, the one that was added to the cache first is returned.
+     * @param article
+     * @return the title of the matching article, or the given title if no article matches
+     */
+    public String canonicalize(String article)
+    {
+        canonicalIndex.update(image != null ? image.nofArticles() : titles.size());
+        int articleId = canonicalIndex.lookup(article);
+        return articleId == -1 ? article : lookup(articleId);
+    }
+
+    /**
+     * Return true iff the cache currently contains the given article
+     * @param article
+     * @return
+     */
+    public boolean has(String article) {
+        if(image != null)
+            return image.lookup(article) != -1;
+        return titles.has(article);
+    }
+
+    /**
+     * Return true iff the cache currently contains the given article
+     * @param articleId
+     * @return
+     */
+    public boolean has(int articleId) {
+        if(image != null)
+            return articleId >= 0 && articleId < image.nofArticles();
+        return titles.has(articleId);
+    }
 
+    /**
+     * Return all articles currently contained in the cache
+     * @return
+     */
+    public Set<String> articles()
+    {
+        if(image != null)
+            return image.articles();
+        return titles.titles();
+    }
+
+    /**
+     * Get all outgoing links from a given article ID
+     * @param articleId
+     * @return
+     */
+    public Set<Integer> outgoing(int articleId)
+    {
+        if(image == null && articleId >= 0)
+            fetched.used(aliases.resolve(articleId));
+        IntSet out = outgoingIds(articleId);
+        return out == null ? null : out.boxed();
+    }
+
+    /**
+     * Get all outgoing links from a given article ID, without boxing.
+     * Prefer this method over outgoing(int) in performance-critical code.
+     * @param articleId
+     * @return the (sorted) IDs of all linked articles,
+     *          or null if the outgoing links of the article are not known
+     */
+    public IntSet outgoingIds(int articleId)
+    {
+        if(image != null)
+            return image.outgoing(image.resolve(articleId));
+        return linkage.get(aliases.resolve(articleId));
+    }
+
+    /**
+     * Get all incoming links of a given article ID, without boxing.
+     * Only links from articles whose outgoing links are known can be found this way.
+     * @param articleId
+     * @return the (sorted) IDs of all articles linking to the given article,
+     *          or null if the incoming links are not known (a read-only image written by an older version)
+     */
+    public IntSet incoming(int articleId)
+    {
+        if(image != null)
+            return image.incoming(articleId);
+        IntSet in = incoming.get(articleId);
+        return in == null ? IntSet.EMPTY : in;
+    }
+
+    /**
+     * Get all outgoing links from a given article title
+     * @param article
+     * @return
+     */
+    public Set<Integer> outgoing(String article)
+    {
+        return outgoing(article, linkSource);
+    }
+
+    /**
+     * Get all outgoing links from a given article title,
+     * fetching them from a given LinkSource if they are not known yet
+     * @param article
+     * @param source
+     * @return
+     */
+    public Set<Integer> outgoing(String article, LinkSource source)
+    {
+        if(article.isEmpty())
+            return java.util.Collections.EMPTY_SET;
+        if(image != null)
+            return outgoing(lookup(article));
+        int articleId = lookup(article);
+        if(articleId == -1 || !linkage.has(articleId))
+            fetch(Collections.singletonList(article), source);
+        return outgoing(lookup(article));
+    }
+
+    /**
+     * Fetch the outgoing links of a number of articles on the caller's thread, from a given LinkSource,
+     * in batches of (at most) source.batchSize() articles.
+     * Articles whose outgoing links are already known are skipped, and articles that other callers are fetching already
+     * are waited for (see InFlightTable). A caller that is interrupted while waiting stops waiting
+     * (and leaves the fetch to the other callers).
+     * @param articles
+     * @param source
+     * @return true iff the outgoing links of all articles are known afterwards
+     */
+    public boolean fetch(List<String> articles, LinkSource source)
+    {
+        if(image != null)
+            return false;
+        List<String> titles = new ArrayList<>();
+        for(String article : articles)
+        {
+            int articleId = lookup(article);
+            if(!article.isEmpty() && (articleId == -1 || !linkage.has(articleId)))
+                titles.add(articleId == -1 ? article : lookup(articleId));
+        }
+        InFlightTable.Fetch fetch = fetch(source);
+        Set<String> claimed = new HashSet<>();
+        for(int i=0;i<titles.size() && !Thread.currentThread().isInterrupted();i+=source.batchSize())
+        {
+            InFlightTable.Flight flight = inFlight.claim(titles.subList(i, java.lang.Math.min(titles.size(), i + source.batchSize())), fetch);
+            if(flight.isEmpty())
+                continue;
+            claimed.addAll(flight.titles());
+            try {
+                fetchPool().call(Executors.callable(flight));
+            } catch (InterruptedException e) {
+                flight.cancel(false);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        for(String title : titles)
+        {
+            if(claimed.contains(title) || Thread.currentThread().isInterrupted())
+                continue;
+            Future<Boolean> caller = inFlight.join(title);
+            if(caller == null)
+                continue;
+            try {
+                caller.get();
+            } catch (InterruptedException e) {
+                caller.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+            }
+        }
+        for(String article : articles)
+        {
+            int articleId = lookup(article);
+            if(articleId == -1 || !linkage.has(resolve(articleId)))
+                return false;
+        }
+        return true;
+    }
+
+    private InFlightTable.Fetch fetch(final LinkSource source)
+    {
+        return new InFlightTable.Fetch() {
+            @Override
+            public boolean fetch(List<String> titles) {
+                return onlineLookup(titles, source);
+            }
+        };
+    }
+
+    /**
+     * Return the table of articles that are being fetched
+     * @return
+     */
+    public InFlightTable inFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * Fetch the outgoing links of a number of articles in the background, on the fetch pool of this cache
+     * (see the system property 'wikipedia.fetch.concurrency').
+     * Articles whose outgoing links are already known, articles that are already being fetched, and duplicates, are skipped.
+     * The links are merged into the cache as soon as an article is fetched.
+     * @param articles
+     * @return a Future for every article that is fetched, which completes with true iff its links were fetched
+     */
+    public List<Future<Boolean>> prefetch(Collection<String> articles)
+    {
+        return prefetch(articles, linkSource);
+    }
+
+    /**
+     * Fetch the outgoing links of a number of articles in the background, from a given LinkSource.
+     * Articles are fetched in batches of (at most) source.batchSize() articles, e.g. one article at a time
+     * when scraping pages, or 50 articles per request when asking the MediaWiki API.
+     * Cancelling a Future cancels the fetch of its batch, unless other callers are waiting for (some of) its articles.
+     * @param articles
+     * @param source
+     * @return a Future for every batch of articles, which completes with true iff the links of all of them were fetched
+     */
+    public List<Future<Boolean>> prefetch(Collection<String> articles, final LinkSource source)
+    {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        if(image != null)
+            return futures;
+        Set<String> submitted = new HashSet<>();
+        InFlightTable.Fetch fetch = fetch(source);
+        List<String> batch = new ArrayList<>();
+        for(String article : articles)
+        {
+            if(article.isEmpty() || !submitted.add(article))
+                continue;
+            int articleId = lookup(article);
+            if(articleId != -1 && linkage.has(articleId))
+                continue;
+            String title = articleId == -1 ? article : lookup(articleId);
+            if(inFlight.isInFlight(title))
+                continue;
+            batch.add(title);
+            if(batch.size() >= source.batchSize())
+            {
+                prefetchBatch(batch, fetch, futures);
+                batch = new ArrayList<>();
+            }
+        }
+        if(!batch.isEmpty())
+            prefetchBatch(batch, fetch, futures);
+        return futures;
+    }
+
+    private void prefetchBatch(List<String> batch, InFlightTable.Fetch fetch, List<Future<Boolean>> futures)
+    {
+        final InFlightTable.Flight flight = inFlight.claim(batch, fetch);
+        if(flight.isEmpty())
+            return;
+        fetchPool().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                flight.run();
+                return !flight.isCancelled();
+            }
+        });
+        futures.add(flight.caller());
+    }
+
+    /**
+     * Return the pool on which articles are fetched in the background, creating it if needed
+     * @return
+     */
+    public synchronized FetchPool fetchPool()
+    {
+        if(fetchPool == null)
+            fetchPool = new FetchPool(Integer.getInteger("wikipedia.fetch.concurrency", 16), Double.parseDouble(System.getProperty("wikipedia.fetch.rate", "50")));
+        return fetchPool;
+    }
+
+    /**
+     * Set the pool on which articles are fetched
+     * @param fetchPool
+     */
+    synchronized void setFetchPool(FetchPool fetchPool)
+    {
+        this.fetchPool = fetchPool;
+    }
+
+    /**
+     * Return true iff an exception means the server pushed back (429 Too Many Requests, 503 Service Unavailable)
+     * @param e
+     * @return
+     */
+    private static boolean isThrottled(IOException e)
+    {
+        if(!(e instanceof HttpStatusException))
+            return false;
+        int status = ((HttpStatusException) e).getStatusCode();
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * Set the URL articles are fetched from (the title of an article is appended to it)
+     * @param baseUrl
+     */
+    void setBaseUrl(String baseUrl)
+    {
+        this.linkSource = new HtmlLinkSource(baseUrl);
+    }
+
+    /**
+     * Set the LinkSource the outgoing links of articles are fetched from, unless another one is asked for explicitly
+     * @param source
+     */
+    public void setLinkSource(LinkSource source)
+    {
+        this.linkSource = source;
+    }
+
+    /**
+     * Return the LinkSource the outgoing links of articles are fetched from
+     * @return
+     */
+    public LinkSource linkSource()
+    {
+        return linkSource;
+    }
+
+    /**
+     * Return the LinkSource that is configured by the system property 'wikipedia.source':
+     * 'html' (the default) scrapes the pages at 'wikipedia.url',
+     * 'api' asks the MediaWiki API at 'wikipedia.api',
+     * and anything else is taken to be a snapshot imported from the dumps (see DumpImporter).
+     * @return
+     */
+    private static LinkSource defaultLinkSource()
+    {
+        String source = System.getProperty("wikipedia.source", "html");
+        if(source.equals("api"))
+            return new ApiLinkSource(System.getProperty("wikipedia.api", "https://en.wikipedia.org/w/api.php"));
+        if(!source.equals("html"))
+        {
+            try {
+                return new DumpLinkSource(new File(source));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new HtmlLinkSource(System.getProperty("wikipedia.url", "https://en.wikipedia.org/wiki/"));
+    }
+
+    /**
+     * Perform live lookup of outgoing links if the articles
+     * have not been cached yet.
+     * This method also updates the 'nofChanges' count.
+     * Which in turn might trigger an auto-save.
+     * This method can be called from any thread, the links are merged into the cache under its usual locks.
+     * @param articles
+     * @param source
+     * @return true iff the outgoing links of all articles were fetched
+     */
+    private boolean onlineLookup(List<String> articles, LinkSource source)
+    {
+        // articles that failed recently are not tried again until their time-to-live expires (see NegativeCache)
+        long now = System.currentTimeMillis();
+        List<String> tried = new ArrayList<>(articles.size());
+        for(String article : articles)
+        {
+            if(!negative.isSuppressed(article, now))
+                tried.add(article);
+        }
+        if(tried.isEmpty())
+            return false;
+        try {
+            List<PageLinks> pages = source.fetch(tried);
+            long elapsed = System.currentTimeMillis() - now;
+            Set<String> found = new HashSet<>();
+            for(PageLinks page : pages)
+            {
+                merge(page, false);
+                negative.succeeded(page.title());
+                found.add(page.title());
+            }
+            for(String article : tried)
+            {
+                if(!found.contains(article))
+                    negative.failed(article, NegativeCache.Reason.NOT_FOUND, now, elapsed);
+            }
+            return pages.size() == articles.size();
+        } catch (IOException e) {
+            if(isThrottled(e))
+                fetchPool().throttled();
+            long elapsed = System.currentTimeMillis() - now;
+            for(String article : tried)
+                negative.failed(article, NegativeCache.Reason.ERROR, now, elapsed);
+        }
+        return false;
+    }
+
+    /**
+     * Fetch the links of an article again, from the LinkSource of this cache, and merge them into the cache.
+     * The validators of the previous fetch are sent along. If the page did not change
+     * (304 Not Modified) only the fetch time of the article is updated, otherwise its links are replaced.
+     * @param article
+     * @return true iff the page was fetched (or found unchanged)
+     */
+    private boolean refetch(String article)
+    {
+        try {
+            int articleId = lookup(article);
+            PageLinks page = articleId == -1 ? null : linkSource.revalidate(article, fetched.etag(articleId), fetched.lastModified(articleId));
+            if(articleId == -1)
+            {
+                List<PageLinks> pages = linkSource.fetch(Collections.singletonList(article));
+                page = pages.isEmpty() ? null : pages.get(0);
+            }
+            if(page == null)
+                return false;
+            if(page.isNotModified())
+            {
+                fetched(articleId, fetched.etag(articleId), fetched.lastModified(articleId));
+                fetched.revalidated(false);
+                return true;
+            }
+            merge(page, true);
+            fetched.revalidated(true);
+            return true;
+        } catch (IOException e) {
+            if(isThrottled(e))
+                fetchPool().throttled();
+        }
+        return false;
+    }
+
+    /**
+     * Merge the fetched links of an article into the cache
+     * @param page
+     * @param replace true iff the links of the article that are no longer on its page should be removed
+     */
+    private void merge(PageLinks page, boolean replace)
+    {
+        // a redirect is stored as an alias of the article it redirects to
+        String article = page.title();
+        if(page.isRedirect() && Namespaces.isArticle(page.canonical()))
+        {
+            alias(article, page.canonical());
+            article = page.canonical();
+        }
+        List<String> links = new ArrayList<>();
+        for(String link : page.links())
+        {
+            if(Namespaces.isArticle(link))
+                links.add(link);
+        }
+        addLinks(article, links, replace);
+        fetched(lookup(article), page.etag(), page.lastModified());
+    }
+
+    /**
+     * Register (and journal) that the page of an article was fetched just now
+     * @param articleId
+     * @param etag
+     * @param lastModified
+     */
+    private void fetched(int articleId, String etag, String lastModified)
+    {
+        long time = System.currentTimeMillis();
+        structureLock.readLock().lock();
+        try {
+            journal().fetched(articleId, time, etag, lastModified);
+            fetched.fetched(articleId, time, etag, lastModified);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the FetchTable of this cache,
+     * which knows when (and with which validators) the page of every article was fetched
+     * @return
+     */
+    public FetchTable fetchTable()
+    {
+        return fetched;
+    }
+
+    /**
+     * Return the NegativeCache of this cache,
+     * which knows which articles could not be fetched recently (and how many fetches that saved)
+     * @return
+     */
+    public NegativeCache negativeCache()
+    {
+        return negative;
+    }
+
+    /**
+     * Fetch the page of an article again, with a conditional GET,
+     * and replace its outgoing links if the page changed
+     * @param article
+     * @return true iff the page was fetched (or found unchanged)
+     */
+    public boolean revalidate(String article)
+    {
+        checkWritable();
+        int articleId = lookup(article);
+        return refetch(articleId == -1 ? article : lookup(articleId));
+    }
+
+    /**
+     * Revalidate the (at most) n articles whose page was fetched more than 'maxAge' ms ago, on the fetch pool,
+     * most stale (and most used) articles first (see FetchTable.priority), and wait until they are done
+     * @param maxAge
+     * @param n
+     * @return the number of articles that were revalidated
+     */
+    public int revalidate(long maxAge, int n)
+    {
+        checkWritable();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for(int articleId : stale(maxAge, n))
+        {
+            final String title = lookup(articleId);
+            futures.add(fetchPool().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return refetch(title);
+                }
+            }));
+        }
+        int nofRevalidated = 0;
+        for(Future<Boolean> future : futures)
+        {
+            try {
+                if(future.get())
+                    nofRevalidated++;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return nofRevalidated;
+    }
+
+    /**
+     * Return the (at most) n articles with known outgoing links whose page was fetched more than 'maxAge' ms ago,
+     * highest priority first
+     * @param maxAge
+     * @param n
+     * @return
+     */
+    private int[] stale(long maxAge, int n)
+    {
+        long now = System.currentTimeMillis();
+        // min-heap of (priority, article ID), holding the n highest priorities seen so far
+        PriorityQueue<double[]> heap = new PriorityQueue<>(java.lang.Math.max(n, 1), new Comparator<double[]>() {
+            @Override
+            public int compare(double[] o1, double[] o2) {
+                return Double.compare(o1[0], o2[0]);
+            }
+        });
+        for(int i=0;i<titles.size();i++)
+        {
+            if(!linkage.has(i) || aliases.isRedirect(i) || now - fetched.fetchedAt(i) <= maxAge)
+                continue;
+            double priority = fetched.priority(i, now);
+            if(heap.size() < n)
+                heap.add(new double[]{priority, i});
+            else if(n > 0 && heap.peek()[0] < priority)
+            {
+                heap.poll();
+                heap.add(new double[]{priority, i});
+            }
+        }
+        int[] articleIds = new int[heap.size()];
+        for(int i=articleIds.length-1;i>=0;i--)
+            articleIds[i] = (int) heap.poll()[1];
+        return articleIds;
+    }
+
+    /**
+     * Start revalidating articles in the background.
+     * Every 'period' ms, the (at most) 'batchSize' articles most in need of it are revalidated (see revalidate(long, int)).
+     * @param maxAge the age (in ms) after which the page of an article should be revalidated
+     * @param period
+     * @param batchSize
+     */
+    public synchronized void startRevalidation(final long maxAge, long period, final int batchSize)
+    {
+        checkWritable();
+        if(revalidator != null)
+            return;
+        revalidator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "revalidator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        revalidator.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    revalidate(maxAge, batchSize);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop revalidating articles in the background
+     */
+    public synchronized void stopRevalidation()
+    {
+        if(revalidator == null)
+            return;
+        revalidator.shutdownNow();
+        revalidator = null;
+    }
+
+    /**
+     * Write a snapshot of the entire cache, and wait until it is in place.
+     * Other threads can keep on modifying the cache while the snapshot is being written.
+     * @return true iff the snapshot was written successfully
+     */
+    public boolean store()
+    {
+        if(image != null)
+            return false;
+        Future<Boolean> snapshot;
+        structureLock.writeLock().lock();
+        try {
+            snapshot = _store();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        try {
+            return snapshot.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Return the SnapshotWriter of this cache,
+     * which keeps statistics about the snapshots written so far
+     * @return
+     */
+    public SnapshotWriter snapshotWriter()
+    {
+        return snapshotWriter;
+    }
+
+    /**
+     * Switch the cache to read-only mode, by memory-mapping the snapshot file.
+     * In this mode, nothing is materialized on the heap, and the cache can not be modified.
+     * This mode is enabled by setting the system property 'wikipedia.cache.mapped' to true.
+     * @return
+     */
+    private boolean map()
+    {
+        try {
+            File in = cacheFile();
+            if(!in.exists() || !Snapshot.isSnapshot(in))
+                throw new FileNotFoundException("no snapshot to map at " + in);
+            image = GraphImage.open(in);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Return true iff the cache is in (memory-mapped) read-only mode
+     * @return
+     */
+    public boolean isReadOnly()
+    {
+        return image != null;
+    }
+
+    private void checkWritable()
+    {
+        if(image != null)
+            throw new UnsupportedOperationException("the cache is memory-mapped in read-only mode");
+    }
+
+    private File cacheFile()
+    {
+        return new File(directory, this.getClass().getSimpleName() + ".bin");
+    }
+
+    /**
+     * Return the file a cache in the old (text) format is moved to, once it is migrated
+     * @return
+     */
+    private File legacyFile()
+    {
+        return new File(directory, this.getClass().getSimpleName() + ".txt");
+    }
+
+    private File fetchTableFile()
+    {
+        return new File(directory, this.getClass().getSimpleName() + ".fetched");
+    }
+
+    private File negativeCacheFile()
+    {
+        return new File(directory, this.getClass().getSimpleName() + ".negative");
+    }
+
+    private File shardDirectory()
+    {
+        return new File(directory, this.getClass().getSimpleName() + ".shards");
+    }
+
+    /**
+     * Return the ShardStore of this cache,
+     * or null if the cache is saved as a single snapshot (see the system property 'wikipedia.cache.shardSize')
+     * @return
+     */
+    public ShardStore shardStore()
+    {
+        return shards;
+    }
+
+    /**
+     * Capture a point-in-time view of the entire cache, and write it as a snapshot in the background.
+     * All changes made from now on go to a new journal generation.
+     * Once the snapshot is in place, the journals of previous generations are deleted.
+     * If the snapshot fails, those journals are kept (and replayed on load).
+     * Callers should hold the write lock of 'structureLock'.
+     * @return
+     * @throws IOException
+     */
+    private Future<Boolean> _store() throws IOException
+    {
+        // start a new journal generation
+        synchronized (this)
+        {
+            if(journal != null)
+                journal.close();
+            journal = null;
+            journalGeneration++;
+        }
+        final int generation = journalGeneration;
+        nofChanges.set(0);
+        if(shards != null)
+            return storeShards(generation);
+
+        // capture linkage (blocks are never modified in place, and evicted blocks are resolved in the background),
+        // titles below 'n' are never modified either, so they can be copied in the background
+        final int n = titles.size();
+        final int[][] links = linkage.blocks(n);
+        final int[] redirects = aliases.pairs(0, n);
+
+        return snapshotWriter.write(new Callable<Snapshot>() {
+            @Override
+            public Snapshot call() {
+                return Snapshot.build(titles, n, linkage.resolve(links)).withJournalGeneration(generation).withAliases(redirects).withPacked(isPacked);
+            }
+        }, cacheFile(), afterStore(generation));
+    }
+
+    /**
+     * Capture a point-in-time view of the shards that were changed since the last save,
+     * and write them in the background. Callers should hold the write lock of 'structureLock'.
+     * If the shards fail to be written, they are marked as changed again.
+     * @param generation the first journal generation not included in the shards
+     * @return
+     */
+    private Future<Boolean> storeShards(final int generation)
+    {
+        final int n = titles.size();
+        final int shardSize = shards.shardSize();
+        final Set<Integer> captured = new TreeSet<>(dirtyShards);
+        dirtyShards.removeAll(captured);
+        final Map<Integer, int[][]> out = new TreeMap<>();
+        final Map<Integer, int[][]> in = new TreeMap<>();
+        final Map<Integer, int[]> redirects = new TreeMap<>();
+        for(int shard : captured)
+        {
+            int from = shard * shardSize;
+            if(from >= n)
+                continue;
+            int to = java.lang.Math.min(n, from + shardSize);
+            out.put(shard, linkage.blocks(from, to));
+            in.put(shard, incoming.blocks(from, to));
+            redirects.put(shard, aliases.pairs(from, to));
+        }
+
+        return snapshotWriter.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                try {
+                    // resolve every capture first, the segment stores do not reuse any slot until then
+                    for(int shard : out.keySet())
+                    {
+                        linkage.resolve(out.get(shard));
+                        incoming.resolve(in.get(shard));
+                    }
+                    Map<Integer, Snapshot> changed = new TreeMap<>();
+                    for(int shard : out.keySet())
+                    {
+                        int from = shard * shardSize;
+                        int to = java.lang.Math.min(n, from + shardSize);
+                        changed.put(shard, Snapshot.shard(titles, from, to, out.get(shard), in.get(shard)).withAliases(redirects.get(shard)).withPacked(isPacked));
+                    }
+                    return shards.write(n, generation, changed);
+                } catch (Exception e) {
+                    dirtyShards.addAll(captured);
+                    throw e;
+                }
+            }
+        }, afterStore(generation));
+    }
+
+    /**
+     * Return a Runnable that writes (a copy of) the FetchTable as it is now, and then deletes the journals below a given generation,
+     * to be run once those journals are part of the snapshot.
+     * If the FetchTable can not be written, the journals are kept, so that the fetches they hold are replayed on load.
+     * Callers should hold the write lock of 'structureLock'.
+     * @param generation
+     * @return
+     */
+    private Runnable afterStore(final int generation)
+    {
+        final FetchTable copy = fetched.copy();
+        final NegativeCache negativeCopy = negative.copy();
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    copy.write(fetchTableFile());
+                    negativeCopy.write(negativeCacheFile());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                deleteJournals(generation).run();
+            }
+        };
+    }
+
+    /**
+     * Return a Runnable that deletes the journals below a given generation,
+     * to be run once those journals are part of the snapshot
+     * @param generation
+     * @return
+     */
+    private Runnable deleteJournals(final int generation)
+    {
+        return new Runnable() {
+            @Override
+            public void run() {
+                for(int g : journalGenerations())
+                {
+                    if(g < generation)
+                        journalFile(g).delete();
+                }
+            }
+        };
+    }
+
+    public boolean load()
+    {
+        try {
+            _load();
+            return true;
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private void _load() throws IOException
+    {
+        File in = cacheFile();
+        File backup = legacyFile();
+        boolean isLegacy = false;
+
+        // a migration that failed after the old cache was moved aside is picked up again from its backup
+        if(!in.exists() && (shards == null || !shards.exists()) && backup.exists())
+            in = backup;
+        if(shards != null && shards.exists())
+        {
+            List<Snapshot> parts = shards.read(Runtime.getRuntime().availableProcessors());
+            journalGeneration = shards.journalGeneration();
+            titles = TitleTable.of(parts);
+            int base = 0;
+            for(Snapshot part : parts)
+            {
+                load(part, base);
+                base += part.nofArticles();
+            }
+        }
+        else if(in.exists())
+        {
+            // migrate caches written in the old (text) format
+            isLegacy = !Snapshot.isSnapshot(in);
+            Snapshot snapshot = isLegacy ? new ParallelTextLoader().read(in) : Snapshot.read(in);
+            journalGeneration = snapshot.journalGeneration();
+            titles = TitleTable.of(snapshot);
+            load(snapshot, 0);
+
+            // a cache that is saved as shards for the first time is written as a whole
+            if(shards != null)
+            {
+                for(int shard=0;shard<shards.nofShards(snapshot.nofArticles());shard++)
+                    dirtyShards.add(shard);
+            }
+        }
+
+        File fetchFile = fetchTableFile();
+        if(fetchFile.exists())
+            fetched = FetchTable.read(fetchFile);
+        File negativeFile = negativeCacheFile();
+        if(negativeFile.exists())
+            negative.read(negativeFile);
+
+        // replay the changes made after the snapshot was taken
+        ChangeJournal.Replay replay = new ChangeJournal.Replay() {
+            @Override
+            public void article(int articleId, String title) {
+                // articles are journaled in order of their IDs
+                titles.add(title);
+                dirty(articleId);
+            }
+            @Override
+            public void expand(int articleId) {
+                if(!linkage.has(articleId))
+                    linkage.set(articleId, new int[0]);
+                dirty(articleId);
+            }
+            @Override
+            public void add(int fromId, int toId) {
+                if(linkage.add(fromId, toId))
+                    incoming.append(toId, fromId);
+                dirty(fromId);
+                dirty(toId);
+            }
+            @Override
+            public void remove(int fromId, int toId) {
+                if(linkage.remove(fromId, toId))
+                    incoming.remove(toId, fromId);
+                dirty(fromId);
+                dirty(toId);
+            }
+            @Override
+            public void alias(int redirectId, int targetId) {
+                aliases.put(redirectId, targetId);
+                dirty(redirectId);
+            }
+            @Override
+            public void fetched(int articleId, long time, String etag, String lastModified) {
+                fetched.fetched(articleId, time, etag, lastModified);
+            }
+        };
+        int firstGeneration = journalGeneration;
+        for(int g : journalGenerations())
+        {
+            if(g < firstGeneration)
+                continue;
+            nofChanges.addAndGet((int) ChangeJournal.replay(journalFile(g), replay));
+            journalGeneration = g + 1;
+        }
+
+        if(isLegacy)
+        {
+            // keep the old cache until the snapshot is in place, so that a failed migration is retried on the next start
+            if(!in.equals(backup))
+                Files.copy(in.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if(!store())
+                throw new IOException("unable to migrate " + in + " to a snapshot, the old cache is kept");
+            File old = cacheFile();
+            if(shards != null && old.exists() && !Snapshot.isSnapshot(old))
+                old.delete();
+        }
+    }
+
+    /**
+     * Load the links of all articles in a snapshot
+     * @param snapshot
+     * @param base the ID of the first article in the snapshot (which is not 0 for all but the first shard)
+     */
+    private void load(Snapshot snapshot, int base)
+    {
+        int[] redirects = snapshot.aliases();
+        for(int i=0;i<redirects.length;i+=2)
+            aliases.put(redirects[i], redirects[i + 1]);
+        for(int i=0;i<snapshot.nofArticles();i++)
+        {
+            if(snapshot.isExpanded(i))
+                linkage.set(base + i, snapshot.links(i));
+            int[] incomingIds = snapshot.incoming(i);
+            if(incomingIds.length > 0)
+                incoming.set(base + i, incomingIds);
         }
-        sc.close();
     }
 }
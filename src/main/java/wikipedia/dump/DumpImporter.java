@@ -0,0 +1,480 @@
+package wikipedia.dump;
+
+import wikipedia.Namespaces;
+import wikipedia.store.Snapshot;
+import wikipedia.store.SnapshotWriter;
+import wikipedia.store.TitleTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * This class builds a WikipediaCache snapshot straight from the database dumps published by Wikipedia
+ * (https://dumps.wikimedia.org), rather than by scraping one page at a time.
+ * It needs
+ * - the page dump (page.sql), to map page IDs to titles
+ * - the pagelinks dump (pagelinks.sql)
+ * - the linktarget dump (linktarget.sql), but only for pagelinks dumps that refer to their targets by ID
+ * - optionally, the redirect dump (redirect.sql), to store links to redirects against the articles they redirect to
+ * All of these may be gzip-compressed. Dumps are streamed (see SqlDumpReader), only the resulting graph is kept in memory.
+ * Only articles are imported, using the same filtering as WikipediaCache.onlineLookup (see Namespaces).
+ * Titles are stored the way they appear in links on Wikipedia (percent-encoded), so that the imported graph
+ * matches the one built by scraping. Redirects are known as articles, but their outgoing links are not.
+ * If the redirect dump was read, every redirect is stored as an alias of its target instead.
+ */
+public class DumpImporter {
+
+    private static final int ARTICLE_NAMESPACE = 0;
+
+    // titles (as they appear in the dumps) of all articles, the index is the article ID
+    private final TitleTable titles = new TitleTable();
+    private boolean[] isRedirect = new boolean[1024];
+
+    // target ID + 1 of every redirect, or 0 if the target is not known (see readRedirects)
+    private int[] redirectTargets = new int[0];
+    private int nofAliases = 0;
+
+    // sorted (page ID, article ID) and (link target ID, article ID) pairs
+    private final IdMap pages = new IdMap();
+    private final IdMap linkTargets = new IdMap();
+
+    private int[][] linkage = new int[0][];
+
+    // statistics
+    private long nofLinks = 0;
+    private long nofSkippedLinks = 0;
+    private long pageTime = 0;
+    private long linkTime = 0;
+
+    /**
+     * Read the page dump
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public DumpImporter readPages(File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        SqlDumpReader reader = SqlDumpReader.open(file);
+        try {
+            while(reader.next())
+            {
+                // (page_id, page_namespace, page_title, [page_restrictions,] page_is_redirect, ...)
+                if(reader.getInt(1) != ARTICLE_NAMESPACE)
+                    continue;
+                String title = reader.getString(2);
+                if(!Namespaces.isArticle(href(title)))
+                    continue;
+                int redirectField = reader.isQuoted(3) ? 4 : 3;
+                int articleId = titles.add(title);
+                if(articleId == isRedirect.length)
+                    isRedirect = Arrays.copyOf(isRedirect, articleId * 2);
+                isRedirect[articleId] = reader.getInt(redirectField) != 0;
+                pages.put(reader.getInt(0), articleId);
+            }
+        } finally {
+            reader.close();
+        }
+        pages.sort();
+        linkage = Arrays.copyOf(linkage, titles.size());
+        pageTime += System.currentTimeMillis() - start;
+        return this;
+    }
+
+    /**
+     * Read the linktarget dump.
+     * This is only needed for pagelinks dumps that refer to their targets by ID (rather than by title).
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public DumpImporter readLinkTargets(File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        SqlDumpReader reader = SqlDumpReader.open(file);
+        try {
+            while(reader.next())
+            {
+                // (lt_id, lt_namespace, lt_title)
+                if(reader.getInt(1) != ARTICLE_NAMESPACE)
+                    continue;
+                int articleId = titles.lookup(reader.data(), reader.start(2), reader.length(2));
+                if(articleId != -1)
+                    linkTargets.put(reader.getInt(0), articleId);
+            }
+        } finally {
+            reader.close();
+        }
+        linkTargets.sort();
+        pageTime += System.currentTimeMillis() - start;
+        return this;
+    }
+
+    /**
+     * Read the redirect dump.
+     * The page dump must have been read first, and links are only stored against the targets of redirects
+     * if this dump is read before the pagelinks dump.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public DumpImporter readRedirects(File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        redirectTargets = Arrays.copyOf(redirectTargets, titles.size());
+        SqlDumpReader reader = SqlDumpReader.open(file);
+        try {
+            while(reader.next())
+            {
+                // (rd_from, rd_namespace, rd_title, rd_interwiki, rd_fragment)
+                if(reader.getInt(1) != ARTICLE_NAMESPACE)
+                    continue;
+                int redirectId = pages.get(reader.getInt(0));
+                int targetId = titles.lookup(reader.data(), reader.start(2), reader.length(2));
+                if(redirectId == -1 || targetId == -1 || redirectId == targetId || !isRedirect[redirectId])
+                    continue;
+                if(redirectTargets[redirectId] == 0)
+                    nofAliases++;
+                redirectTargets[redirectId] = targetId + 1;
+            }
+        } finally {
+            reader.close();
+        }
+        pageTime += System.currentTimeMillis() - start;
+        return this;
+    }
+
+    /**
+     * Return the ID of the article a given article redirects to,
+     * or the given ID if the article is not a redirect (or its target is not known)
+     * @param articleId
+     * @return
+     */
+    private int resolve(int articleId)
+    {
+        // redirects to redirects are followed, up to a limit (in case of cycles)
+        for(int hop=0;hop<8 && articleId < redirectTargets.length && redirectTargets[articleId] != 0;hop++)
+            articleId = redirectTargets[articleId] - 1;
+        return articleId;
+    }
+
+    /**
+     * Read the pagelinks dump.
+     * The page dump (and if needed, the linktarget and redirect dumps) must have been read first.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public DumpImporter readLinks(File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        SqlDumpReader reader = SqlDumpReader.open(file);
+        try {
+            // links are sorted by source, so all links of an article are collected before they are merged
+            int fromId = -1;
+            int[] toIds = new int[256];
+            int nofToIds = 0;
+            while(reader.next())
+            {
+                // (pl_from, pl_namespace, pl_title, pl_from_namespace), or (pl_from, pl_from_namespace, pl_target_id)
+                int toId;
+                if(reader.isQuoted(2))
+                {
+                    toId = reader.getInt(1) == ARTICLE_NAMESPACE ? titles.lookup(reader.data(), reader.start(2), reader.length(2)) : -1;
+                }
+                else
+                {
+                    toId = reader.getInt(1) == ARTICLE_NAMESPACE ? linkTargets.get(reader.getInt(2)) : -1;
+                }
+                int from = pages.get(reader.getInt(0));
+                if(from == -1 || toId == -1 || isRedirect[from])
+                {
+                    nofSkippedLinks++;
+                    continue;
+                }
+                if(from != fromId)
+                {
+                    merge(fromId, toIds, nofToIds);
+                    fromId = from;
+                    nofToIds = 0;
+                }
+                if(nofToIds == toIds.length)
+                    toIds = Arrays.copyOf(toIds, nofToIds * 2);
+                toIds[nofToIds++] = resolve(toId);
+            }
+            merge(fromId, toIds, nofToIds);
+        } finally {
+            reader.close();
+        }
+        linkTime += System.currentTimeMillis() - start;
+        return this;
+    }
+
+    /**
+     * Merge a number of links into the links already known for an article
+     */
+    private void merge(int fromId, int[] toIds, int nofToIds)
+    {
+        if(fromId == -1)
+            return;
+        int[] old = linkage[fromId] == null ? new int[0] : linkage[fromId];
+        int[] tmp = Arrays.copyOf(old, old.length + nofToIds);
+        System.arraycopy(toIds, 0, tmp, old.length, nofToIds);
+        Arrays.sort(tmp);
+        int k = 0;
+        for(int i=0;i<tmp.length;i++)
+        {
+            if(k == 0 || tmp[k - 1] != tmp[i])
+                tmp[k++] = tmp[i];
+        }
+        nofLinks += k - old.length;
+        linkage[fromId] = k == tmp.length ? tmp : Arrays.copyOf(tmp, k);
+    }
+
+    /**
+     * Build a snapshot of all imported articles and links.
+     * Every article that is not a redirect is considered fetched, even if it has no links.
+     * @return
+     */
+    public Snapshot build()
+    {
+        int n = titles.size();
+        String[] hrefs = new String[n];
+        int[][] links = new int[n][];
+        for(int i=0;i<n;i++)
+        {
+            hrefs[i] = href(titles.lookup(i));
+            links[i] = linkage[i] == null && !isRedirect[i] ? new int[0] : linkage[i];
+        }
+        return Snapshot.build(hrefs, links).withAliases(aliases());
+    }
+
+    /**
+     * Return the aliases of all redirects with a known target,
+     * as (redirect ID, target ID) pairs sorted by redirect ID
+     * @return
+     */
+    private int[] aliases()
+    {
+        int[] pairs = new int[2 * nofAliases];
+        int k = 0;
+        for(int i=0;i<redirectTargets.length;i++)
+        {
+            if(redirectTargets[i] == 0)
+                continue;
+            pairs[k++] = i;
+            pairs[k++] = redirectTargets[i] - 1;
+        }
+        return pairs;
+    }
+
+    /**
+     * Return the number of redirects stored as an alias of their target
+     * @return
+     */
+    public int nofAliases()
+    {
+        return nofAliases;
+    }
+
+    /**
+     * Build a snapshot, and (atomically) write it to a given file.
+     * Journals next to the file (of a cache that was there before) are not replayed on top of the new snapshot.
+     * @param target
+     * @return
+     */
+    public boolean write(File target)
+    {
+        final int generation = nextJournalGeneration(target);
+        SnapshotWriter writer = new SnapshotWriter();
+        try {
+            return writer.write(new Callable<Snapshot>() {
+                @Override
+                public Snapshot call() {
+                    return build().withJournalGeneration(generation);
+                }
+            }, target, null).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Return the first journal generation that is not yet in use next to a given cache file
+     * @param target
+     * @return
+     */
+    private static int nextJournalGeneration(File target)
+    {
+        String name = target.getName();
+        String prefix = (name.endsWith(".bin") ? name.substring(0, name.length() - 4) : name) + ".";
+        int generation = 0;
+        File[] files = target.getAbsoluteFile().getParentFile().listFiles();
+        if(files == null)
+            return generation;
+        for(File f : files)
+        {
+            String fileName = f.getName();
+            if(!fileName.startsWith(prefix) || !fileName.endsWith(".journal"))
+                continue;
+            try {
+                generation = java.lang.Math.max(generation, Integer.parseInt(fileName.substring(prefix.length(), fileName.length() - ".journal".length())) + 1);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Return the title of a page the way it appears in links on Wikipedia,
+     * i.e. percent-encoded, except for alphanumerics and a few safe characters.
+     * @param title
+     * @return
+     */
+    public static String href(String title)
+    {
+        StringBuilder sb = new StringBuilder(title.length());
+        for(byte b : title.getBytes(SqlDumpReader.UTF8))
+        {
+            int c = b & 0xFF;
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-_.;:@$!*(),/~".indexOf(c) != -1)
+                sb.append((char) c);
+            else
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 15, 16)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the number of articles imported
+     * @return
+     */
+    public int nofArticles()
+    {
+        return titles.size();
+    }
+
+    /**
+     * Return the number of links imported
+     * @return
+     */
+    public long nofLinks()
+    {
+        return nofLinks;
+    }
+
+    /**
+     * Return the number of links that were skipped (because either end is not an article)
+     * @return
+     */
+    public long nofSkippedLinks()
+    {
+        return nofSkippedLinks;
+    }
+
+    /**
+     * Return the number of links imported per second
+     * @return
+     */
+    public double linksPerSecond()
+    {
+        return linkTime == 0 ? 0 : nofLinks * 1000.0 / linkTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "articles=" + nofArticles() + " aliases=" + nofAliases + " links=" + nofLinks + " skipped=" + nofSkippedLinks +
+                " pages=" + pageTime + "ms links=" + linkTime + "ms (" + String.format("%.2f", linksPerSecond() / 1e6) + "M links/s)";
+    }
+
+    private static final String USAGE = "usage : DumpImporter page.sql[.gz] pagelinks.sql[.gz] [--linktarget=linktarget.sql[.gz]] [--redirect=redirect.sql[.gz]]";
+
+    /**
+     * Import a set of dumps into the WikipediaCache
+     * usage : DumpImporter page.sql[.gz] pagelinks.sql[.gz] [--linktarget=linktarget.sql[.gz]] [--redirect=redirect.sql[.gz]]
+     * The optional dumps are named, so that either can be given without the other.
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        List<File> files = new ArrayList<>();
+        File linkTargets = null;
+        File redirects = null;
+        for(String arg : args)
+        {
+            if(arg.startsWith("--linktarget="))
+                linkTargets = new File(arg.substring("--linktarget=".length()));
+            else if(arg.startsWith("--redirect="))
+                redirects = new File(arg.substring("--redirect=".length()));
+            else if(arg.startsWith("--"))
+            {
+                System.out.println("unknown option " + arg);
+                System.out.println(USAGE);
+                return;
+            }
+            else
+                files.add(new File(arg));
+        }
+        if(files.size() != 2)
+        {
+            System.out.println(USAGE);
+            return;
+        }
+        DumpImporter importer = new DumpImporter().readPages(files.get(0));
+        if(linkTargets != null)
+            importer.readLinkTargets(linkTargets);
+        if(redirects != null)
+            importer.readRedirects(redirects);
+        importer.readLinks(files.get(1));
+        System.out.println(importer);
+        importer.write(new File(System.getProperty("user.home"), "WikipediaCache.bin"));
+    }
+
+    /**
+     * This class maps (sparse) int keys to int values, as a sorted array of packed pairs.
+     * Pairs are added in any order, and sorted once before the first lookup.
+     */
+    private static class IdMap
+    {
+        private long[] pairs = new long[1024];
+        private int size = 0;
+
+        void put(int key, int value)
+        {
+            if(size == pairs.length)
+                pairs = Arrays.copyOf(pairs, java.lang.Math.max(size * 2, 1024));
+            pairs[size++] = ((long) key << 32) | (value & 0xFFFFFFFFL);
+        }
+
+        void sort()
+        {
+            pairs = Arrays.copyOf(pairs, size);
+            Arrays.sort(pairs);
+        }
+
+        int get(int key)
+        {
+            int lo = 0;
+            int hi = size - 1;
+            while(lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int k = (int) (pairs[mid] >> 32);
+                if(k < key)
+                    lo = mid + 1;
+                else if(k > key)
+                    hi = mid - 1;
+                else
+                    return (int) pairs[mid];
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package wikipedia.dump;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class streams the tuples of the INSERT statements in a MySQL dump file
+ * (such as the page.sql and pagelinks.sql dumps published by Wikipedia), one tuple at a time.
+ * The file is never loaded as a whole, the reader keeps only the current tuple in memory.
+ * All other statements (CREATE TABLE, comments, etc) are skipped.
+ * Fields are exposed as (unescaped) bytes, so that callers can avoid creating Strings
+ * for fields they are not interested in.
+ */
+public class SqlDumpReader implements Closeable {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] INSERT = "INSERT INTO ".getBytes(UTF8);
+    private static final byte[] VALUES = " VALUES ".getBytes(UTF8);
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private long bytesRead = 0;
+
+    // true iff the reader is inside the VALUES list of an INSERT statement
+    private boolean inValues = false;
+
+    // fields of the current tuple
+    private byte[] data = new byte[256];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int nofFields = 0;
+
+    public SqlDumpReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Open a dump file, which may be gzip-compressed
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static SqlDumpReader open(File file) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        in.mark(2);
+        boolean isGzip = in.read() == 0x1F && in.read() == 0x8B;
+        in.reset();
+        return new SqlDumpReader(isGzip ? new GZIPInputStream(in, 1 << 16) : in);
+    }
+
+    /**
+     * Advance to the next tuple
+     * @return false if there are no more tuples
+     * @throws IOException
+     */
+    public boolean next() throws IOException
+    {
+        while(true)
+        {
+            if(!inValues)
+            {
+                if(!skipPast(INSERT) || !skipPast(VALUES))
+                    return false;
+                inValues = true;
+            }
+            int b = read();
+            // whitespace and separators between tuples
+            while(b == ',' || b == ' ' || b == '\n' || b == '\r')
+                b = read();
+            if(b == '(')
+            {
+                readTuple();
+                return true;
+            }
+            // end of the statement (or of the file)
+            inValues = false;
+            if(b == -1)
+                return false;
+        }
+    }
+
+    private void readTuple() throws IOException
+    {
+        nofFields = 0;
+        int length = 0;
+        while(true)
+        {
+            if(nofFields == starts.length)
+            {
+                starts = Arrays.copyOf(starts, nofFields * 2);
+                ends = Arrays.copyOf(ends, nofFields * 2);
+                quoted = Arrays.copyOf(quoted, nofFields * 2);
+            }
+            starts[nofFields] = length;
+            int b = read();
+            quoted[nofFields] = b == '\'';
+            if(b == '\'')
+            {
+                // quoted string, with backslash escapes
+                while(true)
+                {
+                    b = read();
+                    if(b == -1)
+                        throw new EOFException("unterminated string");
+                    if(b == '\'')
+                        break;
+                    if(b == '\\')
+                        b = unescape(read());
+                    if(length == data.length)
+                        data = Arrays.copyOf(data, length * 2);
+                    data[length++] = (byte) b;
+                }
+                b = read();
+            }
+            else
+            {
+                // number or NULL
+                while(b != ',' && b != ')' && b != -1)
+                {
+                    if(length == data.length)
+                        data = Arrays.copyOf(data, length * 2);
+                    data[length++] = (byte) b;
+                    b = read();
+                }
+            }
+            ends[nofFields++] = length;
+            if(b == ')')
+                return;
+            if(b != ',')
+                throw new IOException("malformed tuple, unexpected " + (b == -1 ? "end of file" : "'" + (char) b + "'"));
+        }
+    }
+
+    private static int unescape(int b) throws IOException
+    {
+        switch (b)
+        {
+            case -1: throw new EOFException("unterminated string");
+            case '0': return 0;
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'b': return '\b';
+            case 'Z': return 0x1A;
+            default: return b;
+        }
+    }
+
+    /**
+     * Skip past the next occurrence of a given byte sequence
+     * @return false if the end of the file was reached first
+     */
+    private boolean skipPast(byte[] pattern) throws IOException
+    {
+        int matched = 0;
+        while(matched < pattern.length)
+        {
+            int b = read();
+            if(b == -1)
+                return false;
+            if(b == pattern[matched])
+                matched++;
+            else
+                matched = b == pattern[0] ? 1 : 0;
+        }
+        return true;
+    }
+
+    private int read() throws IOException
+    {
+        if(position == limit)
+        {
+            limit = in.read(buffer);
+            position = 0;
+            if(limit <= 0)
+            {
+                limit = 0;
+                return -1;
+            }
+            bytesRead += limit;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Return the number of fields in the current tuple
+     * @return
+     */
+    public int nofFields()
+    {
+        return nofFields;
+    }
+
+    /**
+     * Return the value of a numeric field of the current tuple
+     * @param field
+     * @return
+     */
+    public long getLong(int field)
+    {
+        int from = starts[field];
+        int to = ends[field];
+        boolean isNegative = from < to && data[from] == '-';
+        long value = 0;
+        for(int i=isNegative ? from + 1 : from;i<to;i++)
+        {
+            int digit = data[i] - '0';
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("not a number: " + getString(field));
+            value = value * 10 + digit;
+        }
+        return isNegative ? -value : value;
+    }
+
+    public int getInt(int field)
+    {
+        return (int) getLong(field);
+    }
+
+    /**
+     * Return the value of a field of the current tuple as a String,
+     * or null if the field is NULL
+     * @param field
+     * @return
+     */
+    public String getString(int field)
+    {
+        if(isNull(field))
+            return null;
+        return new String(data, starts[field], ends[field] - starts[field], UTF8);
+    }
+
+    /**
+     * Return true iff a field of the current tuple was a quoted string
+     * @param field
+     * @return
+     */
+    public boolean isQuoted(int field)
+    {
+        return quoted[field];
+    }
+
+    public boolean isNull(int field)
+    {
+        int length = ends[field] - starts[field];
+        return !quoted[field] && length == 4 && data[starts[field]] == 'N' && data[starts[field] + 3] == 'L';
+    }
+
+    /**
+     * Return the buffer holding the (unescaped) bytes of all fields of the current tuple.
+     * The buffer is reused for the next tuple.
+     * @return
+     */
+    public byte[] data()
+    {
+        return data;
+    }
+
+    public int start(int field)
+    {
+        return starts[field];
+    }
+
+    public int length(int field)
+    {
+        return ends[field] - starts[field];
+    }
+
+    /**
+     * Return the number of (uncompressed) bytes read so far
+     * @return
+     */
+    public long bytesRead()
+    {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
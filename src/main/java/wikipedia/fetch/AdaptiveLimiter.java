@@ -0,0 +1,354 @@
+package wikipedia.fetch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class limits the number of fetches in flight, adapting the limit to the pushback of the server (AIMD).
+ * - While fetches succeed at a stable latency, and the limit is what holds fetches back
+ *   (i.e. the limit was reached while they were in flight), the limit grows:
+ *   by 1 for every fetch at first (slow start, doubling the limit every round-trip),
+ *   and by 1 for every 'limit' fetches (i.e. by 1 every round-trip) after the first backoff.
+ * - When the server pushes back (429 Too Many Requests, 503 Service Unavailable), the limit is halved.
+ * - When the latency of a fetch spikes (more than 'latencyTolerance' times the baseline latency), the limit shrinks by 10%.
+ * Only fetches that started after the last decrease can decrease the limit again, so that a burst of errors
+ * from the fetches that were in flight at the time counts as a single signal.
+ * The baseline latency is a moving average of the latency of the fetches that did not spike.
+ * On top of that, a token bucket caps the rate at which fetches start, however high the limit.
+ * This class is thread-safe. Its state is guarded by a ReentrantLock rather than by its monitor,
+ * since a virtual thread that waits on a monitor (JDK 21-23) pins the carrier thread it runs on,
+ * while one that waits on a Condition does not.
+ */
+public class AdaptiveLimiter {
+
+    public enum Outcome
+    {
+        // the fetch succeeded (or the article does not exist)
+        SUCCESS,
+        // the server pushed back (429, 503)
+        THROTTLED,
+        // the fetch failed for another reason (timeout, connection refused, ...), which says nothing about the limit
+        FAILURE
+    }
+
+    private static final double BACKOFF = 0.5;
+    private static final double SPIKE_BACKOFF = 0.9;
+    private static final double ALPHA = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private boolean isSlowStart = true;
+    private long lastDecrease = Long.MIN_VALUE;
+    private long lastSaturated = Long.MIN_VALUE;
+    private double latencyTolerance = 2.0;
+    private double baseline = 0;
+    private int inFlight = 0;
+    private int waiting = 0;
+
+    private final Lock lock = new ReentrantLock();
+    // signalled whenever a fetch completes
+    private final Condition released = lock.newCondition();
+
+    // token bucket
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    // statistics
+    private long nofCompleted = 0;
+    private long nofThrottled = 0;
+    private long nofSpikes = 0;
+    private long windowStart = System.nanoTime();
+    private long windowCount = 0;
+    private double pagesPerSecond = -1;
+
+    /**
+     * Create a limiter
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     * @param rate the maximum number of fetches started per second, or 0 for no maximum
+     * @param burst the number of fetches that may be started at once, when no fetches were started for a while
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double rate, int burst)
+    {
+        this.minLimit = java.lang.Math.max(1, minLimit);
+        this.maxLimit = java.lang.Math.max(this.minLimit, maxLimit);
+        this.limit = java.lang.Math.min(this.maxLimit, java.lang.Math.max(this.minLimit, initialLimit));
+        this.rate = rate;
+        this.burst = java.lang.Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Set the factor by which the latency of a fetch has to exceed the baseline latency to count as a spike
+     * @param latencyTolerance
+     */
+    public void setLatencyTolerance(double latencyTolerance)
+    {
+        lock.lock();
+        try {
+            this.latencyTolerance = latencyTolerance;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a fetch may start
+     * @return the time (System.nanoTime) at which the fetch started, to be passed to release
+     * @throws InterruptedException
+     */
+    public long acquire() throws InterruptedException
+    {
+        lock.lock();
+        waiting++;
+        try {
+            while(true)
+            {
+                if(inFlight >= (int) limit)
+                {
+                    lastSaturated = System.nanoTime();
+                    released.await();
+                    continue;
+                }
+                long delay = takeToken();
+                if(delay == 0)
+                    break;
+                released.await(delay, TimeUnit.NANOSECONDS);
+            }
+            long start = System.nanoTime();
+            inFlight++;
+            if(inFlight >= (int) limit)
+                lastSaturated = start;
+            return start;
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a token from the bucket
+     * @return 0 if a token was taken, otherwise the time (in ns) until the next token
+     */
+    private long takeToken()
+    {
+        if(rate <= 0)
+            return 0;
+        long now = System.nanoTime();
+        tokens = java.lang.Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        if(tokens >= 1)
+        {
+            tokens--;
+            return 0;
+        }
+        return (long) java.lang.Math.ceil((1 - tokens) / rate * 1e9);
+    }
+
+    /**
+     * Register that a fetch completed, and adapt the limit to its outcome (and latency)
+     * @param start the time returned by acquire
+     * @param outcome
+     */
+    public void release(long start, Outcome outcome)
+    {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            boolean isLimited = lastSaturated >= start || waiting > 0;
+            inFlight--;
+            nofCompleted++;
+            if(outcome == Outcome.THROTTLED)
+            {
+                nofThrottled++;
+                decrease(start, now, BACKOFF);
+            }
+            else if(outcome == Outcome.SUCCESS)
+            {
+                countPage(now);
+                double latency = now - start;
+                if(baseline > 0 && latency > latencyTolerance * baseline)
+                {
+                    nofSpikes++;
+                    decrease(start, now, SPIKE_BACKOFF);
+                    // the baseline follows (slowly) if the server just got slower
+                    baseline += ALPHA / 10 * (latency - baseline);
+                }
+                else
+                {
+                    baseline = baseline == 0 ? latency : baseline + ALPHA * (latency - baseline);
+                    // the limit only grows if it is what holds fetches back
+                    if(isLimited)
+                        limit = java.lang.Math.min(maxLimit, limit + (isSlowStart ? 1 : 1 / limit));
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long start, long now, double factor)
+    {
+        if(start <= lastDecrease)
+            return;
+        limit = java.lang.Math.max(minLimit, limit * factor);
+        lastDecrease = now;
+        isSlowStart = false;
+    }
+
+    private void countPage(long now)
+    {
+        windowCount++;
+        if(now - windowStart >= 1000000000L)
+        {
+            pagesPerSecond = windowCount * 1e9 / (now - windowStart);
+            windowStart = now;
+            windowCount = 0;
+        }
+    }
+
+    /**
+     * Return the current limit on the number of fetches in flight
+     * @return
+     */
+    public int limit()
+    {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int minLimit()
+    {
+        return minLimit;
+    }
+
+    public int maxLimit()
+    {
+        return maxLimit;
+    }
+
+    /**
+     * Return the number of fetches in flight
+     * @return
+     */
+    public int inFlight()
+    {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of fetches that are waiting to start
+     * @return
+     */
+    public int queueDepth()
+    {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of pages fetched per second, over the last second (or so)
+     * @return
+     */
+    public double pagesPerSecond()
+    {
+        lock.lock();
+        try {
+            if(pagesPerSecond >= 0)
+                return pagesPerSecond;
+            long elapsed = System.nanoTime() - windowStart;
+            return elapsed == 0 ? 0 : windowCount * 1e9 / elapsed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the baseline latency (in ms)
+     * @return
+     */
+    public double baselineLatency()
+    {
+        lock.lock();
+        try {
+            return baseline / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of fetches that completed
+     * @return
+     */
+    public long nofCompleted()
+    {
+        lock.lock();
+        try {
+            return nofCompleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of fetches the server pushed back on
+     * @return
+     */
+    public long nofThrottled()
+    {
+        lock.lock();
+        try {
+            return nofThrottled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of fetches whose latency spiked
+     * @return
+     */
+    public long nofSpikes()
+    {
+        lock.lock();
+        try {
+            return nofSpikes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        lock.lock();
+        try {
+            return "limit=" + (int) limit + " inFlight=" + inFlight + " queued=" + waiting +
+                    String.format(" pages/s=%.1f latency=%.0fms", pagesPerSecond(), baselineLatency()) +
+                    " throttled=" + nofThrottled + " spikes=" + nofSpikes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
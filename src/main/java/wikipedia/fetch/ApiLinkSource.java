@@ -0,0 +1,277 @@
+package wikipedia.fetch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import wikipedia.dump.DumpImporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * This class gets the outgoing links of articles from the MediaWiki API (action=query, prop=links),
+ * for up to 50 articles per request, so that a single round-trip returns the links of dozens of articles.
+ * Responses are limited in size: if there are more links than fit in a response,
+ * the API returns a 'continue' object, whose parameters are sent along with the next request, until all links are returned.
+ * Redirects are resolved by the API (redirects=1), as is the normalization of titles (e.g. a lowercase first letter).
+ * The API returns every link in the wikitext of an article (including those in templates, navigation boxes and references),
+ * so the links differ somewhat from the links HtmlLinkSource finds on the page.
+ * The ID of the latest revision of an article serves as its ETag: an article is revalidated by asking for
+ * its latest revision only (prop=info), its links are only fetched again if that changed.
+ */
+public class ApiLinkSource implements LinkSource {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the maximum number of titles per request for clients without the 'apihighlimits' right
+    private static final int MAX_TITLES = 50;
+
+    // a bound on the number of continuations per batch, in case the API keeps returning the same one
+    private static final int MAX_CONTINUATIONS = 1000;
+
+    private final String apiUrl;
+    private final int timeout;
+
+    /**
+     * Create a source for a given API endpoint
+     * @param apiUrl e.g. https://en.wikipedia.org/w/api.php
+     */
+    public ApiLinkSource(String apiUrl)
+    {
+        this(apiUrl, 10000);
+    }
+
+    public ApiLinkSource(String apiUrl, int timeout)
+    {
+        this.apiUrl = apiUrl;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int batchSize()
+    {
+        return MAX_TITLES;
+    }
+
+    @Override
+    public List<PageLinks> fetch(List<String> titles) throws IOException
+    {
+        // the API knows titles by their name, rather than by the (percent-encoded) form in which they appear in links
+        Map<String, String> requested = new LinkedHashMap<>();
+        for(String title : titles)
+            requested.put(name(title), title);
+        StringBuilder names = new StringBuilder();
+        for(String name : requested.keySet())
+            names.append(names.length() == 0 ? "" : "|").append(name);
+
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("action", "query");
+        parameters.put("format", "json");
+        parameters.put("formatversion", "2");
+        parameters.put("prop", "links|info");
+        parameters.put("plnamespace", "0");
+        parameters.put("pllimit", "max");
+        parameters.put("redirects", "1");
+        parameters.put("titles", names.toString());
+
+        Map<String, String> renamed = new HashMap<>();
+        Map<String, List<String>> links = new HashMap<>();
+        Map<String, String> revisions = new HashMap<>();
+        for(int i=0;i<MAX_CONTINUATIONS;i++)
+        {
+            JsonObject response = get(parameters);
+            JsonObject query = response.getAsJsonObject("query");
+            if(query != null)
+            {
+                renamed(query.getAsJsonArray("normalized"), renamed);
+                renamed(query.getAsJsonArray("redirects"), renamed);
+                pages(query.getAsJsonArray("pages"), links, revisions);
+            }
+            JsonObject next = response.getAsJsonObject("continue");
+            if(next == null)
+                break;
+            for(Map.Entry<String, JsonElement> entry : next.entrySet())
+                parameters.put(entry.getKey(), entry.getValue().getAsString());
+        }
+
+        List<PageLinks> pages = new ArrayList<>();
+        for(Map.Entry<String, String> entry : requested.entrySet())
+        {
+            String name = resolve(entry.getKey(), renamed);
+            List<String> pageLinks = links.get(name);
+            if(pageLinks == null)
+                continue;
+            pages.add(new PageLinks(entry.getValue(), title(name), pageLinks, revisions.get(name), null));
+        }
+        return pages;
+    }
+
+    @Override
+    public PageLinks revalidate(String title, String etag, String lastModified) throws IOException
+    {
+        if(etag != null)
+        {
+            Map<String, String> parameters = new LinkedHashMap<>();
+            parameters.put("action", "query");
+            parameters.put("format", "json");
+            parameters.put("formatversion", "2");
+            parameters.put("prop", "info");
+            parameters.put("redirects", "1");
+            parameters.put("titles", name(title));
+            JsonObject query = get(parameters).getAsJsonObject("query");
+            JsonArray pages = query == null ? null : query.getAsJsonArray("pages");
+            if(pages != null && pages.size() == 1)
+            {
+                JsonObject page = pages.get(0).getAsJsonObject();
+                if(page.has("missing") || page.has("invalid"))
+                    return null;
+                if(page.has("lastrevid") && etag.equals(page.get("lastrevid").getAsString()))
+                    return PageLinks.notModified(title);
+            }
+        }
+        List<PageLinks> pages = fetch(Collections.singletonList(title));
+        return pages.isEmpty() ? null : pages.get(0);
+    }
+
+    private JsonObject get(Map<String, String> parameters) throws IOException
+    {
+        Connection connection = Jsoup.connect(apiUrl)
+                .timeout(timeout)
+                .ignoreContentType(true)
+                .ignoreHttpErrors(true)
+                .maxBodySize(0)
+                .method(Connection.Method.POST)
+                .data(parameters);
+        Connection.Response response = connection.execute();
+        if(response.statusCode() != 200)
+            throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), apiUrl);
+        JsonObject json;
+        try {
+            json = new JsonParser().parse(new String(response.bodyAsBytes(), UTF8)).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("invalid response from " + apiUrl, e);
+        }
+        if(json.has("error"))
+        {
+            // the API reports pushback as an error (with status 200), it is passed on as the equivalent HTTP status
+            JsonElement code = json.getAsJsonObject("error").get("code");
+            if(code != null && code.getAsString().equals("ratelimited"))
+                throw new HttpStatusException("API error " + json.get("error"), 429, apiUrl);
+            if(code != null && code.getAsString().equals("maxlag"))
+                throw new HttpStatusException("API error " + json.get("error"), 503, apiUrl);
+            throw new IOException("API error " + json.get("error"));
+        }
+        return json;
+    }
+
+    /**
+     * Register the titles a query renamed (normalized or redirected), given as a list of {from, to} objects
+     * @param pairs
+     * @param renamed
+     */
+    private static void renamed(JsonArray pairs, Map<String, String> renamed)
+    {
+        if(pairs == null)
+            return;
+        for(JsonElement pair : pairs)
+        {
+            JsonObject object = pair.getAsJsonObject();
+            renamed.put(object.get("from").getAsString(), object.get("to").getAsString());
+        }
+    }
+
+    /**
+     * Merge the links (and the latest revision) of the pages in (part of) a query into the links found so far
+     * @param pages
+     * @param links
+     * @param revisions
+     */
+    private static void pages(JsonArray pages, Map<String, List<String>> links, Map<String, String> revisions)
+    {
+        if(pages == null)
+            return;
+        for(JsonElement element : pages)
+        {
+            JsonObject page = element.getAsJsonObject();
+            if(page.has("missing") || page.has("invalid") || !page.has("title"))
+                continue;
+            String name = page.get("title").getAsString();
+            if(!links.containsKey(name))
+                links.put(name, new ArrayList<String>());
+            if(page.has("lastrevid"))
+                revisions.put(name, page.get("lastrevid").getAsString());
+            JsonArray pageLinks = page.getAsJsonArray("links");
+            if(pageLinks == null)
+                continue;
+            for(JsonElement link : pageLinks)
+                links.get(name).add(title(link.getAsJsonObject().get("title").getAsString()));
+        }
+    }
+
+    /**
+     * Follow the renames (normalization, then redirects, possibly to redirects) of a given name
+     * @param name
+     * @param renamed
+     * @return
+     */
+    private static String resolve(String name, Map<String, String> renamed)
+    {
+        for(int hop=0;hop<8 && renamed.containsKey(name);hop++)
+            name = renamed.get(name);
+        return name;
+    }
+
+    /**
+     * Return the title of an article the way it appears in links on Wikipedia, given its name
+     * @param name e.g. "Cell (biology)"
+     * @return e.g. "Cell_(biology)"
+     */
+    static String title(String name)
+    {
+        return DumpImporter.href(name.replace(' ', '_'));
+    }
+
+    /**
+     * Return the name of an article, given its title the way it appears in links on Wikipedia
+     * @param title e.g. "AT%26T"
+     * @return e.g. "AT&T"
+     */
+    static String name(String title)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(title.length());
+        for(int i=0;i<title.length();i++)
+        {
+            char c = title.charAt(i);
+            int hi = i + 2 < title.length() ? Character.digit(title.charAt(i + 1), 16) : -1;
+            int lo = i + 2 < title.length() ? Character.digit(title.charAt(i + 2), 16) : -1;
+            if(c == '%' && hi != -1 && lo != -1)
+            {
+                bytes.write((hi << 4) | lo);
+                i += 2;
+            }
+            else if(c == '_')
+                bytes.write(' ');
+            else
+            {
+                int codePoint = title.codePointAt(i);
+                byte[] encoded = new String(Character.toChars(codePoint)).getBytes(UTF8);
+                bytes.write(encoded, 0, encoded.length);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), UTF8);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ApiLinkSource[" + apiUrl + "]";
+    }
+}
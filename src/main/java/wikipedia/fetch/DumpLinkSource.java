@@ -0,0 +1,67 @@
+package wikipedia.fetch;
+
+import graph.IntSet;
+import wikipedia.store.GraphImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class gets the outgoing links of articles from a local copy of Wikipedia:
+ * a snapshot imported from the database dumps (see DumpImporter), which is mapped into memory (see GraphImage).
+ * Redirects are resolved through the aliases of the snapshot.
+ * Nothing is fetched over the network, and the links never change, so revalidation always finds a page unchanged.
+ */
+public class DumpLinkSource implements LinkSource {
+
+    private final File file;
+    private final GraphImage image;
+
+    public DumpLinkSource(File file) throws IOException
+    {
+        this.file = file;
+        this.image = GraphImage.open(file);
+    }
+
+    @Override
+    public int batchSize()
+    {
+        return 256;
+    }
+
+    @Override
+    public List<PageLinks> fetch(List<String> titles)
+    {
+        List<PageLinks> pages = new ArrayList<>();
+        for(String title : titles)
+        {
+            int articleId = image.lookup(title);
+            if(articleId == -1)
+                continue;
+            int canonicalId = image.resolve(articleId);
+            IntSet out = image.outgoing(canonicalId);
+            if(out == null)
+                continue;
+            List<String> links = new ArrayList<>(out.size());
+            for(int i=0;i<out.size();i++)
+                links.add(image.lookup(image.resolve(out.get(i))));
+            pages.add(new PageLinks(title, image.lookup(canonicalId), links, null, null));
+        }
+        return pages;
+    }
+
+    @Override
+    public PageLinks revalidate(String title, String etag, String lastModified)
+    {
+        int articleId = image.lookup(title);
+        return articleId == -1 || !image.isExpanded(image.resolve(articleId)) ? null : PageLinks.notModified(title);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DumpLinkSource[" + file + "]";
+    }
+}
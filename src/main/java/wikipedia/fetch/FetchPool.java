@@ -0,0 +1,218 @@
+package wikipedia.fetch;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs fetches (blocking network calls) in the background, with bounded concurrency.
+ * Fetching pages is bound by network latency rather than by CPU, so many fetches should be in flight at once,
+ * but not so many that Wikipedia starts refusing them.
+ * How many fetches are in flight is up to an AdaptiveLimiter, which adapts to the pushback of the server
+ * (fetches report it by calling throttled), up to 'maxConcurrency', and caps the rate at which fetches start.
+ * On a JDK that has virtual threads (21 or later), every fetch runs on a virtual thread of its own,
+ * and waits for the limiter (without pinning its carrier thread) before it starts. Otherwise fetches run on a fixed pool of 'maxConcurrency' (daemon) threads.
+ * The JDK is probed by reflection, so that this class still builds (and runs) on older JDKs.
+ * Fetches can also run on the caller's thread (see call), under the same limiter.
+ */
+public class FetchPool {
+
+    private final int maxConcurrency;
+    private final ExecutorService executor;
+    private final AdaptiveLimiter limiter;
+    private final boolean isVirtual;
+
+    // true iff the server pushed back on the fetch running on the current thread
+    private final ThreadLocal<Boolean> isThrottled = new ThreadLocal<>();
+
+    // statistics
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicLong nofFetches = new AtomicLong();
+    private final AtomicLong nofFailures = new AtomicLong();
+
+    /**
+     * Create a pool that starts at a quarter of 'maxConcurrency' fetches in flight,
+     * and starts at most 'rate' fetches per second (or any number, if the rate is 0)
+     * @param maxConcurrency
+     * @param rate
+     */
+    public FetchPool(int maxConcurrency, double rate)
+    {
+        this(new AdaptiveLimiter(maxConcurrency / 4, 1, maxConcurrency, rate, java.lang.Math.max(1, maxConcurrency)));
+    }
+
+    public FetchPool(int maxConcurrency)
+    {
+        this(maxConcurrency, 0);
+    }
+
+    public FetchPool(AdaptiveLimiter limiter)
+    {
+        this.maxConcurrency = limiter.maxLimit();
+        this.limiter = limiter;
+        ExecutorService virtual = virtualThreadExecutor();
+        this.isVirtual = virtual != null;
+        this.executor = isVirtual ? virtual : Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fetch-" + n.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Return an executor that starts a new virtual thread for every task,
+     * or null if the JDK does not support virtual threads
+     * @return
+     */
+    private static ExecutorService virtualThreadExecutor()
+    {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a fetch in the background
+     * @param fetch
+     * @param <T>
+     * @return a Future that completes with the result of the fetch
+     */
+    public <T> Future<T> submit(final Callable<T> fetch)
+    {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return FetchPool.this.call(fetch);
+            }
+        });
+    }
+
+    /**
+     * Run a fetch on the caller's thread, once the limiter lets it start
+     * @param fetch
+     * @param <T>
+     * @return the result of the fetch
+     * @throws Exception
+     */
+    public <T> T call(Callable<T> fetch) throws Exception
+    {
+        long start = limiter.acquire();
+        int n = inFlight.incrementAndGet();
+        while(true)
+        {
+            int max = maxInFlight.get();
+            if(n <= max || maxInFlight.compareAndSet(max, n))
+                break;
+        }
+        AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.FAILURE;
+        isThrottled.set(Boolean.FALSE);
+        try {
+            T result = fetch.call();
+            nofFetches.incrementAndGet();
+            outcome = AdaptiveLimiter.Outcome.SUCCESS;
+            return result;
+        } catch (Exception e) {
+            nofFailures.incrementAndGet();
+            throw e;
+        } finally {
+            if(Boolean.TRUE.equals(isThrottled.get()))
+                outcome = AdaptiveLimiter.Outcome.THROTTLED;
+            isThrottled.remove();
+            inFlight.decrementAndGet();
+            limiter.release(start, outcome);
+        }
+    }
+
+    /**
+     * Register that the server pushed back (e.g. with 429 Too Many Requests) on the fetch running on the current thread,
+     * so that the limiter backs off. This has no effect outside of a fetch of this pool.
+     */
+    public void throttled()
+    {
+        if(isThrottled.get() != null)
+            isThrottled.set(Boolean.TRUE);
+    }
+
+    /**
+     * Return the limiter that decides how many fetches are in flight
+     * @return
+     */
+    public AdaptiveLimiter limiter()
+    {
+        return limiter;
+    }
+
+    /**
+     * Return the maximum number of fetches in flight at any time (the limiter may keep it lower)
+     * @return
+     */
+    public int maxConcurrency()
+    {
+        return maxConcurrency;
+    }
+
+    /**
+     * Return true iff fetches run on virtual threads
+     * @return
+     */
+    public boolean isVirtual()
+    {
+        return isVirtual;
+    }
+
+    /**
+     * Return the number of fetches currently in flight
+     * @return
+     */
+    public int inFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * Return the highest number of fetches that were in flight at the same time
+     * @return
+     */
+    public int maxInFlight()
+    {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Return the number of fetches that completed
+     * @return
+     */
+    public long nofFetches()
+    {
+        return nofFetches.get();
+    }
+
+    /**
+     * Return the number of fetches that failed (with an exception)
+     * @return
+     */
+    public long nofFailures()
+    {
+        return nofFailures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return (isVirtual ? "virtual" : "fixed") + " maxConcurrency=" + maxConcurrency + " inFlight=" + inFlight() +
+                " maxInFlight=" + maxInFlight() + " fetches=" + nofFetches() + " failures=" + nofFailures() + " " + limiter;
+    }
+}
@@ -0,0 +1,246 @@
+package wikipedia.fetch;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps track of when the page of every article was fetched,
+ * and of the validators (ETag and Last-Modified) Wikipedia sent along with it,
+ * so that the page can later be revalidated with a conditional GET (which is answered with
+ * 304 Not Modified, without a body, if the page did not change).
+ * It also counts how often the links of every article were asked for, so that the articles
+ * that are used most can be revalidated first.
+ * Times are in ms since the epoch, an article that was never fetched (e.g. because it was imported from a dump) has time 0.
+ * A fetch table file consists of a header (magic number, format version, number of articles) followed by,
+ * for every article that was fetched or used, its ID, fetch time, use count, ETag and Last-Modified
+ * (unsigned short length + UTF-8 bytes, empty if not known).
+ * This class is thread-safe.
+ */
+public class FetchTable {
+
+    public static final int MAGIC = 0x57504654;     // "WPFT"
+    public static final int VERSION = 1;
+
+    private long[] fetchedAt = new long[1024];
+    private int[] uses = new int[1024];
+    private String[] etags = new String[1024];
+    private String[] lastModified = new String[1024];
+    private int size = 0;
+
+    // statistics
+    private final AtomicLong nofRevalidations = new AtomicLong();
+    private final AtomicLong nofUnchanged = new AtomicLong();
+
+    private void reserve(int articleId)
+    {
+        if(articleId < fetchedAt.length)
+            return;
+        int length = java.lang.Math.max(fetchedAt.length * 2, articleId + 1);
+        fetchedAt = Arrays.copyOf(fetchedAt, length);
+        uses = Arrays.copyOf(uses, length);
+        etags = Arrays.copyOf(etags, length);
+        lastModified = Arrays.copyOf(lastModified, length);
+    }
+
+    /**
+     * Register that the page of an article was fetched
+     * @param articleId
+     * @param time
+     * @param etag the ETag of the page, or null if not known
+     * @param lastModified the Last-Modified date of the page, or null if not known
+     */
+    public synchronized void fetched(int articleId, long time, String etag, String lastModified)
+    {
+        reserve(articleId);
+        this.fetchedAt[articleId] = time;
+        this.etags[articleId] = etag == null || etag.isEmpty() ? null : etag;
+        this.lastModified[articleId] = lastModified == null || lastModified.isEmpty() ? null : lastModified;
+        size = java.lang.Math.max(size, articleId + 1);
+    }
+
+    /**
+     * Register that the links of an article were asked for
+     * @param articleId
+     */
+    public synchronized void used(int articleId)
+    {
+        reserve(articleId);
+        uses[articleId]++;
+        size = java.lang.Math.max(size, articleId + 1);
+    }
+
+    /**
+     * Register the outcome of a revalidation
+     * @param isChanged true iff the page had changed
+     */
+    public void revalidated(boolean isChanged)
+    {
+        nofRevalidations.incrementAndGet();
+        if(!isChanged)
+            nofUnchanged.incrementAndGet();
+    }
+
+    /**
+     * Return the time at which the page of an article was last fetched (or revalidated),
+     * or 0 if it was never fetched
+     * @param articleId
+     * @return
+     */
+    public synchronized long fetchedAt(int articleId)
+    {
+        return articleId < size ? fetchedAt[articleId] : 0;
+    }
+
+    /**
+     * Return the number of times the links of an article were asked for
+     * @param articleId
+     * @return
+     */
+    public synchronized int uses(int articleId)
+    {
+        return articleId < size ? uses[articleId] : 0;
+    }
+
+    /**
+     * Return the ETag of the page of an article, or null if not known
+     * @param articleId
+     * @return
+     */
+    public synchronized String etag(int articleId)
+    {
+        return articleId < size ? etags[articleId] : null;
+    }
+
+    /**
+     * Return the Last-Modified date of the page of an article, or null if not known
+     * @param articleId
+     * @return
+     */
+    public synchronized String lastModified(int articleId)
+    {
+        return articleId < size ? lastModified[articleId] : null;
+    }
+
+    /**
+     * Return the priority with which an article should be revalidated, at a given time.
+     * Pages that were fetched longer ago, and articles that are used more often, go first.
+     * @param articleId
+     * @param now
+     * @return
+     */
+    public synchronized double priority(int articleId, long now)
+    {
+        long age = now - fetchedAt(articleId);
+        return age * (1.0 + uses(articleId));
+    }
+
+    /**
+     * Return the number of revalidations so far
+     * @return
+     */
+    public long nofRevalidations()
+    {
+        return nofRevalidations.get();
+    }
+
+    /**
+     * Return the number of revalidations that found the page unchanged
+     * @return
+     */
+    public long nofUnchanged()
+    {
+        return nofUnchanged.get();
+    }
+
+    /**
+     * Return a copy of this table, to be written in the background
+     * @return
+     */
+    public synchronized FetchTable copy()
+    {
+        FetchTable copy = new FetchTable();
+        copy.fetchedAt = Arrays.copyOf(fetchedAt, size);
+        copy.uses = Arrays.copyOf(uses, size);
+        copy.etags = Arrays.copyOf(etags, size);
+        copy.lastModified = Arrays.copyOf(lastModified, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * (Atomically) write this table to a given file
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void write(File file) throws IOException
+    {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            int n = 0;
+            for(int i=0;i<size;i++)
+            {
+                if(fetchedAt[i] != 0 || uses[i] != 0)
+                    n++;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            for(int i=0;i<size;i++)
+            {
+                if(fetchedAt[i] == 0 && uses[i] == 0)
+                    continue;
+                out.writeInt(i);
+                out.writeLong(fetchedAt[i]);
+                out.writeInt(uses[i]);
+                out.writeUTF(etags[i] == null ? "" : etags[i]);
+                out.writeUTF(lastModified[i] == null ? "" : lastModified[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a table from a given file
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static FetchTable read(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if(in.readInt() != MAGIC)
+                throw new IOException("not a fetch table");
+            int version = in.readInt();
+            if(version != VERSION)
+                throw new IOException("unsupported fetch table version " + version);
+            FetchTable table = new FetchTable();
+            int n = in.readInt();
+            for(int i=0;i<n;i++)
+            {
+                int articleId = in.readInt();
+                long time = in.readLong();
+                int nofUses = in.readInt();
+                table.fetched(articleId, time, in.readUTF(), in.readUTF());
+                table.uses[articleId] = nofUses;
+            }
+            return table;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package wikipedia.fetch;
+
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class gets the outgoing links of articles by fetching their page, one request per article,
+ * and extracting the links from the HTML (see LinkExtractor).
+ * Redirects are recognized by the canonical link of the page they serve.
+ * Pages are revalidated with conditional GETs (If-None-Match, If-Modified-Since).
+ * A page that does not exist (404) is left out, any other error status is thrown as an HttpStatusException.
+ */
+public class HtmlLinkSource implements LinkSource {
+
+    private final String baseUrl;
+    private final int timeout;
+
+    /**
+     * Create a source for the pages at a given URL
+     * @param baseUrl the URL that titles are appended to, e.g. https://en.wikipedia.org/wiki/
+     */
+    public HtmlLinkSource(String baseUrl)
+    {
+        this(baseUrl, 5000);
+    }
+
+    public HtmlLinkSource(String baseUrl, int timeout)
+    {
+        this.baseUrl = baseUrl;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int batchSize()
+    {
+        return 1;
+    }
+
+    @Override
+    public List<PageLinks> fetch(List<String> titles) throws IOException
+    {
+        List<PageLinks> pages = new ArrayList<>();
+        for(String title : titles)
+        {
+            PageLinks page = get(title, null, null);
+            if(page != null)
+                pages.add(page);
+        }
+        return pages;
+    }
+
+    @Override
+    public PageLinks revalidate(String title, String etag, String lastModified) throws IOException
+    {
+        return get(title, etag, lastModified);
+    }
+
+    private PageLinks get(String title, String etag, String lastModified) throws IOException
+    {
+        Connection connection = Jsoup.connect(baseUrl + title).timeout(timeout).ignoreHttpErrors(true);
+        if(etag != null)
+            connection.header("If-None-Match", etag);
+        if(lastModified != null)
+            connection.header("If-Modified-Since", lastModified);
+        Connection.Response response = connection.execute();
+        if(response.statusCode() == 304)
+            return PageLinks.notModified(title);
+        if(response.statusCode() == 404)
+            return null;
+        if(response.statusCode() != 200)
+            throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), baseUrl + title);
+        LinkExtractor.Page page = LinkExtractor.extract(response.body());
+        if(!page.hasBody())
+            return null;
+
+        // redirects are served with the content (and canonical link) of the article they redirect to
+        String canonical = page.canonical() == null ? "" : page.canonical();
+        int index = canonical.indexOf("/wiki/");
+        canonical = index == -1 ? title : canonical.substring(index + 6);
+        return new PageLinks(title, canonical, page.links(), response.header("ETag"), response.header("Last-Modified"));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HtmlLinkSource[" + baseUrl + "]";
+    }
+}
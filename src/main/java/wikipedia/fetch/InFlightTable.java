@@ -0,0 +1,257 @@
+package wikipedia.fetch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps track of the articles that are being fetched, so that concurrent lookups of the same article
+ * share a single fetch (single-flight) rather than each fetching (and parsing) the same page.
+ * A Flight fetches a number of articles (a batch), every article is in at most one flight at a time.
+ * The first caller claims the articles that are not in flight yet, and runs the flight (on its own thread, or on a pool).
+ * Later callers join the flight of an article, and wait for it to complete.
+ * Every caller holds a Future of its own: cancelling it stops that caller from waiting,
+ * and once every caller of a flight has cancelled, the flight itself is cancelled (if it has not completed yet).
+ * Articles are removed from the table as soon as their flight completes (or is cancelled),
+ * so that the table only holds the fetches that are in flight.
+ * This class is thread-safe.
+ */
+public class InFlightTable {
+
+    /**
+     * The actual fetch of a number of articles
+     */
+    public interface Fetch
+    {
+        /**
+         * Fetch a number of articles
+         * @param titles
+         * @return true iff all articles were fetched
+         * @throws Exception
+         */
+        boolean fetch(List<String> titles) throws Exception;
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    // statistics
+    private final AtomicLong nofFlights = new AtomicLong();
+    private final AtomicLong nofJoined = new AtomicLong();
+    private final AtomicLong nofCancelled = new AtomicLong();
+
+    /**
+     * This class is the fetch of a number of articles, shared by all callers that need one of them
+     */
+    public class Flight extends FutureTask<Boolean>
+    {
+        private final List<String> titles;
+        private final AtomicInteger nofCallers = new AtomicInteger(1);
+
+        private Flight(final List<String> titles, final Fetch fetch)
+        {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return fetch.fetch(titles);
+                }
+            });
+            this.titles = titles;
+        }
+
+        /**
+         * Return the articles this flight fetches
+         * @return
+         */
+        public List<String> titles()
+        {
+            return titles;
+        }
+
+        /**
+         * Return true iff this flight fetches no articles (because all of them were in flight already)
+         * @return
+         */
+        public boolean isEmpty()
+        {
+            return titles.isEmpty();
+        }
+
+        /**
+         * Return the Future of the caller that claimed this flight
+         * @return
+         */
+        public Future<Boolean> caller()
+        {
+            return new Caller(this);
+        }
+
+        private Future<Boolean> join()
+        {
+            while(true)
+            {
+                int n = nofCallers.get();
+                // a flight that every caller has left is not joined again
+                if(n == 0)
+                    return null;
+                if(nofCallers.compareAndSet(n, n + 1))
+                    return new Caller(this);
+            }
+        }
+
+        private void leave(boolean mayInterruptIfRunning)
+        {
+            if(nofCallers.decrementAndGet() == 0 && cancel(mayInterruptIfRunning))
+                nofCancelled.incrementAndGet();
+        }
+
+        @Override
+        protected void done()
+        {
+            for(String title : titles)
+                flights.remove(title, this);
+        }
+    }
+
+    /**
+     * This class is the Future of one of the callers of a Flight
+     */
+    private static class Caller implements Future<Boolean>
+    {
+        private final Flight flight;
+        private volatile boolean isCancelled = false;
+
+        private Caller(Flight flight)
+        {
+            this.flight = flight;
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if(isCancelled || flight.isDone())
+                return false;
+            isCancelled = true;
+            flight.leave(mayInterruptIfRunning);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return isCancelled;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return isCancelled || flight.isDone();
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException
+        {
+            if(isCancelled)
+                throw new CancellationException();
+            return flight.get();
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if(isCancelled)
+                throw new CancellationException();
+            return flight.get(timeout, unit);
+        }
+    }
+
+    /**
+     * Claim the articles that are not in flight yet, for a new flight.
+     * The flight does not start until it is run, which is up to the caller.
+     * @param titles
+     * @param fetch
+     * @return a flight for the articles that were claimed (which is empty if all of them were in flight already)
+     */
+    public Flight claim(Collection<String> titles, Fetch fetch)
+    {
+        List<String> claimed = new ArrayList<>(titles.size());
+        Flight flight = new Flight(Collections.unmodifiableList(claimed), fetch);
+        for(String title : titles)
+        {
+            if(flights.putIfAbsent(title, flight) == null)
+                claimed.add(title);
+        }
+        if(!claimed.isEmpty())
+            nofFlights.incrementAndGet();
+        return flight;
+    }
+
+    /**
+     * Join the flight of an article
+     * @param title
+     * @return a Future that completes when the flight of the article completes, or null if the article is not in flight
+     */
+    public Future<Boolean> join(String title)
+    {
+        Flight flight = flights.get(title);
+        Future<Boolean> caller = flight == null ? null : flight.join();
+        if(caller != null)
+            nofJoined.incrementAndGet();
+        return caller;
+    }
+
+    /**
+     * Return true iff an article is in flight
+     * @param title
+     * @return
+     */
+    public boolean isInFlight(String title)
+    {
+        return flights.containsKey(title);
+    }
+
+    /**
+     * Return the number of articles in flight
+     * @return
+     */
+    public int size()
+    {
+        return flights.size();
+    }
+
+    /**
+     * Return the number of flights that were started
+     * @return
+     */
+    public long nofFlights()
+    {
+        return nofFlights.get();
+    }
+
+    /**
+     * Return the number of times a caller joined a flight (rather than fetching an article again)
+     * @return
+     */
+    public long nofJoined()
+    {
+        return nofJoined.get();
+    }
+
+    /**
+     * Return the number of flights that were cancelled because all of their callers left
+     * @return
+     */
+    public long nofCancelled()
+    {
+        return nofCancelled.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "InFlightTable[" + size() + " in flight, " + nofFlights() + " flights, " + nofJoined() + " joined, " + nofCancelled() + " cancelled]";
+    }
+}
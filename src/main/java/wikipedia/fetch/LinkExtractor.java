@@ -0,0 +1,648 @@
+package wikipedia.fetch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class extracts the links of an article from the HTML of its page, in a single pass, without building a DOM.
+ * It finds the same links as selecting all anchors in div#bodyContent of the parsed page, and dropping those that
+ * have a 'cite' element, or an element with class 'references' or 'refbegin' among their ancestors,
+ * or that have no text: a link is emitted iff its href starts with '/wiki/'.
+ * Rather than walking the ancestors of every anchor, the tokenizer keeps a stack of open elements,
+ * and the number of excluded elements on it, so that every tag costs O(1) (amortized).
+ * The stack follows the tree construction rules of HTML5 (as implemented by Jsoup) for the cases that occur on Wikipedia:
+ * void elements, implied end tags (p, li, dd, dt, td, th, tr), end tags that do not match an open element,
+ * and anchors that are opened before the previous anchor was closed.
+ * The canonical link of the page (link rel="canonical") is extracted in the same pass.
+ * Instances are not thread-safe, but cheap to create.
+ */
+public class LinkExtractor {
+
+    // flags of open elements
+    private static final int EXCLUDED = 1;
+    private static final int BODY = 2;
+    private static final int ANCHOR = 4;
+
+    // interned names of the elements that influence the tree construction
+    private static final Map<String, String> NAMES = new HashMap<>();
+
+    private static final String A = name("a");
+    private static final String DIV = name("div");
+    private static final String CITE = name("cite");
+    private static final String LINK = name("link");
+    private static final String P = name("p");
+    private static final String LI = name("li");
+    private static final String DD = name("dd");
+    private static final String DT = name("dt");
+    private static final String TD = name("td");
+    private static final String TH = name("th");
+    private static final String TR = name("tr");
+    private static final String TABLE = name("table");
+    private static final String ADDRESS = name("address");
+    private static final String TEXTAREA = name("textarea");
+    private static final String TITLE = name("title");
+
+    // elements without content
+    private static final String[] VOID = {"area", "base", "br", "col", "embed", "hr", "img", "input", "keygen", "link", "meta", "param", "source", "track", "wbr"};
+    // elements whose content is not parsed as HTML
+    private static final String[] RAW = {"script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes"};
+    // elements that close an open 'p'
+    private static final String[] CLOSES_P = {"address", "article", "aside", "blockquote", "center", "details", "dialog", "dir", "div", "dl",
+            "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "main", "menu", "nav", "ol", "p", "section", "summary", "ul",
+            "h1", "h2", "h3", "h4", "h5", "h6", "pre", "listing", "form", "table", "hr"};
+    // elements that end tags of other (non-special) elements can not close
+    private static final String[] SPECIAL = {"address", "applet", "area", "article", "aside", "base", "basefont", "bgsound", "blockquote",
+            "body", "br", "button", "caption", "center", "col", "colgroup", "dd", "details", "dir", "div", "dl", "dt", "embed", "fieldset",
+            "figcaption", "figure", "footer", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hgroup",
+            "hr", "html", "iframe", "img", "input", "li", "link", "listing", "main", "marquee", "menu", "meta", "nav", "noembed", "noframes",
+            "noscript", "object", "ol", "p", "param", "plaintext", "pre", "script", "section", "select", "style", "summary", "table",
+            "tbody", "td", "textarea", "tfoot", "th", "thead", "title", "tr", "ul", "wbr", "xmp"};
+    // elements that use the adoption agency algorithm, their end tags close them regardless of special elements
+    private static final String[] FORMATTING = {"a", "b", "big", "code", "em", "font", "i", "nobr", "s", "small", "strike", "strong", "tt", "u"};
+
+    private static final Map<String, Integer> KIND = new HashMap<>();
+    private static final int IS_VOID = 1;
+    private static final int IS_RAW = 2;
+    private static final int CLOSES_PARAGRAPH = 4;
+    private static final int IS_SPECIAL = 8;
+    private static final int IS_FORMATTING = 16;
+
+    static
+    {
+        kind(VOID, IS_VOID);
+        kind(RAW, IS_RAW);
+        kind(CLOSES_P, CLOSES_PARAGRAPH);
+        kind(SPECIAL, IS_SPECIAL);
+        kind(FORMATTING, IS_FORMATTING);
+    }
+
+    private static String name(String name)
+    {
+        String interned = NAMES.get(name);
+        if(interned != null)
+            return interned;
+        NAMES.put(name, name);
+        return name;
+    }
+
+    private static void kind(String[] names, int kind)
+    {
+        for(String name : names)
+        {
+            String interned = name(name);
+            Integer old = KIND.get(interned);
+            KIND.put(interned, (old == null ? 0 : old) | kind);
+        }
+    }
+
+    private static int kind(String name)
+    {
+        Integer kind = KIND.get(name);
+        return kind == null ? 0 : kind;
+    }
+
+    /**
+     * The result of extracting the links of a page
+     */
+    public static class Page
+    {
+        private final String canonical;
+        private final List<String> links;
+        private final boolean hasBody;
+
+        Page(String canonical, List<String> links, boolean hasBody)
+        {
+            this.canonical = canonical;
+            this.links = links;
+            this.hasBody = hasBody;
+        }
+
+        /**
+         * Return the href of the canonical link of the page, or null if the page has none
+         * @return
+         */
+        public String canonical()
+        {
+            return canonical;
+        }
+
+        /**
+         * Return all links (the part of the href following '/wiki/') in the body of the page, in document order
+         * @return
+         */
+        public List<String> links()
+        {
+            return links;
+        }
+
+        /**
+         * Return true iff the page has a div#bodyContent
+         * @return
+         */
+        public boolean hasBody()
+        {
+            return hasBody;
+        }
+    }
+
+    private String html;
+
+    // stack of open elements
+    private String[] names = new String[64];
+    private int[] flags = new int[64];
+    private int depth = 0;
+    private int nofExcluded = 0;
+
+    // state of the body, and of the anchor that is currently open
+    private boolean hasBody = false;
+    private boolean inBody = false;
+    private String href = null;
+    private boolean hasText = false;
+
+    private String canonical = null;
+    private List<String> links = new ArrayList<>();
+
+    // attributes of the current start tag
+    private String classAttribute;
+    private String idAttribute;
+    private String hrefAttribute;
+    private String relAttribute;
+
+    /**
+     * Extract the links of a page
+     * @param html
+     * @return
+     */
+    public static Page extract(String html)
+    {
+        return new LinkExtractor().run(html);
+    }
+
+    private Page run(String html)
+    {
+        this.html = html;
+        int n = html.length();
+        int i = 0;
+        while(i < n)
+        {
+            int lt = html.indexOf('<', i);
+            if(lt == -1)
+            {
+                text(i, n);
+                break;
+            }
+            if(lt > i)
+                text(i, lt);
+            i = lt;
+            char c = i + 1 < n ? html.charAt(i + 1) : 0;
+            if(html.startsWith("<!--", i))
+            {
+                int end = html.indexOf("-->", i + 4);
+                i = end == -1 ? n : end + 3;
+            }
+            else if(c == '!' || c == '?')
+            {
+                int end = html.indexOf('>', i);
+                i = end == -1 ? n : end + 1;
+            }
+            else if(c == '/')
+            {
+                int from = i + 2;
+                int to = nameEnd(from);
+                int end = html.indexOf('>', to);
+                i = end == -1 ? n : end + 1;
+                if(to > from && isLetter(html.charAt(from)))
+                    endTag(name(from, to));
+            }
+            else if(isLetter(c))
+            {
+                int from = i + 1;
+                int to = nameEnd(from);
+                String name = name(from, to);
+                i = attributes(to);
+                startTag(name);
+                if((kind(name) & IS_RAW) != 0)
+                {
+                    // skip to the matching end tag, only the text of some of these elements counts as text
+                    int end = indexOfEndTag(name, i);
+                    if(end == -1)
+                        end = n;
+                    if(name == TEXTAREA || name == TITLE)
+                        text(i, end);
+                    i = end;
+                }
+            }
+            else
+            {
+                text(i, i + 1);
+                i++;
+            }
+        }
+        // close all open elements
+        while(depth > 0)
+            pop();
+        return new Page(canonical, links, hasBody);
+    }
+
+    private static boolean isLetter(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private int nameEnd(int from)
+    {
+        int i = from;
+        while(i < html.length())
+        {
+            char c = html.charAt(i);
+            if(isWhitespace(c) || c == '/' || c == '>')
+                break;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Return the (interned, if known) lower-case name of a tag
+     */
+    private String name(int from, int to)
+    {
+        String name = html.substring(from, to);
+        String interned = NAMES.get(name);
+        if(interned != null)
+            return interned;
+        name = name.toLowerCase(Locale.ROOT);
+        interned = NAMES.get(name);
+        return interned == null ? name : interned;
+    }
+
+    private int indexOfEndTag(String name, int from)
+    {
+        int i = from;
+        while(true)
+        {
+            i = html.indexOf("</", i);
+            if(i == -1)
+                return -1;
+            if(html.regionMatches(true, i + 2, name, 0, name.length()))
+            {
+                int after = i + 2 + name.length();
+                if(after >= html.length() || isWhitespace(html.charAt(after)) || html.charAt(after) == '>' || html.charAt(after) == '/')
+                    return i;
+            }
+            i += 2;
+        }
+    }
+
+    /**
+     * Parse the attributes of a start tag, keeping only those that are needed
+     * @param from the index following the name of the tag
+     * @return the index following the tag
+     */
+    private int attributes(int from)
+    {
+        classAttribute = null;
+        idAttribute = null;
+        hrefAttribute = null;
+        relAttribute = null;
+        int n = html.length();
+        int i = from;
+        while(i < n)
+        {
+            char c = html.charAt(i);
+            if(c == '>')
+                return i + 1;
+            if(isWhitespace(c) || c == '/')
+            {
+                i++;
+                continue;
+            }
+            int nameFrom = i;
+            while(i < n && !isWhitespace(html.charAt(i)) && html.charAt(i) != '=' && html.charAt(i) != '>' && (html.charAt(i) != '/' || i == nameFrom))
+                i++;
+            int nameTo = i;
+            while(i < n && isWhitespace(html.charAt(i)))
+                i++;
+            String value = "";
+            if(i < n && html.charAt(i) == '=')
+            {
+                i++;
+                while(i < n && isWhitespace(html.charAt(i)))
+                    i++;
+                if(i < n && (html.charAt(i) == '"' || html.charAt(i) == '\''))
+                {
+                    char quote = html.charAt(i);
+                    int end = html.indexOf(quote, i + 1);
+                    if(end == -1)
+                        end = n;
+                    value = decode(i + 1, end);
+                    i = java.lang.Math.min(n, end + 1);
+                }
+                else
+                {
+                    int valueFrom = i;
+                    while(i < n && !isWhitespace(html.charAt(i)) && html.charAt(i) != '>')
+                        i++;
+                    value = decode(valueFrom, i);
+                }
+            }
+            attribute(nameFrom, nameTo, value);
+        }
+        return n;
+    }
+
+    private void attribute(int from, int to, String value)
+    {
+        // the last occurrence of an attribute wins (as in Jsoup)
+        int length = to - from;
+        if(length == 5 && html.regionMatches(true, from, "class", 0, 5))
+            classAttribute = value;
+        else if(length == 2 && html.regionMatches(true, from, "id", 0, 2))
+            idAttribute = value;
+        else if(length == 4 && html.regionMatches(true, from, "href", 0, 4))
+            hrefAttribute = value;
+        else if(length == 3 && html.regionMatches(true, from, "rel", 0, 3))
+            relAttribute = value;
+    }
+
+    /**
+     * Decode the character references in an attribute value
+     */
+    private String decode(int from, int to)
+    {
+        int amp = html.indexOf('&', from);
+        if(amp == -1 || amp >= to)
+            return html.substring(from, to);
+        StringBuilder sb = new StringBuilder(to - from);
+        int i = from;
+        while(i < to)
+        {
+            char c = html.charAt(i);
+            if(c != '&')
+            {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int semicolon = html.indexOf(';', i);
+            int code = semicolon == -1 || semicolon >= to || semicolon - i > 10 ? -1 : reference(i + 1, semicolon);
+            if(code == -1)
+            {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            sb.appendCodePoint(code);
+            i = semicolon + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the code point of a character reference (without '&' and ';'), or -1 if it is not known
+     */
+    private int reference(int from, int to)
+    {
+        String name = html.substring(from, to);
+        try {
+            if(name.startsWith("#x") || name.startsWith("#X"))
+                return Integer.parseInt(name.substring(2), 16);
+            if(name.startsWith("#"))
+                return Integer.parseInt(name.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if(name.equals("amp"))
+            return '&';
+        if(name.equals("quot"))
+            return '"';
+        if(name.equals("apos"))
+            return '\'';
+        if(name.equals("lt"))
+            return '<';
+        if(name.equals("gt"))
+            return '>';
+        if(name.equals("nbsp"))
+            return 0xA0;
+        return -1;
+    }
+
+    /**
+     * Handle the text in [from, to), which only matters inside anchors
+     */
+    private void text(int from, int to)
+    {
+        if(href == null || hasText)
+            return;
+        // non-breaking spaces count as text (they survive the trimming of Element.text())
+        for(int i=from;i<to;i++)
+        {
+            if(!isWhitespace(html.charAt(i)))
+            {
+                hasText = true;
+                return;
+            }
+        }
+    }
+
+    private void startTag(String name)
+    {
+        int kind = kind(name);
+
+        // implied end tags
+        if(name == A)
+        {
+            int open = find(A, false);
+            if(open != -1)
+                popTo(open);
+        }
+        else if(name == LI)
+            closeInScope(LI);
+        else if(name == DD || name == DT)
+        {
+            closeInScope(DD);
+            closeInScope(DT);
+        }
+        else if(name == TD || name == TH || name == TR)
+        {
+            int cell = java.lang.Math.max(findInTable(TD), findInTable(TH));
+            if(cell != -1)
+                popTo(cell);
+            if(name == TR)
+            {
+                int row = findInTable(TR);
+                if(row != -1)
+                    popTo(row);
+            }
+        }
+        if((kind & CLOSES_PARAGRAPH) != 0)
+        {
+            int p = find(P, true);
+            if(p != -1)
+                popTo(p);
+        }
+
+        if(name == LINK && canonical == null && relAttribute != null && relAttribute.trim().equalsIgnoreCase("canonical"))
+            canonical = hrefAttribute == null ? "" : hrefAttribute;
+        if((kind & IS_VOID) != 0)
+            return;
+
+        int flag = 0;
+        if(name == CITE || hasClass("references") || hasClass("refbegin"))
+            flag |= EXCLUDED;
+        if(name == DIV && !hasBody && "bodyContent".equals(idAttribute))
+        {
+            flag |= BODY;
+            hasBody = true;
+            inBody = true;
+        }
+        if(name == A)
+        {
+            flag |= ANCHOR;
+            // the anchor itself does not count, only its ancestors
+            href = inBody && nofExcluded == 0 && hrefAttribute != null ? hrefAttribute : null;
+            hasText = false;
+        }
+        push(name, flag);
+    }
+
+    /**
+     * Return true iff the class attribute of the current start tag holds a given class
+     * (classes are separated by single spaces)
+     */
+    private boolean hasClass(String className)
+    {
+        if(classAttribute == null)
+            return false;
+        String classes = classAttribute.trim();
+        int i = classes.indexOf(className);
+        while(i != -1)
+        {
+            int end = i + className.length();
+            if((i == 0 || classes.charAt(i - 1) == ' ') && (end == classes.length() || classes.charAt(end) == ' '))
+                return true;
+            i = classes.indexOf(className, i + 1);
+        }
+        return false;
+    }
+
+    private void endTag(String name)
+    {
+        int kind = kind(name);
+        if((kind & IS_SPECIAL) != 0 || (kind & IS_FORMATTING) != 0)
+        {
+            int open = find(name, false);
+            if(open != -1)
+                popTo(open);
+            return;
+        }
+        // any other end tag closes the nearest open element with the same name, unless a special element is in the way
+        for(int i=depth-1;i>=0;i--)
+        {
+            if(names[i].equals(name))
+            {
+                popTo(i);
+                return;
+            }
+            if((kind(names[i]) & IS_SPECIAL) != 0)
+                return;
+        }
+    }
+
+    /**
+     * Return the index of the nearest open element with a given name, or -1 if there is none.
+     * @param name
+     * @param isButtonScope true iff the search should stop at the boundaries of a scope
+     * @return
+     */
+    private int find(String name, boolean isButtonScope)
+    {
+        for(int i=depth-1;i>=0;i--)
+        {
+            if(names[i] == name)
+                return i;
+            if(isButtonScope && isScopeBoundary(names[i]))
+                return -1;
+        }
+        return -1;
+    }
+
+    private static boolean isScopeBoundary(String name)
+    {
+        return name == TABLE || name == TD || name == TH || name.equals("button") || name.equals("caption") || name.equals("html") ||
+                name.equals("marquee") || name.equals("object") || name.equals("applet");
+    }
+
+    private void closeInScope(String name)
+    {
+        for(int i=depth-1;i>=0;i--)
+        {
+            if(names[i] == name)
+            {
+                popTo(i);
+                return;
+            }
+            // list items only close list items of the same list
+            String other = names[i];
+            if((kind(other) & IS_SPECIAL) != 0 && other != P && other != ADDRESS && other != DIV)
+                return;
+        }
+    }
+
+    private int findInTable(String name)
+    {
+        for(int i=depth-1;i>=0;i--)
+        {
+            if(names[i] == name)
+                return i;
+            if(names[i] == TABLE)
+                return -1;
+        }
+        return -1;
+    }
+
+    private void push(String name, int flag)
+    {
+        if(depth == names.length)
+        {
+            names = java.util.Arrays.copyOf(names, depth * 2);
+            flags = java.util.Arrays.copyOf(flags, depth * 2);
+        }
+        names[depth] = name;
+        flags[depth] = flag;
+        depth++;
+        if((flag & EXCLUDED) != 0)
+            nofExcluded++;
+    }
+
+    private void popTo(int index)
+    {
+        while(depth > index)
+            pop();
+    }
+
+    private void pop()
+    {
+        depth--;
+        int flag = flags[depth];
+        names[depth] = null;
+        if((flag & EXCLUDED) != 0)
+            nofExcluded--;
+        if((flag & BODY) != 0)
+            inBody = false;
+        if((flag & ANCHOR) != 0)
+        {
+            if(href != null && hasText && href.startsWith("/wiki/"))
+                links.add(href.substring(6));
+            href = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package wikipedia.fetch;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This interface is implemented by everything WikipediaCache can get the outgoing links of articles from:
+ * - HtmlLinkSource scrapes the page of every article
+ * - ApiLinkSource asks the MediaWiki API, for many articles per request
+ * - DumpLinkSource reads them from a snapshot imported from the database dumps (see DumpImporter)
+ * Implementations must be thread-safe, WikipediaCache calls them from the threads of its fetch pool.
+ */
+public interface LinkSource {
+
+    /**
+     * Return the maximum number of articles that should be passed to a single call of fetch
+     * @return
+     */
+    int batchSize();
+
+    /**
+     * Fetch the outgoing links of a number of articles
+     * @param titles at most batchSize() titles
+     * @return the links of every title that was found (titles that do not exist are left out)
+     * @throws IOException
+     */
+    List<PageLinks> fetch(List<String> titles) throws IOException;
+
+    /**
+     * Fetch the outgoing links of an article again, if its page changed since it was fetched with the given validators.
+     * Sources that do not support conditional requests fetch the links unconditionally.
+     * @param title
+     * @param etag the ETag of the previous fetch, or null if not known
+     * @param lastModified the Last-Modified date of the previous fetch, or null if not known
+     * @return the links of the article, PageLinks.notModified if the page did not change, or null if the article does not exist
+     * @throws IOException
+     */
+    PageLinks revalidate(String title, String etag, String lastModified) throws IOException;
+}
@@ -0,0 +1,355 @@
+package wikipedia.fetch;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class remembers which articles could not be fetched, and why, so that they are not fetched again
+ * (costing up to the full timeout every time) until some time has passed.
+ * Every reason has its own time-to-live: an article that does not exist is unlikely to appear soon,
+ * whereas a timeout or a server error is usually over in seconds. Every consecutive failure of the same article
+ * doubles its time-to-live (exponential backoff), up to a maximum per reason. A successful fetch forgets the article.
+ * Articles are known by their title, since articles that do not exist have no ID.
+ * A negative cache file consists of a header (magic number, format version, number of entries) followed by,
+ * for every entry, its title (unsigned short length + UTF-8 bytes), reason, number of failures and time of the last failure.
+ * This class is thread-safe.
+ */
+public class NegativeCache {
+
+    public static final int MAGIC = 0x57504e43;     // "WPNC"
+    public static final int VERSION = 1;
+
+    public enum Reason
+    {
+        // the article does not exist (404), or has no links to extract
+        NOT_FOUND(60 * 60 * 1000L, 7 * 24 * 60 * 60 * 1000L),
+        // the fetch failed (timeout, connection refused, server error, ...)
+        ERROR(10 * 1000L, 60 * 60 * 1000L);
+
+        private final long ttl;
+        private final long maxTtl;
+
+        Reason(long ttl, long maxTtl)
+        {
+            this.ttl = ttl;
+            this.maxTtl = maxTtl;
+        }
+    }
+
+    private static class Entry
+    {
+        Reason reason;
+        int failures;
+        long failedAt;
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final long[] ttls = new long[Reason.values().length];
+    private final long[] maxTtls = new long[Reason.values().length];
+
+    // statistics
+    private final AtomicLong[] nofFailures = new AtomicLong[Reason.values().length];
+    private final AtomicLong[] failureTime = new AtomicLong[Reason.values().length];
+    private final AtomicLong[] nofSuppressed = new AtomicLong[Reason.values().length];
+
+    public NegativeCache()
+    {
+        for(Reason reason : Reason.values())
+        {
+            ttls[reason.ordinal()] = reason.ttl;
+            maxTtls[reason.ordinal()] = reason.maxTtl;
+            nofFailures[reason.ordinal()] = new AtomicLong();
+            failureTime[reason.ordinal()] = new AtomicLong();
+            nofSuppressed[reason.ordinal()] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Set the time-to-live of the entries for a given reason.
+     * This also applies to the entries that are already in this cache.
+     * @param reason
+     * @param ttl the time-to-live (in ms) after the first failure
+     * @param maxTtl the time-to-live (in ms) is doubled after every consecutive failure, up to this maximum
+     */
+    public synchronized void setTtl(Reason reason, long ttl, long maxTtl)
+    {
+        ttls[reason.ordinal()] = ttl;
+        maxTtls[reason.ordinal()] = java.lang.Math.max(ttl, maxTtl);
+    }
+
+    /**
+     * Register that an article could not be fetched
+     * @param title
+     * @param reason
+     * @param now
+     * @param elapsed the time (in ms) the failed fetch took
+     */
+    public void failed(String title, Reason reason, long now, long elapsed)
+    {
+        nofFailures[reason.ordinal()].incrementAndGet();
+        failureTime[reason.ordinal()].addAndGet(elapsed);
+        synchronized (this)
+        {
+            Entry entry = entries.get(title);
+            if(entry == null)
+            {
+                entry = new Entry();
+                entries.put(title, entry);
+            }
+            // the backoff starts over when the reason changes
+            entry.failures = entry.reason == reason ? entry.failures + 1 : 1;
+            entry.reason = reason;
+            entry.failedAt = now;
+        }
+    }
+
+    /**
+     * Register that an article was fetched, so that it is forgotten
+     * @param title
+     */
+    public synchronized void succeeded(String title)
+    {
+        entries.remove(title);
+    }
+
+    /**
+     * Return the time-to-live of an entry after a given number of consecutive failures
+     * @param reason
+     * @param failures
+     * @return
+     */
+    private synchronized long ttl(Reason reason, int failures)
+    {
+        long ttl = ttls[reason.ordinal()];
+        long maxTtl = maxTtls[reason.ordinal()];
+        for(int i=1;i<failures && ttl < maxTtl;i++)
+            ttl *= 2;
+        return java.lang.Math.min(ttl, maxTtl);
+    }
+
+    /**
+     * Return true iff an article failed recently, and should not be fetched again yet.
+     * Every call that returns true counts as a suppressed fetch.
+     * @param title
+     * @param now
+     * @return
+     */
+    public boolean isSuppressed(String title, long now)
+    {
+        Reason reason;
+        synchronized (this)
+        {
+            Entry entry = entries.get(title);
+            if(entry == null || now >= retryAt(entry))
+                return false;
+            reason = entry.reason;
+        }
+        nofSuppressed[reason.ordinal()].incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Return the reason an article could not be fetched, or null if it is not in this cache
+     * @param title
+     * @return
+     */
+    public synchronized Reason reason(String title)
+    {
+        Entry entry = entries.get(title);
+        return entry == null ? null : entry.reason;
+    }
+
+    /**
+     * Return the number of consecutive failures of an article
+     * @param title
+     * @return
+     */
+    public synchronized int failures(String title)
+    {
+        Entry entry = entries.get(title);
+        return entry == null ? 0 : entry.failures;
+    }
+
+    /**
+     * Return the time after which an article may be fetched again, or 0 if it is not in this cache
+     * @param title
+     * @return
+     */
+    public synchronized long retryAt(String title)
+    {
+        Entry entry = entries.get(title);
+        return entry == null ? 0 : retryAt(entry);
+    }
+
+    private long retryAt(Entry entry)
+    {
+        return entry.failedAt + ttl(entry.reason, entry.failures);
+    }
+
+    /**
+     * Return the number of articles in this cache
+     * @return
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Forget all failures
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Return the number of failed fetches for a given reason
+     * @param reason
+     * @return
+     */
+    public long nofFailures(Reason reason)
+    {
+        return nofFailures[reason.ordinal()].get();
+    }
+
+    /**
+     * Return the number of fetches that were suppressed, for a given reason
+     * @param reason
+     * @return
+     */
+    public long nofSuppressed(Reason reason)
+    {
+        return nofSuppressed[reason.ordinal()].get();
+    }
+
+    /**
+     * Return the number of fetches that were suppressed
+     * @return
+     */
+    public long nofSuppressed()
+    {
+        long n = 0;
+        for(Reason reason : Reason.values())
+            n += nofSuppressed(reason);
+        return n;
+    }
+
+    /**
+     * Return an estimate of the time (in ms) that suppressing fetches saved,
+     * i.e. the number of suppressed fetches times the average time a failed fetch took, for every reason
+     * @return
+     */
+    public long savedTime()
+    {
+        long saved = 0;
+        for(Reason reason : Reason.values())
+        {
+            long n = nofFailures(reason);
+            if(n > 0)
+                saved += nofSuppressed(reason) * failureTime[reason.ordinal()].get() / n;
+        }
+        return saved;
+    }
+
+    /**
+     * Return a copy of this cache, to be written in the background
+     * @return
+     */
+    public synchronized NegativeCache copy()
+    {
+        NegativeCache copy = new NegativeCache();
+        for(Map.Entry<String, Entry> entry : entries.entrySet())
+        {
+            Entry e = new Entry();
+            e.reason = entry.getValue().reason;
+            e.failures = entry.getValue().failures;
+            e.failedAt = entry.getValue().failedAt;
+            copy.entries.put(entry.getKey(), e);
+        }
+        return copy;
+    }
+
+    /**
+     * (Atomically) write this cache to a given file
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void write(File file) throws IOException
+    {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Map.Entry<String, Entry> entry : entries.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeByte(entry.getValue().reason.ordinal());
+                out.writeInt(entry.getValue().failures);
+                out.writeLong(entry.getValue().failedAt);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read the entries of a given file into this cache
+     * @param file
+     * @throws IOException
+     */
+    public void read(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if(in.readInt() != MAGIC)
+                throw new IOException("not a negative cache");
+            int version = in.readInt();
+            if(version != VERSION)
+                throw new IOException("unsupported negative cache version " + version);
+            int n = in.readInt();
+            Reason[] reasons = Reason.values();
+            synchronized (this)
+            {
+                for(int i=0;i<n;i++)
+                {
+                    Entry entry = new Entry();
+                    String title = in.readUTF();
+                    int reason = in.readByte();
+                    if(reason < 0 || reason >= reasons.length)
+                        throw new IOException("unknown reason " + reason);
+                    entry.reason = reasons[reason];
+                    entry.failures = in.readInt();
+                    entry.failedAt = in.readLong();
+                    entries.put(title, entry);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("NegativeCache[" + size() + " articles");
+        for(Reason reason : Reason.values())
+            sb.append(", ").append(reason).append(": ").append(nofFailures(reason)).append(" failed, ").append(nofSuppressed(reason)).append(" suppressed");
+        return sb.append(", ~").append(savedTime()).append(" ms saved]").toString();
+    }
+}
@@ -0,0 +1,116 @@
+package wikipedia.fetch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the outgoing links of an article, as fetched from a LinkSource.
+ * Titles and links are in the form in which they appear in links on Wikipedia (the part of the URL following '/wiki/').
+ * If the requested title is a redirect, the canonical title is the title of the article it redirects to,
+ * and the links are the links of that article.
+ * Sources that support conditional requests also return the validators (ETag and Last-Modified) of the page,
+ * and return a PageLinks that is 'not modified' (without links) when a page did not change since it was last fetched.
+ */
+public class PageLinks {
+
+    private final String title;
+    private final String canonical;
+    private final List<String> links;
+    private final String etag;
+    private final String lastModified;
+    private final boolean isNotModified;
+
+    public PageLinks(String title, String canonical, List<String> links, String etag, String lastModified)
+    {
+        this(title, canonical, links, etag, lastModified, false);
+    }
+
+    private PageLinks(String title, String canonical, List<String> links, String etag, String lastModified, boolean isNotModified)
+    {
+        this.title = title;
+        this.canonical = canonical == null ? title : canonical;
+        this.links = links;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.isNotModified = isNotModified;
+    }
+
+    /**
+     * Return the outcome of a conditional request for a page that did not change
+     * @param title
+     * @return
+     */
+    public static PageLinks notModified(String title)
+    {
+        return new PageLinks(title, title, Collections.<String>emptyList(), null, null, true);
+    }
+
+    /**
+     * Return the title that was requested
+     * @return
+     */
+    public String title()
+    {
+        return title;
+    }
+
+    /**
+     * Return the title of the article the requested title redirects to, or the requested title itself
+     * @return
+     */
+    public String canonical()
+    {
+        return canonical;
+    }
+
+    /**
+     * Return true iff the requested title is a redirect
+     * @return
+     */
+    public boolean isRedirect()
+    {
+        return !canonical.equals(title);
+    }
+
+    /**
+     * Return the outgoing links of the article, in the order in which they appear on its page
+     * @return
+     */
+    public List<String> links()
+    {
+        return links;
+    }
+
+    /**
+     * Return the ETag of the page, or null if not known
+     * @return
+     */
+    public String etag()
+    {
+        return etag;
+    }
+
+    /**
+     * Return the Last-Modified date of the page, or null if not known
+     * @return
+     */
+    public String lastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * Return true iff this is the outcome of a conditional request, and the page did not change
+     * @return
+     */
+    public boolean isNotModified()
+    {
+        return isNotModified;
+    }
+
+    @Override
+    public String toString()
+    {
+        return title + (isRedirect() ? " -> " + canonical : "") + (isNotModified ? " (not modified)" : " " + links);
+    }
+}
@@ -0,0 +1,347 @@
+package wikipedia.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class represents an append-only log of all changes made to the WikipediaCache
+ * since the last Snapshot. Every change is appended as a small binary record,
+ * so that the cost of a change no longer depends on the size of the graph.
+ * Records are buffered, and the journal is forced to disk in batches
+ * (every 'nofRecordsBeforeSync' records, or every 'syncInterval' ms, whichever comes first).
+ * A crash can therefore lose at most one batch of changes.
+ * This class is thread-safe. Records are appended under a lock,
+ * but the (slow) fsync happens outside of it, so that other threads can keep on appending.
+ * A record consists of a one-byte type, followed by
+ * - ARTICLE : the ID (int) and title (unsigned short length + UTF-8 bytes) of a new article
+ * - EXPAND  : the ID (int) of an article whose outgoing links are now known
+ * - ADD     : the IDs (int, int) of both ends of a new link
+ * - REMOVE  : the IDs (int, int) of both ends of a removed link
+ * - ALIAS   : the IDs (int, int) of a redirect and the article it redirects to
+ * - FETCHED : the ID (int) of an article whose page was fetched, the time (long) of the fetch,
+ *             and the ETag and Last-Modified validators of the page (unsigned short length + UTF-8 bytes each)
+ */
+public class ChangeJournal implements Closeable {
+
+    static final byte ARTICLE = 1;
+    static final byte EXPAND = 2;
+    static final byte ADD = 3;
+    static final byte REMOVE = 4;
+    static final byte ALIAS = 5;
+    static final byte FETCHED = 6;
+
+    /**
+     * Callback for replaying a journal
+     */
+    public interface Replay
+    {
+        void article(int articleId, String title);
+        void expand(int articleId);
+        void add(int fromId, int toId);
+        void remove(int fromId, int toId);
+        void alias(int redirectId, int targetId);
+        void fetched(int articleId, long time, String etag, String lastModified);
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 18);
+
+    // parameters for batching fsync calls
+    private int nofRecordsBeforeSync = 4096;
+    private long syncInterval = 1000;
+
+    private int nofUnsyncedRecords = 0;
+    private long lastSync = System.currentTimeMillis();
+    private long nofRecords = 0;
+
+    private ChangeJournal(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = new FileOutputStream(file, true).getChannel();
+    }
+
+    /**
+     * Open a journal file for appending
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ChangeJournal open(File file) throws IOException
+    {
+        return new ChangeJournal(file);
+    }
+
+    public File file()
+    {
+        return file;
+    }
+
+    /**
+     * Return the number of records appended to this journal since it was opened
+     * @return
+     */
+    public synchronized long nofRecords()
+    {
+        return nofRecords;
+    }
+
+    public void article(int articleId, String title) throws IOException
+    {
+        if(appendArticle(articleId, title))
+            flush();
+    }
+
+    /**
+     * Append an ARTICLE record, without forcing the journal to disk.
+     * This lets callers append under a lock of their own (e.g. to keep articles in order of their IDs),
+     * and call flush() once that lock is released.
+     * @param articleId
+     * @param title
+     * @return true iff the journal should be forced to disk
+     * @throws IOException
+     */
+    public boolean appendArticle(int articleId, String title) throws IOException
+    {
+        byte[] bytes = title.getBytes(Snapshot.UTF8);
+        if(bytes.length > 0xFFFF)
+            throw new IllegalArgumentException("title too long: " + title);
+        synchronized (this)
+        {
+            reserve(1 + 4 + 2 + bytes.length);
+            buffer.put(ARTICLE).putInt(articleId).putShort((short) bytes.length).put(bytes);
+            return appended();
+        }
+    }
+
+    public void expand(int articleId) throws IOException
+    {
+        boolean sync;
+        synchronized (this)
+        {
+            reserve(1 + 4);
+            buffer.put(EXPAND).putInt(articleId);
+            sync = appended();
+        }
+        if(sync)
+            flush();
+    }
+
+    public void add(int fromId, int toId) throws IOException
+    {
+        boolean sync;
+        synchronized (this)
+        {
+            reserve(1 + 8);
+            buffer.put(ADD).putInt(fromId).putInt(toId);
+            sync = appended();
+        }
+        if(sync)
+            flush();
+    }
+
+    public void remove(int fromId, int toId) throws IOException
+    {
+        boolean sync;
+        synchronized (this)
+        {
+            reserve(1 + 8);
+            buffer.put(REMOVE).putInt(fromId).putInt(toId);
+            sync = appended();
+        }
+        if(sync)
+            flush();
+    }
+
+    public void alias(int redirectId, int targetId) throws IOException
+    {
+        boolean sync;
+        synchronized (this)
+        {
+            reserve(1 + 8);
+            buffer.put(ALIAS).putInt(redirectId).putInt(targetId);
+            sync = appended();
+        }
+        if(sync)
+            flush();
+    }
+
+    public void fetched(int articleId, long time, String etag, String lastModified) throws IOException
+    {
+        byte[] etagBytes = (etag == null ? "" : etag).getBytes(Snapshot.UTF8);
+        byte[] lastModifiedBytes = (lastModified == null ? "" : lastModified).getBytes(Snapshot.UTF8);
+        if(etagBytes.length > 0xFFFF || lastModifiedBytes.length > 0xFFFF)
+            throw new IllegalArgumentException("validator too long: " + etag);
+        boolean sync;
+        synchronized (this)
+        {
+            reserve(1 + 4 + 8 + 2 + etagBytes.length + 2 + lastModifiedBytes.length);
+            buffer.put(FETCHED).putInt(articleId).putLong(time);
+            buffer.putShort((short) etagBytes.length).put(etagBytes);
+            buffer.putShort((short) lastModifiedBytes.length).put(lastModifiedBytes);
+            sync = appended();
+        }
+        if(sync)
+            flush();
+    }
+
+    private void reserve(int size) throws IOException
+    {
+        if(buffer.remaining() < size)
+            write();
+    }
+
+    /**
+     * Count a new record
+     * @return true iff the journal should be forced to disk
+     */
+    private boolean appended()
+    {
+        nofRecords++;
+        nofUnsyncedRecords++;
+        return nofUnsyncedRecords >= nofRecordsBeforeSync || System.currentTimeMillis() - lastSync >= syncInterval;
+    }
+
+    private void write() throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write all buffered records, and force them to disk
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        synchronized (this)
+        {
+            // closing already forced all records to disk
+            if(!channel.isOpen())
+                return;
+            write();
+            nofUnsyncedRecords = 0;
+            lastSync = System.currentTimeMillis();
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Flush and close this journal.
+     * A journal without records is deleted.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(!channel.isOpen())
+            return;
+        flush();
+        boolean isEmpty = channel.size() == 0;
+        channel.close();
+        if(isEmpty)
+            file.delete();
+    }
+
+    /**
+     * Replay all records in a given journal file.
+     * A record that was only partially written (e.g. because of a crash) ends the replay.
+     * @param file
+     * @param replay
+     * @return the number of records replayed
+     * @throws IOException
+     */
+    public static long replay(File file, Replay replay) throws IOException
+    {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            // large enough to hold the largest possible record
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 18);
+            buffer.flip();
+            long n = 0;
+            while(ensure(channel, buffer, 1))
+            {
+                // determine the size of the next record
+                byte type = buffer.get(buffer.position());
+                int size;
+                if(type == ARTICLE)
+                {
+                    if(!ensure(channel, buffer, 1 + 4 + 2))
+                        break;
+                    size = 1 + 4 + 2 + (buffer.getShort(buffer.position() + 5) & 0xFFFF);
+                }
+                else if(type == FETCHED)
+                {
+                    if(!ensure(channel, buffer, 1 + 4 + 8 + 2))
+                        break;
+                    int etagLength = buffer.getShort(buffer.position() + 13) & 0xFFFF;
+                    if(!ensure(channel, buffer, 1 + 4 + 8 + 2 + etagLength + 2))
+                        break;
+                    size = 1 + 4 + 8 + 2 + etagLength + 2 + (buffer.getShort(buffer.position() + 15 + etagLength) & 0xFFFF);
+                }
+                else if(type == EXPAND)
+                    size = 1 + 4;
+                else if(type == ADD || type == REMOVE || type == ALIAS)
+                    size = 1 + 8;
+                else
+                    break;
+
+                // truncated record
+                if(!ensure(channel, buffer, size))
+                    break;
+
+                buffer.get();
+                if(type == ARTICLE)
+                {
+                    int articleId = buffer.getInt();
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    replay.article(articleId, new String(bytes, Snapshot.UTF8));
+                }
+                else if(type == FETCHED)
+                {
+                    int articleId = buffer.getInt();
+                    long time = buffer.getLong();
+                    byte[] etag = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(etag);
+                    byte[] lastModified = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(lastModified);
+                    replay.fetched(articleId, time, new String(etag, Snapshot.UTF8), new String(lastModified, Snapshot.UTF8));
+                }
+                else if(type == EXPAND)
+                    replay.expand(buffer.getInt());
+                else if(type == ADD)
+                    replay.add(buffer.getInt(), buffer.getInt());
+                else if(type == REMOVE)
+                    replay.remove(buffer.getInt(), buffer.getInt());
+                else
+                    replay.alias(buffer.getInt(), buffer.getInt());
+                n++;
+            }
+            return n;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Make sure the buffer holds at least 'size' bytes, reading more from the channel if needed
+     * @return false if the end of the channel was reached before 'size' bytes were available
+     */
+    private static boolean ensure(FileChannel channel, ByteBuffer buffer, int size) throws IOException
+    {
+        if(buffer.remaining() >= size)
+            return true;
+        buffer.compact();
+        while(buffer.position() < size)
+        {
+            if(channel.read(buffer) < 0)
+                break;
+        }
+        buffer.flip();
+        return buffer.remaining() >= size;
+    }
+}
@@ -0,0 +1,111 @@
+package wikipedia.store;
+
+import java.util.zip.Checksum;
+
+/**
+ * This class computes CRC-32C (Castagnoli) checksums, as used to protect the blocks of a snapshot.
+ * Runtimes that ship java.util.zip.CRC32C (which is backed by a hardware instruction on most platforms)
+ * use that implementation, older runtimes fall back to a table-driven implementation (slicing-by-8).
+ * Both produce the same checksums.
+ */
+final class Crc32c implements Checksum {
+
+    private static final int POLYNOMIAL = 0x82F63B78;     // reversed Castagnoli polynomial
+    private static final int[][] TABLES = tables();
+    private static final Class<?> NATIVE = nativeClass();
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * Return a new CRC-32C checksum, using the implementation of the runtime if there is one
+     * @return
+     */
+    static Checksum create()
+    {
+        if(NATIVE != null)
+        {
+            try {
+                return (Checksum) NATIVE.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+            }
+        }
+        return new Crc32c();
+    }
+
+    /**
+     * Return the CRC-32C checksum of a range of bytes
+     * @param bytes
+     * @param from
+     * @param length
+     * @return
+     */
+    static int checksum(byte[] bytes, int from, int length)
+    {
+        Checksum checksum = create();
+        checksum.update(bytes, from, length);
+        return (int) checksum.getValue();
+    }
+
+    private static Class<?> nativeClass()
+    {
+        try {
+            return Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static int[][] tables()
+    {
+        int[][] tables = new int[8][256];
+        for(int i=0;i<256;i++)
+        {
+            int c = i;
+            for(int k=0;k<8;k++)
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+            tables[0][i] = c;
+        }
+        for(int i=0;i<256;i++)
+        {
+            for(int t=1;t<8;t++)
+                tables[t][i] = (tables[t - 1][i] >>> 8) ^ tables[0][tables[t - 1][i] & 0xFF];
+        }
+        return tables;
+    }
+
+    @Override
+    public void update(int b)
+    {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len)
+    {
+        int c = crc;
+        int i = off;
+        int end = off + len;
+        // 8 bytes at a time
+        for(;i + 8 <= end;i+=8)
+        {
+            int lo = c ^ ((b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24);
+            c = TABLES[7][lo & 0xFF] ^ TABLES[6][(lo >>> 8) & 0xFF] ^ TABLES[5][(lo >>> 16) & 0xFF] ^ TABLES[4][lo >>> 24] ^
+                TABLES[3][b[i + 4] & 0xFF] ^ TABLES[2][b[i + 5] & 0xFF] ^ TABLES[1][b[i + 6] & 0xFF] ^ TABLES[0][b[i + 7] & 0xFF];
+        }
+        for(;i<end;i++)
+            c = (c >>> 8) ^ TABLES[0][(c ^ b[i]) & 0xFF];
+        crc = c;
+    }
+
+    @Override
+    public long getValue()
+    {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset()
+    {
+        crc = 0xFFFFFFFF;
+    }
+}
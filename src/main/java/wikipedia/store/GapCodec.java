@@ -0,0 +1,427 @@
+package wikipedia.store;
+
+import graph.IntSet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class packs the (sorted) neighbor lists of a snapshot into a stream of bytes.
+ * Every non-empty list is written as its length, followed by its first neighbor and the gaps between
+ * consecutive neighbors, all as unsigned LEB128 varints (7 bits per byte, the high bit marks a continuation).
+ * Since neighbor lists are sorted, most gaps fit in one or two bytes, rather than the four bytes of a plain int.
+ * Empty lists take no bytes at all. The stream is split into blocks of BLOCK_SIZE bytes,
+ * every block is protected by a CRC-32C checksum.
+ */
+class GapCodec {
+
+    static final int BLOCK_SIZE = 1 << 16;
+
+    // streams smaller than this are not worth unpacking in parallel
+    private static final int MIN_PARALLEL_SIZE = 1 << 20;
+
+    /**
+     * Return the number of checksums needed for a stream of a given length
+     * @param length
+     * @return
+     */
+    static int nofBlocks(long length)
+    {
+        return (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /**
+     * Pack a number of lists in compressed-sparse-row form
+     * @param n the number of lists
+     * @param offsets the offset of every list in 'values' (n + 1 values)
+     * @param values
+     * @param byteOffsets receives the offset of every list in the packed stream (n + 1 values)
+     * @return the packed stream
+     * @throws IOException if the packed stream would not fit in 2GB
+     */
+    static byte[] encode(int n, int[] offsets, int[] values, int[] byteOffsets) throws IOException
+    {
+        // size every list first, so the stream can be allocated at once
+        long length = 0;
+        for(int i=0;i<n;i++)
+        {
+            byteOffsets[i] = (int) length;
+            int from = offsets[i];
+            int to = offsets[i + 1];
+            if(from == to)
+                continue;
+            length += size(to - from) + size(values[from]);
+            for(int j=from+1;j<to;j++)
+                length += size(values[j] - values[j - 1]);
+            if(length > Integer.MAX_VALUE - 8)
+                throw new IOException("neighbor lists do not fit in a single section");
+        }
+        byteOffsets[n] = (int) length;
+
+        byte[] bytes = new byte[(int) length];
+        int p = 0;
+        for(int i=0;i<n;i++)
+        {
+            int from = offsets[i];
+            int to = offsets[i + 1];
+            if(from == to)
+                continue;
+            p = put(bytes, p, to - from);
+            p = put(bytes, p, values[from]);
+            for(int j=from+1;j<to;j++)
+                p = put(bytes, p, values[j] - values[j - 1]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Unpack a stream of lists into compressed-sparse-row form.
+     * The length of every list is read first, so that every list knows where its values go.
+     * Large streams are then unpacked on all available cores, a range of lists at a time.
+     * @param n the number of lists
+     * @param byteOffsets the offset of every list in the packed stream (n + 1 values)
+     * @param bytes the packed stream
+     * @param offsets receives the offset of every list in the result (n + 1 values)
+     * @param values receives all values
+     * @throws IOException if the stream does not match the offsets
+     */
+    static void decode(final int n, final int[] byteOffsets, final byte[] bytes, final int[] offsets, final int[] values) throws IOException
+    {
+        for(int i=0;i<n;i++)
+        {
+            int p = byteOffsets[i];
+            int length = 0;
+            if(p != byteOffsets[i + 1])
+            {
+                for(int shift=0;;shift+=7)
+                {
+                    byte b = bytes[p++];
+                    length |= (b & 0x7F) << shift;
+                    if(b >= 0)
+                        break;
+                }
+            }
+            offsets[i + 1] = offsets[i] + length;
+        }
+        if(offsets[n] != values.length)
+            throw new IOException("expected " + values.length + " values, found " + offsets[n]);
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if(parallelism == 1 || bytes.length < MIN_PARALLEL_SIZE)
+        {
+            decode(0, n, byteOffsets, bytes, offsets, values);
+            return;
+        }
+
+        // split into ranges of lists holding about the same number of bytes
+        List<Callable<Void>> ranges = new ArrayList<>();
+        long rangeSize = bytes.length / (parallelism * 4L) + 1;
+        for(int from=0;from<n;)
+        {
+            int to = from + 1;
+            while(to < n && byteOffsets[to] - byteOffsets[from] < rangeSize)
+                to++;
+            final int rangeFrom = from;
+            final int rangeTo = to;
+            ranges.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    decode(rangeFrom, rangeTo, byteOffsets, bytes, offsets, values);
+                    return null;
+                }
+            });
+            from = to;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for(Future<Void> f : pool.invokeAll(ranges))
+                f.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Unpack the lists in [from, to), once their offsets are known
+     */
+    private static void decode(int from, int to, int[] byteOffsets, byte[] bytes, int[] offsets, int[] values) throws IOException
+    {
+        for(int i=from;i<to;i++)
+        {
+            int p = byteOffsets[i];
+            int end = byteOffsets[i + 1];
+            if(p == end)
+                continue;
+
+            // skip the length, it is known from the offsets
+            while(bytes[p++] < 0)
+                ;
+
+            // neighbors, as gaps (unrolled, since most gaps take one or two bytes)
+            int value = 0;
+            for(int q=offsets[i];q<offsets[i + 1];q++)
+            {
+                int b = bytes[p++];
+                int gap = b & 0x7F;
+                if(b < 0)
+                {
+                    b = bytes[p++];
+                    gap |= (b & 0x7F) << 7;
+                    if(b < 0)
+                    {
+                        b = bytes[p++];
+                        gap |= (b & 0x7F) << 14;
+                        if(b < 0)
+                        {
+                            b = bytes[p++];
+                            gap |= (b & 0x7F) << 21;
+                            if(b < 0)
+                                gap |= bytes[p++] << 28;
+                        }
+                    }
+                }
+                value += gap;
+                values[q] = value;
+            }
+            if(p != end)
+                throw new IOException("neighbor list " + i + " does not end at its offset");
+        }
+    }
+
+    /**
+     * Unpack a single list from a (mapped) stream
+     * @param bytes
+     * @param from the offset of the list in the stream
+     * @param to the offset of the next list in the stream
+     * @return
+     */
+    static int[] decode(ByteBuffer bytes, int from, int to)
+    {
+        if(from == to)
+            return new int[0];
+        int p = from;
+        int length = 0;
+        for(int shift=0;;shift+=7)
+        {
+            byte b = bytes.get(p++);
+            length |= (b & 0x7F) << shift;
+            if(b >= 0)
+                break;
+        }
+        int[] out = new int[length];
+        int value = 0;
+        for(int k=0;k<length;k++)
+        {
+            int gap = 0;
+            for(int shift=0;;shift+=7)
+            {
+                byte b = bytes.get(p++);
+                gap |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            value += gap;
+            out[k] = value;
+        }
+        return out;
+    }
+
+    /**
+     * Compute the checksum of every block of a stream
+     * @param bytes
+     * @return
+     */
+    static int[] checksums(byte[] bytes)
+    {
+        int[] out = new int[nofBlocks(bytes.length)];
+        for(int i=0;i<out.length;i++)
+        {
+            int from = i * BLOCK_SIZE;
+            out[i] = Crc32c.checksum(bytes, from, java.lang.Math.min(BLOCK_SIZE, bytes.length - from));
+        }
+        return out;
+    }
+
+    /**
+     * Check every block of a stream against its checksum
+     * @param bytes
+     * @param checksums
+     * @throws IOException if a block does not match its checksum
+     */
+    static void verify(byte[] bytes, int[] checksums) throws IOException
+    {
+        int[] actual = checksums(bytes);
+        for(int i=0;i<actual.length;i++)
+        {
+            if(actual[i] != checksums[i])
+                throw new IOException("checksum mismatch in block " + i + " of a neighbor section");
+        }
+    }
+
+    private static int size(int value)
+    {
+        int n = 1;
+        while((value & ~0x7F) != 0)
+        {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static int put(byte[] bytes, int p, int value)
+    {
+        while((value & ~0x7F) != 0)
+        {
+            bytes[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[p++] = (byte) value;
+        return p;
+    }
+
+    /**
+     * This class gives access to the lists in a memory-mapped stream.
+     * Blocks are checked against their checksum the first time a list in them is read.
+     */
+    static class Mapped
+    {
+        private final MappedInts byteOffsets;
+        private final ByteBuffer bytes;
+        private final MappedInts checksums;
+        private final boolean[] verified;
+
+        Mapped(MappedInts byteOffsets, ByteBuffer bytes, MappedInts checksums)
+        {
+            this.byteOffsets = byteOffsets;
+            this.bytes = bytes;
+            this.checksums = checksums;
+            this.verified = new boolean[checksums.length()];
+        }
+
+        /**
+         * Return the list with a given index
+         * @param index
+         * @return
+         */
+        int[] get(int index)
+        {
+            int from = byteOffsets.get(index);
+            int to = byteOffsets.get(index + 1);
+            if(from == to)
+                return new int[0];
+            for(int block=from / BLOCK_SIZE;block<=(to - 1) / BLOCK_SIZE;block++)
+                verify(block);
+            return decode(bytes, from, to);
+        }
+
+        /**
+         * Return the list with a given index, as a view that unpacks the list as it is read.
+         * Nothing is copied onto the heap, elements are read in order by a cursor
+         * (which starts over when an earlier element is asked for),
+         * so iterating the view by index takes as long as unpacking the list once.
+         * @param index
+         * @return
+         */
+        IntSet view(int index)
+        {
+            final int from = byteOffsets.get(index);
+            final int to = byteOffsets.get(index + 1);
+            if(from == to)
+                return IntSet.EMPTY;
+            for(int block=from / BLOCK_SIZE;block<=(to - 1) / BLOCK_SIZE;block++)
+                verify(block);
+            int p = from;
+            int length = 0;
+            for(int shift=0;;shift+=7)
+            {
+                byte b = bytes.get(p++);
+                length |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            final int size = length;
+            final int start = p;
+            return new IntSet() {
+                // the cursor: the position of the next gap, and the index and value of the last element read
+                private int position = start;
+                private int last = -1;
+                private int value = 0;
+
+                @Override
+                public int size() { return size; }
+
+                @Override
+                public synchronized int get(int index)
+                {
+                    if(index < 0 || index >= size)
+                        throw new IndexOutOfBoundsException(String.valueOf(index));
+                    if(index < last)
+                    {
+                        position = start;
+                        last = -1;
+                        value = 0;
+                    }
+                    while(last < index)
+                    {
+                        int gap = 0;
+                        for(int shift=0;;shift+=7)
+                        {
+                            byte b = bytes.get(position++);
+                            gap |= (b & 0x7F) << shift;
+                            if(b >= 0)
+                                break;
+                        }
+                        value += gap;
+                        last++;
+                    }
+                    return value;
+                }
+
+                @Override
+                public boolean contains(int value)
+                {
+                    // a linear scan, since a binary search would restart the cursor on every probe
+                    for(int i=0;i<size;i++)
+                    {
+                        int v = get(i);
+                        if(v >= value)
+                            return v == value;
+                    }
+                    return false;
+                }
+
+                @Override
+                public int[] toArray()
+                {
+                    return decode(bytes, from, to);
+                }
+            };
+        }
+
+        private void verify(int block)
+        {
+            // a block may be verified more than once (by racing threads), which is harmless
+            if(verified[block])
+                return;
+            int from = block * BLOCK_SIZE;
+            byte[] tmp = new byte[java.lang.Math.min(BLOCK_SIZE, bytes.capacity() - from)];
+            ByteBuffer view = bytes.duplicate();
+            view.position(from);
+            view.get(tmp);
+            if(Crc32c.checksum(tmp, 0, tmp.length) != checksums.get(block))
+                throw new IllegalStateException("checksum mismatch in block " + block + " of a neighbor section");
+            verified[block] = true;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package wikipedia.store;
+
+import graph.IntSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class provides read-only access to a Snapshot file by memory-mapping it.
+ * Nothing is copied onto the heap, all queries are answered straight from
+ * the mapped buffers (sections of ints are mapped in chunks, see MappedInts). Opening an image is therefore (nearly) instantaneous,
+ * regardless of the size of the graph, and processes that map the same image
+ * share the pages in the OS page cache.
+ * Images with packed neighbor lists (always since version 6 of the format, optionally since version 8)
+ * return views that unpack a list as it is read, after checking its blocks against their checksums.
+ * Plain neighbor lists are faster to read, so images are written plain by default.
+ * Images written since version 7 also hold the aliases of redirects, which are found by binary search.
+ */
+public class GraphImage {
+
+    private final int nofArticles;
+
+    private final MappedInts titleOffsets;
+    private final ByteBuffer titleBytes;
+    private final MappedInts expanded;
+    private final MappedInts linkOffsets;
+    private final MappedInts links;
+    private final MappedInts titleHash;
+    private final MappedInts incomingOffsets;
+    private final MappedInts incoming;
+
+    // packed neighbor lists (see Snapshot.Header.isPacked), these replace the sections above
+    private final GapCodec.Mapped packedLinks;
+    private final GapCodec.Mapped packedIncoming;
+
+    // (redirect ID, target ID) pairs, sorted by redirect ID (since version 7)
+    private final MappedInts aliases;
+    private final int nofAliases;
+
+    private GraphImage(FileChannel channel) throws IOException
+    {
+        Snapshot.Header header = Snapshot.Header.read(channel);
+        if(header.titleHashCapacity == 0)
+            throw new IOException("snapshot version " + header.version + " has no title index, store the cache again to upgrade it");
+        int n = header.nofArticles;
+        nofArticles = n;
+        titleOffsets = new MappedInts(channel, header.titleOffsetsPosition(), n + 1);
+        titleBytes = map(channel, header.titleBytesPosition(), header.nofTitleBytes);
+        expanded = new MappedInts(channel, header.expandedPosition(), (n + 31) / 32);
+        linkOffsets = new MappedInts(channel, header.linkOffsetsPosition(), n + 1);
+        titleHash = new MappedInts(channel, header.titleHashPosition(), header.titleHashCapacity);
+        nofAliases = header.nofAliases;
+        aliases = header.version >= 7 ? new MappedInts(channel, header.aliasesPosition(), nofAliases * 2) : null;
+        if(header.isPacked())
+        {
+            links = null;
+            incomingOffsets = null;
+            incoming = null;
+            packedLinks = new GapCodec.Mapped(linkOffsets,
+                    map(channel, header.linksPosition(), header.nofLinkBytes),
+                    new MappedInts(channel, header.linkChecksumsPosition(), GapCodec.nofBlocks(header.nofLinkBytes)));
+            packedIncoming = new GapCodec.Mapped(new MappedInts(channel, header.incomingOffsetsPosition(), n + 1),
+                    map(channel, header.incomingPosition(), header.nofIncomingBytes),
+                    new MappedInts(channel, header.incomingChecksumsPosition(), GapCodec.nofBlocks(header.nofIncomingBytes)));
+            return;
+        }
+        packedLinks = null;
+        packedIncoming = null;
+        links = new MappedInts(channel, header.linksPosition(), header.nofLinks);
+        if(header.version >= 4)
+        {
+            incomingOffsets = new MappedInts(channel, header.incomingOffsetsPosition(), n + 1);
+            incoming = new MappedInts(channel, header.incomingPosition(), header.nofIncoming);
+        }
+        else
+        {
+            incomingOffsets = null;
+            incoming = null;
+        }
+    }
+
+    /**
+     * Map a snapshot file into memory
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static GraphImage open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // mappings remain valid after the channel is closed
+            return new GraphImage(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, int size) throws IOException
+    {
+        // sections of bytes (titles, packed neighbors) are indexed by int offsets, so they fit in a single mapping
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Return the number of articles in this image
+     * @return
+     */
+    public int nofArticles()
+    {
+        return nofArticles;
+    }
+
+    /**
+     * Return the ID corresponding to a given article title,
+     * or -1 if the article is not contained in this image
+     * @param article
+     * @return
+     */
+    public int lookup(String article)
+    {
+        byte[] key = article.getBytes(Snapshot.UTF8);
+        int mask = titleHash.length() - 1;
+        int slot = Snapshot.hash(key, 0, key.length) & mask;
+        while(true)
+        {
+            int articleId = titleHash.get(slot) - 1;
+            if(articleId == -1)
+                return -1;
+            if(titleEquals(articleId, key))
+                return articleId;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean titleEquals(int articleId, byte[] key)
+    {
+        int from = titleOffsets.get(articleId);
+        if(titleOffsets.get(articleId + 1) - from != key.length)
+            return false;
+        for(int i=0;i<key.length;i++)
+        {
+            if(titleBytes.get(from + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the ID of the article a given article redirects to,
+     * or the given ID if the article is not a redirect
+     * @param articleId
+     * @return
+     */
+    public int resolve(int articleId)
+    {
+        // redirects to redirects are followed, up to a limit (in case of cycles)
+        for(int hop=0;hop<8 && nofAliases > 0;hop++)
+        {
+            int lo = 0;
+            int hi = nofAliases - 1;
+            int target = -1;
+            while(lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int redirectId = aliases.get(2 * mid);
+                if(redirectId < articleId)
+                    lo = mid + 1;
+                else if(redirectId > articleId)
+                    hi = mid - 1;
+                else
+                {
+                    target = aliases.get(2 * mid + 1);
+                    break;
+                }
+            }
+            if(target == -1 || target == articleId)
+                break;
+            articleId = target;
+        }
+        return articleId;
+    }
+
+    /**
+     * Return the article title corresponding to a given article ID
+     * @param articleId
+     * @return
+     */
+    public String lookup(int articleId)
+    {
+        if(articleId < 0 || articleId >= nofArticles)
+            return null;
+        int from = titleOffsets.get(articleId);
+        byte[] bytes = new byte[titleOffsets.get(articleId + 1) - from];
+        for(int i=0;i<bytes.length;i++)
+            bytes[i] = titleBytes.get(from + i);
+        return new String(bytes, Snapshot.UTF8);
+    }
+
+    /**
+     * Return true iff the outgoing links of a given article are known
+     * @param articleId
+     * @return
+     */
+    public boolean isExpanded(int articleId)
+    {
+        if(articleId < 0 || articleId >= nofArticles)
+            return false;
+        return (expanded.get(articleId >>> 5) & (1 << (articleId & 31))) != 0;
+    }
+
+    /**
+     * Get all outgoing links from a given article ID,
+     * as a view on the mapped neighbor section,
+     * or null if the outgoing links of the article are not known
+     * @param articleId
+     * @return
+     */
+    public IntSet outgoing(int articleId)
+    {
+        if(!isExpanded(articleId))
+            return null;
+        if(packedLinks != null)
+            return packedLinks.view(articleId);
+        final int from = linkOffsets.get(articleId);
+        final int size = linkOffsets.get(articleId + 1) - from;
+        return new IntSet() {
+            @Override
+            public int size() { return size; }
+            @Override
+            public int get(int index) { return links.get(from + index); }
+        };
+    }
+
+    /**
+     * Get all incoming links of a given article ID,
+     * as a view on the mapped incoming section,
+     * or null if the image was written before snapshots held incoming links
+     * @param articleId
+     * @return
+     */
+    public IntSet incoming(int articleId)
+    {
+        if(incoming == null && packedIncoming == null)
+            return null;
+        if(articleId < 0 || articleId >= nofArticles)
+            return IntSet.EMPTY;
+        if(packedIncoming != null)
+            return packedIncoming.view(articleId);
+        final int from = incomingOffsets.get(articleId);
+        final int size = incomingOffsets.get(articleId + 1) - from;
+        return new IntSet() {
+            @Override
+            public int size() { return size; }
+            @Override
+            public int get(int index) { return incoming.get(from + index); }
+        };
+    }
+
+    /**
+     * Return all article titles in this image,
+     * as a view that decodes titles while iterating
+     * @return
+     */
+    public Set<String> articles()
+    {
+        return new AbstractSet<String>() {
+            @Override
+            public int size() { return nofArticles; }
+            @Override
+            public boolean contains(Object o) { return o instanceof String && lookup((String) o) != -1; }
+            @Override
+            public Iterator<String> iterator()
+            {
+                return new Iterator<String>() {
+                    private int i = 0;
+                    @Override
+                    public boolean hasNext() { return i < nofArticles; }
+                    @Override
+                    public String next()
+                    {
+                        if(i >= nofArticles)
+                            throw new NoSuchElementException();
+                        return lookup(i++);
+                    }
+                    @Override
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package wikipedia.store;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads the tab-separated text files written by
+ * older versions of the WikipediaCache, so that they can be migrated
+ * to the binary Snapshot format.
+ * The text format consists of
+ * - a line containing the number of articles
+ * - a line per article, containing its ID and title
+ * - a line per fetched article, containing its ID and the IDs of all linked articles
+ */
+public class LegacyTextFormat {
+
+    /**
+     * Read a text cache file and convert it to a snapshot
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Snapshot read(File file) throws IOException
+    {
+        BufferedReader sc = new BufferedReader(new InputStreamReader(new FileInputStream(file), Snapshot.UTF8));
+        try {
+            int nofEntries = Integer.parseInt(sc.readLine().trim());
+            String[] titles = new String[nofEntries];
+            for(int i=0;i<nofEntries;i++)
+            {
+                String line = sc.readLine();
+                int tab = line.indexOf('\t');
+                int articleId = Integer.parseInt(line.substring(0, tab));
+                titles[articleId] = line.substring(tab + 1);
+            }
+
+            int[][] linkage = new int[nofEntries][];
+            String line;
+            while((line = sc.readLine()) != null)
+            {
+                if(line.isEmpty())
+                    continue;
+                List<Integer> ids = new ArrayList<>();
+                int from = 0;
+                for(int i=0;i<=line.length();i++)
+                {
+                    if(i == line.length() || line.charAt(i) == '\t')
+                    {
+                        if(i > from)
+                            ids.add(Integer.parseInt(line.substring(from, i)));
+                        from = i + 1;
+                    }
+                }
+                int[] toIds = new int[ids.size() - 1];
+                for(int i=0;i<toIds.length;i++)
+                    toIds[i] = ids.get(i + 1);
+                linkage[ids.get(0)] = toIds;
+            }
+            return Snapshot.build(titles, linkage);
+        } finally {
+            sc.close();
+        }
+    }
+}
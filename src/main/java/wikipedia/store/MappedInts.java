@@ -0,0 +1,77 @@
+package wikipedia.store;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class gives access to a section of ints in a memory-mapped file.
+ * A single mapping can not be larger than 2GB, while e.g. the links of a large graph easily take more,
+ * so the section is mapped in chunks of at most 1GB, and indexed across the chunks.
+ */
+final class MappedInts {
+
+    // 2^28 ints (1GB) per chunk
+    static final int CHUNK_SHIFT = 28;
+
+    private final IntBuffer[] chunks;
+    private final int shift;
+    private final int mask;
+    private final int length;
+
+    /**
+     * Map a section of ints
+     * @param channel
+     * @param position the position of the section in the file
+     * @param length the number of ints in the section
+     * @throws IOException
+     */
+    MappedInts(FileChannel channel, long position, int length) throws IOException
+    {
+        this(channel, position, length, CHUNK_SHIFT);
+    }
+
+    /**
+     * Map a section of ints, in chunks of a given size
+     * @param channel
+     * @param position the position of the section in the file
+     * @param length the number of ints in the section
+     * @param shift the log2 of the number of ints per chunk
+     * @throws IOException
+     */
+    MappedInts(FileChannel channel, long position, int length, int shift) throws IOException
+    {
+        if(length < 0)
+            throw new IOException("invalid section length " + length);
+        this.shift = shift;
+        this.mask = (1 << shift) - 1;
+        this.length = length;
+        int nofChunks = (int) ((length + (long) mask) >>> shift);
+        chunks = new IntBuffer[java.lang.Math.max(1, nofChunks)];
+        for(int i=0;i<chunks.length;i++)
+        {
+            long from = (long) i << shift;
+            long size = java.lang.Math.min(length - from, 1L << shift);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + from * 4L, size * 4L).asIntBuffer();
+        }
+    }
+
+    /**
+     * Return the number of ints in this section
+     * @return
+     */
+    int length()
+    {
+        return length;
+    }
+
+    /**
+     * Return the int at a given index
+     * @param index
+     * @return
+     */
+    int get(int index)
+    {
+        return chunks[index >>> shift].get(index & mask);
+    }
+}
@@ -0,0 +1,287 @@
+package wikipedia.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class reads the text files written by older versions of the WikipediaCache (see LegacyTextFormat),
+ * using all available cores. The file is memory-mapped and split into line-aligned chunks.
+ * Loading happens in three phases
+ * - counting the lines in every chunk (in parallel), so every chunk knows the index of its first line,
+ *   and therefore which of its lines belong to the title section, and which to the adjacency section
+ * - parsing every chunk (in parallel), every line is written to its own slot of the resulting arrays
+ * - building the Snapshot
+ * The result is identical to that of LegacyTextFormat.read.
+ * The time spent in every phase is kept, and can be inspected after loading.
+ */
+public class ParallelTextLoader {
+
+    // files smaller than this are not worth splitting
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    private final int parallelism;
+    private final int minChunkSize;
+
+    // timings (in ms) of the last load
+    private long splitTime = -1;
+    private long parseTime = -1;
+    private long buildTime = -1;
+
+    public ParallelTextLoader()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelTextLoader(int parallelism)
+    {
+        this(parallelism, MIN_CHUNK_SIZE);
+    }
+
+    ParallelTextLoader(int parallelism, int minChunkSize)
+    {
+        this.parallelism = java.lang.Math.max(parallelism, 1);
+        this.minChunkSize = java.lang.Math.max(minChunkSize, 1);
+    }
+
+    /**
+     * Read a text cache file and convert it to a snapshot
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public Snapshot read(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final MappedByteBuffer buffer;
+        try {
+            // a single mapping can not exceed 2GB, fall back to reading sequentially
+            if(raf.length() > Integer.MAX_VALUE)
+                return LegacyTextFormat.read(file);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return read(buffer, pool);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("unable to parse " + file, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Snapshot read(final MappedByteBuffer buffer, ForkJoinPool pool) throws InterruptedException, ExecutionException
+    {
+        long start = System.currentTimeMillis();
+
+        // the first line holds the number of articles
+        int length = buffer.limit();
+        int header = lineEnd(buffer, 0, length);
+        final int nofEntries = Integer.parseInt(decode(buffer, 0, trim(buffer, 0, header)).trim());
+
+        // split the rest of the file into line-aligned chunks
+        int chunkSize = java.lang.Math.max(minChunkSize, length / (parallelism * 4) + 1);
+        List<Integer> bounds = new ArrayList<>();
+        int pos = java.lang.Math.min(header + 1, length);
+        bounds.add(pos);
+        while(pos < length)
+        {
+            pos = java.lang.Math.min(pos + chunkSize, length);
+            if(pos < length)
+                pos = java.lang.Math.min(lineEnd(buffer, pos, length) + 1, length);
+            bounds.add(pos);
+        }
+        final int nofChunks = bounds.size() - 1;
+        final int[] from = new int[nofChunks];
+        final int[] to = new int[nofChunks];
+        for(int i=0;i<nofChunks;i++)
+        {
+            from[i] = bounds.get(i);
+            to[i] = bounds.get(i + 1);
+        }
+
+        // count the lines in every chunk
+        List<Callable<Integer>> counts = new ArrayList<>();
+        for(int i=0;i<nofChunks;i++)
+        {
+            final int chunk = i;
+            counts.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int n = 0;
+                    for(int p=from[chunk];p<to[chunk];p=lineEnd(buffer, p, to[chunk]) + 1)
+                        n++;
+                    return n;
+                }
+            });
+        }
+        final int[] firstLine = new int[nofChunks];
+        List<Future<Integer>> counted = pool.invokeAll(counts);
+        for(int i=1;i<nofChunks;i++)
+            firstLine[i] = firstLine[i - 1] + counted.get(i - 1).get();
+        splitTime = System.currentTimeMillis() - start;
+
+        // parse every chunk, lines below 'nofEntries' are titles, the others are adjacency lists
+        start = System.currentTimeMillis();
+        final String[] titles = new String[nofEntries];
+        final int[][] linkage = new int[nofEntries][];
+        List<Callable<Void>> parsers = new ArrayList<>();
+        for(int i=0;i<nofChunks;i++)
+        {
+            final int chunk = i;
+            parsers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int line = firstLine[chunk];
+                    for(int p=from[chunk];p<to[chunk];line++)
+                    {
+                        int end = lineEnd(buffer, p, to[chunk]);
+                        if(line < nofEntries)
+                            parseTitle(buffer, p, trim(buffer, p, end), titles);
+                        else
+                            parseLinks(buffer, p, trim(buffer, p, end), linkage);
+                        p = end + 1;
+                    }
+                    return null;
+                }
+            });
+        }
+        for(Future<Void> f : pool.invokeAll(parsers))
+            f.get();
+        parseTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        Snapshot snapshot = Snapshot.build(titles, linkage);
+        buildTime = System.currentTimeMillis() - start;
+        return snapshot;
+    }
+
+    private static void parseTitle(MappedByteBuffer buffer, int from, int to, String[] titles)
+    {
+        int tab = from;
+        while(tab < to && buffer.get(tab) != '\t')
+            tab++;
+        if(tab == to)
+            throw new NumberFormatException("title line without ID at " + from);
+        titles[parseInt(buffer, from, tab)] = decode(buffer, tab + 1, to);
+    }
+
+    private static void parseLinks(MappedByteBuffer buffer, int from, int to, int[][] linkage)
+    {
+        if(from == to)
+            return;
+        // count the fields first, so the neighbors can be parsed straight into their array
+        int nofFields = 0;
+        boolean inField = false;
+        for(int p=from;p<to;p++)
+        {
+            boolean isTab = buffer.get(p) == '\t';
+            if(!isTab && !inField)
+                nofFields++;
+            inField = !isTab;
+        }
+        int[] ids = new int[nofFields];
+        int field = 0;
+        int start = from;
+        for(int p=from;p<=to;p++)
+        {
+            if(p == to || buffer.get(p) == '\t')
+            {
+                if(p > start)
+                    ids[field++] = parseInt(buffer, start, p);
+                start = p + 1;
+            }
+        }
+        int[] toIds = new int[ids.length - 1];
+        System.arraycopy(ids, 1, toIds, 0, toIds.length);
+        linkage[ids[0]] = toIds;
+    }
+
+    /**
+     * Return the position of the end of the line starting at a given position
+     * (the position of the newline, or 'limit' if there is none)
+     */
+    private static int lineEnd(MappedByteBuffer buffer, int from, int limit)
+    {
+        int p = from;
+        while(p < limit && buffer.get(p) != '\n')
+            p++;
+        return p;
+    }
+
+    /**
+     * Drop the carriage return (if any) at the end of a line
+     */
+    private static int trim(MappedByteBuffer buffer, int from, int to)
+    {
+        return to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+
+    private static int parseInt(MappedByteBuffer buffer, int from, int to)
+    {
+        boolean isNegative = buffer.get(from) == '-';
+        int value = 0;
+        for(int p=isNegative ? from + 1 : from;p<to;p++)
+        {
+            int digit = buffer.get(p) - '0';
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("unexpected character '" + (char) buffer.get(p) + "' at " + p);
+            value = value * 10 + digit;
+        }
+        return isNegative ? -value : value;
+    }
+
+    private static String decode(MappedByteBuffer buffer, int from, int to)
+    {
+        byte[] bytes = new byte[to - from];
+        for(int i=0;i<bytes.length;i++)
+            bytes[i] = buffer.get(from + i);
+        return new String(bytes, Snapshot.UTF8);
+    }
+
+    /**
+     * Return the time (in ms) spent splitting the file into chunks, and counting their lines
+     * @return
+     */
+    public long splitTime()
+    {
+        return splitTime;
+    }
+
+    /**
+     * Return the time (in ms) spent parsing all chunks
+     * @return
+     */
+    public long parseTime()
+    {
+        return parseTime;
+    }
+
+    /**
+     * Return the time (in ms) spent building the snapshot from the parsed chunks
+     * @return
+     */
+    public long buildTime()
+    {
+        return buildTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "parallelism=" + parallelism + " split=" + splitTime + "ms parse=" + parseTime + "ms build=" + buildTime + "ms";
+    }
+}
@@ -0,0 +1,239 @@
+package wikipedia.store;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps the cache on disk as a number of shards, rather than as a single snapshot.
+ * The ID space is split into fixed ranges of 'shardSize' articles, every range is written to its own
+ * snapshot file (see Snapshot.shard). Saving the cache then only rewrites the shards that were changed since the last save,
+ * and loading reads all shards in parallel.
+ * A manifest lists the number of articles, the first journal generation not included in the shards,
+ * and the file version of every shard. Shards are never overwritten, a changed shard is written to a new version,
+ * and only becomes part of the cache once the manifest (which is atomically replaced) refers to it.
+ * A crash while saving therefore leaves the previous set of shards in place.
+ */
+public class ShardStore {
+
+    public static final int MAGIC = 0x5750534D;     // "WPSM"
+    public static final int VERSION = 1;
+
+    private static final String MANIFEST = "manifest";
+
+    private final File directory;
+    private int shardSize;
+
+    // state of the manifest on disk
+    private int nofArticles = 0;
+    private int journalGeneration = 0;
+    private int[] versions = new int[0];
+
+    // statistics of the last save
+    private volatile int lastShardsWritten = -1;
+
+    /**
+     * Build a ShardStore
+     * @param directory the directory holding the manifest and all shards
+     * @param shardSize the number of article IDs per shard, this is overruled by the manifest (if there is one)
+     */
+    public ShardStore(File directory, int shardSize)
+    {
+        this.directory = directory;
+        this.shardSize = shardSize;
+    }
+
+    /**
+     * Return true iff there is a manifest in the directory of this store
+     * @return
+     */
+    public boolean exists()
+    {
+        return manifestFile().exists();
+    }
+
+    public int shardSize()
+    {
+        return shardSize;
+    }
+
+    /**
+     * Return the shard holding a given article ID
+     * @param articleId
+     * @return
+     */
+    public int shard(int articleId)
+    {
+        return articleId / shardSize;
+    }
+
+    /**
+     * Return the number of shards needed for a given number of articles
+     * @param nofArticles
+     * @return
+     */
+    public int nofShards(int nofArticles)
+    {
+        return (nofArticles + shardSize - 1) / shardSize;
+    }
+
+    /**
+     * Return the first ChangeJournal generation that is not included in the shards on disk
+     * @return
+     */
+    public synchronized int journalGeneration()
+    {
+        return journalGeneration;
+    }
+
+    /**
+     * Return the number of shards written by the last save, or -1 if nothing was saved yet
+     * @return
+     */
+    public int lastShardsWritten()
+    {
+        return lastShardsWritten;
+    }
+
+    private File manifestFile()
+    {
+        return new File(directory, MANIFEST);
+    }
+
+    private File shardFile(int shard, int version)
+    {
+        return new File(directory, "shard." + shard + "." + version + ".bin");
+    }
+
+    /**
+     * Read the manifest, and all shards it refers to (in parallel)
+     * @param parallelism the number of shards to read at the same time
+     * @return the shards, in order of their IDs
+     * @throws IOException
+     */
+    public synchronized List<Snapshot> read(int parallelism) throws IOException
+    {
+        readManifest();
+        ExecutorService pool = Executors.newFixedThreadPool(java.lang.Math.max(parallelism, 1));
+        try {
+            List<Callable<Snapshot>> readers = new ArrayList<>();
+            for(int i=0;i<versions.length;i++)
+            {
+                final File file = shardFile(i, versions[i]);
+                readers.add(new Callable<Snapshot>() {
+                    @Override
+                    public Snapshot call() throws IOException {
+                        return Snapshot.read(file);
+                    }
+                });
+            }
+            List<Snapshot> shards = new ArrayList<>();
+            for(Future<Snapshot> f : pool.invokeAll(readers))
+                shards.add(f.get());
+            return shards;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("unable to read shards from " + directory, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void readManifest() throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile())));
+        try {
+            if(in.readInt() != MAGIC)
+                throw new IOException("not a shard manifest");
+            int version = in.readInt();
+            if(version != VERSION)
+                throw new IOException("unsupported manifest version " + version);
+            shardSize = in.readInt();
+            nofArticles = in.readInt();
+            journalGeneration = in.readInt();
+            versions = new int[in.readInt()];
+            for(int i=0;i<versions.length;i++)
+                versions[i] = in.readInt();
+        } finally {
+            in.close();
+        }
+        if(nofShards(nofArticles) != versions.length)
+            throw new IOException("manifest lists " + versions.length + " shards for " + nofArticles + " articles");
+    }
+
+    /**
+     * Write a number of (changed) shards, and then atomically replace the manifest.
+     * Shards that are not given are kept as they are.
+     * @param nofArticles the number of articles in the cache
+     * @param journalGeneration the first ChangeJournal generation that is not included in the shards
+     * @param shards the changed shards, by shard index
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public synchronized long write(int nofArticles, int journalGeneration, Map<Integer, Snapshot> shards) throws IOException
+    {
+        int nofShards = nofShards(nofArticles);
+        int[] next = Arrays.copyOf(versions, nofShards);
+        for(int i=versions.length;i<nofShards;i++)
+        {
+            if(!shards.containsKey(i))
+                throw new IllegalArgumentException("shard " + i + " is new, but was not given");
+        }
+
+        // write every changed shard to a new version
+        if(!directory.exists() && !directory.mkdirs())
+            throw new IOException("unable to create " + directory);
+        long bytesWritten = 0;
+        for(Map.Entry<Integer, Snapshot> en : shards.entrySet())
+        {
+            int i = en.getKey();
+            next[i] = i < versions.length ? versions[i] + 1 : 0;
+            File file = shardFile(i, next[i]);
+            en.getValue().write(file);
+            bytesWritten += file.length();
+        }
+
+        // publish, shards are only part of the cache once the manifest refers to them
+        File tmp = new File(directory, MANIFEST + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(shardSize);
+            out.writeInt(nofArticles);
+            out.writeInt(journalGeneration);
+            out.writeInt(nofShards);
+            for(int v : next)
+                out.writeInt(v);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        try {
+            Files.move(tmp.toPath(), manifestFile().toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), manifestFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // the versions that were replaced are no longer needed
+        for(int i : shards.keySet())
+        {
+            if(i < versions.length)
+                shardFile(i, versions[i]).delete();
+        }
+        this.versions = next;
+        this.nofArticles = nofArticles;
+        this.journalGeneration = journalGeneration;
+        lastShardsWritten = shards.size();
+        return bytesWritten;
+    }
+}
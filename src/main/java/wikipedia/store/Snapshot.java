@@ -0,0 +1,822 @@
+package wikipedia.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * This class represents a point-in-time image of the WikipediaCache,
+ * and its (binary) representation on disk.
+ * A snapshot file consists of
+ * - a header (magic number, format version, number of articles, links and title bytes,
+ *   size of the title hash table, and the first ChangeJournal generation not included in the snapshot)
+ * - a length-prefixed title table (an offset per article, followed by the UTF-8 bytes of all titles)
+ * - a bitset marking which articles have had their outgoing links fetched
+ * - the linkage in compressed-sparse-row form (an offset per article, followed by all neighbors)
+ * - an open-addressing hash table mapping titles to IDs (since version 2)
+ * - the incoming links of every article, in compressed-sparse-row form (since version 4)
+ * Since version 6, neighbors are not written as plain ints, but packed as gaps between sorted neighbors (see GapCodec).
+ * The offset of every article then points into the packed bytes, which are followed by a CRC-32C checksum per block.
+ * Since version 7, the snapshot ends with the aliases of all redirects, as (redirect ID, target ID) pairs sorted by redirect ID.
+ * Since version 8, packing neighbors is optional (a flag in the header), and off by default:
+ * packed neighbors take about a third less space, but unpacking them takes longer than reading plain ints
+ * from the OS page cache, so they only pay off when reading the file is the bottleneck.
+ * A snapshot can also hold a single shard of the cache (see ShardStore), i.e. the articles in a range of IDs.
+ * Its titles and links are then indexed from the start of the range, but the links still hold global article IDs.
+ * Since the incoming links of a shard are not the transpose of its outgoing links, their number is kept in the header
+ * (since version 5).
+ * All values are big-endian, and every section is padded to a multiple of 4 bytes,
+ * so that the int sections can be read in bulk as IntBuffers, or mapped directly (see GraphImage).
+ */
+public class Snapshot {
+
+    public static final int MAGIC = 0x57504353;     // "WPCS"
+    public static final int VERSION = 8;
+
+    // header flags (since version 8)
+    static final int PACKED = 1;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // size of the buffer used for bulk reading/writing
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final int nofArticles;
+
+    // journals with a generation below this one are included in the snapshot
+    private int journalGeneration = 0;
+
+    // title table
+    private final int[] titleOffsets;
+    private final byte[] titleBytes;
+
+    // articles for which the outgoing links are known
+    private final int[] expanded;
+
+    // linkage in compressed-sparse-row form
+    private final int[] linkOffsets;
+    private final int[] links;
+
+    // incoming links in compressed-sparse-row form (the transpose of the linkage)
+    private final int[] incomingOffsets;
+    private final int[] incoming;
+
+    // (redirect ID, target ID) pairs, sorted by redirect ID
+    private int[] aliases = new int[0];
+
+    // true iff write(File) packs the neighbor lists
+    private boolean isPacked = false;
+
+    Snapshot(int nofArticles, int[] titleOffsets, byte[] titleBytes, int[] expanded, int[] linkOffsets, int[] links)
+    {
+        this(nofArticles, titleOffsets, titleBytes, expanded, linkOffsets, links, null, null);
+    }
+
+    private Snapshot(int nofArticles, int[] titleOffsets, byte[] titleBytes, int[] expanded, int[] linkOffsets, int[] links, int[] incomingOffsets, int[] incoming)
+    {
+        this.nofArticles = nofArticles;
+        this.titleOffsets = titleOffsets;
+        this.titleBytes = titleBytes;
+        this.expanded = expanded;
+        this.linkOffsets = linkOffsets;
+        this.links = links;
+        if(incomingOffsets == null)
+        {
+            incomingOffsets = new int[nofArticles + 1];
+            incoming = transpose(nofArticles, linkOffsets, links, incomingOffsets);
+        }
+        this.incomingOffsets = incomingOffsets;
+        this.incoming = incoming;
+    }
+
+    /**
+     * Build a snapshot from the titles and outgoing links of all articles.
+     * @param titles the title of every article, indexed by article ID
+     * @param linkage the IDs of the articles linked from every article, indexed by article ID,
+     *                or null if the outgoing links of an article are not known
+     * @return
+     */
+    public static Snapshot build(String[] titles, int[][] linkage)
+    {
+        int n = titles.length;
+
+        // title table
+        byte[][] encoded = new byte[n][];
+        int[] titleOffsets = new int[n + 1];
+        for(int i=0;i<n;i++)
+        {
+            encoded[i] = titles[i].getBytes(UTF8);
+            titleOffsets[i + 1] = titleOffsets[i] + encoded[i].length;
+        }
+        byte[] titleBytes = new byte[titleOffsets[n]];
+        for(int i=0;i<n;i++)
+            System.arraycopy(encoded[i], 0, titleBytes, titleOffsets[i], encoded[i].length);
+        return build(n, titleOffsets, titleBytes, linkage);
+    }
+
+    /**
+     * Build a snapshot from the first n titles of a TitleTable, and the outgoing links of those articles.
+     * @param titles
+     * @param n the number of articles
+     * @param linkage the IDs of the articles linked from every article, indexed by article ID,
+     *                or null if the outgoing links of an article are not known
+     * @return
+     */
+    public static Snapshot build(TitleTable titles, int n, int[][] linkage)
+    {
+        return build(n, titles.offsets(n), titles.bytes(n), linkage);
+    }
+
+    private static Snapshot build(int n, int[] titleOffsets, byte[] titleBytes, int[][] linkage)
+    {
+        int[] linkOffsets = new int[n + 1];
+        int[] links = csr(n, linkage, linkOffsets);
+        return new Snapshot(n, titleOffsets, titleBytes, expanded(n, linkage), linkOffsets, links);
+    }
+
+    /**
+     * Build a snapshot holding a single shard of the cache, i.e. the articles with IDs in [from, to).
+     * @param titles
+     * @param from the first article ID of the shard
+     * @param to the article ID following the last article of the shard
+     * @param linkage the IDs of the articles linked from every article in the shard (indexed from 'from'),
+     *                or null if the outgoing links of an article are not known
+     * @param incoming the IDs of the articles linking to every article in the shard (indexed from 'from'), may hold null
+     * @return
+     */
+    public static Snapshot shard(TitleTable titles, int from, int to, int[][] linkage, int[][] incoming)
+    {
+        int n = to - from;
+        int[] linkOffsets = new int[n + 1];
+        int[] links = csr(n, linkage, linkOffsets);
+        int[] incomingOffsets = new int[n + 1];
+        int[] incomingLinks = csr(n, incoming, incomingOffsets);
+        return new Snapshot(n, titles.offsets(from, to), titles.bytes(from, to), expanded(n, linkage), linkOffsets, links, incomingOffsets, incomingLinks);
+    }
+
+    /**
+     * Return the bitset marking which of the first n articles have had their outgoing links fetched
+     * @param n
+     * @param linkage
+     * @return
+     */
+    private static int[] expanded(int n, int[][] linkage)
+    {
+        int[] expanded = new int[(n + 31) / 32];
+        for(int i=0;i<n;i++)
+        {
+            if(i < linkage.length && linkage[i] != null)
+                expanded[i >>> 5] |= 1 << (i & 31);
+        }
+        return expanded;
+    }
+
+    /**
+     * Flatten a number of adjacency lists into compressed-sparse-row form, sorting every list
+     * @param n the number of lists
+     * @param rows the lists, missing (or null) lists are taken to be empty
+     * @param offsets receives the offset of every list (n + 1 values)
+     * @return
+     */
+    private static int[] csr(int n, int[][] rows, int[] offsets)
+    {
+        for(int i=0;i<n;i++)
+        {
+            int[] row = i < rows.length ? rows[i] : null;
+            offsets[i + 1] = offsets[i] + (row == null ? 0 : row.length);
+        }
+        int[] values = new int[offsets[n]];
+        for(int i=0;i<n;i++)
+        {
+            int[] row = i < rows.length ? rows[i] : null;
+            if(row == null)
+                continue;
+            System.arraycopy(row, 0, values, offsets[i], row.length);
+            Arrays.sort(values, offsets[i], offsets[i + 1]);
+        }
+        return values;
+    }
+
+    /**
+     * Return the first ChangeJournal generation that is not included in this snapshot
+     * @return
+     */
+    public int journalGeneration()
+    {
+        return journalGeneration;
+    }
+
+    /**
+     * Set the first ChangeJournal generation that is not included in this snapshot
+     * @param journalGeneration
+     * @return
+     */
+    public Snapshot withJournalGeneration(int journalGeneration)
+    {
+        this.journalGeneration = journalGeneration;
+        return this;
+    }
+
+    /**
+     * Return the aliases of all redirects in this snapshot,
+     * as (redirect ID, target ID) pairs, sorted by redirect ID.
+     * Both IDs are global, also for a snapshot holding a single shard.
+     * @return
+     */
+    public int[] aliases()
+    {
+        return aliases;
+    }
+
+    /**
+     * Set the aliases of all redirects in this snapshot
+     * @param aliases (redirect ID, target ID) pairs, sorted by redirect ID
+     * @return
+     */
+    public Snapshot withAliases(int[] aliases)
+    {
+        this.aliases = aliases;
+        return this;
+    }
+
+    /**
+     * Set whether write(File) packs the neighbor lists (see GapCodec),
+     * which makes the file about a third smaller, but slower to load
+     * @param isPacked
+     * @return
+     */
+    public Snapshot withPacked(boolean isPacked)
+    {
+        this.isPacked = isPacked;
+        return this;
+    }
+
+    /**
+     * Return the number of articles in this snapshot
+     * @return
+     */
+    public int nofArticles()
+    {
+        return nofArticles;
+    }
+
+    /**
+     * Return the total number of links in this snapshot
+     * @return
+     */
+    public int nofLinks()
+    {
+        return links.length;
+    }
+
+    int[] titleOffsets()
+    {
+        return titleOffsets;
+    }
+
+    byte[] titleBytes()
+    {
+        return titleBytes;
+    }
+
+    /**
+     * Return the title of a given article
+     * @param articleId
+     * @return
+     */
+    public String title(int articleId)
+    {
+        int from = titleOffsets[articleId];
+        return new String(titleBytes, from, titleOffsets[articleId + 1] - from, UTF8);
+    }
+
+    /**
+     * Return true iff the outgoing links of a given article are known
+     * @param articleId
+     * @return
+     */
+    public boolean isExpanded(int articleId)
+    {
+        return (expanded[articleId >>> 5] & (1 << (articleId & 31))) != 0;
+    }
+
+    /**
+     * Return the (sorted) IDs of all articles linked from a given article
+     * @param articleId
+     * @return
+     */
+    public int[] links(int articleId)
+    {
+        return Arrays.copyOfRange(links, linkOffsets[articleId], linkOffsets[articleId + 1]);
+    }
+
+    /**
+     * Return the (sorted) IDs of all articles linking to a given article
+     * @param articleId
+     * @return
+     */
+    public int[] incoming(int articleId)
+    {
+        return Arrays.copyOfRange(incoming, incomingOffsets[articleId], incomingOffsets[articleId + 1]);
+    }
+
+    /**
+     * Transpose a linkage in compressed-sparse-row form.
+     * Since sources are visited in ascending order, the incoming links of every article come out sorted.
+     * @param n the number of articles
+     * @param linkOffsets
+     * @param links
+     * @param incomingOffsets receives the offsets of the transpose (n + 1 values)
+     * @return the incoming links
+     */
+    static int[] transpose(int n, int[] linkOffsets, int[] links, int[] incomingOffsets)
+    {
+        for(int i=0;i<links.length;i++)
+            incomingOffsets[links[i] + 1]++;
+        for(int i=0;i<n;i++)
+            incomingOffsets[i + 1] += incomingOffsets[i];
+        int[] next = Arrays.copyOf(incomingOffsets, n);
+        int[] incoming = new int[links.length];
+        for(int from=0;from<n;from++)
+        {
+            for(int i=linkOffsets[from];i<linkOffsets[from + 1];i++)
+                incoming[next[links[i]]++] = from;
+        }
+        return incoming;
+    }
+
+    /**
+     * Return true iff the given file starts with the magic number of a snapshot.
+     * Files written by older versions of the cache (tab-separated text) will return false.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static boolean isSnapshot(File file) throws IOException
+    {
+        if(file.length() < 8)
+            return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write this snapshot to a given file, in the current version of the format
+     * (with packed neighbor lists iff this snapshot was built withPacked(true))
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException
+    {
+        write(file, VERSION, isPacked);
+    }
+
+    /**
+     * Write this snapshot to a given file, in a given version of the format.
+     * Only the current version (with plain neighbors), version 7 (the last version that always packs neighbors),
+     * version 6 (the last version without aliases), and version 5 (the last version without packed neighbors) can be written.
+     * @param file
+     * @param version
+     * @throws IOException
+     */
+    public void write(File file, int version) throws IOException
+    {
+        write(file, version, version == 6 || version == 7);
+    }
+
+    /**
+     * Write this snapshot to a given file, in a given version of the format, with packed or plain neighbors
+     * @param file
+     * @param version
+     * @param isPacked true iff neighbors should be packed (which versions 6 and 7 require, and version 5 does not support)
+     * @throws IOException
+     */
+    public void write(File file, int version, boolean isPacked) throws IOException
+    {
+        if(version < 5 || version > VERSION)
+            throw new IllegalArgumentException("unable to write snapshot version " + version);
+        if(version < VERSION && isPacked != (version >= 6))
+            throw new IllegalArgumentException("snapshot version " + version + (isPacked ? " can not" : " must") + " pack neighbors");
+        int[] linkByteOffsets = new int[nofArticles + 1];
+        int[] incomingByteOffsets = new int[nofArticles + 1];
+        byte[] packedLinks = isPacked ? GapCodec.encode(nofArticles, linkOffsets, links, linkByteOffsets) : null;
+        byte[] packedIncoming = isPacked ? GapCodec.encode(nofArticles, incomingOffsets, incoming, incomingByteOffsets) : null;
+
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int[] titleHash = titleHash();
+            buffer.putInt(MAGIC);
+            buffer.putInt(version);
+            buffer.putInt(nofArticles);
+            buffer.putInt(links.length);
+            buffer.putInt(titleBytes.length);
+            buffer.putInt(titleHash.length);
+            buffer.putInt(journalGeneration);
+            buffer.putInt(incoming.length);
+            if(version >= 6)
+            {
+                buffer.putInt(isPacked ? packedLinks.length : 0);
+                buffer.putInt(isPacked ? packedIncoming.length : 0);
+            }
+            if(version >= 7)
+                buffer.putInt(aliases.length / 2);
+            if(version >= 8)
+                buffer.putInt(isPacked ? PACKED : 0);
+            writeInts(channel, buffer, titleOffsets);
+            writeBytes(channel, buffer, titleBytes);
+            writeInts(channel, buffer, expanded);
+            if(isPacked)
+            {
+                writeInts(channel, buffer, linkByteOffsets);
+                writeBytes(channel, buffer, packedLinks);
+                writeInts(channel, buffer, GapCodec.checksums(packedLinks));
+                writeInts(channel, buffer, titleHash);
+                writeInts(channel, buffer, incomingByteOffsets);
+                writeBytes(channel, buffer, packedIncoming);
+                writeInts(channel, buffer, GapCodec.checksums(packedIncoming));
+            }
+            else
+            {
+                writeInts(channel, buffer, linkOffsets);
+                writeInts(channel, buffer, links);
+                writeInts(channel, buffer, titleHash);
+                writeInts(channel, buffer, incomingOffsets);
+                writeInts(channel, buffer, incoming);
+            }
+            if(version >= 7)
+                writeInts(channel, buffer, aliases);
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read a snapshot from a given file
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Snapshot read(File file) throws IOException
+    {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            Header header = Header.read(channel);
+            channel.position(header.titleOffsetsPosition());
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+
+            // the title hash is only needed by GraphImage
+            int n = header.nofArticles;
+            int[] titleOffsets = readInts(channel, buffer, new int[n + 1]);
+            byte[] titleBytes = readBytes(channel, buffer, new byte[header.nofTitleBytes]);
+            int[] expanded = readInts(channel, buffer, new int[(n + 31) / 32]);
+            int[] linkOffsets = new int[n + 1];
+            int[] links = new int[header.nofLinks];
+            if(header.isPacked())
+                readPacked(channel, buffer, n, header.nofLinkBytes, linkOffsets, links);
+            else
+            {
+                readInts(channel, buffer, linkOffsets);
+                readInts(channel, buffer, links);
+            }
+
+            // older snapshots have no incoming links, they are derived from the linkage instead
+            int[] incomingOffsets = null;
+            int[] incoming = null;
+            if(header.version >= 4)
+            {
+                channel.position(header.incomingOffsetsPosition());
+                buffer.clear();
+                buffer.flip();
+                incomingOffsets = new int[n + 1];
+                incoming = new int[header.nofIncoming];
+                if(header.isPacked())
+                    readPacked(channel, buffer, n, header.nofIncomingBytes, incomingOffsets, incoming);
+                else
+                {
+                    readInts(channel, buffer, incomingOffsets);
+                    readInts(channel, buffer, incoming);
+                }
+            }
+            int[] aliases = new int[2 * header.nofAliases];
+            if(header.version >= 7)
+            {
+                channel.position(header.aliasesPosition());
+                buffer.clear();
+                buffer.flip();
+                readInts(channel, buffer, aliases);
+            }
+            return new Snapshot(n, titleOffsets, titleBytes, expanded, linkOffsets, links, incomingOffsets, incoming)
+                    .withJournalGeneration(header.journalGeneration)
+                    .withAliases(aliases);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read a packed neighbor section (offsets, packed bytes and checksums), and unpack it into compressed-sparse-row form
+     * @param channel
+     * @param buffer
+     * @param n the number of articles
+     * @param nofBytes the number of packed bytes
+     * @param offsets receives the offset of the neighbors of every article (n + 1 values)
+     * @param values receives all neighbors
+     * @throws IOException if a block does not match its checksum
+     */
+    private static void readPacked(FileChannel channel, ByteBuffer buffer, int n, int nofBytes, int[] offsets, int[] values) throws IOException
+    {
+        int[] byteOffsets = readInts(channel, buffer, new int[n + 1]);
+        byte[] packed = readBytes(channel, buffer, new byte[nofBytes]);
+        int[] checksums = readInts(channel, buffer, new int[GapCodec.nofBlocks(nofBytes)]);
+        GapCodec.verify(packed, checksums);
+        GapCodec.decode(n, byteOffsets, packed, offsets, values);
+    }
+
+    /**
+     * Build the open-addressing hash table mapping titles to IDs.
+     * Every slot holds an article ID + 1, or 0 if the slot is empty.
+     * @return
+     */
+    private int[] titleHash()
+    {
+        int capacity = Integer.highestOneBit(java.lang.Math.max(nofArticles, 1) * 2) * 2;
+        int[] slots = new int[capacity];
+        for(int i=0;i<nofArticles;i++)
+        {
+            int from = titleOffsets[i];
+            int slot = hash(titleBytes, from, titleOffsets[i + 1] - from) & (capacity - 1);
+            while(slots[slot] != 0)
+                slot = (slot + 1) & (capacity - 1);
+            slots[slot] = i + 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Hash function used for the title table (FNV-1a over the UTF-8 bytes of a title).
+     * This function is part of the file format, and should not be changed.
+     * @param bytes
+     * @param from
+     * @param length
+     * @return
+     */
+    public static int hash(byte[] bytes, int from, int length)
+    {
+        int h = 0x811C9DC5;
+        for(int i=from;i<from+length;i++)
+        {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * This class represents the header of a snapshot file,
+     * and knows where every section of the file starts.
+     */
+    static class Header
+    {
+        int version;
+        int nofArticles;
+        int nofLinks;
+        int nofTitleBytes;
+        int titleHashCapacity;
+        int journalGeneration;
+        int nofIncoming;
+        int nofLinkBytes;
+        int nofIncomingBytes;
+        int nofAliases;
+        int flags;
+
+        static Header read(FileChannel channel) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(12 * 4);
+            buffer.limit(2 * 4);
+            fill(channel, buffer, 0);
+            if(buffer.getInt(0) != MAGIC)
+                throw new IOException("not a snapshot");
+            Header header = new Header();
+            header.version = buffer.getInt(4);
+            if(header.version < 1 || header.version > VERSION)
+                throw new IOException("unsupported snapshot version " + header.version);
+            buffer.limit(header.size());
+            fill(channel, buffer, 0);
+            header.nofArticles = buffer.getInt(8);
+            header.nofLinks = buffer.getInt(12);
+            header.nofTitleBytes = buffer.getInt(16);
+            header.titleHashCapacity = header.version >= 2 ? buffer.getInt(20) : 0;
+            header.journalGeneration = header.version >= 3 ? buffer.getInt(24) : 0;
+            header.nofIncoming = header.version >= 5 ? buffer.getInt(28) : header.nofLinks;
+            header.nofLinkBytes = header.version >= 6 ? buffer.getInt(32) : 0;
+            header.nofIncomingBytes = header.version >= 6 ? buffer.getInt(36) : 0;
+            header.nofAliases = header.version >= 7 ? buffer.getInt(40) : 0;
+            header.flags = header.version >= 8 ? buffer.getInt(44) : (header.version >= 6 ? PACKED : 0);
+            return header;
+        }
+
+        /**
+         * Return true iff the neighbors are packed (see GapCodec)
+         * @return
+         */
+        boolean isPacked()
+        {
+            return (flags & PACKED) != 0;
+        }
+
+        int size()
+        {
+            if(version >= 8)
+                return 12 * 4;
+            if(version >= 7)
+                return 11 * 4;
+            if(version >= 6)
+                return 10 * 4;
+            if(version >= 5)
+                return 8 * 4;
+            if(version >= 3)
+                return 7 * 4;
+            return version >= 2 ? 6 * 4 : 5 * 4;
+        }
+
+        long titleOffsetsPosition()
+        {
+            return size();
+        }
+
+        long titleBytesPosition()
+        {
+            return titleOffsetsPosition() + (nofArticles + 1) * 4L;
+        }
+
+        long expandedPosition()
+        {
+            return titleBytesPosition() + ((nofTitleBytes + 3) / 4) * 4L;
+        }
+
+        long linkOffsetsPosition()
+        {
+            return expandedPosition() + ((nofArticles + 31) / 32) * 4L;
+        }
+
+        long linksPosition()
+        {
+            return linkOffsetsPosition() + (nofArticles + 1) * 4L;
+        }
+
+        long linkChecksumsPosition()
+        {
+            return linksPosition() + ((nofLinkBytes + 3) / 4) * 4L;
+        }
+
+        long titleHashPosition()
+        {
+            if(isPacked())
+                return linkChecksumsPosition() + GapCodec.nofBlocks(nofLinkBytes) * 4L;
+            return linksPosition() + nofLinks * 4L;
+        }
+
+        long incomingOffsetsPosition()
+        {
+            return titleHashPosition() + titleHashCapacity * 4L;
+        }
+
+        long incomingPosition()
+        {
+            return incomingOffsetsPosition() + (nofArticles + 1) * 4L;
+        }
+
+        long incomingChecksumsPosition()
+        {
+            return incomingPosition() + ((nofIncomingBytes + 3) / 4) * 4L;
+        }
+
+        long aliasesPosition()
+        {
+            if(!isPacked())
+                return incomingPosition() + nofIncoming * 4L;
+            return incomingChecksumsPosition() + GapCodec.nofBlocks(nofIncomingBytes) * 4L;
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] src) throws IOException
+    {
+        int i = 0;
+        while(i < src.length)
+        {
+            if(buffer.remaining() < 4)
+                drain(channel, buffer);
+            IntBuffer view = buffer.asIntBuffer();
+            int n = java.lang.Math.min(view.remaining(), src.length - i);
+            view.put(src, i, n);
+            buffer.position(buffer.position() + n * 4);
+            i += n;
+        }
+    }
+
+    private static void writeBytes(FileChannel channel, ByteBuffer buffer, byte[] src) throws IOException
+    {
+        int i = 0;
+        while(i < src.length)
+        {
+            if(!buffer.hasRemaining())
+                drain(channel, buffer);
+            int n = java.lang.Math.min(buffer.remaining(), src.length - i);
+            buffer.put(src, i, n);
+            i += n;
+        }
+        // pad to a multiple of 4 bytes
+        for(int p = src.length;p % 4 != 0;p++)
+        {
+            if(!buffer.hasRemaining())
+                drain(channel, buffer);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static int[] readInts(FileChannel channel, ByteBuffer buffer, int[] dst) throws IOException
+    {
+        int i = 0;
+        while(i < dst.length)
+        {
+            if(buffer.remaining() < 4)
+                refill(channel, buffer);
+            IntBuffer view = buffer.asIntBuffer();
+            int n = java.lang.Math.min(view.remaining(), dst.length - i);
+            view.get(dst, i, n);
+            buffer.position(buffer.position() + n * 4);
+            i += n;
+        }
+        return dst;
+    }
+
+    private static byte[] readBytes(FileChannel channel, ByteBuffer buffer, byte[] dst) throws IOException
+    {
+        int i = 0;
+        while(i < dst.length)
+        {
+            if(!buffer.hasRemaining())
+                refill(channel, buffer);
+            int n = java.lang.Math.min(buffer.remaining(), dst.length - i);
+            buffer.get(dst, i, n);
+            i += n;
+        }
+        // skip padding
+        for(int p = dst.length;p % 4 != 0;p++)
+        {
+            if(!buffer.hasRemaining())
+                refill(channel, buffer);
+            buffer.get();
+        }
+        return dst;
+    }
+
+    private static void refill(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.compact();
+        int before = buffer.position();
+        fill(channel, buffer);
+        if(buffer.position() == before)
+            throw new EOFException();
+        buffer.flip();
+    }
+
+    private static void fill(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0)
+                break;
+        }
+    }
+}
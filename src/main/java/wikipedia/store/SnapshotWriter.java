@@ -0,0 +1,191 @@
+package wikipedia.store;
+
+import java.io.File;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class writes snapshots on a background thread, so that the thread
+ * that triggered the snapshot (and any other thread mutating the cache) can continue.
+ * Callers capture a consistent point-in-time view of their data,
+ * and hand over a Callable that builds the Snapshot from that view.
+ * The snapshot is written to a temporary file, forced to disk, and then atomically
+ * renamed into place. A crash while writing therefore never leaves a truncated snapshot behind.
+ * This class also keeps statistics about the snapshots it has written.
+ */
+public class SnapshotWriter {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile Future<Boolean> pending = null;
+
+    // statistics
+    private volatile long lastDuration = -1;
+    private volatile long lastBytesWritten = -1;
+    private volatile long lastSuccessTime = -1;
+    private final AtomicLong nofSnapshots = new AtomicLong();
+    private final AtomicLong nofFailures = new AtomicLong();
+
+    /**
+     * Build and write a snapshot in the background
+     * @param build builds the snapshot, from data that was captured by the caller
+     * @param target the file to (atomically) replace
+     * @param onSuccess called (on the background thread) once the snapshot is in place, may be null
+     * @return a Future that completes with true iff the snapshot was written
+     */
+    public synchronized Future<Boolean> write(final Callable<Snapshot> build, final File target, final Runnable onSuccess)
+    {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return _write(build, target);
+            }
+        }, onSuccess);
+    }
+
+    /**
+     * Run any job that writes (part of) a snapshot in the background, such as saving the changed shards of a ShardStore.
+     * Jobs run one at a time, in order of submission, and are included in the statistics of this writer.
+     * @param write writes the snapshot, and returns the number of bytes written
+     * @param onSuccess called (on the background thread) once the job has completed, may be null
+     * @return a Future that completes with true iff the job completed
+     */
+    public synchronized Future<Boolean> submit(final Callable<Long> write, final Runnable onSuccess)
+    {
+        pending = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return _run(write, onSuccess);
+            }
+        });
+        return pending;
+    }
+
+    private long _write(Callable<Snapshot> build, File target) throws Exception
+    {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try {
+            build.call().write(tmp);
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            tmp.delete();
+            throw e;
+        }
+        return target.length();
+    }
+
+    private boolean _run(Callable<Long> write, Runnable onSuccess)
+    {
+        long start = System.currentTimeMillis();
+        try {
+            lastBytesWritten = write.call();
+            lastDuration = System.currentTimeMillis() - start;
+            lastSuccessTime = System.currentTimeMillis();
+            nofSnapshots.incrementAndGet();
+            if(onSuccess != null)
+                onSuccess.run();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            nofFailures.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Return true iff a snapshot is currently being written (or waiting to be written)
+     * @return
+     */
+    public boolean isBusy()
+    {
+        Future<Boolean> f = pending;
+        return f != null && !f.isDone();
+    }
+
+    /**
+     * Wait until all submitted snapshots have been written
+     * @return true iff the last snapshot was written successfully
+     * @throws InterruptedException
+     */
+    public boolean await() throws InterruptedException
+    {
+        Future<Boolean> f = pending;
+        if(f == null)
+            return true;
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the time (in ms) it took to build and write the last successful snapshot,
+     * or -1 if no snapshot was written yet
+     * @return
+     */
+    public long lastDuration()
+    {
+        return lastDuration;
+    }
+
+    /**
+     * Return the size (in bytes) of the last successful snapshot,
+     * or -1 if no snapshot was written yet
+     * @return
+     */
+    public long lastBytesWritten()
+    {
+        return lastBytesWritten;
+    }
+
+    /**
+     * Return the time (as in System.currentTimeMillis) at which the last successful snapshot was completed,
+     * or -1 if no snapshot was written yet
+     * @return
+     */
+    public long lastSuccessTime()
+    {
+        return lastSuccessTime;
+    }
+
+    /**
+     * Return the number of snapshots written successfully
+     * @return
+     */
+    public long nofSnapshots()
+    {
+        return nofSnapshots.get();
+    }
+
+    /**
+     * Return the number of snapshots that failed
+     * @return
+     */
+    public long nofFailures()
+    {
+        return nofFailures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "snapshots=" + nofSnapshots() + " failures=" + nofFailures() +
+                " lastDuration=" + lastDuration + "ms lastBytesWritten=" + lastBytesWritten +
+                " lastSuccessTime=" + lastSuccessTime;
+    }
+}
@@ -0,0 +1,329 @@
+package wikipedia.store;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class interns article titles, and assigns them dense IDs (in order of insertion).
+ * Rather than keeping a String (and a boxed key) per title in two maps, all titles
+ * are kept as UTF-8 bytes in a single arena, with an offset per ID (the same layout as the
+ * title table of a Snapshot). Titles are found by an open-addressing hash table over the arena,
+ * holding ID + 1 per slot (0 marks an empty slot).
+ * This takes a few bytes per title beyond its UTF-8 encoding, rather than some hundred bytes.
+ * This class is thread-safe. Adding a title is done under a lock, but lookups never block.
+ * Arrays are never modified below the published size, and are replaced (rather than resized in place) as they grow,
+ * so a reader that has seen a given size can safely read every title below it.
+ */
+public class TitleTable {
+
+    private volatile byte[] bytes;
+    private volatile int[] offsets;
+    private volatile int[] hash;
+    private volatile int size = 0;
+
+    public TitleTable()
+    {
+        this.bytes = new byte[1024];
+        this.offsets = new int[257];
+        this.hash = new int[512];
+    }
+
+    private TitleTable(byte[] bytes, int[] offsets, int size)
+    {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.hash = new int[capacity(size)];
+        for(int i=0;i<size;i++)
+            insert(hash, i, offsets[i], offsets[i + 1] - offsets[i]);
+        this.size = size;
+    }
+
+    /**
+     * Build a TitleTable holding the titles of a given snapshot (with the same IDs).
+     * The title bytes are shared, not copied.
+     * @param snapshot
+     * @return
+     */
+    public static TitleTable of(Snapshot snapshot)
+    {
+        return new TitleTable(snapshot.titleBytes(), snapshot.titleOffsets(), snapshot.nofArticles());
+    }
+
+    /**
+     * Build a TitleTable holding the titles of a number of shards (see ShardStore), in order.
+     * The first title of every shard gets the ID following the last title of the shard before it.
+     * @param shards
+     * @return
+     */
+    public static TitleTable of(List<Snapshot> shards)
+    {
+        int n = 0;
+        int nofBytes = 0;
+        for(Snapshot shard : shards)
+        {
+            n += shard.nofArticles();
+            nofBytes += shard.titleBytes().length;
+        }
+        byte[] bytes = new byte[nofBytes];
+        int[] offsets = new int[n + 1];
+        int id = 0;
+        for(Snapshot shard : shards)
+        {
+            int base = offsets[id];
+            int[] shardOffsets = shard.titleOffsets();
+            System.arraycopy(shard.titleBytes(), 0, bytes, base, shard.titleBytes().length);
+            for(int i=0;i<shard.nofArticles();i++)
+                offsets[id + i + 1] = base + shardOffsets[i + 1];
+            id += shard.nofArticles();
+        }
+        return new TitleTable(bytes, offsets, n);
+    }
+
+    /**
+     * Return the number of titles in this table
+     * @return
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Return the ID of a given title, or -1 if the title is not present
+     * @param title
+     * @return
+     */
+    public int lookup(String title)
+    {
+        byte[] key = title.getBytes(Snapshot.UTF8);
+        return lookup(key, 0, key.length);
+    }
+
+    /**
+     * Return the ID of a given (UTF-8 encoded) title, or -1 if the title is not present
+     * @param key
+     * @param from
+     * @param length
+     * @return
+     */
+    public int lookup(byte[] key, int from, int length)
+    {
+        // read 'size' first, every title below it is visible in the arrays read afterwards
+        int n = size;
+        return find(hash, bytes, offsets, n, key, from, length);
+    }
+
+    /**
+     * Return the title with a given ID, or null if there is no such ID
+     * @param id
+     * @return
+     */
+    public String lookup(int id)
+    {
+        if(id < 0 || id >= size)
+            return null;
+        int[] tmp = offsets;
+        int from = tmp[id];
+        return new String(bytes, from, tmp[id + 1] - from, Snapshot.UTF8);
+    }
+
+    /**
+     * Return true iff the table contains a given title
+     * @param title
+     * @return
+     */
+    public boolean has(String title)
+    {
+        return lookup(title) != -1;
+    }
+
+    /**
+     * Return true iff the table contains a given ID
+     * @param id
+     * @return
+     */
+    public boolean has(int id)
+    {
+        return id >= 0 && id < size;
+    }
+
+    /**
+     * Add a title to this table.
+     * Callers that need to know the ID before it becomes visible to other threads
+     * can synchronize on this table, and use size() as the ID of the next title.
+     * @param title
+     * @return the ID of the title (which is not added again if it is already present)
+     */
+    public synchronized int add(String title)
+    {
+        byte[] key = title.getBytes(Snapshot.UTF8);
+        int n = size;
+        int id = find(hash, bytes, offsets, n, key, 0, key.length);
+        if(id != -1)
+            return id;
+
+        // append to the arena
+        int from = offsets[n];
+        if(from + key.length > bytes.length)
+            bytes = Arrays.copyOf(bytes, java.lang.Math.max(bytes.length * 2, from + key.length));
+        System.arraycopy(key, 0, bytes, from, key.length);
+        if(n + 2 > offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[n + 1] = from + key.length;
+
+        // index the title, rehashing if the table would become more than half full
+        if(capacity(n + 1) > hash.length)
+        {
+            int[] tmp = new int[capacity(n + 1)];
+            for(int i=0;i<n;i++)
+                insert(tmp, i, offsets[i], offsets[i + 1] - offsets[i]);
+            hash = tmp;
+        }
+        insert(hash, n, from, key.length);
+
+        // publish
+        size = n + 1;
+        return n;
+    }
+
+    /**
+     * Return a copy of the offsets of the first n titles (n + 1 values)
+     * @param n
+     * @return
+     */
+    public int[] offsets(int n)
+    {
+        return Arrays.copyOf(offsets, n + 1);
+    }
+
+    /**
+     * Return the offsets of the titles with IDs in [from, to) (to - from + 1 values),
+     * relative to the first of those titles
+     * @param from
+     * @param to
+     * @return
+     */
+    public int[] offsets(int from, int to)
+    {
+        int[] tmp = offsets;
+        int[] out = new int[to - from + 1];
+        for(int i=0;i<out.length;i++)
+            out[i] = tmp[from + i] - tmp[from];
+        return out;
+    }
+
+    /**
+     * Return a copy of the UTF-8 bytes of the first n titles
+     * @param n
+     * @return
+     */
+    public byte[] bytes(int n)
+    {
+        int[] tmp = offsets;
+        return Arrays.copyOf(bytes, tmp[n]);
+    }
+
+    /**
+     * Return a copy of the UTF-8 bytes of the titles with IDs in [from, to)
+     * @param from
+     * @param to
+     * @return
+     */
+    public byte[] bytes(int from, int to)
+    {
+        int[] tmp = offsets;
+        return Arrays.copyOfRange(bytes, tmp[from], tmp[to]);
+    }
+
+    /**
+     * Return the number of bytes taken by this table
+     * @return
+     */
+    public long memoryUsage()
+    {
+        return bytes.length + 4L * offsets.length + 4L * hash.length;
+    }
+
+    /**
+     * Return a (read-only) view of all titles in this table
+     * @return
+     */
+    public Set<String> titles()
+    {
+        return new AbstractSet<String>() {
+            @Override
+            public int size() { return size; }
+            @Override
+            public boolean contains(Object o) { return o instanceof String && has((String) o); }
+            @Override
+            public Iterator<String> iterator()
+            {
+                final int n = size;
+                return new Iterator<String>() {
+                    private int i = 0;
+                    @Override
+                    public boolean hasNext() { return i < n; }
+                    @Override
+                    public String next()
+                    {
+                        if(i >= n)
+                            throw new NoSuchElementException();
+                        return lookup(i++);
+                    }
+                    @Override
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+        };
+    }
+
+    /**
+     * Return the capacity of a hash table holding n titles (a power of 2, at most half full)
+     * @param n
+     * @return
+     */
+    private static int capacity(int n)
+    {
+        return Integer.highestOneBit(java.lang.Math.max(n, 1) * 2) * 2;
+    }
+
+    private void insert(int[] table, int id, int from, int length)
+    {
+        int mask = table.length - 1;
+        int slot = Snapshot.hash(bytes, from, length) & mask;
+        while(table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+    }
+
+    private static int find(int[] table, byte[] bytes, int[] offsets, int n, byte[] key, int from, int length)
+    {
+        int mask = table.length - 1;
+        int slot = Snapshot.hash(key, from, length) & mask;
+        while(table[slot] != 0)
+        {
+            int id = table[slot] - 1;
+            // titles beyond 'n' might not be fully visible yet, they are treated as absent
+            if(id < n && equals(bytes, offsets[id], offsets[id + 1], key, from, length))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] bytes, int from, int to, byte[] key, int keyFrom, int keyLength)
+    {
+        if(to - from != keyLength)
+            return false;
+        for(int i=0;i<keyLength;i++)
+        {
+            if(bytes[from + i] != key[keyFrom + i])
+                return false;
+        }
+        return true;
+    }
+}
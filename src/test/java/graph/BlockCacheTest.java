@@ -0,0 +1,141 @@
+package graph;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * This test checks that an IntAdjacency bounded by a BlockCache
+ * pages blocks out and back in, without losing any edge.
+ */
+public class BlockCacheTest {
+
+    @Test
+    public void evictAndPageIn() throws IOException
+    {
+        int n = 2000;
+        File file = File.createTempFile("blocks", ".segments");
+        file.deleteOnExit();
+        BlockCache cache = new BlockCache(file, 256 * 1024);
+        IntAdjacency adjacency = new IntAdjacency();
+        adjacency.bound(cache);
+
+        // every vertex gets about 50 edges, far more than fits in the budget
+        Random rnd = new Random(0);
+        List<TreeSet<Integer>> expected = new ArrayList<>();
+        for(int i=0;i<n;i++)
+        {
+            expected.add(new TreeSet<Integer>());
+            int[] to = new int[50];
+            for(int j=0;j<to.length;j++)
+            {
+                to[j] = rnd.nextInt(n);
+                expected.get(i).add(to[j]);
+            }
+            adjacency.addAll(i, to);
+        }
+        Assert.assertTrue(cache.evictions() > 0);
+        Assert.assertTrue(cache.residentBytes() <= cache.budget());
+
+        // changes to evicted blocks are not lost
+        for(int i=0;i<n;i+=7)
+        {
+            int to = expected.get(i).first();
+            Assert.assertTrue(adjacency.remove(i, to));
+            expected.get(i).remove(to);
+        }
+
+        // a hot vertex stays resident, while cold vertices are paged in
+        for(int k=0;k<10;k++)
+            adjacency.get(1);
+        for(int i=0;i<n;i++)
+        {
+            int[] actual = adjacency.get(i).toArray();
+            Assert.assertEquals(actual.length, expected.get(i).size());
+            int j = 0;
+            for(int v : expected.get(i))
+                Assert.assertEquals(actual[j++], v);
+        }
+        Assert.assertTrue(cache.misses() > 0);
+        Assert.assertTrue(cache.hits() > 0);
+        Assert.assertEquals(adjacency.nofEdges(), nofEdges(expected));
+
+        // captured blocks resolve to the same edges
+        int[][] blocks = adjacency.resolve(adjacency.blocks(n));
+        for(int i=0;i<n;i++)
+            Assert.assertEquals(blocks[i].length, expected.get(i).size());
+        Assert.assertEquals(cache.liveBytes() + cache.deadBytes(), cache.segmentBytes());
+        Assert.assertTrue(cache.toString().contains("evictions=" + cache.evictions()));
+        cache.close();
+    }
+
+    @Test
+    public void reuseSlots() throws IOException
+    {
+        int n = 2000;
+        File file = File.createTempFile("blocks", ".segments");
+        file.deleteOnExit();
+        BlockCache cache = new BlockCache(file, 64 * 1024);
+        IntAdjacency adjacency = new IntAdjacency();
+        adjacency.bound(cache);
+        Random rnd = new Random(0);
+        for(int i=0;i<n;i++)
+            adjacency.set(i, edges(rnd, n));
+        long size = cache.segmentBytes();
+        Assert.assertTrue(size > 0);
+
+        // captured placeholders resolve to the blocks at the time of the capture, even if the vertices change meanwhile
+        int[][] captured = adjacency.blocks(n);
+        int[][] expected = new int[n][];
+        for(int i=0;i<n;i++)
+            expected[i] = adjacency.get(i).toArray();
+        for(int round=0;round<5;round++)
+        {
+            for(int i=0;i<n;i++)
+                adjacency.set(i, edges(rnd, n));
+        }
+        Assert.assertTrue(cache.deadBytes() > 0);
+        adjacency.resolve(captured);
+        for(int i=0;i<n;i++)
+            Assert.assertEquals(captured[i], expected[i]);
+
+        // once the capture is resolved, vertices that change over and over again reuse the slots of their old blocks
+        long before = cache.segmentBytes();
+        for(int round=0;round<20;round++)
+        {
+            for(int i=0;i<n;i++)
+                adjacency.set(i, edges(rnd, n));
+        }
+        Assert.assertTrue(cache.segmentBytes() < before + size);
+        Assert.assertEquals(cache.liveBytes() + cache.deadBytes(), cache.segmentBytes());
+        for(int i=0;i<n;i+=13)
+            adjacency.get(i);
+        cache.close();
+    }
+
+    private static int[] edges(Random rnd, int n)
+    {
+        TreeSet<Integer> set = new TreeSet<>();
+        while(set.size() < 50)
+            set.add(rnd.nextInt(n));
+        int[] out = new int[set.size()];
+        int j = 0;
+        for(int v : set)
+            out[j++] = v;
+        return out;
+    }
+
+    private static long nofEdges(List<TreeSet<Integer>> sets)
+    {
+        long n = 0;
+        for(TreeSet<Integer> s : sets)
+            n += s.size();
+        return n;
+    }
+}
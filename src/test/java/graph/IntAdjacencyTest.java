@@ -0,0 +1,92 @@
+package graph;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This test checks the primitive adjacency storage.
+ */
+public class IntAdjacencyTest {
+
+    @Test
+    public void addAndRemove()
+    {
+        IntAdjacency adjacency = new IntAdjacency(16);
+        Assert.assertNull(adjacency.get(3));
+
+        Assert.assertTrue(adjacency.add(3, 7));
+        Assert.assertTrue(adjacency.add(3, 1));
+        Assert.assertFalse(adjacency.add(3, 7));
+        Assert.assertEquals(adjacency.addAll(3, new int[]{5, 1, 9, 5}), new int[]{5, 9});
+        Assert.assertEquals(adjacency.get(3).toArray(), new int[]{1, 5, 7, 9});
+        Assert.assertEquals(adjacency.nofEdges(), 4);
+
+        // views are not affected by later changes
+        IntSet view = adjacency.get(3);
+        Assert.assertTrue(adjacency.remove(3, 5));
+        Assert.assertFalse(adjacency.remove(3, 5));
+        Assert.assertTrue(view.contains(5));
+        Assert.assertFalse(adjacency.get(3).contains(5));
+        Assert.assertEquals(adjacency.nofEdges(), 3);
+
+        // vertices beyond the initial capacity
+        adjacency.set(100, new int[0]);
+        Assert.assertTrue(adjacency.has(100));
+        Assert.assertTrue(adjacency.get(100).isEmpty());
+        Assert.assertEquals(adjacency.nofVertices(), 2);
+
+        // replacing the edges tells which edges changed
+        int[][] diff = adjacency.replaceAll(3, new int[]{9, 2, 1, 2});
+        Assert.assertEquals(diff[0], new int[]{2});
+        Assert.assertEquals(diff[1], new int[]{7});
+        Assert.assertEquals(adjacency.get(3).toArray(), new int[]{1, 2, 9});
+        Assert.assertEquals(adjacency.nofEdges(), 3);
+        int[] block = adjacency.block(3);
+        diff = adjacency.replaceAll(3, new int[]{2, 9, 1});
+        Assert.assertEquals(diff[0].length + diff[1].length, 0);
+        Assert.assertSame(adjacency.block(3), block);
+    }
+
+    @Test
+    public void append()
+    {
+        // a hub, to which every other vertex links
+        IntAdjacency adjacency = new IntAdjacency();
+        int n = 5000;
+        for(int i=n;i>0;i--)
+            adjacency.append(0, i);
+        Assert.assertEquals(adjacency.nofEdges(), n);
+        IntSet in = adjacency.get(0);
+        Assert.assertEquals(in.size(), n);
+        for(int i=0;i<n;i++)
+            Assert.assertEquals(in.get(i), i + 1);
+
+        // appended edges are seen by every operation, and views are not affected by later appends
+        adjacency.append(0, n + 2);
+        adjacency.append(0, n + 1);
+        Assert.assertTrue(adjacency.get(0).contains(n + 1));
+        Assert.assertFalse(in.contains(n + 1));
+        adjacency.append(0, n + 3);
+        Assert.assertFalse(adjacency.add(0, n + 3));
+        Assert.assertTrue(adjacency.remove(0, n + 3));
+        adjacency.append(0, n + 4);
+        Assert.assertEquals(adjacency.blocks(1)[0].length, n + 3);
+        Assert.assertEquals(adjacency.nofEdges(), n + 3);
+        adjacency.append(0, n + 5);
+        adjacency.set(0, new int[]{1});
+        Assert.assertEquals(adjacency.nofEdges(), 1);
+        Assert.assertEquals(adjacency.get(0).toArray(), new int[]{1});
+    }
+
+    @Test
+    public void boxedView()
+    {
+        IntSet set = IntSet.of(new int[]{2, 4, 8});
+        Assert.assertEquals(set.boxed(), new HashSet<>(Arrays.asList(2, 4, 8)));
+        Assert.assertTrue(set.boxed().contains(4));
+        Assert.assertFalse(set.boxed().contains(5));
+    }
+}
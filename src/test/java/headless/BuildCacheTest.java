@@ -1,6 +1,6 @@
 package headless;
 
-import miner.DepthFirstWikipediaMiner;
+import miner.BreadthFirstWikipediaMiner;
 import org.testng.annotations.Test;
 import wikipedia.WikipediaCache;
 
@@ -19,7 +19,7 @@ public class BuildCacheTest {
             System.out.println("====================================================");
             System.out.println(article);
             System.out.println("====================================================");
-            new DepthFirstWikipediaMiner().start(article, 2);
+            new BreadthFirstWikipediaMiner().start(article, 2);
         }
 
         // explicit store
@@ -0,0 +1,74 @@
+package headless;
+
+import org.testng.annotations.Test;
+import wikipedia.WikipediaCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This test compares canonicalizing titles by scanning all articles in the cache (as the path finders used to)
+ * with canonicalizing them through the index of the cache.
+ */
+public class CanonicalizationPerformanceTest {
+
+    private int N = 20;
+
+    public static void main(String[] args)
+    {
+        new CanonicalizationPerformanceTest().testPerformance();
+    }
+
+    @Test
+    public void testPerformance()
+    {
+        List<String> articles = new ArrayList<>(WikipediaCache.get().articles());
+        if(articles.isEmpty())
+        {
+            System.out.println("the cache is empty, run BuildCacheTest first");
+            return;
+        }
+
+        // titles the way an end-user would type them
+        Random rnd = new Random(42);
+        List<String> queries = new ArrayList<>();
+        for(int i=0;i<N;i++)
+        {
+            String article = articles.get(rnd.nextInt(articles.size())).replace('_', ' ');
+            StringBuilder sb = new StringBuilder();
+            for(char c : article.toCharArray())
+                sb.append(rnd.nextBoolean() ? Character.toLowerCase(c) : Character.toUpperCase(c));
+            queries.add(sb.toString());
+        }
+
+        // warm up the index
+        WikipediaCache.get().canonicalize(queries.get(0));
+
+        long time = System.currentTimeMillis();
+        for(String query : queries)
+            scan(query);
+        long scanTime = System.currentTimeMillis() - time;
+
+        time = System.nanoTime();
+        for(String query : queries)
+            WikipediaCache.get().canonicalize(query);
+        long indexTime = System.nanoTime() - time;
+
+        System.out.println("articles   : " + articles.size());
+        System.out.println("scan       : " + String.format("%.3f", scanTime / (double) N) + " ms per title");
+        System.out.println("index      : " + String.format("%.3f", indexTime / (N * 1000000.0)) + " ms per title");
+    }
+
+    private static String scan(String article)
+    {
+        String s2 = article.replaceAll("(-|_)+"," ").toUpperCase();
+        for(String a : WikipediaCache.get().articles())
+        {
+            String a2 = a.toUpperCase().replaceAll("(-|_)+"," ");
+            if(a2.equals(s2))
+                return a;
+        }
+        return article;
+    }
+}
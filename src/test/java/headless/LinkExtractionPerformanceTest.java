@@ -0,0 +1,100 @@
+package headless;
+
+import org.testng.annotations.Test;
+import wikipedia.fetch.LinkExtractor;
+import wikipedia.fetch.LinkExtractorTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This test compares extracting the links of pages by building their DOM and walking the ancestors of every anchor
+ * (as WikipediaCache used to) with extracting them in a single pass with the LinkExtractor.
+ * It uses the saved pages in the directory given by the system property 'wikipedia.corpus' if any, and generated pages otherwise.
+ */
+public class LinkExtractionPerformanceTest {
+
+    private int N = 2000;
+
+    public static void main(String[] args) throws IOException
+    {
+        new LinkExtractionPerformanceTest().testPerformance();
+    }
+
+    @Test
+    public void testPerformance() throws IOException
+    {
+        List<String> pages = pages();
+        long bytes = 0;
+        for(String page : pages)
+            bytes += page.length();
+
+        // warm up
+        for(int i=0;i<java.lang.Math.min(pages.size(), 200);i++)
+        {
+            LinkExtractorTest.domLinks(pages.get(i));
+            LinkExtractor.extract(pages.get(i));
+        }
+
+        long allocated = allocatedBytes();
+        long time = System.nanoTime();
+        int nofDomLinks = 0;
+        for(String page : pages)
+            nofDomLinks += LinkExtractorTest.domLinks(page).size();
+        long domTime = System.nanoTime() - time;
+        long domAllocated = allocatedBytes() - allocated;
+
+        allocated = allocatedBytes();
+        time = System.nanoTime();
+        int nofStreamLinks = 0;
+        for(String page : pages)
+            nofStreamLinks += LinkExtractor.extract(page).links().size();
+        long streamTime = System.nanoTime() - time;
+        long streamAllocated = allocatedBytes() - allocated;
+
+        System.out.println("pages      : " + pages.size() + " (" + bytes / 1024 + " kB)");
+        System.out.println("links      : " + nofDomLinks + " (dom), " + nofStreamLinks + " (streaming)");
+        System.out.println("dom        : " + String.format("%.3f", domTime / (pages.size() * 1000000.0)) + " ms, " + domAllocated / pages.size() / 1024 + " kB allocated per page");
+        System.out.println("streaming  : " + String.format("%.3f", streamTime / (pages.size() * 1000000.0)) + " ms, " + streamAllocated / pages.size() / 1024 + " kB allocated per page");
+    }
+
+    private List<String> pages() throws IOException
+    {
+        List<String> pages = new ArrayList<>();
+        String path = System.getProperty("wikipedia.corpus");
+        File[] files = path == null ? null : new File(path).listFiles();
+        if(files != null)
+        {
+            for(File file : files)
+            {
+                if(file.getName().endsWith(".html"))
+                    pages.add(new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8")));
+            }
+        }
+        if(pages.isEmpty())
+        {
+            Random rnd = new Random(0);
+            for(int i=0;i<N;i++)
+                pages.add(LinkExtractorTest.generate(rnd));
+        }
+        return pages;
+    }
+
+    /**
+     * Return the number of bytes allocated by the current thread so far, or 0 if the JVM does not keep track of it
+     * @return
+     */
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+}
@@ -0,0 +1,177 @@
+package headless;
+
+import org.testng.annotations.Test;
+import graph.IntSet;
+import wikipedia.store.GraphImage;
+import wikipedia.store.LegacyTextFormat;
+import wikipedia.store.ParallelTextLoader;
+import wikipedia.store.Snapshot;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * This test compares the size and load time of the cache built by BuildCacheTest in
+ * - the tab-separated text format of older versions (read sequentially, and by the ParallelTextLoader)
+ * - the binary snapshot format, with plain neighbor lists (the default)
+ * - the binary snapshot format, with packed neighbor lists (-Dwikipedia.cache.packed=true)
+ * and the time it takes to walk the links of a memory-mapped image of both binary formats.
+ * Without a cache built by BuildCacheTest, a generated graph of the same shape is used instead.
+ */
+public class SnapshotFormatPerformanceTest {
+
+    private int N = 5;
+
+    // the sum of all links walked, so the walk can not be optimized away
+    private long sum;
+
+    public static void main(String[] args) throws IOException
+    {
+        new SnapshotFormatPerformanceTest().testPerformance();
+    }
+
+    @Test
+    public void testPerformance() throws IOException
+    {
+        File cache = new File(System.getProperty("user.home"), "WikipediaCache.bin");
+        File backup = new File(System.getProperty("user.home"), "WikipediaCache.txt");
+        Snapshot snapshot;
+        File text;
+        if(cache.exists())
+        {
+            System.out.println("cache        : " + cache);
+            boolean isText = !Snapshot.isSnapshot(cache);
+            snapshot = isText ? new ParallelTextLoader().read(cache) : Snapshot.read(cache);
+
+            // a cache that was migrated keeps its text version as a backup, but that may be outdated by now
+            text = isText ? cache : File.createTempFile("text", ".txt");
+            if(!isText)
+            {
+                text.deleteOnExit();
+                writeText(snapshot, text);
+            }
+            if(backup.exists())
+                System.out.println("backup       : " + backup + " (" + backup.length() + " bytes, not used)");
+        }
+        else
+        {
+            System.out.println("no cache at " + cache + ", using a generated graph (run BuildCacheTest first)");
+            snapshot = generate(200000, 40, new Random(0));
+            text = File.createTempFile("text", ".txt");
+            text.deleteOnExit();
+            writeText(snapshot, text);
+        }
+
+        File plain = File.createTempFile("plain", ".bin");
+        plain.deleteOnExit();
+        snapshot.withPacked(false).write(plain);
+        File packed = File.createTempFile("packed", ".bin");
+        packed.deleteOnExit();
+        snapshot.withPacked(true).write(packed);
+
+        // warm up, so all formats are read from the OS page cache
+        LegacyTextFormat.read(text);
+        new ParallelTextLoader().read(text);
+        Snapshot.read(plain);
+        Snapshot.read(packed);
+
+        System.out.println("articles     : " + snapshot.nofArticles());
+        System.out.println("links        : " + snapshot.nofLinks());
+        System.out.println("text size    : " + text.length() + " bytes");
+        System.out.println("plain size   : " + plain.length() + " bytes (" + percentage(plain.length(), text.length()) + " of text)");
+        System.out.println("packed size  : " + packed.length() + " bytes (" + percentage(packed.length(), text.length()) + " of text, " + percentage(packed.length(), plain.length()) + " of plain)");
+
+        long time = System.currentTimeMillis();
+        for(int i=0;i<N;i++)
+            LegacyTextFormat.read(text);
+        System.out.println("text load    : " + (System.currentTimeMillis() - time) / N + " ms (sequential)");
+        time = System.currentTimeMillis();
+        for(int i=0;i<N;i++)
+            new ParallelTextLoader().read(text);
+        System.out.println("text load    : " + (System.currentTimeMillis() - time) / N + " ms (parallel)");
+        System.out.println("plain load   : " + measure(plain) + " ms");
+        System.out.println("packed load  : " + measure(packed) + " ms");
+        System.out.println("plain walk   : " + walk(plain) + " ms");
+        System.out.println("packed walk  : " + walk(packed) + " ms");
+    }
+
+    private static String percentage(long part, long whole)
+    {
+        return String.format("%.2f%%", part * 100.0 / whole);
+    }
+
+    /**
+     * Write a snapshot in the text format of older versions (see LegacyTextFormat)
+     * @param snapshot
+     * @param file
+     * @throws IOException
+     */
+    private static void writeText(Snapshot snapshot, File file) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 20);
+        try {
+            writer.write(snapshot.nofArticles() + "\n");
+            for(int i=0;i<snapshot.nofArticles();i++)
+                writer.write(i + "\t" + snapshot.title(i) + "\n");
+            for(int i=0;i<snapshot.nofArticles();i++)
+            {
+                if(!snapshot.isExpanded(i))
+                    continue;
+                writer.write(Integer.toString(i));
+                for(int to : snapshot.links(i))
+                    writer.write("\t" + to);
+                writer.write("\t\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Generate a graph in which a few articles are linked to far more often than the rest
+     * @param n the number of articles
+     * @param degree the number of links of every article
+     * @param rnd
+     * @return
+     */
+    private static Snapshot generate(int n, int degree, Random rnd)
+    {
+        String[] titles = new String[n];
+        int[][] linkage = new int[n][];
+        for(int i=0;i<n;i++)
+        {
+            titles[i] = "Article_" + i;
+            linkage[i] = new int[degree];
+            for(int j=0;j<degree;j++)
+                linkage[i][j] = (int) (n * java.lang.Math.pow(rnd.nextDouble(), 2));
+        }
+        return Snapshot.build(titles, linkage);
+    }
+
+    /**
+     * Return the time (in ms) it takes to map an image, and read every outgoing link in it
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private long walk(File file) throws IOException
+    {
+        long time = System.currentTimeMillis();
+        GraphImage image = GraphImage.open(file);
+        for(int i=0;i<image.nofArticles();i++)
+        {
+            IntSet out = image.outgoing(i);
+            for(int j=0;out != null && j<out.size();j++)
+                sum += out.get(j);
+        }
+        return System.currentTimeMillis() - time;
+    }
+
+    private long measure(File file) throws IOException
+    {
+        long time = System.currentTimeMillis();
+        for(int i=0;i<N;i++)
+            Snapshot.read(file);
+        return (System.currentTimeMillis() - time) / N;
+    }
+}
@@ -0,0 +1,115 @@
+package wikipedia;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This test hammers the WikipediaCache with concurrent addLink/removeLink calls,
+ * and checks that article IDs remain unique and dense, and that no link is lost.
+ */
+public class ConcurrentMutationTest {
+
+    private static final int NOF_THREADS = 8;
+    private static final int NOF_ARTICLES = 2000;
+    private static final int NOF_LINKS_PER_THREAD = 20000;
+
+    private final TempDirectories directories = new TempDirectories();
+
+    @AfterMethod
+    public void tearDown()
+    {
+        directories.deleteAll();
+    }
+
+    @Test
+    public void stress() throws Exception
+    {
+        File directory = directories.create();
+        final WikipediaCache cache = new WikipediaCache(directory);
+
+        // every thread adds links between (overlapping) random articles,
+        // and removes the links it added to one article of its own
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(NOF_THREADS);
+        List<Future<Set<String>>> futures = new ArrayList<>();
+        for(int t=0;t<NOF_THREADS;t++)
+        {
+            final int thread = t;
+            futures.add(executor.submit(new java.util.concurrent.Callable<Set<String>>() {
+                @Override
+                public Set<String> call() throws Exception {
+                    Random rnd = new Random(thread);
+                    Set<String> links = new HashSet<>();
+                    start.await();
+                    for(int i=0;i<NOF_LINKS_PER_THREAD;i++)
+                    {
+                        String from = "Article_" + rnd.nextInt(NOF_ARTICLES);
+                        String to = "Article_" + rnd.nextInt(NOF_ARTICLES);
+                        cache.addLink(from, to);
+                        links.add(from + "\t" + to);
+
+                        // only this thread touches its own article
+                        String own = "Thread_" + thread;
+                        cache.addLink(own, to);
+                        links.add(own + "\t" + to);
+                        if(i % 2 == 0)
+                        {
+                            cache.removeLink(own, to);
+                            links.remove(own + "\t" + to);
+                        }
+                    }
+                    return links;
+                }
+            }));
+        }
+        start.countDown();
+        Set<String> expected = new HashSet<>();
+        for(Future<Set<String>> f : futures)
+            expected.addAll(f.get());
+        executor.shutdown();
+
+        // IDs are unique and dense
+        int n = cache.articles().size();
+        boolean[] seen = new boolean[n];
+        for(String article : cache.articles())
+        {
+            int id = cache.lookup(article);
+            Assert.assertTrue(id >= 0 && id < n, "ID out of range " + id);
+            Assert.assertFalse(seen[id], "duplicate ID " + id);
+            seen[id] = true;
+            Assert.assertEquals(cache.lookup(id), article);
+        }
+
+        // every expected link is present, and no other link is
+        checkLinks(cache, expected);
+
+        // the journal holds the same graph
+        cache.flush();
+        checkLinks(new WikipediaCache(directory), expected);
+    }
+
+    private static void checkLinks(WikipediaCache cache, Set<String> expected)
+    {
+        long nofLinks = 0;
+        for(String article : cache.articles())
+        {
+            int id = cache.lookup(article);
+            if(cache.outgoingIds(id) == null)
+                continue;
+            for(int toId : cache.outgoing(id))
+            {
+                Assert.assertTrue(expected.contains(article + "\t" + cache.lookup(toId)), "unexpected link " + article + " -> " + cache.lookup(toId));
+                nofLinks++;
+            }
+        }
+        Assert.assertEquals(nofLinks, expected.size());
+    }
+}
@@ -0,0 +1,228 @@
+package wikipedia;
+
+import miner.BreadthFirstWikipediaMiner;
+import miner.PriorityWikipediaMiner;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import wikipedia.fetch.LinkSource;
+import wikipedia.fetch.PageLinks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This test mines a local stub of Wikipedia, level by level,
+ * and a generated link graph within a budget, most valuable articles first.
+ */
+public class MinerTest {
+
+    private StubWikipedia stub;
+    private WikipediaCache cache;
+    private final TempDirectories directories = new TempDirectories();
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        stub = new StubWikipedia();
+        File directory = directories.create();
+        cache = new WikipediaCache(directory);
+        cache.setBaseUrl(stub.baseUrl());
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        stub.stop();
+        directories.deleteAll();
+    }
+
+    @Test
+    public void levels()
+    {
+        stub.article("A", "B", "C");
+        stub.article("B", "D", "C");
+        stub.article("C", "D", "E", "A");
+        stub.article("D", "F");
+        stub.article("E");
+        stub.article("F");
+
+        List<BreadthFirstWikipediaMiner.Level> levels = new BreadthFirstWikipediaMiner(cache, null, 4).start("A", 3);
+        Assert.assertEquals(levels.size(), 3);
+        Assert.assertEquals(levels.get(0).nofArticles(), 1);
+        Assert.assertEquals(levels.get(1).nofArticles(), 2);
+        Assert.assertEquals(levels.get(2).nofArticles(), 2);
+        Assert.assertEquals(levels.get(2).nofFetched(), 2);
+
+        // every article is fetched once, at its shortest distance, and nothing beyond the last level
+        for(String article : new String[]{"A", "B", "C", "D", "E"})
+            Assert.assertEquals(stub.requests(article), 1, article);
+        Assert.assertEquals(stub.requests("F"), 0);
+
+        // articles that are known are not fetched again
+        levels = new BreadthFirstWikipediaMiner(cache, null, 4).start("B", 2);
+        Assert.assertEquals(levels.get(1).nofCached(), 2);
+        Assert.assertEquals(levels.get(1).nofFetched(), 0);
+        Assert.assertEquals(stub.requests("B"), 1);
+    }
+
+    @Test
+    public void parallel()
+    {
+        int n = 16;
+        List<String> links = new ArrayList<>();
+        for(int i=0;i<n;i++)
+        {
+            stub.article("Article_" + i);
+            links.add("Article_" + i);
+        }
+        links.add("Missing");
+        stub.article("Hub", links.toArray(new String[links.size()]));
+        stub.delay(100);
+
+        List<BreadthFirstWikipediaMiner.Level> levels = new BreadthFirstWikipediaMiner(cache, null, 8).start("Hub", 2);
+        BreadthFirstWikipediaMiner.Level level = levels.get(1);
+        Assert.assertEquals(level.nofArticles(), n + 1);
+        Assert.assertEquals(level.nofFetched(), n);
+        Assert.assertEquals(level.nofFailed(), 1);
+
+        // the pages of a level are fetched at the same time
+        Assert.assertTrue(stub.maxInFlight() > 1);
+        Assert.assertTrue(level.time() < (n + 1) * 100 / 2);
+        Assert.assertTrue(level.pagesPerSecond() > 0);
+    }
+
+    @Test
+    public void budget()
+    {
+        Graph graph = new Graph(2000, new Random(0));
+        PriorityWikipediaMiner.Result result = new PriorityWikipediaMiner(cache, graph, 4, PriorityWikipediaMiner.Order.IN_DEGREE, 100, 0).start("P_1500");
+        Assert.assertEquals(result.nofFetched(), 100);
+        Assert.assertEquals(graph.nofFetched.get(), 100);
+        Assert.assertTrue(result.nofQueued() > 0);
+
+        // known articles are mined without fetching them
+        result = new PriorityWikipediaMiner(cache, graph, 4, PriorityWikipediaMiner.Order.IN_DEGREE, 10, 0).start("P_1500");
+        Assert.assertEquals(result.nofFetched(), 10);
+        Assert.assertTrue(result.nofCached() > 0);
+        Assert.assertEquals(graph.nofFetched.get(), 110);
+
+        // a time budget
+        graph.delay = 20;
+        result = new PriorityWikipediaMiner(cache, graph, 1, PriorityWikipediaMiner.Order.IN_DEGREE, Integer.MAX_VALUE, 300).start("P_1500");
+        Assert.assertTrue(result.time() < 1000);
+        Assert.assertTrue(result.nofFetched() < 1000);
+    }
+
+    @Test
+    public void priority() throws IOException
+    {
+        // for the same number of pages, mining the most linked articles first finds more paths
+        Graph graph = new Graph(5000, new Random(0));
+        Map<PriorityWikipediaMiner.Order, Double> success = new EnumMap<>(PriorityWikipediaMiner.Order.class);
+        for(PriorityWikipediaMiner.Order order : PriorityWikipediaMiner.Order.values())
+        {
+            WikipediaCache cache = new WikipediaCache(directories.create());
+            new PriorityWikipediaMiner(cache, graph, 1, order, 250, 0).start("P_4000");
+            success.put(order, graph.success(cache, 500, new Random(1)));
+        }
+        Assert.assertTrue(success.get(PriorityWikipediaMiner.Order.IN_DEGREE) > success.get(PriorityWikipediaMiner.Order.BREADTH_FIRST), success.toString());
+        Assert.assertTrue(success.get(PriorityWikipediaMiner.Order.PAGERANK) > success.get(PriorityWikipediaMiner.Order.BREADTH_FIRST), success.toString());
+    }
+
+    /**
+     * A generated link graph, in which a few articles are linked to (and link to others) far more often than the rest,
+     * served as a LinkSource
+     */
+    private static class Graph implements LinkSource
+    {
+        private final List<List<String>> links = new ArrayList<>();
+        private final AtomicInteger nofFetched = new AtomicInteger();
+        private volatile long delay = 0;
+
+        Graph(int n, Random rnd)
+        {
+            for(int i=0;i<n;i++)
+            {
+                Set<String> out = new LinkedHashSet<>();
+                int degree = 2 + (int) (200 / java.lang.Math.pow(i + 1, 0.7));
+                while(out.size() < degree)
+                {
+                    int to = (int) (n * java.lang.Math.pow(rnd.nextDouble(), 3));
+                    if(to != i)
+                        out.add("P_" + to);
+                }
+                links.add(new ArrayList<>(out));
+            }
+        }
+
+        /**
+         * Return the fraction of random pairs of articles for which a path can be found,
+         * knowing the links of the start article, and the links in a given cache
+         * @param cache
+         * @param nofPairs
+         * @param rnd
+         * @return
+         */
+        double success(WikipediaCache cache, int nofPairs, Random rnd)
+        {
+            int nofFound = 0;
+            for(int i=0;i<nofPairs;i++)
+            {
+                int start = rnd.nextInt(links.size());
+                int goal = rnd.nextInt(links.size());
+                int goalId = cache.lookup("P_" + goal);
+                Set<Integer> seen = new HashSet<>();
+                Deque<Integer> queue = new ArrayDeque<>();
+                boolean found = links.get(start).contains("P_" + goal);
+                for(String to : links.get(start))
+                {
+                    int toId = cache.lookup(to);
+                    if(toId != -1 && seen.add(toId))
+                        queue.add(toId);
+                }
+                while(!found && goalId != -1 && !queue.isEmpty())
+                {
+                    graph.IntSet out = cache.outgoingIds(queue.poll());
+                    for(int j=0;out != null && j<out.size();j++)
+                    {
+                        if(seen.add(out.get(j)))
+                            queue.add(out.get(j));
+                    }
+                    found = seen.contains(goalId);
+                }
+                if(found)
+                    nofFound++;
+            }
+            return nofFound / (double) nofPairs;
+        }
+
+        @Override
+        public int batchSize() { return 10; }
+
+        @Override
+        public List<PageLinks> fetch(List<String> titles) {
+            List<PageLinks> pages = new ArrayList<>();
+            for(String title : titles)
+            {
+                nofFetched.incrementAndGet();
+                pages.add(new PageLinks(title, title, links.get(Integer.parseInt(title.substring(2))), null, null));
+            }
+            if(delay > 0)
+            {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return pages;
+        }
+
+        @Override
+        public PageLinks revalidate(String title, String etag, String lastModified) { return PageLinks.notModified(title); }
+    }
+}
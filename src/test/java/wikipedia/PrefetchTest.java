@@ -0,0 +1,258 @@
+package wikipedia;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import wikipedia.fetch.LinkSource;
+import wikipedia.fetch.NegativeCache;
+import wikipedia.fetch.PageLinks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This test fetches articles from a local stub of Wikipedia,
+ * both on the caller's thread and in the background.
+ */
+public class PrefetchTest {
+
+    private StubWikipedia stub;
+    private WikipediaCache cache;
+    private File directory;
+    private final TempDirectories directories = new TempDirectories();
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        stub = new StubWikipedia();
+        directory = directories.create();
+        cache = new WikipediaCache(directory);
+        cache.setBaseUrl(stub.baseUrl());
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        stub.stop();
+        directories.deleteAll();
+    }
+
+    @Test
+    public void onlineLookup()
+    {
+        stub.article("Biology", "Cell", "Evolution", "Special:Random");
+        stub.redirect("Cells", "Cell", "Biology", "Membrane");
+
+        Assert.assertEquals(cache.outgoing("Biology").size(), 2);
+        Assert.assertTrue(cache.outgoing("Biology").contains(cache.lookup("Evolution")));
+        Assert.assertFalse(cache.has("Reference"));
+
+        // the redirect is stored as an alias of its target
+        Assert.assertEquals(cache.outgoing("Cells").size(), 2);
+        Assert.assertEquals(cache.lookup("Cells"), cache.lookup("Cell"));
+        Assert.assertEquals(stub.requests("Cell"), 0);
+
+        // nothing is fetched twice
+        cache.outgoing("Biology");
+        cache.outgoing("Cell");
+        Assert.assertEquals(stub.requests("Biology"), 1);
+        Assert.assertEquals(stub.requests("Cells"), 1);
+    }
+
+    @Test
+    public void prefetch() throws Exception
+    {
+        int n = 32;
+        List<String> articles = new ArrayList<>();
+        for(int i=0;i<n;i++)
+        {
+            stub.article("Article_" + i, "Article_" + ((i + 1) % n), "Article_" + ((i + 2) % n));
+            articles.add("Article_" + i);
+        }
+        stub.delay(100);
+
+        long time = System.currentTimeMillis();
+        List<Future<Boolean>> futures = cache.prefetch(articles);
+        Assert.assertEquals(futures.size(), n);
+        for(Future<Boolean> future : futures)
+            Assert.assertTrue(future.get());
+        time = System.currentTimeMillis() - time;
+
+        // fetches overlap, but never exceed the limit of the pool
+        Assert.assertTrue(time < n * 100 / 2, cache.fetchPool() + " in " + time + " ms");
+        Assert.assertTrue(stub.maxInFlight() > 1);
+        Assert.assertTrue(stub.maxInFlight() <= cache.fetchPool().maxConcurrency());
+        for(int i=0;i<n;i++)
+        {
+            Assert.assertEquals(cache.outgoingIds(cache.lookup("Article_" + i)).size(), 2);
+            Assert.assertEquals(cache.incoming(cache.lookup("Article_" + i)).size(), 2);
+        }
+
+        // articles that are known (or asked for twice) are skipped
+        Assert.assertTrue(cache.prefetch(articles).isEmpty());
+        stub.article("Extra", "Article_0");
+        Assert.assertEquals(cache.prefetch(Arrays.asList("Extra", "Extra", "Article_1")).size(), 1);
+    }
+
+    @Test
+    public void prefetchBatches() throws Exception
+    {
+        // a source that knows every article, and links it to the next one
+        final AtomicInteger nofCalls = new AtomicInteger();
+        LinkSource source = new LinkSource() {
+            @Override
+            public int batchSize() { return 10; }
+            @Override
+            public List<PageLinks> fetch(List<String> titles) {
+                nofCalls.incrementAndGet();
+                Assert.assertTrue(titles.size() <= batchSize());
+                List<PageLinks> pages = new ArrayList<>();
+                for(String title : titles)
+                    pages.add(new PageLinks(title, title, Collections.singletonList(title + "_next"), null, null));
+                return pages;
+            }
+            @Override
+            public PageLinks revalidate(String title, String etag, String lastModified) { return PageLinks.notModified(title); }
+        };
+
+        List<String> articles = new ArrayList<>();
+        for(int i=0;i<25;i++)
+            articles.add("Article_" + i);
+        List<Future<Boolean>> futures = cache.prefetch(articles, source);
+        Assert.assertEquals(futures.size(), 3);
+        for(Future<Boolean> future : futures)
+            Assert.assertTrue(future.get());
+        Assert.assertEquals(nofCalls.get(), 3);
+        Assert.assertEquals(cache.outgoing("Article_7", source).size(), 1);
+        Assert.assertEquals(nofCalls.get(), 3);
+
+        // nothing is fetched from the default source
+        Assert.assertEquals(stub.requests("Article_7"), 0);
+    }
+
+    @Test
+    public void negativeCache() throws Exception
+    {
+        // a missing article is fetched once, until its time-to-live expires
+        Assert.assertNull(cache.outgoing("Missing"));
+        Assert.assertNull(cache.outgoing("Missing"));
+        for(Future<Boolean> future : cache.prefetch(Collections.singletonList("Missing")))
+            Assert.assertFalse(future.get());
+        Assert.assertEquals(stub.requests("Missing"), 1);
+        Assert.assertEquals(cache.negativeCache().reason("Missing"), NegativeCache.Reason.NOT_FOUND);
+        Assert.assertEquals(cache.negativeCache().nofSuppressed(), 2);
+
+        // an article that failed is not tried again until the backoff has passed
+        final AtomicInteger nofCalls = new AtomicInteger();
+        LinkSource failing = new LinkSource() {
+            @Override
+            public int batchSize() { return 1; }
+            @Override
+            public List<PageLinks> fetch(List<String> titles) throws IOException {
+                nofCalls.incrementAndGet();
+                throw new SocketTimeoutException("timeout");
+            }
+            @Override
+            public PageLinks revalidate(String title, String etag, String lastModified) { return null; }
+        };
+        cache.negativeCache().setTtl(NegativeCache.Reason.ERROR, 0, 0);
+        cache.outgoing("Flaky", failing);
+        cache.outgoing("Flaky", failing);
+        Assert.assertEquals(nofCalls.get(), 2);
+        Assert.assertEquals(cache.negativeCache().failures("Flaky"), 2);
+        cache.negativeCache().setTtl(NegativeCache.Reason.ERROR, 60000, 60000);
+        cache.outgoing("Flaky", failing);
+        Assert.assertEquals(nofCalls.get(), 2);
+
+        stub.article("Flaky", "Biology");
+        cache.negativeCache().setTtl(NegativeCache.Reason.ERROR, 0, 0);
+        Assert.assertEquals(cache.outgoing("Flaky").size(), 1);
+        Assert.assertNull(cache.negativeCache().reason("Flaky"));
+
+        // failures are saved along with the cache
+        Assert.assertTrue(cache.store());
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.negativeCache().reason("Missing"), NegativeCache.Reason.NOT_FOUND);
+        Assert.assertEquals(copy.negativeCache().size(), 1);
+    }
+
+    @Test
+    public void singleFlight() throws Exception
+    {
+        stub.article("Slow", "Biology", "Chemistry");
+        stub.delay(300);
+
+        // N concurrent lookups of the same article cause a single fetch
+        int n = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger nofFound = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0;i<n;i++)
+        {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if(cache.outgoing("Slow").size() == 2)
+                        nofFound.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for(Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(nofFound.get(), n);
+        Assert.assertEquals(stub.requests("Slow"), 1);
+        Assert.assertTrue(cache.inFlight().nofJoined() > 0);
+        Assert.assertEquals(cache.inFlight().size(), 0);
+    }
+
+    @Test
+    public void singleFlightCancellation() throws Exception
+    {
+        stub.article("Cancelled", "Biology");
+        stub.article("Shared", "Biology");
+        stub.delay(300);
+
+        // a prefetch that nobody else waits for is cancelled
+        Future<Boolean> cancelled = cache.prefetch(Collections.singletonList("Cancelled")).get(0);
+        Assert.assertTrue(cancelled.cancel(true));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals(cache.inFlight().nofCancelled(), 1);
+        Assert.assertFalse(cache.inFlight().isInFlight("Cancelled"));
+
+        // a prefetch that another caller joined carries on
+        Future<Boolean> shared = cache.prefetch(Collections.singletonList("Shared")).get(0);
+        final AtomicInteger nofFound = new AtomicInteger();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if(cache.outgoing("Shared").size() == 1)
+                    nofFound.incrementAndGet();
+            }
+        });
+        thread.start();
+        while(cache.inFlight().nofJoined() == 0)
+            Thread.sleep(1);
+        Assert.assertTrue(shared.cancel(true));
+        thread.join();
+        Assert.assertEquals(nofFound.get(), 1);
+        Assert.assertEquals(cache.inFlight().nofCancelled(), 1);
+        Assert.assertEquals(stub.requests("Shared"), 1);
+    }
+}
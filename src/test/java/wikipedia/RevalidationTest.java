@@ -0,0 +1,114 @@
+package wikipedia;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This test checks that fetched articles remember when (and with which validators) they were fetched,
+ * and that they are refreshed with conditional GETs against a local stub of Wikipedia.
+ */
+public class RevalidationTest {
+
+    private StubWikipedia stub;
+    private File directory;
+    private WikipediaCache cache;
+    private final TempDirectories directories = new TempDirectories();
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        stub = new StubWikipedia();
+        directory = directories.create();
+        cache = new WikipediaCache(directory);
+        cache.setBaseUrl(stub.baseUrl());
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        cache.stopRevalidation();
+        stub.stop();
+        directories.deleteAll();
+    }
+
+    @Test
+    public void revalidate()
+    {
+        stub.article("Biology", "Cell", "Evolution");
+        long before = System.currentTimeMillis();
+        Assert.assertEquals(cache.outgoing("Biology").size(), 2);
+        int biologyId = cache.lookup("Biology");
+        Assert.assertTrue(cache.fetchTable().fetchedAt(biologyId) >= before);
+        Assert.assertNotNull(cache.fetchTable().etag(biologyId));
+
+        // an unchanged page is not downloaded again
+        Assert.assertTrue(cache.revalidate("Biology"));
+        Assert.assertEquals(stub.notModified(), 1);
+        Assert.assertEquals(cache.outgoing("Biology").size(), 2);
+
+        // a changed page with the same links changes nothing
+        long generation = cache.generation();
+        stub.article("Biology", "Evolution", "Cell");
+        Assert.assertTrue(cache.revalidate("Biology"));
+        Assert.assertEquals(stub.notModified(), 1);
+        Assert.assertEquals(cache.generation(), generation);
+
+        // a changed page replaces the links
+        stub.article("Biology", "Cell", "Genetics");
+        Assert.assertTrue(cache.revalidate("Biology"));
+        Assert.assertEquals(stub.notModified(), 1);
+        Assert.assertEquals(cache.generation(), generation + 2);
+        Assert.assertTrue(cache.outgoing("Biology").contains(cache.lookup("Genetics")));
+        Assert.assertFalse(cache.outgoing("Biology").contains(cache.lookup("Evolution")));
+        Assert.assertTrue(cache.incoming(cache.lookup("Evolution")).isEmpty());
+        Assert.assertEquals(cache.fetchTable().nofRevalidations(), 3);
+        Assert.assertEquals(cache.fetchTable().nofUnchanged(), 1);
+    }
+
+    @Test
+    public void persist()
+    {
+        stub.article("Biology", "Cell");
+        stub.article("Cell", "Biology");
+        cache.outgoing("Biology");
+        cache.outgoing("Cell");
+        int biologyId = cache.lookup("Biology");
+        long fetchedAt = cache.fetchTable().fetchedAt(biologyId);
+        String etag = cache.fetchTable().etag(biologyId);
+
+        // from the journal
+        Assert.assertTrue(cache.flush());
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.fetchTable().fetchedAt(biologyId), fetchedAt);
+        Assert.assertEquals(copy.fetchTable().etag(biologyId), etag);
+
+        // from the snapshot
+        Assert.assertTrue(cache.store());
+        copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.fetchTable().fetchedAt(biologyId), fetchedAt);
+        Assert.assertEquals(copy.fetchTable().etag(biologyId), etag);
+        Assert.assertEquals(copy.fetchTable().uses(biologyId), 1);
+    }
+
+    @Test
+    public void schedule() throws InterruptedException
+    {
+        stub.article("Biology", "Cell");
+        stub.article("Chemistry", "Atom");
+        cache.outgoing("Biology");
+        cache.outgoing("Chemistry");
+        stub.article("Biology", "Cell", "Genetics");
+
+        cache.startRevalidation(0, 10, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!cache.outgoing("Biology").contains(cache.lookup("Genetics")) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertTrue(cache.outgoing("Biology").contains(cache.lookup("Genetics")));
+        Assert.assertTrue(cache.fetchTable().nofRevalidations() > 0);
+    }
+}
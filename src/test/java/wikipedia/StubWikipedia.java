@@ -0,0 +1,197 @@
+package wikipedia;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves canned article pages over HTTP on localhost,
+ * so that fetching articles can be tested without a network connection.
+ * Pages are served at /wiki/[title], with the same structure (canonical link, div#bodyContent) as Wikipedia.
+ * Every page has an ETag (derived from its content), and conditional GETs for an unchanged page are answered with 304.
+ * Responses can be delayed, and requests beyond a number of concurrent requests can be answered with 429 Too Many Requests.
+ */
+class StubWikipedia {
+
+    private final HttpServer server;
+    private final Map<String, String> pages = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger nofNotModified = new AtomicInteger();
+    private final AtomicInteger nofThrottled = new AtomicInteger();
+    private volatile long delay = 0;
+    private volatile int maxConcurrent = Integer.MAX_VALUE;
+
+    StubWikipedia() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/wiki/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Return the URL that titles should be appended to
+     * @return
+     */
+    String baseUrl()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/wiki/";
+    }
+
+    /**
+     * Serve an article linking to a number of other articles
+     * @param title
+     * @param links
+     * @return
+     */
+    StubWikipedia article(String title, String... links)
+    {
+        return redirect(title, title, links);
+    }
+
+    /**
+     * Serve a redirect, i.e. the content of the target article under the title of the redirect
+     * @param title
+     * @param target
+     * @param links the links of the target article
+     * @return
+     */
+    StubWikipedia redirect(String title, String target, String... links)
+    {
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>").append(target).append("</title>");
+        html.append("<link rel=\"canonical\" href=\"https://en.wikipedia.org/wiki/").append(target).append("\">");
+        html.append("</head><body><div id=\"bodyContent\"><p>");
+        for(String link : links)
+            html.append("<a href=\"/wiki/").append(link).append("\">").append(link).append("</a> ");
+        html.append("</p><div class=\"references\"><a href=\"/wiki/Reference\">Reference</a></div>");
+        html.append("</div></body></html>");
+        pages.put(title, html.toString());
+        return this;
+    }
+
+    /**
+     * Delay every response by a number of ms
+     * @param delay
+     * @return
+     */
+    StubWikipedia delay(long delay)
+    {
+        this.delay = delay;
+        return this;
+    }
+
+    /**
+     * Answer requests with 429 Too Many Requests while more than a number of requests are in flight
+     * @param maxConcurrent
+     * @return
+     */
+    StubWikipedia throttle(int maxConcurrent)
+    {
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    /**
+     * Return the number of requests that were answered with 429 Too Many Requests
+     * @return
+     */
+    int throttled()
+    {
+        return nofThrottled.get();
+    }
+
+    /**
+     * Return the number of times a given title was requested
+     * @param title
+     * @return
+     */
+    int requests(String title)
+    {
+        AtomicInteger n = requests.get(title);
+        return n == null ? 0 : n.get();
+    }
+
+    /**
+     * Return the number of requests that were answered with 304 Not Modified
+     * @return
+     */
+    int notModified()
+    {
+        return nofNotModified.get();
+    }
+
+    /**
+     * Return the highest number of requests that were served at the same time
+     * @return
+     */
+    int maxInFlight()
+    {
+        return maxInFlight.get();
+    }
+
+    void stop()
+    {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        String title = exchange.getRequestURI().getRawPath().substring("/wiki/".length());
+        requests.putIfAbsent(title, new AtomicInteger());
+        requests.get(title).incrementAndGet();
+        int n = inFlight.incrementAndGet();
+        synchronized (maxInFlight)
+        {
+            maxInFlight.set(java.lang.Math.max(maxInFlight.get(), n));
+        }
+        try {
+            if(n > maxConcurrent)
+            {
+                nofThrottled.incrementAndGet();
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            if(delay > 0)
+                Thread.sleep(delay);
+            String page = pages.get(title);
+            if(page != null)
+            {
+                String etag = "\"" + Integer.toHexString(page.hashCode()) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                {
+                    nofNotModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+            }
+            byte[] body = (page == null ? "<html><body>not found</body></html>" : page).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(page == null ? 404 : 200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package wikipedia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class creates the temporary directories the caches of a test live in,
+ * and deletes them (with everything in them) once the test is done.
+ * File.deleteOnExit() is no use here, since it only deletes directories that are empty.
+ */
+class TempDirectories {
+
+    private final List<File> directories = new ArrayList<>();
+
+    /**
+     * Create a new temporary directory
+     * @return
+     * @throws IOException
+     */
+    synchronized File create() throws IOException
+    {
+        File directory = Files.createTempDirectory("wikipedia").toFile();
+        directories.add(directory);
+        return directory;
+    }
+
+    /**
+     * Delete all directories created so far
+     */
+    synchronized void deleteAll()
+    {
+        for(File directory : directories)
+            delete(directory);
+        directories.clear();
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        for(int i=0;children != null && i<children.length;i++)
+            delete(children[i]);
+        file.delete();
+    }
+}
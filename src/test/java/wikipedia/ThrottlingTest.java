@@ -0,0 +1,95 @@
+package wikipedia;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import wikipedia.fetch.AdaptiveLimiter;
+import wikipedia.fetch.FetchPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * This test prefetches articles from a local stub of Wikipedia that is slow, and that pushes back
+ * (with 429 Too Many Requests) beyond a number of concurrent requests, and checks how the fetch pool adapts.
+ */
+public class ThrottlingTest {
+
+    private StubWikipedia stub;
+    private WikipediaCache cache;
+    private final TempDirectories directories = new TempDirectories();
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        stub = new StubWikipedia();
+        File directory = directories.create();
+        cache = new WikipediaCache(directory);
+        cache.setBaseUrl(stub.baseUrl());
+        cache.setFetchPool(new FetchPool(32, 0));
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        stub.stop();
+        directories.deleteAll();
+    }
+
+    private List<String> articles(int n)
+    {
+        List<String> articles = new ArrayList<>();
+        for(int i=0;i<n;i++)
+        {
+            stub.article("Article_" + i, "Article_" + ((i + 1) % n));
+            articles.add("Article_" + i);
+        }
+        return articles;
+    }
+
+    private void prefetch(List<String> articles) throws Exception
+    {
+        for(Future<Boolean> future : cache.prefetch(articles))
+            future.get();
+    }
+
+    @Test
+    public void grow() throws Exception
+    {
+        stub.delay(20);
+        prefetch(articles(300));
+
+        // without pushback, the limit grows (close) to the maximum
+        AdaptiveLimiter limiter = cache.fetchPool().limiter();
+        Assert.assertTrue(limiter.limit() > limiter.maxLimit() / 2, cache.fetchPool().toString());
+        Assert.assertEquals(limiter.nofThrottled(), 0);
+        Assert.assertTrue(stub.maxInFlight() > 8);
+        Assert.assertTrue(limiter.pagesPerSecond() > 0);
+    }
+
+    @Test
+    public void backOff() throws Exception
+    {
+        stub.delay(20).throttle(6);
+        List<String> articles = articles(300);
+        prefetch(articles);
+
+        // the limit settles around what the server accepts, so that few requests are pushed back
+        AdaptiveLimiter limiter = cache.fetchPool().limiter();
+        Assert.assertTrue(limiter.nofThrottled() > 0);
+        Assert.assertEquals(limiter.nofThrottled(), stub.throttled());
+        Assert.assertTrue(limiter.limit() < limiter.maxLimit(), cache.fetchPool().toString());
+        Assert.assertTrue(stub.throttled() < articles.size() / 5, stub.throttled() + " requests throttled");
+
+        // the articles that were pushed back are fetched once their backoff has passed
+        cache.negativeCache().setTtl(wikipedia.fetch.NegativeCache.Reason.ERROR, 0, 0);
+        prefetch(articles);
+        prefetch(articles);
+        for(String article : articles)
+            Assert.assertTrue(cache.has(article) && cache.outgoingIds(cache.lookup(article)) != null, article);
+    }
+}
@@ -0,0 +1,348 @@
+package wikipedia;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import wikipedia.fetch.LinkSource;
+import wikipedia.fetch.PageLinks;
+import wikipedia.store.Snapshot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This test checks that the WikipediaCache survives a restart,
+ * both from its journal and from its snapshot.
+ */
+public class WikipediaCacheTest {
+
+    private final TempDirectories directories = new TempDirectories();
+
+    @AfterMethod
+    public void tearDown()
+    {
+        directories.deleteAll();
+    }
+
+    private File tempDirectory() throws IOException
+    {
+        return directories.create();
+    }
+
+    @Test
+    public void migrateLegacyText() throws IOException
+    {
+        File directory = tempDirectory();
+        File bin = new File(directory, "WikipediaCache.bin");
+        FileWriter fileWriter = new FileWriter(bin);
+        fileWriter.write("3\n0\tBiology\n2\tCell\n1\tIBM\n0\t2\t1\t\n2\t\n");
+        fileWriter.close();
+
+        // a migration that can not write its snapshot keeps the old cache
+        File tmp = new File(directory, "WikipediaCache.bin.tmp");
+        Assert.assertTrue(tmp.mkdir());
+        new WikipediaCache(directory);
+        Assert.assertTrue(bin.exists());
+        Assert.assertFalse(Snapshot.isSnapshot(bin));
+        tmp.delete();
+
+        WikipediaCache cache = new WikipediaCache(directory);
+        Assert.assertTrue(Snapshot.isSnapshot(bin));
+        Assert.assertTrue(new File(directory, "WikipediaCache.txt").exists());
+        Assert.assertEquals(cache.outgoing("Biology").size(), 2);
+
+        // without a snapshot, the backup of the old cache is migrated again
+        Assert.assertTrue(bin.delete());
+        cache = new WikipediaCache(directory);
+        Assert.assertTrue(Snapshot.isSnapshot(bin));
+        Assert.assertEquals(cache.articles(), new java.util.HashSet<>(Arrays.asList("Biology", "Cell", "IBM")));
+    }
+
+    @Test
+    public void boundedMemory() throws IOException
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory, 32 * 1024);
+        for(int i=0;i<500;i++)
+        {
+            for(int j=0;j<40;j++)
+                cache.addLink("Article_" + i, "Article_" + ((i * 31 + j * 17) % 500));
+        }
+        Assert.assertTrue(cache.outgoingCache().evictions() > 0);
+        Assert.assertEquals(cache.outgoingIds(cache.lookup("Article_3")).size(), 40);
+        Assert.assertTrue(cache.outgoingCache().misses() > 0);
+        Assert.assertTrue(cache.store());
+
+        // the snapshot holds the evicted links too
+        WikipediaCache copy = new WikipediaCache(directory);
+        for(int i=0;i<500;i++)
+            Assert.assertEquals(copy.outgoingIds(copy.lookup("Article_" + i)).size(), 40);
+    }
+
+    @Test
+    public void packedStorage() throws IOException
+    {
+        File plain = tempDirectory();
+        File packed = tempDirectory();
+        fill(new WikipediaCache(plain));
+        System.setProperty("wikipedia.cache.packed", "true");
+        try {
+            fill(new WikipediaCache(packed));
+        } finally {
+            System.clearProperty("wikipedia.cache.packed");
+        }
+        long plainSize = new File(plain, "WikipediaCache.bin").length();
+        long packedSize = new File(packed, "WikipediaCache.bin").length();
+        Assert.assertTrue(packedSize < plainSize, packedSize + " bytes packed, " + plainSize + " bytes plain");
+
+        // packed caches load regardless of the setting
+        WikipediaCache copy = new WikipediaCache(packed);
+        for(int i=0;i<500;i++)
+            Assert.assertEquals(copy.outgoingIds(copy.lookup("Article_" + i)).size(), 40);
+    }
+
+    private static void fill(WikipediaCache cache)
+    {
+        for(int i=0;i<500;i++)
+        {
+            for(int j=0;j<40;j++)
+                cache.addLink("Article_" + i, "Article_" + ((i * 31 + j * 17) % 500));
+        }
+        Assert.assertTrue(cache.store());
+    }
+
+    private static int nofJournals(File directory)
+    {
+        int n = 0;
+        for(File f : directory.listFiles())
+            if(f.getName().endsWith(".journal"))
+                n++;
+        return n;
+    }
+
+    @Test
+    public void replayJournal() throws IOException
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory);
+        cache.addLink("Biology", "Cell");
+        cache.addLink("Biology", "IBM");
+        cache.addLink("Cell", "Biology");
+        cache.removeLink("Biology", "IBM");
+        Assert.assertTrue(cache.flush());
+        Assert.assertEquals(nofJournals(directory), 1);
+
+        // restart from the journal only
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.articles(), cache.articles());
+        for(String article : cache.articles())
+        {
+            Assert.assertEquals(copy.lookup(article), cache.lookup(article));
+            Assert.assertEquals(copy.outgoing(copy.lookup(article)), cache.outgoing(cache.lookup(article)));
+        }
+        Assert.assertNull(copy.outgoingIds(copy.lookup("IBM")));
+        Assert.assertEquals(copy.outgoing(copy.lookup("Biology")).size(), 1);
+
+        // incoming links follow the outgoing links
+        Assert.assertEquals(copy.incoming(copy.lookup("Cell")).toArray(), new int[]{copy.lookup("Biology")});
+        Assert.assertTrue(copy.incoming(copy.lookup("IBM")).isEmpty());
+    }
+
+    @Test
+    public void compactJournal() throws IOException
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory);
+        cache.addLink("Biology", "Cell");
+        Assert.assertTrue(cache.store());
+        Assert.assertEquals(nofJournals(directory), 0);
+        Assert.assertEquals(cache.snapshotWriter().nofSnapshots(), 1);
+        Assert.assertEquals(cache.snapshotWriter().lastBytesWritten(), new File(directory, "WikipediaCache.bin").length());
+        Assert.assertFalse(new File(directory, "WikipediaCache.bin.tmp").exists());
+        cache.addLink("Cell", "Puppy");
+        cache.flush();
+        Assert.assertEquals(nofJournals(directory), 1);
+
+        // restart from snapshot + journal
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.articles().size(), 3);
+        Assert.assertTrue(copy.outgoingIds(copy.lookup("Cell")).contains(copy.lookup("Puppy")));
+        Assert.assertTrue(copy.outgoingIds(copy.lookup("Biology")).contains(copy.lookup("Cell")));
+        Assert.assertTrue(copy.incoming(copy.lookup("Cell")).contains(copy.lookup("Biology")));
+
+        // compaction removes the journal of the previous run
+        Assert.assertTrue(copy.store());
+        Assert.assertEquals(nofJournals(directory), 0);
+        Assert.assertEquals(new WikipediaCache(directory).articles(), copy.articles());
+    }
+
+    @Test
+    public void shardedStore() throws IOException
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory, 0, 4);
+        for(int i=0;i<20;i++)
+        {
+            cache.addLink("Article_" + i, "Article_" + ((i + 1) % 20));
+            cache.addLink("Article_" + i, "Article_" + ((i * 7) % 20));
+        }
+        Assert.assertTrue(cache.store());
+        Assert.assertEquals(cache.shardStore().lastShardsWritten(), 5);
+        Assert.assertFalse(new File(directory, "WikipediaCache.bin").exists());
+
+        // only the shard holding both ends of the link is written again
+        cache.addLink(cache.lookup(0), cache.lookup(3));
+        Assert.assertTrue(cache.store());
+        Assert.assertEquals(cache.shardStore().lastShardsWritten(), 1);
+        Assert.assertEquals(nofJournals(directory), 0);
+
+        // shards are loaded with the shard size they were saved with, and journals are replayed on top of them
+        cache.removeLink("Article_7", "Article_8");
+        cache.flush();
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.shardStore().shardSize(), 4);
+        Assert.assertEquals(copy.articles(), cache.articles());
+        for(int i=0;i<20;i++)
+        {
+            Assert.assertEquals(copy.lookup(i), cache.lookup(i));
+            Assert.assertEquals(copy.outgoingIds(i).toArray(), cache.outgoingIds(i).toArray());
+            Assert.assertEquals(copy.incoming(i).toArray(), cache.incoming(i).toArray());
+        }
+    }
+
+    @Test
+    public void changeFeed() throws Exception
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory);
+        cache.addLink("Biology", "Cell");
+        long generation = cache.generation();
+
+        final List<ChangeBatch> delivered = Collections.synchronizedList(new ArrayList<ChangeBatch>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        Assert.assertEquals(cache.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeBatch batch) {
+                delivered.add(batch);
+                if(batch.toGeneration() == 3)
+                    latch.countDown();
+            }
+            @Override
+            public void lost(long generation) {
+                Assert.fail("no changes should be lost");
+            }
+        }), generation);
+
+        cache.addLink("Cell", "Biology");
+        cache.addLink("Cell", "Biology");
+        cache.removeLink("Biology", "Cell");
+        Assert.assertEquals(cache.generation(), generation + 2);
+
+        ChangeBatch batch = cache.changesSince(generation);
+        Assert.assertEquals(batch.size(), 2);
+        Assert.assertEquals(batch.type(0), ChangeBatch.ADDED);
+        Assert.assertEquals(batch.from(0), cache.lookup("Cell"));
+        Assert.assertEquals(batch.to(0), cache.lookup("Biology"));
+        Assert.assertEquals(batch.type(1), ChangeBatch.REMOVED);
+        Assert.assertEquals(batch.from(1), cache.lookup("Biology"));
+        Assert.assertTrue(cache.changesSince(cache.generation()).isEmpty());
+
+        // listeners see the same changes, in (possibly) fewer batches
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        int nofChanges = 0;
+        for(ChangeBatch b : delivered)
+        {
+            Assert.assertEquals(b.fromGeneration(), generation + nofChanges);
+            nofChanges += b.size();
+        }
+        Assert.assertEquals(nofChanges, 2);
+
+        // a page that links to an article twice adds a single link, and links that are present are no changes
+        generation = cache.generation();
+        Assert.assertTrue(cache.fetch(Collections.singletonList("Virus"), source("Virus", "Cell", "Biology", "Cell")));
+        Assert.assertEquals(cache.generation(), generation + 3);
+        Assert.assertEquals(cache.incoming(cache.lookup("Cell")).size(), 1);
+        Assert.assertTrue(cache.fetch(Collections.singletonList("Virus"), source("Virus", "Cell")));
+        Assert.assertEquals(cache.generation(), generation + 3);
+    }
+
+    /**
+     * Return a LinkSource that knows a single page
+     * @param title
+     * @param links
+     * @return
+     */
+    private static LinkSource source(final String title, final String... links)
+    {
+        return new LinkSource() {
+            @Override
+            public int batchSize() { return 1; }
+            @Override
+            public List<PageLinks> fetch(List<String> titles) {
+                List<PageLinks> pages = new ArrayList<>();
+                if(titles.contains(title))
+                    pages.add(new PageLinks(title, title, Arrays.asList(links), null, null));
+                return pages;
+            }
+            @Override
+            public PageLinks revalidate(String t, String etag, String lastModified) { return PageLinks.notModified(t); }
+        };
+    }
+
+    @Test
+    public void canonicalize() throws IOException
+    {
+        WikipediaCache cache = new WikipediaCache(tempDirectory());
+        cache.addLink("Michael_Jackson", "Thriller_(album)");
+        cache.addLink("Michael-Jackson", "Pop_music");
+        Assert.assertEquals(cache.canonicalize("michael jackson"), "Michael_Jackson");
+        Assert.assertEquals(cache.canonicalize("MICHAEL--JACKSON"), "Michael_Jackson");
+        Assert.assertEquals(cache.canonicalize("thriller (album)"), "Thriller_(album)");
+        Assert.assertEquals(cache.canonicalize("Bad (album)"), "Bad (album)");
+
+        // articles created after the first lookup are found too
+        cache.addLink("Pop_music", "Bad_(album)");
+        Assert.assertEquals(cache.canonicalize("bad (album)"), "Bad_(album)");
+    }
+
+    @Test
+    public void redirects() throws IOException
+    {
+        File directory = tempDirectory();
+        WikipediaCache cache = new WikipediaCache(directory);
+        cache.addLink("Biology", "Cells");
+        cache.addLink("Cells", "Nucleus");
+        cache.addLink("Cell_(biology)", "Membrane");
+        cache.alias("Cells", "Cell_(biology)");
+
+        // the redirect resolves to its target, which took over its links
+        int cellId = cache.lookup("Cell_(biology)");
+        Assert.assertEquals(cache.lookup("Cells"), cellId);
+        Assert.assertEquals(cache.lookup(1), "Cells");
+        Assert.assertTrue(cache.isRedirect(1));
+        Assert.assertEquals(cache.outgoing(cache.lookup("Biology")), Collections.singleton(cellId));
+        Assert.assertEquals(cache.outgoingIds(cellId).size(), 1);
+        Assert.assertEquals(cache.incoming(cellId).toArray(), new int[]{cache.lookup("Biology")});
+
+        // new links are stored against the target
+        cache.addLink("Cells", "Cytoplasm");
+        cache.addLink("Chemistry", "Cells");
+        Assert.assertEquals(cache.outgoingIds(cellId).size(), 2);
+        Assert.assertTrue(cache.outgoing(cache.lookup("Chemistry")).contains(cellId));
+
+        // aliases survive a restart, from the journal and from the snapshot
+        Assert.assertTrue(cache.flush());
+        Assert.assertEquals(new WikipediaCache(directory).lookup("Cells"), cellId);
+        Assert.assertTrue(cache.store());
+        WikipediaCache copy = new WikipediaCache(directory);
+        Assert.assertEquals(copy.lookup("Cells"), cellId);
+        Assert.assertEquals(copy.outgoing(copy.lookup("Cells")), cache.outgoing(cellId));
+    }
+}
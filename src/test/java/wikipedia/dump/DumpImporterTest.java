@@ -0,0 +1,143 @@
+package wikipedia.dump;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import wikipedia.store.Snapshot;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This test imports a small set of dump files, in both the old (title-based)
+ * and the new (linktarget-based) pagelinks format, with and without redirects.
+ */
+public class DumpImporterTest {
+
+    private static final String PAGES =
+            "-- MySQL dump\n" +
+            "CREATE TABLE `page` (\n  `page_id` int(8) unsigned NOT NULL AUTO_INCREMENT,\n  PRIMARY KEY (`page_id`)\n);\n" +
+            "INSERT INTO `page` VALUES (1,0,'Biology',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)," +
+            "(2,0,'Cell',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)," +
+            "(3,14,'Biology',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL);\n" +
+            "INSERT INTO `page` VALUES (4,0,'Ender\\'s_Game',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)," +
+            "(5,0,'Caf\u00e9',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)," +
+            "(6,0,'Cells',1,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)," +
+            "(7,0,'Main_Page',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL);\n";
+
+    @Test
+    public void importTitleLinks() throws IOException
+    {
+        File pages = write("page", PAGES, false);
+        File links = write("pagelinks",
+                "INSERT INTO `pagelinks` VALUES (1,0,'Cell',0),(1,0,'Cells',0),(1,14,'Biology',0),(1,0,'Main_Page',0),(1,0,'Red_link',0)," +
+                "(2,0,'Biology',0),(4,0,'Caf\u00e9',0);\n" +
+                "INSERT INTO `pagelinks` VALUES (6,0,'Cell',0),(3,0,'Cell',14);\n", true);
+        DumpImporter importer = new DumpImporter().readPages(pages).readLinks(links);
+        check(importer);
+    }
+
+    @Test
+    public void importLinkTargets() throws IOException
+    {
+        File pages = write("page", PAGES, true);
+        File targets = write("linktarget",
+                "INSERT INTO `linktarget` VALUES (10,0,'Biology'),(11,0,'Cell'),(12,0,'Cells'),(13,14,'Biology'),(14,0,'Caf\u00e9'),(15,0,'Red_link');\n", false);
+        File links = write("pagelinks",
+                "INSERT INTO `pagelinks` VALUES (1,0,11),(1,0,12),(1,0,13),(1,0,15),(2,0,10),(4,0,14),(6,0,11),(3,14,11);\n", false);
+        DumpImporter importer = new DumpImporter().readPages(pages).readLinkTargets(targets).readLinks(links);
+        check(importer);
+    }
+
+    @Test
+    public void importRedirects() throws IOException
+    {
+        File pages = write("page", PAGES, false);
+        File redirects = write("redirect", "INSERT INTO `redirect` VALUES (6,0,'Cell','',''),(7,0,'Biology','','');\n", false);
+        File links = write("pagelinks",
+                "INSERT INTO `pagelinks` VALUES (1,0,'Cell',0),(1,0,'Cells',0),(2,0,'Biology',0),(4,0,'Cells',0);\n", false);
+        DumpImporter importer = new DumpImporter().readPages(pages).readRedirects(redirects).readLinks(links);
+        Assert.assertEquals(importer.nofAliases(), 1);
+
+        File file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+        Assert.assertTrue(importer.write(file));
+        Snapshot snapshot = Snapshot.read(file);
+
+        // links to "Cells" are stored against "Cell"
+        Assert.assertEquals(snapshot.links(0), new int[]{1});
+        Assert.assertEquals(snapshot.links(2), new int[]{1});
+        Assert.assertEquals(snapshot.aliases(), new int[]{4, 1});
+        Assert.assertEquals(importer.nofLinks(), 3);
+    }
+
+    @Test
+    public void throughput() throws IOException
+    {
+        int nofPages = 100000;
+        int nofLinksPerPage = 20;
+        java.util.Random rnd = new java.util.Random(0);
+        StringBuilder pages = new StringBuilder();
+        StringBuilder links = new StringBuilder();
+        for(int i=1;i<=nofPages;i++)
+        {
+            pages.append(i % 1000 == 1 ? "INSERT INTO `page` VALUES " : ",");
+            pages.append("(").append(i).append(",0,'Article_").append(i).append("',0,0,0.5,'20180101000000',NULL,1,100,'wikitext',NULL)");
+            if(i % 1000 == 0)
+                pages.append(";\n");
+            for(int j=0;j<nofLinksPerPage;j++)
+            {
+                links.append(j == 0 && i % 50 == 1 ? "INSERT INTO `pagelinks` VALUES " : ",");
+                links.append("(").append(i).append(",0,'Article_").append(1 + rnd.nextInt(nofPages)).append("',0)");
+            }
+            if(i % 50 == 0)
+                links.append(";\n");
+        }
+        DumpImporter importer = new DumpImporter()
+                .readPages(write("page", pages.toString(), true))
+                .readLinks(write("pagelinks", links.toString(), true));
+        Assert.assertEquals(importer.nofArticles(), nofPages);
+        // duplicate links (drawn at random) are stored once
+        Assert.assertTrue(importer.nofLinks() <= (long) nofPages * nofLinksPerPage);
+        Assert.assertTrue(importer.nofLinks() > (long) nofPages * (nofLinksPerPage - 1));
+        Assert.assertTrue(importer.linksPerSecond() > 0);
+        Assert.assertEquals(importer.nofSkippedLinks(), 0);
+    }
+
+    private static void check(DumpImporter importer) throws IOException
+    {
+        File file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+        Assert.assertTrue(importer.write(file));
+        Snapshot snapshot = Snapshot.read(file);
+
+        // the category and the main page are not imported
+        Assert.assertEquals(snapshot.nofArticles(), 5);
+        String[] titles = new String[snapshot.nofArticles()];
+        for(int i=0;i<titles.length;i++)
+            titles[i] = snapshot.title(i);
+        Assert.assertEquals(titles, new String[]{"Biology", "Cell", "Ender%27s_Game", "Caf%C3%A9", "Cells"});
+
+        Assert.assertEquals(snapshot.links(0), new int[]{1, 4});
+        Assert.assertEquals(snapshot.links(1), new int[]{0});
+        Assert.assertEquals(snapshot.links(2), new int[]{3});
+        Assert.assertTrue(snapshot.isExpanded(3));
+        Assert.assertEquals(snapshot.links(3).length, 0);
+
+        // redirects are not expanded
+        Assert.assertFalse(snapshot.isExpanded(4));
+        Assert.assertEquals(importer.nofLinks(), 4);
+    }
+
+    private static File write(String name, String content, boolean gzip) throws IOException
+    {
+        File file = File.createTempFile(name, gzip ? ".sql.gz" : ".sql");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        if(gzip)
+            out = new GZIPOutputStream(out);
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        writer.write(content);
+        writer.close();
+        return file;
+    }
+}
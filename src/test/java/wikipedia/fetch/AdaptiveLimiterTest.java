@@ -0,0 +1,112 @@
+package wikipedia.fetch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This test checks how the limit of an AdaptiveLimiter grows and shrinks, and that its token bucket caps the rate.
+ * Latencies are simulated by passing an earlier start time to release.
+ */
+public class AdaptiveLimiterTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void increase() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 64, 0, 1);
+
+        // slow start: every fetch that was held back by the limit raises it by 1
+        long[] starts = {limiter.acquire(), limiter.acquire()};
+        for(long start : starts)
+            limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS);
+        Assert.assertEquals(limiter.limit(), 4);
+
+        // fetches that were not held back by the limit do not raise it
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS);
+        Assert.assertEquals(limiter.limit(), 4);
+        Assert.assertEquals(limiter.inFlight(), 0);
+        Assert.assertEquals(limiter.nofCompleted(), 3);
+    }
+
+    @Test
+    public void throttled() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 64, 0, 1);
+
+        // the fetches that were in flight when the server pushed back count as a single signal
+        long[] starts = new long[8];
+        for(int i=0;i<starts.length;i++)
+            starts[i] = limiter.acquire();
+        for(long start : starts)
+            limiter.release(start, AdaptiveLimiter.Outcome.THROTTLED);
+        Assert.assertEquals(limiter.limit(), 4);
+        Assert.assertEquals(limiter.nofThrottled(), 8);
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.THROTTLED);
+        Assert.assertEquals(limiter.limit(), 2);
+
+        // after the first backoff, the limit grows by 1 every 'limit' fetches (held back by the limit)
+        for(int i=0;i<2;i++)
+        {
+            starts = new long[]{limiter.acquire(), limiter.acquire()};
+            for(long start : starts)
+                limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        Assert.assertEquals(limiter.limit(), 3);
+
+        // other failures say nothing about the limit
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.FAILURE);
+        Assert.assertEquals(limiter.limit(), 3);
+    }
+
+    @Test
+    public void latencySpike() throws InterruptedException
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 64, 0, 1);
+        for(int i=0;i<10;i++)
+            limiter.release(limiter.acquire() - 10 * MS, AdaptiveLimiter.Outcome.SUCCESS);
+        Assert.assertEquals(limiter.baselineLatency(), 10.0, 1.0);
+        Assert.assertEquals(limiter.limit(), 10);
+
+        limiter.release(limiter.acquire() - 100 * MS, AdaptiveLimiter.Outcome.SUCCESS);
+        Assert.assertEquals(limiter.nofSpikes(), 1);
+        Assert.assertEquals(limiter.limit(), 9);
+        Assert.assertTrue(limiter.baselineLatency() < 20);
+    }
+
+    @Test
+    public void rate() throws InterruptedException
+    {
+        // 20 fetches per second, one at a time
+        AdaptiveLimiter limiter = new AdaptiveLimiter(64, 1, 64, 20, 1);
+        long time = System.currentTimeMillis();
+        for(int i=0;i<6;i++)
+            limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS);
+        time = System.currentTimeMillis() - time;
+        Assert.assertTrue(time >= 240, time + " ms");
+    }
+
+    @Test
+    public void queueDepth() throws InterruptedException
+    {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 0, 1);
+        long start = limiter.acquire();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        thread.start();
+        while(limiter.queueDepth() == 0)
+            Thread.sleep(1);
+        Assert.assertEquals(limiter.inFlight(), 1);
+        limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS);
+        thread.join();
+        Assert.assertEquals(limiter.queueDepth(), 0);
+        Assert.assertEquals(limiter.inFlight(), 0);
+    }
+}
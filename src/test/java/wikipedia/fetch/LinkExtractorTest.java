@@ -0,0 +1,258 @@
+package wikipedia.fetch;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * This test checks that the LinkExtractor finds exactly the same links as selecting them from the Jsoup DOM
+ * (the way WikipediaCache used to), on hand-written pages, on generated pages,
+ * and on a few saved pages (see PAGES).
+ */
+public class LinkExtractorTest {
+
+    // saved pages (in the resource directory 'pages'), with references, refbegin and cite blocks
+    private static final String[] PAGES = {"Biology.html", "Cafe.html", "Cell_biology.html", "Mercury.html"};
+
+    /**
+     * Extract the links of a page by building its DOM, and walking the ancestors of every anchor
+     * @param html
+     * @return
+     */
+    public static List<String> domLinks(String html)
+    {
+        Document htmlDoc = Jsoup.parse(html);
+        Element pageElement = htmlDoc.select("div#bodyContent").first();
+        List<String> links = new ArrayList<>();
+        if(pageElement == null)
+            return links;
+        for(Element e : pageElement.select("a"))
+        {
+            if(hasParent(e, "cite", null, null))
+                continue;
+            if(hasParent(e, null, "references", null))
+                continue;
+            if(hasParent(e, null, "refbegin", null))
+                continue;
+            String href = e.attr("href");
+            if(href.startsWith("/wiki/") && !e.text().isEmpty())
+                links.add(href.substring(6));
+        }
+        return links;
+    }
+
+    private static boolean hasParent(Element e, String nodeName, String nodeClass, String nodeID)
+    {
+        Element tmp = e;
+        while(tmp != null)
+        {
+            tmp = tmp.parent();
+            if(tmp == null)
+                break;
+            if(nodeName != null && tmp.nodeName().equals(nodeName))
+                return true;
+            if(nodeClass != null && Arrays.asList(tmp.className().split(" ")).contains(nodeClass))
+                return true;
+            if(nodeID != null && tmp.id().equals(nodeID))
+                return true;
+        }
+        return false;
+    }
+
+    private static void check(String html)
+    {
+        Assert.assertEquals(new TreeSet<>(LinkExtractor.extract(html).links()), new TreeSet<>(domLinks(html)), html);
+    }
+
+    @Test
+    public void handWritten()
+    {
+        String head = "<!DOCTYPE html><html><head><title>T</title><link rel=\"canonical\" href=\"https://en.wikipedia.org/wiki/T\"></head><body>";
+        LinkExtractor.Page page = LinkExtractor.extract(head + "<div id=\"bodyContent\"><a href=\"/wiki/A\">A</a></div></body></html>");
+        Assert.assertEquals(page.canonical(), "https://en.wikipedia.org/wiki/T");
+        Assert.assertEquals(page.links(), Collections.singletonList("A"));
+        Assert.assertTrue(page.hasBody());
+        Assert.assertFalse(LinkExtractor.extract("<html><body><a href=\"/wiki/A\">A</a></body></html>").hasBody());
+
+        String[] bodies = {
+                // links outside the body, without text, or to other places
+                "<a href=\"/wiki/Out\">out</a><div id=\"bodyContent\"><a href=\"/wiki/In\">in</a><a href=\"/wiki/Img\"><img src=\"x.png\"></a>" +
+                        "<a href=\"/wiki/Space\"> &nbsp; </a><a href=\"/wiki/Blank\"> \n </a><a href=\"https://example.com/wiki/X\">x</a><a>no href</a></div><a href=\"/wiki/After\">after</a>",
+                // excluded subtrees
+                "<div id=\"bodyContent\"><p><cite><a href=\"/wiki/Cited\">c</a></cite><a href=\"/wiki/Kept\">k</a></p>" +
+                        "<ol class=\"references\"><li><a href=\"/wiki/Ref\">r</a><li><span><a href=\"/wiki/Ref2\">r</a></span></ol>" +
+                        "<div class=\"refbegin columns\"><a href=\"/wiki/Refbegin\">r</a></div><div class=\"refbegin\tcolumns\"><a href=\"/wiki/Tab\">t</a></div>" +
+                        "<a class=\"references\" href=\"/wiki/Self\">s</a><div class=\"nonreferences\"><a href=\"/wiki/Similar\">s</a></div></div>",
+                // implied end tags and stray end tags
+                "<div id=\"bodyContent\"><p>one<p><a href=\"/wiki/P\">p</a><ul><li>a<li><a href=\"/wiki/Li\">li</a></ul>" +
+                        "<table><tr><td><cite>x<td><a href=\"/wiki/Td\">td</a><tr><td><a href=\"/wiki/Tr\">tr</a></table>" +
+                        "<cite><div>block</cite><a href=\"/wiki/Stray\">s</a></div></cite><a href=\"/wiki/Closed\">c</a>" +
+                        "<span></div><a href=\"/wiki/Span\">s</a></span></div><a href=\"/wiki/Later\">l</a>",
+                // nested anchors, entities, case, unquoted attributes, comments and scripts
+                "<DIV ID=bodyContent><A HREF=/wiki/Upper>u</A><a href=\"/wiki/Outer\">o<a href=\"/wiki/Inner\">i</a></a>" +
+                        "<a href=\"/wiki/AT&amp;T\">at&amp;t</a><a href='/wiki/Q&#39;s'>q</a><!-- <a href=\"/wiki/Comment\">c</a> -->" +
+                        "<script>document.write('<a href=\"/wiki/Script\">s</a>')</script><a href=\"/wiki/Entity\">&eacute;</a>" +
+                        "<a href=\"/wiki/First\" href=\"/wiki/Second\">f</a><a href=\"/wiki/Unclosed\">u</div>",
+        };
+        for(String body : bodies)
+            check(head + body + "</body></html>");
+    }
+
+    @Test
+    public void generated()
+    {
+        Random rnd = new Random(0);
+        for(int i=0;i<500;i++)
+            check(generate(rnd));
+    }
+
+    @Test
+    public void corpus() throws IOException
+    {
+        for(String page : PAGES)
+        {
+            String html = new String(read(page), Charset.forName("UTF-8"));
+            Assert.assertFalse(domLinks(html).isEmpty(), page);
+            check(html);
+        }
+    }
+
+    private static byte[] read(String page) throws IOException
+    {
+        InputStream in = LinkExtractorTest.class.getResourceAsStream("pages/" + page);
+        Assert.assertNotNull(in, "no saved page " + page);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for(int n = in.read(buffer);n != -1;n = in.read(buffer))
+                bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Generate a page that looks like a Wikipedia article
+     * @param rnd
+     * @return
+     */
+    public static String generate(Random rnd)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html><html><head><title>Page</title><link rel=\"canonical\" href=\"https://en.wikipedia.org/wiki/Page\"></head><body>");
+        sb.append("<div id=\"mw-navigation\"><a href=\"/wiki/Main_Page\">Main page</a></div>");
+        sb.append("<div id=\"content\"><div id=\"bodyContent\" class=\"vector-body\">");
+        for(int i=0;i<20;i++)
+            block(sb, rnd, 0);
+        sb.append("</div></div><div id=\"footer\"><a href=\"/wiki/Footer\">footer</a></div></body></html>");
+        return sb.toString();
+    }
+
+    private static void block(StringBuilder sb, Random rnd, int depth)
+    {
+        switch(depth > 3 ? 0 : rnd.nextInt(7))
+        {
+            case 0:
+                sb.append("<p>");
+                inline(sb, rnd, 0);
+                if(rnd.nextBoolean())
+                    sb.append("</p>");
+                break;
+            case 1:
+                sb.append(rnd.nextBoolean() ? "<ul>" : "<ol class=\"references\">");
+                for(int i=rnd.nextInt(4);i>=0;i--)
+                {
+                    sb.append("<li>");
+                    inline(sb, rnd, 0);
+                    if(rnd.nextBoolean())
+                        block(sb, rnd, depth + 1);
+                    if(rnd.nextBoolean())
+                        sb.append("</li>");
+                }
+                sb.append(sb.lastIndexOf("<ul>") > sb.lastIndexOf("<ol") ? "</ul>" : "</ol>");
+                break;
+            case 2:
+                String[] classes = {"refbegin", "reflist", "navbox", "refbegin refbegin-columns", "mw-references-wrap references"};
+                sb.append("<div class=\"").append(classes[rnd.nextInt(classes.length)]).append("\">");
+                block(sb, rnd, depth + 1);
+                block(sb, rnd, depth + 1);
+                sb.append("</div>");
+                break;
+            case 3:
+                sb.append("<table class=\"infobox\"><tbody>");
+                for(int i=rnd.nextInt(3);i>=0;i--)
+                {
+                    sb.append("<tr><th>");
+                    inline(sb, rnd, 0);
+                    sb.append(rnd.nextBoolean() ? "</th>" : "").append("<td>");
+                    inline(sb, rnd, 0);
+                    sb.append(rnd.nextBoolean() ? "</td></tr>" : "");
+                }
+                sb.append("</tbody></table>");
+                break;
+            case 4:
+                sb.append("<h2><span class=\"mw-headline\">Section</span></h2>");
+                break;
+            case 5:
+                sb.append("<dl><dt>term<dd>");
+                inline(sb, rnd, 0);
+                sb.append("</dl>");
+                break;
+            default:
+                sb.append("<!-- comment --><script>var s = '<a href=\"/wiki/Script\">s</a>';</script>");
+                break;
+        }
+    }
+
+    private static void inline(StringBuilder sb, Random rnd, int depth)
+    {
+        String[] titles = {"Biology", "Cell_(biology)", "AT%26T", "Caf%C3%A9", "Category:Science", "Special:Random", "Main_Page", "O%27Neill"};
+        for(int i=rnd.nextInt(5);i>=0;i--)
+        {
+            switch(depth > 2 ? 0 : rnd.nextInt(8))
+            {
+                case 0:
+                    sb.append("some text &amp; more ");
+                    break;
+                case 1:
+                case 2:
+                    String title = titles[rnd.nextInt(titles.length)] + rnd.nextInt(50);
+                    sb.append("<a href=\"/wiki/").append(title).append("\" title=\"").append(title).append("\">");
+                    int text = rnd.nextInt(5);
+                    sb.append(text == 0 ? "" : text == 1 ? " &nbsp;" : text == 2 ? "<img src=\"a.png\" alt=\"a\">" : "link");
+                    sb.append("</a>");
+                    break;
+                case 3:
+                    sb.append("<cite class=\"citation\">");
+                    inline(sb, rnd, depth + 1);
+                    sb.append("</cite>");
+                    break;
+                case 4:
+                    sb.append("<sup class=\"reference\"><a href=\"#cite_note-1\">[1]</a></sup>");
+                    break;
+                case 5:
+                    sb.append("<span class=\"").append(rnd.nextBoolean() ? "references" : "nowrap").append("\">");
+                    inline(sb, rnd, depth + 1);
+                    sb.append("</span>");
+                    break;
+                case 6:
+                    sb.append("<b>");
+                    inline(sb, rnd, depth + 1);
+                    sb.append("</b><br>");
+                    break;
+                default:
+                    sb.append("<a href=\"https://en.wikipedia.org/w/index.php?title=X&amp;action=edit\">edit</a>");
+                    break;
+            }
+        }
+    }
+}
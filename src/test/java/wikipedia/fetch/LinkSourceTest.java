@@ -0,0 +1,154 @@
+package wikipedia.fetch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import wikipedia.store.Snapshot;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * This test gets links from the MediaWiki API (a local stub that answers with recorded responses),
+ * and from a snapshot of the dumps.
+ */
+public class LinkSourceTest {
+
+    private HttpServer server;
+    private List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+    @BeforeMethod
+    public void setUp() throws IOException
+    {
+        requests.clear();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/w/api.php", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> parameters = parameters(exchange);
+                requests.add(parameters);
+                String response = parameters.get("prop").equals("info") ? "info.json" : parameters.containsKey("plcontinue") ? "links-continued.json" : "links.json";
+                byte[] body = read(response);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private ApiLinkSource apiSource()
+    {
+        return new ApiLinkSource("http://127.0.0.1:" + server.getAddress().getPort() + "/w/api.php");
+    }
+
+    @Test
+    public void api() throws IOException
+    {
+        List<PageLinks> pages = apiSource().fetch(Arrays.asList("Biology", "cell", "Cells", "Nonexistent_article", "Caf%C3%A9"));
+
+        // one batch, continued once
+        Assert.assertEquals(requests.size(), 2);
+        Assert.assertEquals(requests.get(0).get("titles"), "Biology|cell|Cells|Nonexistent article|Caf\u00e9");
+        Assert.assertEquals(requests.get(1).get("plcontinue"), "9127632|0|Evolution");
+
+        // the links of both responses are merged, missing articles are left out
+        Assert.assertEquals(pages.size(), 4);
+        Assert.assertEquals(pages.get(0).title(), "Biology");
+        Assert.assertFalse(pages.get(0).isRedirect());
+        Assert.assertEquals(pages.get(0).links(), Arrays.asList("Cell_(biology)", "DNA", "Evolution"));
+        Assert.assertEquals(pages.get(0).etag(), "1000001");
+
+        // normalized titles and redirects
+        Assert.assertEquals(pages.get(1).title(), "cell");
+        Assert.assertEquals(pages.get(1).canonical(), "Cell");
+        Assert.assertEquals(pages.get(2).title(), "Cells");
+        Assert.assertEquals(pages.get(2).canonical(), "Cell");
+        Assert.assertEquals(pages.get(2).links(), Collections.singletonList("Membrane"));
+
+        // titles are in the form in which they appear in links
+        Assert.assertEquals(pages.get(3).title(), "Caf%C3%A9");
+        Assert.assertEquals(pages.get(3).links(), Arrays.asList("AT%26T", "Coffee"));
+    }
+
+    @Test
+    public void revalidate() throws IOException
+    {
+        // the latest revision did not change, so the links are not fetched again
+        Assert.assertTrue(apiSource().revalidate("Biology", "1000001", null).isNotModified());
+        Assert.assertEquals(requests.size(), 1);
+
+        PageLinks page = apiSource().revalidate("Biology", "999999", null);
+        Assert.assertFalse(page.isNotModified());
+        Assert.assertEquals(page.links().size(), 3);
+        Assert.assertEquals(requests.size(), 4);
+    }
+
+    @Test
+    public void dump() throws IOException
+    {
+        String[] titles = {"A", "B", "C", "R"};
+        int[][] linkage = {{1, 3}, {2}, {0}, null};
+        File file = Files.createTempFile("snapshot", ".bin").toFile();
+        file.deleteOnExit();
+        Snapshot.build(titles, linkage).withAliases(new int[]{3, 2}).write(file);
+
+        DumpLinkSource source = new DumpLinkSource(file);
+        List<PageLinks> pages = source.fetch(Arrays.asList("A", "R", "X"));
+        Assert.assertEquals(pages.size(), 2);
+        Assert.assertEquals(pages.get(0).links(), Arrays.asList("B", "C"));
+        Assert.assertEquals(pages.get(1).canonical(), "C");
+        Assert.assertEquals(pages.get(1).links(), Collections.singletonList("A"));
+        Assert.assertTrue(source.revalidate("A", null, null).isNotModified());
+        Assert.assertNull(source.revalidate("X", null, null));
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException
+    {
+        String query = exchange.getRequestURI().getRawQuery();
+        if(exchange.getRequestMethod().equals("POST"))
+            query = new String(read(exchange.getRequestBody()), "UTF-8");
+        Map<String, String> parameters = new HashMap<>();
+        for(String parameter : (query == null ? "" : query).split("&"))
+        {
+            int index = parameter.indexOf('=');
+            if(index != -1)
+                parameters.put(URLDecoder.decode(parameter.substring(0, index), "UTF-8"), URLDecoder.decode(parameter.substring(index + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    private static byte[] read(String resource) throws IOException
+    {
+        InputStream in = LinkSourceTest.class.getResourceAsStream("api/" + resource);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for(int n = in.read(buffer);n != -1;n = in.read(buffer))
+            bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,69 @@
+package wikipedia.fetch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * This test checks the time-to-live (and backoff) of failed articles, and that they survive a save.
+ */
+public class NegativeCacheTest {
+
+    @Test
+    public void backoff()
+    {
+        NegativeCache cache = new NegativeCache();
+        cache.setTtl(NegativeCache.Reason.ERROR, 1000, 5000);
+        cache.setTtl(NegativeCache.Reason.NOT_FOUND, 60000, 60000);
+
+        cache.failed("Timeout", NegativeCache.Reason.ERROR, 0, 5000);
+        Assert.assertTrue(cache.isSuppressed("Timeout", 999));
+        Assert.assertFalse(cache.isSuppressed("Timeout", 1000));
+        Assert.assertFalse(cache.isSuppressed("Other", 0));
+
+        // every consecutive failure doubles the time-to-live, up to the maximum
+        cache.failed("Timeout", NegativeCache.Reason.ERROR, 1000, 5000);
+        Assert.assertEquals(cache.retryAt("Timeout"), 3000);
+        cache.failed("Timeout", NegativeCache.Reason.ERROR, 3000, 5000);
+        Assert.assertEquals(cache.retryAt("Timeout"), 7000);
+        cache.failed("Timeout", NegativeCache.Reason.ERROR, 7000, 5000);
+        Assert.assertEquals(cache.retryAt("Timeout"), 12000);
+        Assert.assertEquals(cache.failures("Timeout"), 4);
+
+        // the backoff starts over for another reason, and a success forgets the article
+        cache.failed("Timeout", NegativeCache.Reason.NOT_FOUND, 12000, 100);
+        Assert.assertEquals(cache.failures("Timeout"), 1);
+        Assert.assertEquals(cache.retryAt("Timeout"), 72000);
+        cache.succeeded("Timeout");
+        Assert.assertFalse(cache.isSuppressed("Timeout", 12000));
+        Assert.assertEquals(cache.size(), 0);
+
+        // the time saved is estimated from the average time of a failed fetch
+        Assert.assertEquals(cache.nofSuppressed(NegativeCache.Reason.ERROR), 1);
+        Assert.assertEquals(cache.nofFailures(NegativeCache.Reason.ERROR), 4);
+        Assert.assertEquals(cache.savedTime(), 5000);
+    }
+
+    @Test
+    public void persistence() throws IOException
+    {
+        NegativeCache cache = new NegativeCache();
+        cache.failed("Missing", NegativeCache.Reason.NOT_FOUND, 1000, 100);
+        cache.failed("Caf\u00e9", NegativeCache.Reason.ERROR, 2000, 100);
+        cache.failed("Caf\u00e9", NegativeCache.Reason.ERROR, 3000, 100);
+
+        File file = Files.createTempFile("negative", ".bin").toFile();
+        file.deleteOnExit();
+        cache.copy().write(file);
+        NegativeCache copy = new NegativeCache();
+        copy.read(file);
+        Assert.assertEquals(copy.size(), 2);
+        Assert.assertEquals(copy.reason("Missing"), NegativeCache.Reason.NOT_FOUND);
+        Assert.assertEquals(copy.retryAt("Missing"), cache.retryAt("Missing"));
+        Assert.assertEquals(copy.failures("Caf\u00e9"), 2);
+        Assert.assertEquals(copy.retryAt("Caf\u00e9"), cache.retryAt("Caf\u00e9"));
+    }
+}
@@ -0,0 +1,45 @@
+package wikipedia.store;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * This test checks that a section of ints is indexed correctly across the chunks it is mapped in.
+ */
+public class MappedIntsTest {
+
+    @Test
+    public void chunks() throws IOException
+    {
+        File file = File.createTempFile("ints", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // a header of 3 bytes, so the section does not start at an aligned position
+            raf.write(new byte[]{1, 2, 3});
+            for(int i=0;i<1000;i++)
+                raf.writeInt(i * 7);
+            FileChannel channel = raf.getChannel();
+
+            // chunks of 16 ints, the last one partial
+            MappedInts ints = new MappedInts(channel, 3, 1000, 4);
+            Assert.assertEquals(ints.length(), 1000);
+            for(int i=0;i<1000;i++)
+                Assert.assertEquals(ints.get(i), i * 7);
+
+            // a single chunk
+            ints = new MappedInts(channel, 3, 1000);
+            Assert.assertEquals(ints.get(999), 999 * 7);
+
+            // an empty section
+            Assert.assertEquals(new MappedInts(channel, 3, 0, 4).length(), 0);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package wikipedia.store;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This test checks that the parallel loader reads text cache files
+ * exactly like the sequential loader does.
+ */
+public class ParallelTextLoaderTest {
+
+    @Test
+    public void sameAsSequential() throws IOException
+    {
+        int n = 20000;
+        File file = File.createTempFile("legacy", ".txt");
+        file.deleteOnExit();
+        Random rnd = new Random(0);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(n + "\n");
+        List<Integer> ids = new ArrayList<>();
+        for(int i=0;i<n;i++)
+            ids.add(i);
+        Collections.shuffle(ids, rnd);
+        for(int id : ids)
+            writer.write(id + "\t" + (id % 7 == 0 ? "Caf\u00e9_" : "Article_") + id + "\n");
+        for(int id : ids)
+        {
+            if(id % 3 == 0)
+                continue;
+            writer.write(Integer.toString(id));
+            int degree = rnd.nextInt(40);
+            for(int i=0;i<degree;i++)
+                writer.write("\t" + rnd.nextInt(n));
+            writer.write("\t\n");
+            if(rnd.nextInt(100) == 0)
+                writer.write("\n");
+        }
+        writer.close();
+
+        Snapshot expected = LegacyTextFormat.read(file);
+        ParallelTextLoader loader = new ParallelTextLoader(4, 4096);
+        Snapshot actual = loader.read(file);
+        // every phase was timed
+        Assert.assertTrue(loader.splitTime() >= 0 && loader.parseTime() >= 0 && loader.buildTime() >= 0, loader.toString());
+
+        Assert.assertEquals(actual.nofArticles(), expected.nofArticles());
+        Assert.assertEquals(actual.nofLinks(), expected.nofLinks());
+        for(int i=0;i<n;i++)
+        {
+            Assert.assertEquals(actual.title(i), expected.title(i));
+            Assert.assertEquals(actual.isExpanded(i), expected.isExpanded(i));
+            Assert.assertEquals(actual.links(i), expected.links(i));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package wikipedia.store;
+
+import graph.IntSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * This test checks that snapshots survive a round-trip through the file system,
+ * and that caches written in the old text format can still be imported.
+ */
+public class SnapshotTest {
+
+    @Test
+    public void roundTrip() throws IOException
+    {
+        String[] titles = {"United_States", "Dolphin", "Caf\u00e9", "Michael_Jackson"};
+        int[][] linkage = {{3, 1, 2}, null, {}, {0}};
+
+        File file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+        Snapshot.build(titles, linkage).write(file);
+
+        Assert.assertTrue(Snapshot.isSnapshot(file));
+        Snapshot snapshot = Snapshot.read(file);
+        Assert.assertEquals(snapshot.nofArticles(), 4);
+        Assert.assertEquals(snapshot.nofLinks(), 4);
+        for(int i=0;i<titles.length;i++)
+            Assert.assertEquals(snapshot.title(i), titles[i]);
+        Assert.assertEquals(snapshot.links(0), new int[]{1, 2, 3});
+        Assert.assertFalse(snapshot.isExpanded(1));
+        Assert.assertTrue(snapshot.isExpanded(2));
+        Assert.assertEquals(snapshot.links(2).length, 0);
+        Assert.assertEquals(snapshot.links(3), new int[]{0});
+        Assert.assertEquals(snapshot.incoming(0), new int[]{3});
+        Assert.assertEquals(snapshot.incoming(3), new int[]{0});
+        Assert.assertEquals(snapshot.incoming(2), new int[]{0});
+    }
+
+    @Test
+    public void mapImage() throws IOException
+    {
+        String[] titles = {"United_States", "Dolphin", "Caf\u00e9", "Michael_Jackson"};
+        int[][] linkage = {{3, 1, 2}, null, {}, {0}};
+
+        File file = File.createTempFile("image", ".bin");
+        file.deleteOnExit();
+        Snapshot.build(titles, linkage).withAliases(new int[]{1, 3}).write(file);
+        Assert.assertEquals(Snapshot.read(file).aliases(), new int[]{1, 3});
+
+        GraphImage image = GraphImage.open(file);
+        Assert.assertEquals(image.nofArticles(), 4);
+        for(int i=0;i<titles.length;i++)
+        {
+            Assert.assertEquals(image.lookup(titles[i]), i);
+            Assert.assertEquals(image.lookup(i), titles[i]);
+        }
+        Assert.assertEquals(image.lookup("Puppy"), -1);
+        Assert.assertEquals(image.outgoing(0).toArray(), new int[]{1, 2, 3});
+        Assert.assertTrue(image.outgoing(0).contains(3));
+        Assert.assertFalse(image.outgoing(0).contains(0));
+        Assert.assertNull(image.outgoing(1));
+        Assert.assertTrue(image.outgoing(2).isEmpty());
+        Assert.assertEquals(image.incoming(1).toArray(), new int[]{0});
+        Assert.assertTrue(image.incoming(3).contains(0));
+        Assert.assertEquals(new HashSet<>(image.articles()), new HashSet<>(Arrays.asList(titles)));
+        Assert.assertEquals(image.resolve(1), 3);
+        Assert.assertEquals(image.resolve(0), 0);
+    }
+
+    @Test
+    public void importLegacyText() throws IOException
+    {
+        File file = File.createTempFile("legacy", ".bin");
+        file.deleteOnExit();
+        FileWriter fileWriter = new FileWriter(file);
+        fileWriter.write("3\n");
+        fileWriter.write("0\tBiology\n");
+        fileWriter.write("2\tCell\n");
+        fileWriter.write("1\tIBM\n");
+        fileWriter.write("0\t2\t1\t\n");
+        fileWriter.write("2\t\n");
+        fileWriter.close();
+
+        Assert.assertFalse(Snapshot.isSnapshot(file));
+        Snapshot snapshot = LegacyTextFormat.read(file);
+        Assert.assertEquals(snapshot.nofArticles(), 3);
+        Assert.assertEquals(snapshot.title(1), "IBM");
+        Assert.assertEquals(snapshot.links(0), new int[]{1, 2});
+        Assert.assertFalse(snapshot.isExpanded(1));
+        Assert.assertTrue(snapshot.isExpanded(2));
+    }
+
+    @Test
+    public void packedNeighbors() throws IOException
+    {
+        // neighbors spread over a large ID space, so that gaps take one to five bytes
+        int n = 5000;
+        String[] titles = new String[n];
+        int[][] linkage = new int[n][];
+        java.util.Random random = new java.util.Random(42);
+        for(int i=0;i<n;i++)
+        {
+            titles[i] = "Article_" + i;
+            linkage[i] = i % 7 == 0 ? null : new int[random.nextInt(40)];
+            for(int j=0;linkage[i] != null && j<linkage[i].length;j++)
+                linkage[i][j] = random.nextInt(n);
+        }
+        Snapshot original = Snapshot.build(titles, linkage);
+
+        File plain = File.createTempFile("plain", ".bin");
+        plain.deleteOnExit();
+        original.write(plain, 5);
+        File packed = File.createTempFile("packed", ".bin");
+        packed.deleteOnExit();
+        original.write(packed, Snapshot.VERSION, true);
+        Assert.assertTrue(packed.length() < plain.length());
+
+        // version 7 always packs, the current version only when asked to
+        File packed7 = File.createTempFile("packed", ".bin");
+        packed7.deleteOnExit();
+        original.write(packed7, 7);
+        File current = File.createTempFile("current", ".bin");
+        current.deleteOnExit();
+        original.write(current);
+        Assert.assertTrue(packed7.length() < plain.length());
+        Assert.assertTrue(current.length() > packed.length());
+
+        Snapshot fromPlain = Snapshot.read(plain);
+        for(File file : new File[]{packed, packed7, current})
+        {
+            Snapshot fromFile = Snapshot.read(file);
+            GraphImage image = GraphImage.open(file);
+            for(int i=0;i<n;i++)
+            {
+                Assert.assertEquals(fromFile.isExpanded(i), fromPlain.isExpanded(i));
+                Assert.assertEquals(fromFile.links(i), fromPlain.links(i));
+                Assert.assertEquals(fromFile.incoming(i), fromPlain.incoming(i));
+                Assert.assertEquals(image.incoming(i).toArray(), fromPlain.incoming(i));
+                if(!fromPlain.isExpanded(i))
+                    continue;
+
+                // read the view by index, backwards (restarting the cursor of a packed view), and by value
+                IntSet out = image.outgoing(i);
+                int[] links = fromPlain.links(i);
+                Assert.assertEquals(out.size(), links.length);
+                for(int j=0;j<links.length;j++)
+                    Assert.assertEquals(out.get(j), links[j]);
+                for(int j=links.length-1;j>=0;j--)
+                {
+                    Assert.assertEquals(out.get(j), links[j]);
+                    Assert.assertTrue(out.contains(links[j]));
+                }
+                Assert.assertFalse(out.contains(-1));
+                Assert.assertFalse(out.contains(n));
+            }
+        }
+
+        try {
+            original.write(plain, 7, false);
+            Assert.fail("version 7 was written without packing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void detectCorruption() throws IOException
+    {
+        String[] titles = {"United_States", "Dolphin", "Caf\u00e9", "Michael_Jackson"};
+        int[][] linkage = {{3, 1, 2}, null, {}, {0}};
+        File file = File.createTempFile("corrupt", ".bin");
+        file.deleteOnExit();
+        Snapshot.build(titles, linkage).write(file, Snapshot.VERSION, true);
+
+        // flip a bit in the packed neighbors of article 0
+        long position;
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            position = Snapshot.Header.read(channel).linksPosition();
+        } finally {
+            channel.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(position + 1);
+        int b = raf.read();
+        raf.seek(position + 1);
+        raf.write(b ^ 1);
+        raf.close();
+
+        try {
+            Snapshot.read(file);
+            Assert.fail("corrupt snapshot was read");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void crc32c()
+    {
+        // check value of CRC-32C, for both the fallback and the runtime implementation
+        byte[] bytes = "123456789".getBytes(Snapshot.UTF8);
+        Crc32c fallback = new Crc32c();
+        fallback.update(bytes, 0, bytes.length);
+        Assert.assertEquals(fallback.getValue(), 0xE3069283L);
+        Assert.assertEquals(Crc32c.checksum(bytes, 0, bytes.length), 0xE3069283);
+
+        // slicing must agree with the byte-at-a-time update
+        byte[] random = new byte[1000];
+        new java.util.Random(7).nextBytes(random);
+        Crc32c sliced = new Crc32c();
+        sliced.update(random, 3, 990);
+        Crc32c single = new Crc32c();
+        for(int i=3;i<993;i++)
+            single.update(random[i]);
+        Assert.assertEquals(sliced.getValue(), single.getValue());
+    }
+}
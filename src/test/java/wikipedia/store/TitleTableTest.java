@@ -0,0 +1,62 @@
+package wikipedia.store;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This test checks the interned title table.
+ */
+public class TitleTableTest {
+
+    @Test
+    public void addAndLookup()
+    {
+        TitleTable titles = new TitleTable();
+        Assert.assertEquals(titles.lookup("Dolphin"), -1);
+        Assert.assertEquals(titles.add("Dolphin"), 0);
+        Assert.assertEquals(titles.add("Caf\u00e9"), 1);
+        Assert.assertEquals(titles.add("Dolphin"), 0);
+        Assert.assertEquals(titles.size(), 2);
+        Assert.assertEquals(titles.lookup("Caf\u00e9"), 1);
+        Assert.assertEquals(titles.lookup(1), "Caf\u00e9");
+        Assert.assertNull(titles.lookup(2));
+        Assert.assertTrue(titles.has("Dolphin"));
+        Assert.assertFalse(titles.has("Whale"));
+
+        // grow well beyond the initial capacity
+        Map<String, Integer> expected = new HashMap<>();
+        long nofBytes = 0;
+        for(int i=0;i<100000;i++)
+        {
+            expected.put("Article_" + i, titles.add("Article_" + i));
+            nofBytes += ("Article_" + i).length();
+        }
+        for(Map.Entry<String, Integer> e : expected.entrySet())
+        {
+            Assert.assertEquals(titles.lookup(e.getKey()), (int) e.getValue());
+            Assert.assertEquals(titles.lookup((int) e.getValue()), e.getKey());
+        }
+        Assert.assertEquals(titles.titles().size(), 100002);
+
+        // a few bytes per title beyond its UTF-8 encoding (with room to grow), rather than some hundred
+        Assert.assertTrue(titles.memoryUsage() < 4 * nofBytes, titles.memoryUsage() + " bytes for " + nofBytes + " bytes of titles");
+    }
+
+    @Test
+    public void fromSnapshot()
+    {
+        String[] names = {"United_States", "Dolphin", "Caf\u00e9"};
+        TitleTable titles = TitleTable.of(Snapshot.build(names, new int[3][]));
+        for(int i=0;i<names.length;i++)
+            Assert.assertEquals(titles.lookup(names[i]), i);
+
+        // the table can grow beyond the snapshot
+        Assert.assertEquals(titles.add("Michael_Jackson"), 3);
+        Snapshot snapshot = Snapshot.build(titles, 4, new int[4][]);
+        Assert.assertEquals(snapshot.title(3), "Michael_Jackson");
+        Assert.assertEquals(snapshot.title(2), "Caf\u00e9");
+    }
+}